@@ -1,10 +1,12 @@
 package org.nanes.slideset;
 
 import org.nanes.slideset.dm.CommandTemplate;
+import org.nanes.slideset.dm.ContainerLink;
 import org.nanes.slideset.dm.DataElement;
 import org.nanes.slideset.dm.DataTypeIDService;
 import org.nanes.slideset.ex.DefaultPathNotSetException;
 import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.PathResolver;
 import net.imagej.ImageJ;
 import java.io.File;
 import java.util.List;
@@ -151,6 +153,9 @@ public class SlideSet {
      private boolean locked = false;
      /** Command template data */
      private CommandTemplate commandTemplate;
+     /** Row of the parent table from which each row was generated,
+      *  or {@code -1} if unknown. May be shorter than the table. */
+     private ArrayList<Integer> parentRows;
      
      /** ImageJ context reference */
      private ImageJ ij;
@@ -405,7 +410,9 @@ public class SlideSet {
      }
      
      /**
-      * Add a column with data
+      * Add a column with data. The {@code DataElement}s are stored
+      * directly, without copying. If the table is empty, the
+      * number of rows is set by the length of {@code data}.
       * @param properties Column properties
       * @param data An {@code ArrayList} of the {@code DataElement}s in the column
       * @return The column index of the new column
@@ -413,22 +420,43 @@ public class SlideSet {
      public int addColumn(
              LinkedHashMap<String, String> properties,
              ArrayList<DataElement<?>> data) throws SlideSetException {
-          if(data.size() != getNumRows() && !(getNumRows() == 0 && getNumCols() == 0))
+          final boolean empty = getNumRows() == 0 && getNumCols() == 0;
+          if(data.size() != getNumRows() && !empty)
                throw new SlideSetException("Cannot add a column with " +
                     String.valueOf(data.size()) + " elements cannot be added to a table with " +
                     String.valueOf(getNumRows()) + " existing rows and " +
                     String.valueOf(getNumCols()) + " existing columns");
-          int newCol = addColumn(properties);
+          if( properties.get("name") == null ||
+              properties.get("elementClass") == null )
+                throw new SlideSetException("Missing column name or element class");
+          columnProperties.add(properties);
+          final int newCol = columnProperties.size() - 1;
+          final Class<? extends DataElement<?>> stored;
+          try {
+              stored = getColumnElementClass(newCol);
+          } catch(SlideSetException e) {
+              columnProperties.remove(newCol);
+              throw e;
+          }
+          final String mime = getColumnMimeType(newCol);
+          final ArrayList<DataElement> col =
+                  new ArrayList<DataElement>(Math.max(2*data.size(), 16));
           for(int i = 0; i<data.size(); i++) {
-              if(!checkDataElementCompatibility(newCol, data.get(i)))
+              if(!checkDataElementCompatibility(stored, mime, data.get(i))) {
+                  columnProperties.remove(newCol);
                   throw new SlideSetException("Provided data does not"
                           + " match column type! (item "
                           + String.valueOf(i) + ")");
-              columns.get(newCol).remove(i);
-              columns.get(newCol).add(i, data.get(i));
+              }
+              col.add(data.get(i));
           }
-          if(!checkColumnElementConsistency(newCol) || !checkColumnLengths()) {
-              columns.remove(newCol);
+          columns.add(col);
+          if(empty)
+              numRows = data.size();
+          if(!checkColumnLengths()) {
+              removeColumn(newCol);
+              if(empty)
+                  numRows = 0;
               throw new SlideSetException("New column is malformed!");
           }
           return newCol;
@@ -536,6 +564,57 @@ public class SlideSet {
           numRows--;
           if(!checkColumnLengths())
                throw new IllegalArgumentException("Could not balance columns after row removal!");
+          if(parentRows != null && index < parentRows.size())
+               parentRows.remove(index);
+          for(SlideSet child : children)
+               child.parentRowRemoved(index);
+     }
+     
+     /**
+      * Get the row of the parent table from which a row was generated
+      * @return The parent row index, or {@code -1} if unknown
+      */
+     public int getParentRow(int row) {
+          if(parentRows == null || row < 0 || row >= parentRows.size())
+               return -1;
+          return parentRows.get(row);
+     }
+     
+     /**
+      * Record the row of the parent table from which a row was generated
+      * @param row Row index in this table
+      * @param parentRow Row index in the parent table, or {@code -1} if unknown
+      */
+     public void setParentRow(int row, int parentRow) {
+          if(row < 0)
+               throw new IllegalArgumentException("Row index out of bounds");
+          if(parentRows == null)
+               parentRows = new ArrayList<Integer>(Math.max(numRows, 16));
+          while(parentRows.size() <= row)
+               parentRows.add(-1);
+          parentRows.set(row, parentRow);
+     }
+     
+     /** Check if any rows have a recorded parent row */
+     public boolean hasParentRows() {
+          if(parentRows != null)
+               for(int r : parentRows)
+                    if(r >= 0)
+                         return true;
+          return false;
+     }
+     
+     /** Update parent row indices after a row is removed from the parent table */
+     private void parentRowRemoved(int index) {
+          if(parentRows == null)
+               return;
+          for(int i = 0; i < parentRows.size(); i++) {
+               final int r = parentRows.get(i);
+               if(r == index)
+                    parentRows.set(i, -1);
+               else if(r > index)
+                    parentRows.set(i, r - 1);
+          }
      }
      
      /** Get the parent of this {@code SlideSet} */
@@ -617,6 +696,14 @@ public class SlideSet {
           dir = path;
      }
      
+     /**
+      * Get the {@link PathResolver} for this {@code SlideSet}'s working
+      * directory, which resolves links and caches the status of linked files
+      */
+     public PathResolver getPathResolver() {
+          return PathResolver.forDirectory(dir);
+     }
+     
      /** Get the SciJava application {@code Context} */
      public Context getContext() {
           return ij.getContext();
@@ -763,8 +850,20 @@ public class SlideSet {
                throw new DefaultPathNotSetException(
                        "No default link path for column " + String.valueOf(column));
           b = b == null ? getColumnName(column) : b;
-          d = d == null ? "" : "." + d;
           String path = null;
+          if(ContainerLink.isContainerExtension(d)) {
+               // Datasets in a shared container named after the default path
+               final String container = a + "." + d;
+               String key;
+               do {
+                    key = b + "-" + String.format("%1$03d", c);
+                    c++;
+               } while( new File(resolvePath(container), key).exists() );
+               path = ContainerLink.makeLink(container, key);
+               setDefaultLinkCount(column, c);
+               return path;
+          }
+          d = d == null ? "" : "." + d;
           do {
                path = a + File.separator + b + "-" + String.format("%1$03d", c) + d;
                c++;
@@ -828,11 +927,21 @@ public class SlideSet {
       */
      private boolean checkDataElementCompatibility(
              int column, DataElement<?> element) throws SlideSetException {
-          Class stored = getColumnElementClass(column);
+          return checkDataElementCompatibility(
+                  getColumnElementClass(column), getColumnMimeType(column), element);
+     }
+
+     /**
+      * Check if the class and MIME type of a {@link DataElement}
+      * match a column element class and MIME type.
+      */
+     private boolean checkDataElementCompatibility(
+             Class stored, String mime, DataElement<?> element) {
           boolean ok = stored.isInstance(element)
                   && element.getClass().isAssignableFrom(stored);
           if(ok)
-              ok = element.getMimeType().equals(getColumnMimeType(column));
+              ok = element.getMimeType() == null ? mime == null
+                      : element.getMimeType().equals(mime);
           return ok;
      }
      
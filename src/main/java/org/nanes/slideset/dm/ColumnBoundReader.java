@@ -87,6 +87,11 @@ public class ColumnBoundReader<E extends DataElement, P> {
         throw new IllegalStateException("Can't read because no data has been bound!");
     }
     
+    /** Get the bound reader */
+    public ElementReader<E, P> getReader() {
+        return reader;
+    }
+    
     /** Get a human-readable label for the column type */
     public String getColumnTypeName() {
         return typeName;
@@ -3,6 +3,8 @@ package org.nanes.slideset.dm;
 import org.nanes.slideset.dm.write.ElementWriter;
 import org.nanes.slideset.SlideSet;
 import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.PathResolver;
+import java.io.File;
 
 /**
  * Binds and {@link ElementWriter} to a {@code SlideSet}
@@ -58,7 +60,14 @@ public class ColumnBoundWriter<E extends DataElement, P> {
      *    with the writer
      */
     public void write(P item, int row) throws SlideSetException {
-        writer.write(item, (E)data.getDataElement(column, row));
+        final E element = (E)data.getDataElement(column, row);
+        writer.write(item, element);
+        if(element instanceof FileLinkElement) {
+            // The file may have changed before the watcher reports it
+            final File f = data.getPathResolver().getFile(((FileLinkElement) element).getUnderlying());
+            if(f != null)
+                PathResolver.invalidate(f);
+        }
     }
     
     /** Get the column index */
@@ -0,0 +1,73 @@
+package org.nanes.slideset.dm;
+
+/**
+ * Link syntax for datasets stored inside a chunked container
+ * (N5 or Zarr). A link names the container directory and the key of
+ * the dataset within it, separated by {@code ?}, for example
+ * {@code results.n5?unmixed-001}. Links to the container
+ * root, such as an OME-Zarr image, may omit the key.
+ *
+ * @author Benjamin Nanes
+ */
+public final class ContainerLink {
+
+    /** Separates the container path from the dataset key */
+    public static final char KEY_SEPARATOR = '?';
+
+    private ContainerLink() {
+        // No instantiation please.
+    }
+
+    // -- Methods --
+
+    /** Is {@code ext} (without the dot) a chunked container extension? */
+    public static boolean isContainerExtension(String ext) {
+        if(ext == null)
+            return false;
+        ext = ext.toLowerCase();
+        return ext.equals("n5") || ext.equals("zarr");
+    }
+
+    /** Does {@code link} point to a chunked container or a dataset within one? */
+    public static boolean isContainerLink(String link) {
+        if(link == null)
+            return false;
+        String c = getContainer(link);
+        while(c.endsWith("/") || c.endsWith("\\"))
+            c = c.substring(0, c.length() - 1);
+        final int dot = c.lastIndexOf('.');
+        return dot >= 0 && isContainerExtension(c.substring(dot + 1));
+    }
+
+    /** Get the container path from a link */
+    public static String getContainer(String link) {
+        final int i = link.indexOf(KEY_SEPARATOR);
+        return i < 0 ? link : link.substring(0, i);
+    }
+
+    /**
+     * Get the dataset key from a link, or an empty {@code String} if there
+     * is none. The key is not checked here; keys that do not name a
+     * directory inside the container are rejected when the container
+     * is accessed.
+     */
+    public static String getKey(String link) {
+        final int i = link.indexOf(KEY_SEPARATOR);
+        if(i < 0)
+            return "";
+        String key = link.substring(i + 1).replace('\\', '/');
+        while(key.startsWith("/"))
+            key = key.substring(1);
+        while(key.endsWith("/"))
+            key = key.substring(0, key.length() - 1);
+        return key;
+    }
+
+    /** Build a link from a container path and dataset key */
+    public static String makeLink(String container, String key) {
+        if(key == null || key.isEmpty())
+            return container;
+        return container + KEY_SEPARATOR + key;
+    }
+
+}
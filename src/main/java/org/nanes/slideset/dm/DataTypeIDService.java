@@ -621,8 +621,11 @@ public class DataTypeIDService {
         // For now this is hard-coded, but these could be loaded from annotations...
         mimeReadableIndex = new LinkedHashMap<String, String>();
         mimeReadableIndex.put(MIME.IMAGE, "Image");
+        mimeReadableIndex.put(MIME.CHUNKED, "Image (N5/Zarr container)");
         mimeReadableIndex.put(MIME.SVG, "ROI Set (SVG)");
         mimeReadableIndex.put(MIME.ROI2, "ROI Set (.roiset)");
+        mimeReadableIndex.put(MIME.ROIPACK, "ROI Set (.roipack)");
+        mimeReadableIndex.put(MIME.LABELS, "ROI Set (label image)");
         mimeReadableIndex.put(MIME.WEKA, "Trainable Segmentation Classifier");
     }
     
@@ -20,10 +20,52 @@ public class MIME {
     public static final String SVG = "image/svg+xml";
     public static final String TIFF = "image/tiff";
     public static final String ROI2 = "application/vnd.slideset.roiset";
+    /** ROI set in the packed binary format of {@link org.nanes.slideset.io.RoiPack} */
+    public static final String ROIPACK = "application/vnd.slideset.roipack";
     public static final String WEKA = "application/vnd.weka.classifier";
+    /** Image stored as a dataset in an N5 or Zarr container */
+    public static final String CHUNKED = "application/vnd.slideset.chunked";
+    /** ROI set stored as a label image, as a TIFF file or in an N5 or Zarr container */
+    public static final String LABELS = "application/vnd.slideset.labels";
     
     private MIME() {
         // No instantiation please.
     }
 
+    // -- Methods --
+
+    /**
+     * Guess the MIME type of a file from its extension
+     * @param path File name or path
+     * @return The MIME type, or {@code null} if the extension is not recognized.
+     *     All image formats are reported as {@link #IMAGE}, except for
+     *     N5 and Zarr container links, which are reported as {@link #CHUNKED}.
+     */
+    public static String fromExtension(String path) {
+        if(path == null)
+            return null;
+        if(ContainerLink.isContainerLink(path))
+            return CHUNKED;
+        final int dot = path.lastIndexOf('.');
+        if(dot < 0 || dot < path.lastIndexOf('/') || dot < path.lastIndexOf('\\'))
+            return null;
+        final String ext = path.substring(dot + 1).toLowerCase();
+        switch(ext) {
+            case "tif": case "tiff": case "png": case "jpg": case "jpeg":
+            case "gif": case "bmp": case "jp2": case "czi": case "nd2":
+            case "lif": case "lsm": case "oib": case "oif": case "ims":
+            case "svs": case "vsi": case "ndpi": case "scn": case "dv":
+            case "ics": case "ids": case "zvi": case "ome":
+                return IMAGE;
+            case "svg": return SVG;
+            case "roiset": return ROI2;
+            case "roipack": return ROIPACK;
+            case "model": return WEKA;
+            case "xml": return XML;
+            case "txt": return TXT;
+            case "zip": return ZIP;
+            default: return null;
+        }
+    }
+
 }
@@ -0,0 +1,331 @@
+package org.nanes.slideset.dm.read;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.axis.CalibratedAxis;
+import net.imagej.axis.DefaultLinearAxis;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgView;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.view.Views;
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.meta.IMetadata;
+import loci.plugins.util.ImageProcessorReader;
+import ome.units.quantity.Length;
+
+/**
+ * Opens image files with Bio-Formats directly into a planar
+ * {@code Dataset}, without building an {@code ImagePlus} first,
+ * or into an {@code ImagePlus}. Readers are taken from the
+ * shared {@link ReaderPool}.
+ * Axes are ordered X, Y, Channel, Z, Time, omitting any of the last
+ * three with a size of one. Samples of RGB images are split into
+ * separate channels. Reads may be limited to a region of the X-Y plane,
+ * in which case only the needed tiles are decoded, and pixels outside
+ * the region are zero.
+ *
+ * @author Benjamin Nanes
+ */
+final class BioFormatsLoader {
+
+    private BioFormatsLoader() { }
+
+    // -- Methods --
+
+    /**
+     * Open the first series of an image file.
+     * @throws FormatException if the file cannot be read by Bio-Formats,
+     *     or contains multiple series
+     */
+    static Dataset open(String path, DatasetService ds)
+            throws IOException, FormatException {
+        return open(path, ds, null, null);
+    }
+
+    /**
+     * Open a region of the first series of an image file.
+     * @param min Minimum X and Y coordinates of the region, inclusive,
+     *     or {@code null} to read the whole image
+     * @param max Maximum X and Y coordinates of the region, inclusive
+     * @throws FormatException if the file cannot be read by Bio-Formats,
+     *     or contains multiple series
+     */
+    static Dataset open(String path, DatasetService ds, long[] min, long[] max)
+            throws IOException, FormatException {
+        final ReaderPool pool = ReaderPool.getInstance();
+        final IFormatReader r = pool.acquire(path);
+        try {
+            if(r.getSeriesCount() > 1)
+                throw new FormatException(path + ": Multiple sequences are not supported.");
+            int[] region = null;
+            if(min != null && max != null)
+                region = clip(min, max, r.getSizeX(), r.getSizeY());
+            return read(r, ReaderPool.getMetadata(r), new File(path).getName(), ds, region);
+        } finally {
+            pool.release(r);
+        }
+    }
+
+    /**
+     * Open the first series of an image file as an {@code ImagePlus}.
+     * Multi-channel images are opened as {@code CompositeImage}s, except
+     * for 8-bit RGB images, which are merged into RGB color planes.
+     * @throws FormatException if the file cannot be read by Bio-Formats
+     * @throws IOException if the file cannot be read or contains multiple series
+     */
+    static ImagePlus openImagePlus(String path) throws IOException, FormatException {
+        final ReaderPool pool = ReaderPool.getInstance();
+        final IFormatReader r = pool.acquire(path);
+        try {
+            if(r.getSeriesCount() > 1)
+                throw new IOException("Multiple sequences are not supported.");
+            return readImagePlus(r, ReaderPool.getMetadata(r), new File(path));
+        } finally {
+            pool.release(r);
+        }
+    }
+
+    // -- Helper methods --
+
+    /**
+     * Read all planes of the current series of an initialized reader
+     * @param region X, Y, width, and height of the region to read,
+     *     or {@code null} to read whole planes
+     */
+    static Dataset read(IFormatReader r, IMetadata meta, String name,
+            DatasetService ds, int[] region)
+            throws IOException, FormatException {
+        final int x0 = region == null ? 0 : region[0];
+        final int y0 = region == null ? 0 : region[1];
+        final int w = region == null ? r.getSizeX() : region[2];
+        final int h = region == null ? r.getSizeY() : region[3];
+        final int rgb = r.getRGBChannelCount();
+        final int sc = r.getSizeC();
+        final int sz = r.getSizeZ();
+        final int st = r.getSizeT();
+        final int pixelType = r.getPixelType();
+
+        final ArrayList<Long> dims = new ArrayList<Long>();
+        final ArrayList<CalibratedAxis> axes = new ArrayList<CalibratedAxis>();
+        dims.add((long) r.getSizeX());
+        axes.add(makeAxis(Axes.X, meta == null ? null : meta.getPixelsPhysicalSizeX(0)));
+        dims.add((long) r.getSizeY());
+        axes.add(makeAxis(Axes.Y, meta == null ? null : meta.getPixelsPhysicalSizeY(0)));
+        if(sc > 1) {
+            dims.add((long) sc);
+            axes.add(new DefaultLinearAxis(Axes.CHANNEL));
+        }
+        if(sz > 1) {
+            dims.add((long) sz);
+            axes.add(makeAxis(Axes.Z, meta == null ? null : meta.getPixelsPhysicalSizeZ(0)));
+        }
+        if(st > 1) {
+            dims.add((long) st);
+            axes.add(new DefaultLinearAxis(Axes.TIME));
+        }
+        final long[] d = new long[dims.size()];
+        for(int i = 0; i < d.length; i++)
+            d[i] = dims.get(i);
+
+        final long[] planeDims = d.clone();
+        planeDims[0] = w;
+        planeDims[1] = h;
+        final PlanarImg<?, ? extends ArrayDataAccess<?>> img = createImg(pixelType, planeDims);
+        final int bpp = FormatTools.getBytesPerPixel(pixelType);
+        final ByteOrder order = r.isLittleEndian() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        final boolean interleaved = r.isInterleaved();
+        for(int t = 0; t < st; t++)
+            for(int z = 0; z < sz; z++)
+                for(int ce = 0; ce < sc / rgb; ce++) {
+                    final int no = r.getIndex(z, ce, t);
+                    final byte[] bytes = region == null ? r.openBytes(no)
+                            : r.openBytes(no, x0, y0, w, h);
+                    for(int s = 0; s < rgb; s++) {
+                        final int c = ce * rgb + s;
+                        final Object plane = img.getPlane(c + sc * (z + sz * t))
+                                .getCurrentStorageArray();
+                        copySample(bytes, s, rgb, interleaved, bpp, order, plane, w * h);
+                    }
+                }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final ImgPlus imp = new ImgPlus(region == null ? img : place(img, x0, y0, d),
+                name, axes.toArray(new CalibratedAxis[0]));
+        if(sc > 1)
+            imp.setCompositeChannelCount(sc);
+        @SuppressWarnings("unchecked")
+        final Dataset dataset = ds.create(imp);
+        if(rgb == 3 && sc == 3 && bpp == 1)
+            dataset.setRGBMerged(true);
+        return dataset;
+    }
+
+    /** Read all planes of the current series of an initialized reader */
+    static ImagePlus readImagePlus(IFormatReader r, IMetadata meta, File file)
+            throws IOException, FormatException {
+        final ImageProcessorReader ipr = new ImageProcessorReader(r);
+        final int w = r.getSizeX();
+        final int h = r.getSizeY();
+        final int rgb = r.getRGBChannelCount();
+        final int sc = r.getSizeC();
+        final int sz = r.getSizeZ();
+        final int st = r.getSizeT();
+        final boolean merge = rgb == 3 && sc == 3
+                && FormatTools.getBytesPerPixel(r.getPixelType()) == 1;
+        final ImageStack stack = new ImageStack(w, h);
+        for(int t = 0; t < st; t++)
+            for(int z = 0; z < sz; z++)
+                for(int ce = 0; ce < sc / rgb; ce++) {
+                    final ImageProcessor[] ip = ipr.openProcessors(r.getIndex(z, ce, t));
+                    if(merge) {
+                        final ColorProcessor cp = new ColorProcessor(w, h);
+                        cp.setRGB((byte[]) ip[0].getPixels(), (byte[]) ip[1].getPixels(),
+                                (byte[]) ip[2].getPixels());
+                        stack.addSlice(cp);
+                    }
+                    else
+                        for(ImageProcessor p : ip)
+                            stack.addSlice(p);
+                }
+
+        ImagePlus imp = new ImagePlus(file.getName(), stack);
+        final int nc = merge ? 1 : sc;
+        imp.setDimensions(nc, sz, st);
+        if(nc > 1)
+            imp = new CompositeImage(imp,
+                    nc <= 7 ? CompositeImage.COMPOSITE : CompositeImage.GRAYSCALE);
+        imp.setOpenAsHyperStack(nc > 1 || (sz > 1 && st > 1));
+        if(meta != null) {
+            final Calibration cal = imp.getCalibration();
+            final Length px = meta.getPixelsPhysicalSizeX(0);
+            final Length py = meta.getPixelsPhysicalSizeY(0);
+            final Length pz = meta.getPixelsPhysicalSizeZ(0);
+            if(px != null && px.value() != null) {
+                cal.pixelWidth = px.value().doubleValue();
+                cal.setUnit(px.unit().getSymbol());
+            }
+            if(py != null && py.value() != null)
+                cal.pixelHeight = py.value().doubleValue();
+            if(pz != null && pz.value() != null)
+                cal.pixelDepth = pz.value().doubleValue();
+        }
+        final FileInfo fi = new FileInfo();
+        fi.fileName = file.getName();
+        fi.directory = file.getAbsoluteFile().getParent() + File.separator;
+        imp.setFileInfo(fi);
+        return imp;
+    }
+
+    /** Create a planar image for a Bio-Formats pixel type */
+    static PlanarImg<?, ? extends ArrayDataAccess<?>> createImg(int pixelType, long[] dims)
+            throws FormatException {
+        switch(pixelType) {
+            case FormatTools.BIT:
+            case FormatTools.UINT8: return PlanarImgs.unsignedBytes(dims);
+            case FormatTools.INT8: return PlanarImgs.bytes(dims);
+            case FormatTools.UINT16: return PlanarImgs.unsignedShorts(dims);
+            case FormatTools.INT16: return PlanarImgs.shorts(dims);
+            case FormatTools.UINT32: return PlanarImgs.unsignedInts(dims);
+            case FormatTools.INT32: return PlanarImgs.ints(dims);
+            case FormatTools.FLOAT: return PlanarImgs.floats(dims);
+            case FormatTools.DOUBLE: return PlanarImgs.doubles(dims);
+            default: throw new FormatException("Unsupported pixel type: "
+                    + FormatTools.getPixelTypeString(pixelType));
+        }
+    }
+
+    /**
+     * Copy one sample (channel) of a Bio-Formats plane into a
+     * primitive array of {@code n} pixels.
+     */
+    static void copySample(byte[] bytes, int sample, int samples, boolean interleaved,
+            int bpp, ByteOrder order, Object plane, int n) {
+        if(samples == 1 || !interleaved) {
+            final ByteBuffer b = ByteBuffer.wrap(bytes, sample * n * bpp, n * bpp).slice().order(order);
+            if(plane instanceof byte[]) b.get((byte[]) plane, 0, n);
+            else if(plane instanceof short[]) b.asShortBuffer().get((short[]) plane, 0, n);
+            else if(plane instanceof int[]) b.asIntBuffer().get((int[]) plane, 0, n);
+            else if(plane instanceof float[]) b.asFloatBuffer().get((float[]) plane, 0, n);
+            else b.asDoubleBuffer().get((double[]) plane, 0, n);
+            return;
+        }
+        final ByteBuffer b = ByteBuffer.wrap(bytes).order(order);
+        final int step = samples * bpp;
+        int p = sample * bpp;
+        if(plane instanceof byte[]) {
+            final byte[] a = (byte[]) plane;
+            for(int i = 0; i < n; i++, p += step) a[i] = bytes[p];
+        }
+        else if(plane instanceof short[]) {
+            final short[] a = (short[]) plane;
+            for(int i = 0; i < n; i++, p += step) a[i] = b.getShort(p);
+        }
+        else if(plane instanceof int[]) {
+            final int[] a = (int[]) plane;
+            for(int i = 0; i < n; i++, p += step) a[i] = b.getInt(p);
+        }
+        else if(plane instanceof float[]) {
+            final float[] a = (float[]) plane;
+            for(int i = 0; i < n; i++, p += step) a[i] = b.getFloat(p);
+        }
+        else {
+            final double[] a = (double[]) plane;
+            for(int i = 0; i < n; i++, p += step) a[i] = b.getDouble(p);
+        }
+    }
+
+    /**
+     * Clip a region to the image bounds, keeping at least one pixel
+     * @return X, Y, width, and height of the clipped region
+     */
+    static int[] clip(long[] min, long[] max, int sizeX, int sizeY) {
+        final int x0 = (int) Math.max(0, Math.min(min[0], sizeX - 1));
+        final int y0 = (int) Math.max(0, Math.min(min[1], sizeY - 1));
+        final int x1 = (int) Math.max(x0, Math.min(max[0], sizeX - 1));
+        final int y1 = (int) Math.max(y0, Math.min(max[1], sizeY - 1));
+        return new int[] {x0, y0, x1 - x0 + 1, y1 - y0 + 1};
+    }
+
+    /**
+     * Place a region at its offset within an image of the full size,
+     * filling the rest of the image with zeros
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Img<?> place(PlanarImg img, int x0, int y0, long[] dims) {
+        final long[] offset = new long[dims.length];
+        offset[0] = x0;
+        offset[1] = y0;
+        final long[] max = new long[dims.length];
+        for(int i = 0; i < dims.length; i++)
+            max[i] = dims[i] - 1;
+        return ImgView.wrap(Views.interval(Views.extendZero(Views.translate(img, offset)),
+                new long[dims.length], max), img.factory());
+    }
+
+    private static CalibratedAxis makeAxis(AxisType type, Length size) {
+        if(size == null || size.value() == null)
+            return new DefaultLinearAxis(type);
+        return new DefaultLinearAxis(type, size.unit().getSymbol(),
+                size.value().doubleValue());
+    }
+
+}
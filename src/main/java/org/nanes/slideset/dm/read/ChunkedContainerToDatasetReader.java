@@ -0,0 +1,87 @@
+package org.nanes.slideset.dm.read;
+
+import org.nanes.slideset.dm.ContainerLink;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.ex.ImgLinkException;
+import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.ChunkedContainer;
+import org.nanes.slideset.io.ChunkedContainer.DatasetAttributes;
+import org.nanes.slideset.io.ChunkedImages;
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.axis.CalibratedAxis;
+import net.imagej.axis.DefaultLinearAxis;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads images stored in N5 or Zarr containers, including OME-Zarr
+ * images. The {@code Dataset} is backed by a lazily loaded cell image
+ * (see {@link ChunkedImages}), so only the blocks that a command
+ * actually touches are read from disk.
+ *
+ * @author Benjamin Nanes
+ */
+@ElementReaderMetadata(
+        name = "Chunked image (N5/Zarr)",
+        elementType = FileLinkElement.class,
+        mimeTypes = { MIME.CHUNKED },
+        processedType = Dataset.class,
+        hidden = false )
+public class ChunkedContainerToDatasetReader implements
+        ElementReader<FileLinkElement, Dataset> {
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Dataset read(FileLinkElement elementToRead) throws SlideSetException {
+        final String link = elementToRead.getOwner().getPathResolver()
+                .resolveExisting(elementToRead.getUnderlying());
+        final File root = new File(ContainerLink.getContainer(link));
+        final ChunkedContainer container;
+        final DatasetAttributes a;
+        try {
+            container = ChunkedContainer.open(root);
+            a = container.findImage(ContainerLink.getKey(link));
+        } catch(IOException e) {
+            throw new ImgLinkException("Unable to read " + link, e);
+        }
+        final int nd = a.numDimensions();
+        final String[] labels = a.getAxes();
+        final double[] resolution = a.getResolution();
+        final String[] units = a.getUnits();
+        final CalibratedAxis[] axes = new CalibratedAxis[nd];
+        for(int d = 0; d < nd; d++) {
+            final AxisType type = getAxisType(
+                    labels != null && labels.length == nd ? labels[d] : null, d);
+            final double scale = resolution != null && resolution.length == nd
+                    ? resolution[d] : 1;
+            final String unit = units != null && units.length == nd ? units[d] : null;
+            axes[d] = new DefaultLinearAxis(type, unit, scale);
+        }
+        final ImgPlus img = new ImgPlus(ChunkedImages.open(container, a),
+                new File(link).getName(), axes);
+        return elementToRead.getOwner().getContext()
+                .getService(DatasetService.class).create(img);
+    }
+
+    /**
+     * Match an axis label to an {@code AxisType}, accepting both
+     * ImageJ labels and the short names used by OME-Zarr.
+     */
+    private static AxisType getAxisType(String label, int d) {
+        if(label == null || label.isEmpty() || label.equals("null"))
+            return d == 0 ? Axes.X : d == 1 ? Axes.Y : Axes.unknown();
+        switch(label.toLowerCase()) {
+            case "x": return Axes.X;
+            case "y": return Axes.Y;
+            case "z": return Axes.Z;
+            case "c": case "channel": return Axes.CHANNEL;
+            case "t": case "time": return Axes.TIME;
+            default: return Axes.get(label);
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package org.nanes.slideset.dm.read;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of decoded images, shared by the image
+ * {@link ElementReader}s. Images are keyed by their resolved path,
+ * modification time, and file size, along with the type of object
+ * produced, so a file that changes on disk is decoded again.
+ * <p> The cache is limited by the total size of the pixel data it holds,
+ * and the least recently used images are dropped first. Commands may
+ * modify their inputs, so readers keep their own copy of each cached
+ * image and return duplicates.
+ *
+ * @author Benjamin Nanes
+ */
+public final class ImageCache {
+
+     // -- Fields --
+
+     private static final ImageCache instance = new ImageCache(
+          Math.min(1L << 30, Runtime.getRuntime().maxMemory() / 4));
+
+     private final LinkedHashMap<Key, Entry> entries
+          = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+     private long budget;
+     private long size = 0;
+     private long hits = 0;
+     private long misses = 0;
+     private long evictions = 0;
+
+     private ImageCache(long budget) {
+          this.budget = budget;
+     }
+
+     // -- Methods --
+
+     /** Get the shared cache */
+     public static ImageCache getInstance() {
+          return instance;
+     }
+
+     /**
+      * Get a cached image.
+      * @param file The image file
+      * @param type Type of object produced by the reader
+      * @return The cached image, or {@code null} if {@code file} has not been
+      *     cached or has changed since it was cached. The caller should not
+      *     modify or return this object, but should make a copy.
+      */
+     public synchronized <T> T get(File file, Class<T> type) {
+          final Entry e = entries.get(new Key(file, type));
+          if(e == null || !type.isInstance(e.image)) {
+               misses++;
+               return null;
+          }
+          hits++;
+          return type.cast(e.image);
+     }
+
+     /**
+      * Add an image to the cache, replacing any earlier version of the same
+      * file. Images larger than the cache budget are not added.
+      * @param file The image file
+      * @param type Type of object produced by the reader
+      * @param image The decoded image, which should not be modified after it is added
+      * @param bytes Size of the image pixel data
+      * @return {@code true} if the image was added
+      */
+     public synchronized <T> boolean put(File file, Class<T> type, T image, long bytes) {
+          final Key k = new Key(file, type);
+          remove(k.path, k.type);
+          if(bytes > budget)
+               return false;
+          entries.put(k, new Entry(image, bytes));
+          size += bytes;
+          trim();
+          return true;
+     }
+
+     /** Remove all cached images of a file */
+     public synchronized void invalidate(File file) {
+          remove(new Key(file, Object.class).path, null);
+     }
+
+     /** Remove all cached images */
+     public synchronized void clear() {
+          entries.clear();
+          size = 0;
+     }
+
+     /** Set the maximum total size, in bytes, of cached images */
+     public synchronized void setBudget(long bytes) {
+          budget = Math.max(0, bytes);
+          trim();
+     }
+
+     /** Get the maximum total size, in bytes, of cached images */
+     public synchronized long getBudget() {
+          return budget;
+     }
+
+     /** Get the total size, in bytes, of cached images */
+     public synchronized long getSize() {
+          return size;
+     }
+
+     /** Get the number of cached images */
+     public synchronized int getCount() {
+          return entries.size();
+     }
+
+     /** Get the number of requests answered from the cache */
+     public synchronized long getHits() {
+          return hits;
+     }
+
+     /** Get the number of requests that required decoding the image */
+     public synchronized long getMisses() {
+          return misses;
+     }
+
+     /** Get the number of images dropped to stay within the budget */
+     public synchronized long getEvictions() {
+          return evictions;
+     }
+
+     /** Reset the hit, miss, and eviction counts */
+     public synchronized void resetStatistics() {
+          hits = 0;
+          misses = 0;
+          evictions = 0;
+     }
+
+     @Override
+     public synchronized String toString() {
+          return String.format(
+               "Image cache: %d images, %.1f of %.1f MB; %d hits, %d misses, %d evictions",
+               entries.size(), size / 1048576.0, budget / 1048576.0, hits, misses, evictions);
+     }
+
+     // -- Helper methods --
+
+     private void remove(String path, String type) {
+          for(Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+               final Map.Entry<Key, Entry> e = it.next();
+               if(e.getKey().path.equals(path) && (type == null || e.getKey().type.equals(type))) {
+                    size -= e.getValue().bytes;
+                    it.remove();
+               }
+          }
+     }
+
+     private void trim() {
+          for(Iterator<Entry> it = entries.values().iterator(); size > budget && it.hasNext(); ) {
+               size -= it.next().bytes;
+               it.remove();
+               evictions++;
+          }
+     }
+
+     // -- Helper classes --
+
+     private static final class Key {
+          final String path;
+          final long modified;
+          final long length;
+          final String type;
+
+          Key(File file, Class<?> type) {
+               final File f = file.getAbsoluteFile();
+               path = f.toPath().normalize().toString();
+               modified = f.lastModified();
+               length = f.length();
+               this.type = type.getName();
+          }
+
+          @Override
+          public boolean equals(Object o) {
+               if(!(o instanceof Key))
+                    return false;
+               final Key k = (Key) o;
+               return path.equals(k.path) && modified == k.modified
+                    && length == k.length && type.equals(k.type);
+          }
+
+          @Override
+          public int hashCode() {
+               int h = path.hashCode();
+               h = 31 * h + (int) (modified ^ (modified >>> 32));
+               h = 31 * h + (int) (length ^ (length >>> 32));
+               return 31 * h + type.hashCode();
+          }
+     }
+
+     private static final class Entry {
+          final Object image;
+          final long bytes;
+
+          Entry(Object image, long bytes) {
+               this.image = image;
+               this.bytes = bytes;
+          }
+     }
+
+}
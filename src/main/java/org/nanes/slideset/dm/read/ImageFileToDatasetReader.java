@@ -1,17 +1,27 @@
 package org.nanes.slideset.dm.read;
 
+import org.nanes.slideset.dm.ContainerLink;
 import org.nanes.slideset.dm.FileLinkElement;
 import org.nanes.slideset.dm.MIME;
 import org.nanes.slideset.ex.ImgLinkException;
-import org.nanes.slideset.ex.LinkNotFoundException;
 import org.nanes.slideset.ex.SlideSetException;
 import net.imagej.Dataset;
+import net.imagej.DatasetService;
 import io.scif.services.DatasetIOService;
 import java.io.File;
 import java.io.IOException;
+import loci.formats.FormatException;
+import org.scijava.Context;
 import org.scijava.convert.ConvertService;
 
 /**
+ * Reads image files as {@code Dataset}s. Files are opened directly with
+ * Bio-Formats into a planar image. Files that Bio-Formats cannot read
+ * are opened with SCIFIO, and then with ImageJ 1.x. N5 and Zarr
+ * container links are passed to {@link ChunkedContainerToDatasetReader}.
+ * When a region is set, only that part of the image is read from files
+ * that Bio-Formats can open, and the image is not added to the
+ * {@link ImageCache}.
  *
  * @author Benjamin Nanes
  */
@@ -22,44 +32,71 @@ import org.scijava.convert.ConvertService;
         processedType = Dataset.class,
         hidden = false )
 public class ImageFileToDatasetReader implements
-        ElementReader<FileLinkElement, Dataset> {
+        ElementReader<FileLinkElement, Dataset>, RegionBoundedReader {
     
     private ImageFileToImagePlusReader iftipr;
     private ConvertService cs;
+    private ChunkedContainerToDatasetReader cctdr;
+    private long[] regionMin;
+    private long[] regionMax;
+
+    public void setRegion(long[] min, long[] max) {
+        regionMin = min == null || max == null ? null : min.clone();
+        regionMax = min == null || max == null ? null : max.clone();
+    }
 
     public Dataset read(FileLinkElement elementToRead) throws SlideSetException {
-        String path = elementToRead.getUnderlying();
-        String wd = elementToRead.getOwner().getWorkingDirectory();
-        wd = wd == null ? "" : wd;
-        path = path.replaceFirst("^~", System.getProperty("user.home"));  // need to expand home dir relative paths
-        if(!(new File(path)).isAbsolute())
-            path = wd + File.separator + path;
-        if(!(new File(path).exists()))
-           throw new LinkNotFoundException(path + " does not exist!");
-        Dataset d;
-        if(iftipr == null)
-            iftipr = new ImageFileToImagePlusReader();
-        if(cs == null)
-            cs = elementToRead.getOwner().getContext().getService(ConvertService.class);
-        try {
-            d = cs.convert(iftipr.read(elementToRead), Dataset.class);
+        final String path = elementToRead.getOwner().getPathResolver()
+                .resolveExisting(elementToRead.getUnderlying());
+        if(ContainerLink.isContainerLink(path)) {
+            // N5 and Zarr containers are read lazily, not through ImageJ
+            if(cctdr == null)
+                cctdr = new ChunkedContainerToDatasetReader();
+            return cctdr.read(elementToRead);
+        }
+        final File file = new File(path);
+        final ImageCache cache = ImageCache.getInstance();
+        Dataset d = cache.get(file, Dataset.class);
+        if(d != null)
+            return d.duplicate();
+        final Context context = elementToRead.getOwner().getContext();
+        if(regionMin != null) {
+            try {
+                return BioFormatsLoader.open(path, context.getService(DatasetService.class),
+                        regionMin, regionMax);
+            } catch(FormatException e) {
+                // Fallback to reading the whole image
+            } catch(IOException e) {
+                throw new ImgLinkException("Unable to read " + path + "\n" + e.getMessage());
+            }
         }
-        catch(Exception e) {
-            d = null; // Fallback to SCFIO
+        try {
+            d = BioFormatsLoader.open(path, context.getService(DatasetService.class));
+        } catch(FormatException e) {
+            d = null; // Fallback to SCIFIO
+        } catch(IOException e) {
+            throw new ImgLinkException("Unable to read " + path + "\n" + e.getMessage());
         }
         if(d == null) {
-            DatasetIOService dios = elementToRead.getOwner().
-                    getContext().getService(DatasetIOService.class);
-            try{ 
-                d = dios.open(path); 
-                
+            DatasetIOService dios = context.getService(DatasetIOService.class);
+            try {
+                d = dios.open(path);
             }
-            catch(IOException e) {
-                throw new ImgLinkException(e);
+            catch(Exception e) {
+                d = null; // Fallback to ImageJ 1.x
             }
         }
+        if(d == null) {
+            if(iftipr == null)
+                iftipr = new ImageFileToImagePlusReader();
+            if(cs == null)
+                cs = context.getService(ConvertService.class);
+            d = cs.convert(iftipr.read(elementToRead), Dataset.class);
+        }
         if(d == null)
             throw new ImgLinkException("Unable to read " + path);
+        if(cache.put(file, Dataset.class, d, d.getBytesOfInfo()))
+            return d.duplicate();
         return d;
     }
     
@@ -0,0 +1,107 @@
+package org.nanes.slideset.dm.read;
+
+import org.nanes.slideset.dm.ContainerLink;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.ex.ImgLinkException;
+import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.ChunkedContainer;
+import org.nanes.slideset.io.ChunkedContainer.DatasetAttributes;
+import java.io.File;
+import java.io.IOException;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.meta.IMetadata;
+import ome.units.quantity.Length;
+
+/**
+ * Reads the dimensions, pixel type, and calibration of image files
+ * without decoding any pixels. Bio-Formats readers are taken from the
+ * shared {@link ReaderPool}, so the parsed metadata is also saved for
+ * later reads of the pixels. N5 and Zarr container links are read
+ * from the container attributes.
+ *
+ * @author Benjamin Nanes
+ */
+@ElementReaderMetadata(
+        name = "Image metadata",
+        elementType = FileLinkElement.class,
+        mimeTypes = { MIME.IMAGE, MIME.TIFF, MIME.PNG, MIME.JPG, MIME.GIF, MIME.CHUNKED },
+        processedType = ImageMetadata.class,
+        hidden = false )
+public class ImageFileToImageMetadataReader implements
+        ElementReader<FileLinkElement, ImageMetadata> {
+
+    public ImageMetadata read(FileLinkElement elementToRead) throws SlideSetException {
+        final String path = elementToRead.getOwner().getPathResolver()
+                .resolveExisting(elementToRead.getUnderlying());
+        if(ContainerLink.isContainerLink(path))
+            return readContainer(path);
+        final ReaderPool pool = ReaderPool.getInstance();
+        IFormatReader r = null;
+        try {
+            r = pool.acquire(path);
+            final IMetadata meta = ReaderPool.getMetadata(r);
+            final Length px = meta == null ? null : meta.getPixelsPhysicalSizeX(0);
+            final Length py = meta == null ? null : meta.getPixelsPhysicalSizeY(0);
+            final Length pz = meta == null ? null : meta.getPixelsPhysicalSizeZ(0);
+            return new ImageMetadata(r.getSizeX(), r.getSizeY(), r.getSizeZ(),
+                    r.getSizeC(), r.getSizeT(), r.getSeriesCount(),
+                    FormatTools.getPixelTypeString(r.getPixelType()),
+                    FormatTools.getBytesPerPixel(r.getPixelType()),
+                    value(px), value(py), value(pz),
+                    px == null || px.value() == null ? null : px.unit().getSymbol());
+        } catch(FormatException e) {
+            throw new ImgLinkException("Unable to read " + path + "\n" + e.getMessage());
+        } catch(IOException e) {
+            throw new ImgLinkException("Unable to read " + path + "\n" + e.getMessage());
+        } finally {
+            pool.release(r);
+        }
+    }
+
+    // -- Helper methods --
+
+    private static ImageMetadata readContainer(String link) throws SlideSetException {
+        final File root = new File(ContainerLink.getContainer(link));
+        final DatasetAttributes a;
+        try {
+            a = ChunkedContainer.open(root).findImage(ContainerLink.getKey(link));
+        } catch(IOException e) {
+            throw new ImgLinkException("Unable to read " + link, e);
+        }
+        final long[] dims = a.getDimensions();
+        final String[] axes = a.getAxes();
+        final double[] res = a.getResolution();
+        final String[] units = a.getUnits();
+        // Axes without a label are X, Y, then Z
+        final int[] size = {1, 1, 1, 1, 1}; // X, Y, Z, C, T
+        final double[] cal = {Double.NaN, Double.NaN, Double.NaN};
+        for(int d = 0; d < dims.length; d++) {
+            final String label = axes != null && axes.length == dims.length && axes[d] != null
+                    ? axes[d].toLowerCase() : "";
+            int k;
+            if(label.equals("x")) k = 0;
+            else if(label.equals("y")) k = 1;
+            else if(label.equals("z")) k = 2;
+            else if(label.equals("c") || label.equals("channel")) k = 3;
+            else if(label.equals("t") || label.equals("time")) k = 4;
+            else k = Math.min(d, 2);
+            size[k] *= (int) Math.min(dims[d], Integer.MAX_VALUE);
+            if(k < 3 && res != null && res.length == dims.length)
+                cal[k] = res[d];
+        }
+        String unit = null;
+        if(units != null && units.length > 0 && units[0] != null && !units[0].isEmpty())
+            unit = units[0];
+        return new ImageMetadata(size[0], size[1], size[2], size[3], size[4], 1,
+                a.getDataType().name().toLowerCase(), a.getDataType().getBytes(),
+                cal[0], cal[1], cal[2], unit);
+    }
+
+    private static double value(Length l) {
+        return l == null || l.value() == null ? Double.NaN : l.value().doubleValue();
+    }
+
+}
@@ -3,16 +3,17 @@ package org.nanes.slideset.dm.read;
 import org.nanes.slideset.dm.FileLinkElement;
 import org.nanes.slideset.dm.MIME;
 import org.nanes.slideset.ex.ImgLinkException;
-import org.nanes.slideset.ex.LinkNotFoundException;
 import org.nanes.slideset.ex.SlideSetException;
 import ij.IJ;
 import ij.ImagePlus;
 import java.io.File;
 import java.io.IOException;
 import loci.formats.FormatException;
-import loci.plugins.BF;
 
 /**
+ * Reads image files as {@code ImagePlus}es, using Bio-Formats readers
+ * from the shared {@link ReaderPool}, or ImageJ 1.x for files that
+ * Bio-Formats cannot read.
  *
  * @author Benjamin Nanes
  */
@@ -28,21 +29,15 @@ public class ImageFileToImagePlusReader implements
     public ImagePlus read(
             FileLinkElement elementToRead) 
             throws SlideSetException {
-        String path = elementToRead.getUnderlying();
-        String wd = elementToRead.getOwner().getWorkingDirectory();
-        wd = wd == null ? "" : wd;
-        path = path.replaceFirst("^~", System.getProperty("user.home"));  // need to expand home dir relative paths
-        if(!(new File(path)).isAbsolute())
-            path = wd + File.separator + path;
-        if(!(new File(path).exists()))
-           throw new LinkNotFoundException(path + " does not exist!");
-        ImagePlus img;
+        final String path = elementToRead.getOwner().getPathResolver()
+                .resolveExisting(elementToRead.getUnderlying());
+        final File file = new File(path);
+        final ImageCache cache = ImageCache.getInstance();
+        ImagePlus img = cache.get(file, ImagePlus.class);
+        if(img != null)
+            return copy(img);
         try {
-            ImagePlus[] imgs = BF.openImagePlus(path);
-            if(imgs.length > 1)
-                throw new ImgLinkException("Unable to read " + path +
-                    "\n Multiple sequences are not supported.");
-            img = imgs[0];
+            img = BioFormatsLoader.openImagePlus(path);
         } catch(FormatException e) {
             img = null;
         } catch(IOException e) {
@@ -53,7 +48,18 @@ public class ImageFileToImagePlusReader implements
              img = IJ.openImage(path);
         if(img == null)
             throw new ImgLinkException("Unable to read " + path);
+        img.deleteRoi();
+        if(cache.put(file, ImagePlus.class, img, (long) img.getSizeInBytes()))
+            return copy(img);
         return img;
     }
 
+    /** Copy a cached image, so the cached version isn't modified */
+    private static ImagePlus copy(ImagePlus img) {
+        final ImagePlus dup = img.duplicate();
+        dup.setTitle(img.getTitle());
+        dup.setFileInfo(img.getOriginalFileInfo());
+        return dup;
+    }
+
 }
@@ -0,0 +1,97 @@
+package org.nanes.slideset.dm.read;
+
+/**
+ * Dimensions, pixel type, and calibration of an image file, read
+ * from its header without decoding the pixels.
+ *
+ * @see ImageFileToImageMetadataReader
+ * @author Benjamin Nanes
+ */
+public final class ImageMetadata {
+
+    // -- Fields --
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int sizeC;
+    private final int sizeT;
+    private final int seriesCount;
+    private final String pixelType;
+    private final int bytesPerPixel;
+    private final double pixelWidth;
+    private final double pixelHeight;
+    private final double pixelDepth;
+    private final String unit;
+
+    // -- Constructor --
+
+    /**
+     * @param sizeX Width, in pixels
+     * @param sizeY Height, in pixels
+     * @param sizeZ Number of Z planes
+     * @param sizeC Number of channels, including RGB samples
+     * @param sizeT Number of time points
+     * @param seriesCount Number of images in the file
+     * @param pixelType Name of the pixel type, such as {@code uint8}
+     * @param bytesPerPixel Bytes per pixel per channel
+     * @param pixelWidth Physical pixel width, or {@code NaN} if unknown
+     * @param pixelHeight Physical pixel height, or {@code NaN} if unknown
+     * @param pixelDepth Physical Z spacing, or {@code NaN} if unknown
+     * @param unit Unit of the physical sizes, or {@code null} if unknown
+     */
+    public ImageMetadata(int sizeX, int sizeY, int sizeZ, int sizeC, int sizeT,
+            int seriesCount, String pixelType, int bytesPerPixel,
+            double pixelWidth, double pixelHeight, double pixelDepth, String unit) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.sizeC = sizeC;
+        this.sizeT = sizeT;
+        this.seriesCount = seriesCount;
+        this.pixelType = pixelType;
+        this.bytesPerPixel = bytesPerPixel;
+        this.pixelWidth = pixelWidth;
+        this.pixelHeight = pixelHeight;
+        this.pixelDepth = pixelDepth;
+        this.unit = unit;
+    }
+
+    // -- Methods --
+
+    public int getSizeX() { return sizeX; }
+
+    public int getSizeY() { return sizeY; }
+
+    public int getSizeZ() { return sizeZ; }
+
+    public int getSizeC() { return sizeC; }
+
+    public int getSizeT() { return sizeT; }
+
+    public int getSeriesCount() { return seriesCount; }
+
+    public String getPixelType() { return pixelType; }
+
+    public int getBytesPerPixel() { return bytesPerPixel; }
+
+    public double getPixelWidth() { return pixelWidth; }
+
+    public double getPixelHeight() { return pixelHeight; }
+
+    public double getPixelDepth() { return pixelDepth; }
+
+    public String getUnit() { return unit; }
+
+    /** Size of the decoded pixel data of the first series, in bytes */
+    public long getBytes() {
+        return (long) sizeX * sizeY * sizeZ * sizeC * sizeT * bytesPerPixel;
+    }
+
+    @Override
+    public String toString() {
+        return sizeX + "x" + sizeY + "x" + sizeZ + ", " + sizeC + " channel(s), "
+                + sizeT + " time point(s), " + pixelType;
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.nanes.slideset.dm.read;
+
+import org.nanes.slideset.dm.AbstractOverlaysAlias;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.ex.RoiLinkException;
+import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.pi.LabelImage;
+import org.nanes.slideset.pi.RoiMask;
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.overlay.AbstractOverlay;
+import java.awt.geom.PathIterator;
+import java.util.List;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.RealType;
+import org.scijava.Context;
+
+/**
+ * Read a label image as a set of ImageJ2 overlays, one for each label
+ * in increasing order. Each overlay is a path along the edges of the
+ * region's pixels, including any holes, so it contains exactly the
+ * pixels with its label. The run-length mask of each region is taken
+ * directly from the label image, so region commands do not need to
+ * fill the paths again (see {@link RoiMask}).
+ *
+ * @author Benjamin Nanes
+ * @see LabelImage
+ */
+@ElementReaderMetadata(
+        name = "Label image",
+        elementType = FileLinkElement.class,
+        mimeTypes = { MIME.LABELS },
+        processedType = AbstractOverlaysAlias.class,
+        hidden = true )
+public class LabelImageToAbstractOverlayReader implements
+        ElementReader<FileLinkElement, AbstractOverlay[]> {
+
+    private LabelImageToDatasetReader ltdr;
+
+    // -- Methods --
+
+    public AbstractOverlay[] read(FileLinkElement elementToRead) throws SlideSetException {
+        if(ltdr == null)
+            ltdr = new LabelImageToDatasetReader();
+        final LabelImage li = readLabels(ltdr.read(elementToRead));
+        final Context ij = elementToRead.getOwner().getContext();
+        final AbstractOverlay[] overlays = new AbstractOverlay[li.getCount()];
+        for(int k = 0; k < overlays.length; k++) {
+            overlays[k] = toShape(li.getOutline(k)).toOverlay(ij);
+            RoiMask.put(overlays[k], li.getMask(k));
+        }
+        return overlays;
+    }
+
+    /**
+     * Get the regions in the first X-Y plane of a label image
+     * @throws RoiLinkException The image is too large
+     */
+    public static LabelImage readLabels(Dataset ds) throws RoiLinkException {
+        final int xAxis = ds.dimensionIndex(Axes.X);
+        final int yAxis = ds.dimensionIndex(Axes.Y);
+        final int x = xAxis < 0 ? 0 : xAxis;
+        final int y = yAxis < 0 ? 1 : yAxis;
+        final long w = ds.dimension(x);
+        final long h = ds.numDimensions() > y ? ds.dimension(y) : 1;
+        if(w * h > Integer.MAX_VALUE)
+            throw new RoiLinkException(ds.getName() + " is too large to read as a label image.");
+        final int[] labels = new int[(int) (w * h)];
+        final RandomAccess<? extends RealType<?>> ra = ds.getImgPlus().randomAccess();
+        ra.setPosition(new long[ds.numDimensions()]);
+        int i = 0;
+        for(int r = 0; r < h; r++) {
+            if(ds.numDimensions() > y)
+                ra.setPosition(r, y);
+            ra.setPosition(0, x);
+            for(int c = 0; c < w; c++, i++) {
+                labels[i] = (int) ra.get().getRealDouble();
+                ra.fwd(x);
+            }
+        }
+        return LabelImage.of(labels, (int) w, (int) h);
+    }
+
+    // -- Helper methods --
+
+    /** Make a path shape from the loops of an outline */
+    private static RoiShape toShape(List<int[]> loops) {
+        int nCoords = 0;
+        int nSegments = 0;
+        for(int[] loop : loops) {
+            nCoords += loop.length;
+            nSegments += loop.length / 2 + 1;
+        }
+        final double[] coords = new double[nCoords];
+        final byte[] segments = new byte[nSegments];
+        int c = 0;
+        int s = 0;
+        for(int[] loop : loops) {
+            for(int i = 0; i < loop.length; i += 2) {
+                segments[s++] = (byte) (i == 0 ? PathIterator.SEG_MOVETO : PathIterator.SEG_LINETO);
+                coords[c++] = loop[i];
+                coords[c++] = loop[i + 1];
+            }
+            segments[s++] = (byte) PathIterator.SEG_CLOSE;
+        }
+        return new RoiShape(RoiShape.PATH, coords, segments);
+    }
+
+}
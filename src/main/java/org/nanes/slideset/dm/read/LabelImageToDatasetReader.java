@@ -0,0 +1,34 @@
+package org.nanes.slideset.dm.read;
+
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.ex.SlideSetException;
+import net.imagej.Dataset;
+
+/**
+ * Reads label images as {@code Dataset}s, with one integer label for
+ * each region of interest. Label images are read like any other image
+ * (see {@link ImageFileToDatasetReader}), from a file or an N5 or Zarr
+ * container.
+ *
+ * @author Benjamin Nanes
+ * @see LabelImageToAbstractOverlayReader
+ */
+@ElementReaderMetadata(
+        name = "Label image",
+        elementType = FileLinkElement.class,
+        mimeTypes = { MIME.LABELS },
+        processedType = Dataset.class,
+        hidden = false )
+public class LabelImageToDatasetReader implements
+        ElementReader<FileLinkElement, Dataset> {
+
+    private ImageFileToDatasetReader iftdr;
+
+    public Dataset read(FileLinkElement elementToRead) throws SlideSetException {
+        if(iftdr == null)
+            iftdr = new ImageFileToDatasetReader();
+        return iftdr.read(elementToRead);
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.nanes.slideset.dm.read;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.Memoizer;
+import loci.formats.MetadataTools;
+import loci.formats.meta.IMetadata;
+import loci.formats.meta.MetadataStore;
+
+/**
+ * Process-wide pool of initialized Bio-Formats readers, shared by the
+ * image {@link ElementReader}s. Opening a file with Bio-Formats parses
+ * its metadata, which for some formats takes longer than reading the
+ * pixels, so readers are kept open after use and handed out again for
+ * the same file. A limited number of idle readers are kept, and the
+ * least recently used are closed first.
+ * <p> Readers are wrapped in a Bio-Formats {@link Memoizer}, which saves
+ * the parsed reader state in a cache directory, so that files open
+ * quickly in later sessions as well. The directory defaults to
+ * {@code ~/.slideset/bfmemo}, or the value of the
+ * {@code slideset.memoDir} system property.
+ *
+ * @author Benjamin Nanes
+ */
+public final class ReaderPool {
+
+    // -- Fields --
+
+    private static final ReaderPool instance = new ReaderPool();
+
+    /** Idle readers, most recently used first */
+    private final LinkedList<Entry> idle = new LinkedList<Entry>();
+    /** Readers handed out, with the file version they were opened for */
+    private final Map<IFormatReader, Entry> inUse = new IdentityHashMap<IFormatReader, Entry>();
+    private int maxIdle = 8;
+    private File memoDir;
+    private long hits = 0;
+    private long misses = 0;
+
+    private ReaderPool() {
+        final String dir = System.getProperty("slideset.memoDir");
+        memoDir = dir != null ? new File(dir)
+                : new File(System.getProperty("user.home"), ".slideset" + File.separator + "bfmemo");
+    }
+
+    // -- Methods --
+
+    /** Get the shared pool */
+    public static ReaderPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get an initialized reader for a file, set to the first series.
+     * The reader's metadata store is an {@link IMetadata} instance.
+     * Return the reader with {@link #release(IFormatReader)} when done.
+     * @throws FormatException if the file cannot be read by Bio-Formats
+     */
+    public IFormatReader acquire(String path) throws IOException, FormatException {
+        final File file = new File(path).getAbsoluteFile();
+        final String key = file.toPath().normalize().toString();
+        final long modified = file.lastModified();
+        synchronized(this) {
+            for(Iterator<Entry> it = idle.iterator(); it.hasNext(); ) {
+                final Entry e = it.next();
+                if(!e.path.equals(key))
+                    continue;
+                it.remove();
+                if(e.modified == modified) {
+                    hits++;
+                    e.reader.setSeries(0);
+                    inUse.put(e.reader, e);
+                    return e.reader;
+                }
+                close(e.reader); // File has changed
+            }
+            misses++;
+        }
+        final File dir = getCacheDirectory();
+        final IFormatReader r = dir == null || !(dir.isDirectory() || dir.mkdirs())
+                ? new ImageReader()
+                : new Memoizer(new ImageReader(), Memoizer.DEFAULT_MINIMUM_ELAPSED, dir);
+        r.setFlattenedResolutions(false);
+        r.setMetadataStore(MetadataTools.createOMEXMLMetadata());
+        boolean ok = false;
+        try {
+            r.setId(key);
+            ok = true;
+        } finally {
+            if(!ok)
+                close(r);
+        }
+        synchronized(this) {
+            inUse.put(r, new Entry(key, modified, r));
+        }
+        return r;
+    }
+
+    /**
+     * Return a reader obtained from {@link #acquire(String)}
+     * to the pool, or close it if the pool is full. The reader is kept
+     * for the version of the file it was opened for, so it is not handed
+     * out again if the file changed while it was in use.
+     */
+    public void release(IFormatReader r) {
+        if(r == null)
+            return;
+        synchronized(this) {
+            final Entry e = inUse.remove(r);
+            if(e == null || r.getCurrentFile() == null) {
+                close(r);
+                return;
+            }
+            idle.addFirst(e);
+            while(idle.size() > maxIdle)
+                close(idle.removeLast().reader);
+        }
+    }
+
+    /** Get the metadata of a reader obtained from {@link #acquire(String)} */
+    public static IMetadata getMetadata(IFormatReader r) {
+        final MetadataStore store = r.getMetadataStore();
+        return store instanceof IMetadata ? (IMetadata) store : null;
+    }
+
+    /** Close all idle readers */
+    public synchronized void clear() {
+        for(Entry e : idle)
+            close(e.reader);
+        idle.clear();
+    }
+
+    /** Set the maximum number of idle readers to keep open */
+    public synchronized void setMaxIdle(int n) {
+        maxIdle = Math.max(0, n);
+        while(idle.size() > maxIdle)
+            close(idle.removeLast().reader);
+    }
+
+    /** Get the maximum number of idle readers to keep open */
+    public synchronized int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Set the directory in which parsed reader state is saved,
+     * or {@code null} to disable it
+     */
+    public synchronized void setCacheDirectory(File dir) {
+        memoDir = dir;
+    }
+
+    /** Get the directory in which parsed reader state is saved, or {@code null} */
+    public synchronized File getCacheDirectory() {
+        return memoDir;
+    }
+
+    /** Get the number of requests answered with an open reader */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Get the number of requests that required opening a new reader */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Reader pool: %d idle readers; %d hits, %d misses",
+                idle.size(), hits, misses);
+    }
+
+    // -- Helper methods --
+
+    private static void close(IFormatReader r) {
+        try {
+            r.close();
+        } catch(IOException e) {
+            // Nothing else to do with it
+        }
+    }
+
+    // -- Helper classes --
+
+    private static final class Entry {
+        final String path;
+        final long modified;
+        final IFormatReader reader;
+
+        Entry(String path, long modified, IFormatReader reader) {
+            this.path = path;
+            this.modified = modified;
+            this.reader = reader;
+        }
+    }
+
+}
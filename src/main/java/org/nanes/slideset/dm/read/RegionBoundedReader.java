@@ -0,0 +1,22 @@
+package org.nanes.slideset.dm.read;
+
+/**
+ * {@link ElementReader}s which can read a part of an image, rather
+ * than the whole image, implement this interface. Images read while a
+ * region is set keep the full image dimensions and coordinates, but
+ * pixels outside the region may be zero.
+ *
+ * @see org.nanes.slideset.pi.RoiBounded
+ * @author Benjamin Nanes
+ */
+public interface RegionBoundedReader {
+
+    /**
+     * Limit subsequent reads to a region of the X-Y plane.
+     * Pass {@code null} to read whole images.
+     * @param min Minimum X and Y coordinates, inclusive
+     * @param max Maximum X and Y coordinates, inclusive
+     */
+    void setRegion(long[] min, long[] max);
+
+}
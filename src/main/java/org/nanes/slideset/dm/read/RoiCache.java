@@ -0,0 +1,180 @@
+package org.nanes.slideset.dm.read;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Process-wide cache of parsed ROI set files, shared by the ROI
+ * {@link ElementReader}s. Files are keyed by their resolved path,
+ * modification time, and size, so a file that changes on disk is
+ * parsed again. The writers also invalidate files they replace, in case
+ * the modification time does not change.
+ * <p> The cache holds the parsed {@link RoiShape}s, which are immutable
+ * and independent of the type of ROI produced, so the ImageJ 1 and
+ * ImageJ 2 readers share entries. Readers build new overlays or
+ * {@code Roi}s from the shapes on every read, so callers may modify
+ * what they receive. The cache is limited by the total size of the
+ * coordinate data it holds, and the least recently used files are
+ * dropped first.
+ *
+ * @author Benjamin Nanes
+ */
+public final class RoiCache {
+
+     // -- Fields --
+
+     private static final RoiCache instance = new RoiCache(
+          Math.min(64L << 20, Runtime.getRuntime().maxMemory() / 16));
+
+     /** Approximate memory used by a shape, apart from its arrays */
+     private static final long SHAPE_OVERHEAD = 64;
+
+     private final LinkedHashMap<String, Entry> entries
+          = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+     private long budget;
+     private long size = 0;
+     private long hits = 0;
+     private long misses = 0;
+
+     private RoiCache(long budget) {
+          this.budget = budget;
+     }
+
+     // -- Methods --
+
+     /** Get the shared cache */
+     public static RoiCache getInstance() {
+          return instance;
+     }
+
+     /**
+      * Get the cached shapes of a file
+      * @return An unmodifiable list of shapes, or {@code null} if {@code file}
+      *     has not been cached or has changed since it was cached
+      */
+     public synchronized List<RoiShape> get(File file) {
+          final File f = file.getAbsoluteFile();
+          final Entry e = entries.get(key(f));
+          if(e == null || e.modified != f.lastModified() || e.length != f.length()) {
+               misses++;
+               return null;
+          }
+          hits++;
+          return e.shapes;
+     }
+
+     /**
+      * Add the shapes of a file to the cache, replacing any earlier version.
+      * Files larger than the cache budget are not added.
+      * @param file The ROI set file
+      * @param modified Modification time of the file, read before it was parsed
+      * @param length Size of the file, read before it was parsed
+      * @param shapes The shapes in the file
+      * @return An unmodifiable view of {@code shapes}
+      */
+     public synchronized List<RoiShape> put(File file, long modified, long length,
+          List<RoiShape> shapes) {
+          final File f = file.getAbsoluteFile();
+          final String k = key(f);
+          remove(k);
+          final List<RoiShape> list = Collections.unmodifiableList(shapes);
+          long bytes = 0;
+          for(RoiShape s : shapes)
+               bytes += SHAPE_OVERHEAD + 8L * s.coords.length
+                    + (s.segments == null ? 0 : s.segments.length);
+          if(bytes > budget)
+               return list;
+          entries.put(k, new Entry(modified, length, list, bytes));
+          size += bytes;
+          trim();
+          return list;
+     }
+
+     /** Remove a file from the cache */
+     public synchronized void invalidate(File file) {
+          remove(key(file.getAbsoluteFile()));
+     }
+
+     /** Remove all cached files */
+     public synchronized void clear() {
+          entries.clear();
+          size = 0;
+     }
+
+     /** Set the maximum total size, in bytes, of cached shapes */
+     public synchronized void setBudget(long bytes) {
+          budget = Math.max(0, bytes);
+          trim();
+     }
+
+     /** Get the maximum total size, in bytes, of cached shapes */
+     public synchronized long getBudget() {
+          return budget;
+     }
+
+     /** Get the approximate total size, in bytes, of cached shapes */
+     public synchronized long getSize() {
+          return size;
+     }
+
+     /** Get the number of cached files */
+     public synchronized int getCount() {
+          return entries.size();
+     }
+
+     /** Get the number of requests answered from the cache */
+     public synchronized long getHits() {
+          return hits;
+     }
+
+     /** Get the number of requests that required parsing the file */
+     public synchronized long getMisses() {
+          return misses;
+     }
+
+     @Override
+     public synchronized String toString() {
+          return String.format(
+               "ROI cache: %d files, %.1f of %.1f MB; %d hits, %d misses",
+               entries.size(), size / 1048576.0, budget / 1048576.0, hits, misses);
+     }
+
+     // -- Helper methods --
+
+     private static String key(File f) {
+          return f.toPath().normalize().toString();
+     }
+
+     private void remove(String k) {
+          final Entry e = entries.remove(k);
+          if(e != null)
+               size -= e.bytes;
+     }
+
+     private void trim() {
+          for(Iterator<Entry> it = entries.values().iterator(); size > budget && it.hasNext(); ) {
+               size -= it.next().bytes;
+               it.remove();
+          }
+     }
+
+     // -- Helper classes --
+
+     private static final class Entry {
+          final long modified;
+          final long length;
+          final List<RoiShape> shapes;
+          final long bytes;
+
+          Entry(long modified, long length, List<RoiShape> shapes, long bytes) {
+               this.modified = modified;
+               this.length = length;
+               this.shapes = shapes;
+               this.bytes = bytes;
+          }
+     }
+
+}
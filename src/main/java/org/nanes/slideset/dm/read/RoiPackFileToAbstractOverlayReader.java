@@ -0,0 +1,37 @@
+package org.nanes.slideset.dm.read;
+
+import org.nanes.slideset.dm.AbstractOverlaysAlias;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.ex.SlideSetException;
+import net.imagej.overlay.AbstractOverlay;
+import java.util.List;
+import org.scijava.Context;
+
+/**
+ * Read ImageJ2 overlays from a packed ROI set file.
+ *
+ * @author Benjamin Nanes
+ * @see org.nanes.slideset.io.RoiPack
+ */
+@ElementReaderMetadata(
+        name = "ROI set file (packed)",
+        elementType = FileLinkElement.class,
+        mimeTypes = { MIME.ROIPACK },
+        processedType = AbstractOverlaysAlias.class,
+        hidden = true )
+public class RoiPackFileToAbstractOverlayReader implements
+        ElementReader<FileLinkElement, AbstractOverlay[]> {
+
+    // -- Methods --
+
+    public AbstractOverlay[] read(FileLinkElement elementToRead) throws SlideSetException {
+        final List<RoiShape> shapes = RoiPackFileToIJ1ROIReader.readShapes(elementToRead);
+        final Context ij = elementToRead.getOwner().getContext();
+        final AbstractOverlay[] overlays = new AbstractOverlay[shapes.size()];
+        for(int i = 0; i < overlays.length; i++)
+            overlays[i] = shapes.get(i).toOverlay(ij);
+        return overlays;
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.nanes.slideset.dm.read;
+
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.dm.RoisAlias;
+import org.nanes.slideset.ex.RoiLinkException;
+import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.RoiPack;
+import ij.gui.Roi;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Read ImageJ1-style ROIs from a packed ROI set file.
+ *
+ * @author Benjamin Nanes
+ * @see RoiPack
+ */
+@ElementReaderMetadata(
+        name = "ROI set file (packed)",
+        elementType = FileLinkElement.class,
+        mimeTypes = { MIME.ROIPACK },
+        processedType = RoisAlias.class,
+        hidden = false )
+public class RoiPackFileToIJ1ROIReader
+        implements ElementReader<FileLinkElement, Roi[]> {
+
+    // -- Methods --
+
+    public Roi[] read(FileLinkElement elementToRead) throws SlideSetException {
+        final List<RoiShape> shapes = readShapes(elementToRead);
+        final Roi[] rois = new Roi[shapes.size()];
+        for(int i = 0; i < rois.length; i++)
+            rois[i] = shapes.get(i).toRoi();
+        return rois;
+    }
+
+    // -- Helper methods --
+
+    /** Resolve the linked file and read its shapes, using the {@link RoiCache} */
+    static List<RoiShape> readShapes(FileLinkElement elementToRead) throws SlideSetException {
+        final String path = elementToRead.getOwner().getPathResolver()
+                .resolveExisting(elementToRead.getUnderlying());
+        final File f = new File(path);
+        final RoiCache cache = RoiCache.getInstance();
+        final List<RoiShape> cached = cache.get(f);
+        if(cached != null)
+            return cached;
+        // Stamp the cache entry with the version of the file that is read
+        final long modified = f.lastModified();
+        final long length = f.length();
+        try {
+            return cache.put(f, modified, length, RoiPack.readAll(f));
+        } catch(IOException e) {
+            throw new RoiLinkException("Unable to read ROI set file", e);
+        }
+    }
+
+}
@@ -0,0 +1,493 @@
+package org.nanes.slideset.dm.read;
+
+import org.nanes.slideset.ex.UnsupportedOverlayException;
+import ij.gui.Line;
+import ij.gui.OvalRoi;
+import ij.gui.PointRoi;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.process.FloatPolygon;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.imagej.axis.Axes;
+import net.imagej.axis.CalibratedAxis;
+import net.imagej.axis.DefaultLinearAxis;
+import net.imagej.overlay.AbstractOverlay;
+import net.imagej.overlay.EllipseOverlay;
+import net.imagej.overlay.GeneralPathOverlay;
+import net.imagej.overlay.LineOverlay;
+import net.imagej.overlay.PointOverlay;
+import net.imagej.overlay.PolygonOverlay;
+import net.imagej.overlay.RectangleOverlay;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+import net.imglib2.roi.GeneralPathRegionOfInterest;
+import net.imglib2.roi.GeneralPathSegmentHandler;
+import net.imglib2.roi.PolygonRegionOfInterest;
+import org.scijava.Context;
+
+/**
+ * A planar ROI shape stored as primitive arrays. This is the common
+ * geometry model of the ROI set file formats: files are parsed into
+ * shapes, which are then converted to ImageJ 2 overlays or ImageJ 1
+ * {@code Roi}s, and overlays or {@code Roi}s are converted to shapes
+ * for writing. The arrays given to the constructor are kept, and should
+ * not be modified afterwards. The accessors return copies, so shapes
+ * cannot be changed once created.
+ *
+ * @author Benjamin Nanes
+ */
+public final class RoiShape {
+
+    // -- Fields --
+
+    /** A single point: {@code x, y} */
+    public static final int POINT = 0;
+    /** A line segment: {@code x1, y1, x2, y2} */
+    public static final int LINE = 1;
+    /** An axis-aligned rectangle: {@code x, y, width, height} */
+    public static final int RECT = 2;
+    /** An axis-aligned ellipse: {@code cx, cy, rx, ry} */
+    public static final int ELLIPSE = 3;
+    /** A closed polygon: {@code x0, y0, x1, y1, ...} */
+    public static final int POLYGON = 4;
+    /** An open polyline: {@code x0, y0, x1, y1, ...} */
+    public static final int POLYLINE = 5;
+    /**
+     * A general path. Segment types are {@link PathIterator} codes,
+     * and each segment's coordinates follow those of the last.
+     */
+    public static final int PATH = 6;
+
+    final int type;
+    final double[] coords;
+    final byte[] segments;
+
+    /**
+     * @param type Shape type, such as {@link #POLYGON}
+     * @param coords Coordinates, as described for each type
+     * @param segments For {@link #PATH}s, the segment types, or {@code null}
+     */
+    public RoiShape(int type, double[] coords, byte[] segments) {
+        if(type < POINT || type > PATH)
+            throw new IllegalArgumentException("Unknown shape type: " + type);
+        if(coords == null || coords.length % 2 != 0
+                || (type == PATH && (segments == null || coords.length != countCoords(segments))))
+            throw new IllegalArgumentException("Bad coordinates for shape type " + type);
+        this.type = type;
+        this.coords = coords;
+        this.segments = type == PATH ? segments : null;
+    }
+
+    RoiShape(int type, double[] coords) {
+        this(type, coords, null);
+    }
+
+    // -- Methods --
+
+    /** Get the shape type, such as {@link #POLYGON} */
+    public int getType() {
+        return type;
+    }
+
+    /** Get a copy of the coordinates */
+    public double[] getCoords() {
+        return coords.clone();
+    }
+
+    /** Get the number of coordinates */
+    public int getCoordCount() {
+        return coords.length;
+    }
+
+    /** Get coordinate {@code i} */
+    public double getCoord(int i) {
+        return coords[i];
+    }
+
+    /** Get a copy of the segment types of a path, or {@code null} */
+    public byte[] getSegments() {
+        return segments == null ? null : segments.clone();
+    }
+
+    /** Get the number of path segments, or {@code 0} if the shape is not a path */
+    public int getSegmentCount() {
+        return segments == null ? 0 : segments.length;
+    }
+
+    /** Get the type of path segment {@code i} */
+    public byte getSegment(int i) {
+        return segments[i];
+    }
+
+    /** Number of points in a polygon or polyline */
+    public int getVertexCount() {
+        return coords.length / 2;
+    }
+
+    /**
+     * Check if a path is a single run of straight lines, which
+     * can be represented as a polygon or polyline
+     */
+    public boolean isPolygonal() {
+        if(type != PATH || segments.length == 0 || segments[0] != PathIterator.SEG_MOVETO)
+            return false;
+        for(int i = 1; i < segments.length; i++)
+            if(segments[i] != PathIterator.SEG_LINETO && segments[i] != PathIterator.SEG_CLOSE)
+                return false;
+        return true;
+    }
+
+    /** Check if a path contains a close segment */
+    public boolean isClosed() {
+        if(segments != null)
+            for(byte s : segments)
+                if(s == PathIterator.SEG_CLOSE)
+                    return true;
+        return false;
+    }
+
+    /** Number of coordinates used by a path segment type */
+    public static int coordCount(int segment) {
+        switch(segment) {
+            case PathIterator.SEG_MOVETO:
+            case PathIterator.SEG_LINETO: return 2;
+            case PathIterator.SEG_QUADTO: return 4;
+            case PathIterator.SEG_CUBICTO: return 6;
+            default: return 0;
+        }
+    }
+
+    /** Get the vertices of a polygonal path, without repeating the start */
+    double[] getPathVertices() {
+        return Arrays.copyOf(coords, countCoords(segments));
+    }
+
+    /** Build a Java 2D path from a path shape */
+    public Path2D toPath2D() {
+        final Path2D.Double p = new Path2D.Double(Path2D.WIND_NON_ZERO, segments.length);
+        int k = 0;
+        for(byte s : segments) {
+            switch(s) {
+                case PathIterator.SEG_MOVETO:
+                    p.moveTo(coords[k], coords[k + 1]);
+                    break;
+                case PathIterator.SEG_LINETO:
+                    p.lineTo(coords[k], coords[k + 1]);
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    p.quadTo(coords[k], coords[k + 1], coords[k + 2], coords[k + 3]);
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    p.curveTo(coords[k], coords[k + 1], coords[k + 2],
+                            coords[k + 3], coords[k + 4], coords[k + 5]);
+                    break;
+                default:
+                    p.closePath();
+            }
+            k += coordCount(s);
+        }
+        return p;
+    }
+
+    /** Create a new ImageJ 2 overlay from the shape */
+    public AbstractOverlay toOverlay(Context ij) {
+        final double[] c = coords;
+        switch(type) {
+            case POINT:
+                return new PointOverlay(ij, new double[] {c[0], c[1]});
+            case LINE:
+                return new LineOverlay(ij, new double[] {c[0], c[1]},
+                        new double[] {c[2], c[3]});
+            case RECT: {
+                final RectangleOverlay ro = new RectangleOverlay(ij);
+                setAxes(ro);
+                ro.setOrigin(c[0], 0);
+                ro.setOrigin(c[1], 1);
+                ro.setExtent(c[2], 0);
+                ro.setExtent(c[3], 1);
+                return ro;
+            }
+            case ELLIPSE: {
+                final EllipseOverlay eo = new EllipseOverlay(ij);
+                setAxes(eo);
+                eo.setOrigin(c[0], 0);
+                eo.setOrigin(c[1], 1);
+                eo.setRadius(c[2], 0);
+                eo.setRadius(c[3], 1);
+                return eo;
+            }
+            case POLYGON: {
+                final PolygonOverlay po = new PolygonOverlay(ij);
+                setAxes(po);
+                final PolygonRegionOfInterest poi = po.getRegionOfInterest();
+                for(int i = 0; i + 1 < c.length; i += 2)
+                    poi.addVertex(poi.getVertexCount(), new RealPoint(c[i], c[i + 1]));
+                return po;
+            }
+            case POLYLINE: {
+                final GeneralPathOverlay go = new GeneralPathOverlay(ij);
+                final GeneralPathRegionOfInterest groi = go.getRegionOfInterest();
+                groi.moveTo(c[0], c[1]);
+                for(int i = 2; i + 1 < c.length; i += 2)
+                    groi.lineTo(c[i], c[i + 1]);
+                return go;
+            }
+            default: {
+                final GeneralPathOverlay go = new GeneralPathOverlay(ij);
+                final GeneralPathRegionOfInterest groi = go.getRegionOfInterest();
+                int k = 0;
+                for(byte seg : segments) {
+                    switch(seg) {
+                        case PathIterator.SEG_MOVETO:
+                            groi.moveTo(c[k], c[k + 1]);
+                            break;
+                        case PathIterator.SEG_LINETO:
+                            groi.lineTo(c[k], c[k + 1]);
+                            break;
+                        case PathIterator.SEG_QUADTO:
+                            groi.quadTo(c[k], c[k + 1], c[k + 2], c[k + 3]);
+                            break;
+                        case PathIterator.SEG_CUBICTO:
+                            groi.cubicTo(c[k], c[k + 1], c[k + 2], c[k + 3], c[k + 4], c[k + 5]);
+                            break;
+                        default:
+                            groi.close();
+                    }
+                    k += coordCount(seg);
+                }
+                return go;
+            }
+        }
+    }
+
+    /** Create a new ImageJ 1 {@code Roi} from the shape */
+    public Roi toRoi() {
+        final double[] c = coords;
+        switch(type) {
+            case POINT:
+                return new PointRoi(c[0], c[1]);
+            case LINE:
+                return new Line(c[0], c[1], c[2], c[3]);
+            case RECT:
+                return new Roi(c[0], c[1], c[2], c[3]);
+            case ELLIPSE:
+                return new OvalRoi(c[0] - c[2], c[1] - c[3], 2 * c[2], 2 * c[3]);
+            case POLYGON:
+                return makePolygon(c, Roi.POLYGON);
+            case POLYLINE:
+                return makePolygon(c, Roi.POLYLINE);
+            default:
+                if(isPolygonal())
+                    return makePolygon(getPathVertices(),
+                            isClosed() ? Roi.POLYGON : Roi.POLYLINE);
+                return new ShapeRoi(toPath2D());
+        }
+    }
+
+    /**
+     * Get the shapes of an ImageJ 2 overlay. Point overlays
+     * give one shape per point.
+     * @throws UnsupportedOverlayException if the overlay type is not supported
+     */
+    public static List<RoiShape> fromOverlay(AbstractOverlay overlay)
+            throws UnsupportedOverlayException {
+        final List<RoiShape> shapes = new ArrayList<RoiShape>(1);
+        final int[] xy = getPlanarAxes(overlay);
+        final int x = xy[0], y = xy[1];
+        if(overlay instanceof PointOverlay) {
+            for(double[] pt : ((PointOverlay) overlay).getPoints())
+                shapes.add(new RoiShape(POINT, new double[] {pt[x], pt[y]}));
+        } else if(overlay instanceof LineOverlay) {
+            final LineOverlay lo = (LineOverlay) overlay;
+            shapes.add(new RoiShape(LINE, new double[] {
+                lo.getLineStart(x), lo.getLineStart(y), lo.getLineEnd(x), lo.getLineEnd(y)}));
+        } else if(overlay instanceof RectangleOverlay) {
+            final RectangleOverlay ro = (RectangleOverlay) overlay;
+            shapes.add(new RoiShape(RECT, new double[] {
+                ro.getOrigin(x), ro.getOrigin(y), ro.getExtent(x), ro.getExtent(y)}));
+        } else if(overlay instanceof EllipseOverlay) {
+            final EllipseOverlay eo = (EllipseOverlay) overlay;
+            shapes.add(new RoiShape(ELLIPSE, new double[] {
+                eo.getOrigin(x), eo.getOrigin(y), eo.getRadius(x), eo.getRadius(y)}));
+        } else if(overlay instanceof PolygonOverlay) {
+            final PolygonRegionOfInterest poi = ((PolygonOverlay) overlay).getRegionOfInterest();
+            final double[] c = new double[2 * poi.getVertexCount()];
+            for(int i = 0; i < poi.getVertexCount(); i++) {
+                final RealLocalizable v = poi.getVertex(i);
+                c[2 * i] = v.getDoublePosition(x);
+                c[2 * i + 1] = v.getDoublePosition(y);
+            }
+            shapes.add(new RoiShape(POLYGON, c));
+        } else if(overlay instanceof GeneralPathOverlay) {
+            final PathBuilder b = new PathBuilder();
+            ((GeneralPathOverlay) overlay).getRegionOfInterest().iteratePath(b);
+            if(b.nSegments > 0)
+                shapes.add(b.build());
+        } else
+            throw new UnsupportedOverlayException(
+                    "Unsupported overlay type: " + overlay.getClass().getName());
+        return shapes;
+    }
+
+    /**
+     * Get the shapes of an ImageJ 1 {@code Roi}. Point ROIs
+     * give one shape per point.
+     * @throws UnsupportedOverlayException if the ROI type is not supported
+     */
+    public static List<RoiShape> fromRoi(Roi roi) throws UnsupportedOverlayException {
+        final List<RoiShape> shapes = new ArrayList<RoiShape>(1);
+        if(roi instanceof Line) {
+            final Line l = (Line) roi;
+            shapes.add(new RoiShape(LINE, new double[] {l.x1d, l.y1d, l.x2d, l.y2d}));
+        } else if(roi instanceof OvalRoi) {
+            final double rx = roi.getFloatWidth() / 2;
+            final double ry = roi.getFloatHeight() / 2;
+            shapes.add(new RoiShape(ELLIPSE, new double[] {
+                roi.getXBase() + rx, roi.getYBase() + ry, rx, ry}));
+        } else if(roi instanceof PointRoi) {
+            final FloatPolygon fp = roi.getFloatPolygon();
+            for(int i = 0; i < fp.npoints; i++)
+                shapes.add(new RoiShape(POINT, new double[] {fp.xpoints[i], fp.ypoints[i]}));
+        } else if(roi instanceof PolygonRoi) {
+            final FloatPolygon fp = roi.getFloatPolygon();
+            final double[] c = new double[2 * fp.npoints];
+            for(int i = 0; i < fp.npoints; i++) {
+                c[2 * i] = fp.xpoints[i];
+                c[2 * i + 1] = fp.ypoints[i];
+            }
+            shapes.add(new RoiShape(roi.isArea() ? POLYGON : POLYLINE, c));
+        } else if(roi instanceof ShapeRoi) {
+            // The shape is stored relative to the ROI's origin
+            final PathIterator pi = ((ShapeRoi) roi).getShape().getPathIterator(
+                    AffineTransform.getTranslateInstance(roi.getXBase(), roi.getYBase()));
+            final PathBuilder b = new PathBuilder();
+            final double[] c = new double[6];
+            for(; !pi.isDone(); pi.next()) {
+                final int s = pi.currentSegment(c);
+                b.segment(s, c);
+            }
+            if(b.nSegments > 0)
+                shapes.add(b.build());
+        } else if(roi.getType() == Roi.RECTANGLE)
+            shapes.add(new RoiShape(RECT, new double[] {
+                roi.getXBase(), roi.getYBase(), roi.getFloatWidth(), roi.getFloatHeight()}));
+        else
+            throw new UnsupportedOverlayException(
+                    "Unsupported ROI type: " + roi.getClass().getName());
+        return shapes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof RoiShape))
+            return false;
+        final RoiShape s = (RoiShape) o;
+        return type == s.type && Arrays.equals(coords, s.coords)
+                && Arrays.equals(segments, s.segments);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * type + Arrays.hashCode(coords)) + Arrays.hashCode(segments);
+    }
+
+    // -- Helper methods --
+
+    private static int countCoords(byte[] segments) {
+        int n = 0;
+        for(byte s : segments)
+            n += coordCount(s);
+        return n;
+    }
+
+    private static void setAxes(AbstractOverlay o) {
+        o.setAxis(new DefaultLinearAxis(Axes.X), 0);
+        o.setAxis(new DefaultLinearAxis(Axes.Y), 1);
+    }
+
+    /** Get the indices of an overlay's X and Y axes */
+    private static int[] getPlanarAxes(AbstractOverlay overlay)
+            throws UnsupportedOverlayException {
+        final CalibratedAxis[] axs = new CalibratedAxis[overlay.numDimensions()];
+        overlay.axes(axs);
+        final int[] xy = {-1, -1};
+        for(int i = 0; i < axs.length; i++) {
+            if(axs[i].type() == Axes.X)
+                xy[0] = i;
+            else if(axs[i].type() == Axes.Y)
+                xy[1] = i;
+        }
+        if(xy[0] < 0 || xy[1] < 0)
+            throw new UnsupportedOverlayException("Missing X or Y axis.");
+        return xy;
+    }
+
+    private static Roi makePolygon(double[] c, int type) {
+        final int n = c.length / 2;
+        final float[] x = new float[n];
+        final float[] y = new float[n];
+        for(int i = 0; i < n; i++) {
+            x[i] = (float) c[2 * i];
+            y[i] = (float) c[2 * i + 1];
+        }
+        return new PolygonRoi(x, y, n, type);
+    }
+
+    // -- Helper classes --
+
+    /** Collects path segments into a {@link #PATH} shape */
+    private static final class PathBuilder implements GeneralPathSegmentHandler {
+        private double[] c = new double[32];
+        private byte[] s = new byte[16];
+        private int nCoords = 0;
+        private int nSegments = 0;
+
+        void segment(int type, double[] v) {
+            if(nSegments == s.length)
+                s = Arrays.copyOf(s, 2 * nSegments);
+            s[nSegments++] = (byte) type;
+            final int n = coordCount(type);
+            if(nCoords + n > c.length)
+                c = Arrays.copyOf(c, 2 * c.length + n);
+            if(n > 0)
+                System.arraycopy(v, 0, c, nCoords, n);
+            nCoords += n;
+        }
+
+        RoiShape build() {
+            return new RoiShape(PATH, Arrays.copyOf(c, nCoords), Arrays.copyOf(s, nSegments));
+        }
+
+        @Override
+        public void moveTo(double x, double y) {
+            segment(PathIterator.SEG_MOVETO, new double[] {x, y});
+        }
+
+        @Override
+        public void lineTo(double x, double y) {
+            segment(PathIterator.SEG_LINETO, new double[] {x, y});
+        }
+
+        @Override
+        public void quadTo(double x1, double y1, double x, double y) {
+            segment(PathIterator.SEG_QUADTO, new double[] {x1, y1, x, y});
+        }
+
+        @Override
+        public void cubicTo(double x1, double y1, double x2, double y2, double x, double y) {
+            segment(PathIterator.SEG_CUBICTO, new double[] {x1, y1, x2, y2, x, y});
+        }
+
+        @Override
+        public void close() {
+            segment(PathIterator.SEG_CLOSE, null);
+        }
+    }
+
+}
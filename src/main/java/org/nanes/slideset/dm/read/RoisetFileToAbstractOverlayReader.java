@@ -7,7 +7,6 @@ import org.nanes.slideset.ex.LinkNotFoundException;
 import org.nanes.slideset.ex.RoiLinkException;
 import org.nanes.slideset.ex.SlideSetException;
 import net.imagej.overlay.AbstractOverlay;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -27,14 +26,8 @@ public class RoisetFileToAbstractOverlayReader implements
         ElementReader<FileLinkElement, AbstractOverlay[]> {
 
     public AbstractOverlay[] read(FileLinkElement elementToRead) throws SlideSetException {
-        String path = elementToRead.getUnderlying();
-        String wd = elementToRead.getOwner().getWorkingDirectory();
-        wd = wd == null ? "" : wd;
-        path = path.replaceFirst("^~", System.getProperty("user.home"));  // need to expand home dir relative paths
-        if(!(new File(path)).isAbsolute())
-            path = wd + File.separator + path;
-        if(!(new File(path).exists()))
-           throw new LinkNotFoundException(path + " does not exist!");
+        final String path = elementToRead.getOwner().getPathResolver()
+                .resolveExisting(elementToRead.getUnderlying());
         FileInputStream fis;
         ObjectInputStream ois;
         AbstractOverlay[] overlays;
@@ -0,0 +1,692 @@
+package org.nanes.slideset.dm.read;
+
+import org.nanes.slideset.ex.SVGParseException;
+import org.nanes.slideset.ex.SlideSetException;
+import java.awt.geom.PathIterator;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming parser for the shapes in an SVG file, shared by the SVG
+ * ROI readers. The file is read once with a StAX reader, keeping a stack
+ * of the transforms of the enclosing elements, so each shape is converted
+ * to document coordinates as it is read and no DOM is built. Coordinate
+ * lists and path data are tokenized in place, without regular
+ * expressions or intermediate strings.
+ * <p> Supported elements are {@code rect}, {@code circle}, {@code ellipse},
+ * {@code line}, {@code polygon}, {@code polyline}, and {@code path}. Shapes
+ * that cannot be read are skipped, and a message is added to the list of
+ * warnings.
+ *
+ * @author Benjamin Nanes
+ */
+final class SVGParser {
+
+    // -- Fields --
+
+    private static final XMLInputFactory factory = createFactory();
+
+    /** Transform stack, six values per level, in SVG matrix order */
+    private double[] stack = new double[6 * 16];
+    private int depth = 0;
+    private final List<RoiShape> shapes = new ArrayList<RoiShape>();
+    private final List<String> warnings;
+
+    // Path data, reused between paths
+    private double[] pathCoords = new double[64];
+    private byte[] pathSegments = new byte[32];
+    private int nCoords;
+    private int nSegments;
+
+    // Tokenizer state
+    private String text;
+    private int pos;
+
+    private SVGParser(List<String> warnings) {
+        this.warnings = warnings;
+        stack[0] = 1;
+        stack[3] = 1;
+    }
+
+    // -- Methods --
+
+    /**
+     * Read the shapes in an SVG file
+     * @param file The file
+     * @param warnings List to receive messages for shapes that could
+     *     not be read, or {@code null}
+     * @return The shapes, in document order
+     */
+    static List<RoiShape> parse(File file, List<String> warnings) throws SlideSetException {
+        final SVGParser p = new SVGParser(warnings);
+        InputStream in = null;
+        XMLStreamReader xml = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            xml = factory.createXMLStreamReader(in);
+            p.read(xml);
+        } catch(IOException e) {
+            throw new SlideSetException("Error reading SVG file:", e);
+        } catch(XMLStreamException e) {
+            throw new SlideSetException("Error reading SVG file:", e);
+        } finally {
+            try {
+                if(xml != null)
+                    xml.close();
+                if(in != null)
+                    in.close();
+            } catch(Exception e) {
+                // Already read
+            }
+        }
+        return p.shapes;
+    }
+
+    /**
+     * Get the shapes in an SVG file from the {@link RoiCache}, or read
+     * and cache them. Messages for shapes that could not be read are
+     * printed to {@code System.err}.
+     */
+    static List<RoiShape> read(File file) throws SlideSetException {
+        final RoiCache cache = RoiCache.getInstance();
+        final List<RoiShape> cached = cache.get(file);
+        if(cached != null)
+            return cached;
+        // Stamp the cache entry with the version of the file that is parsed
+        final long modified = file.lastModified();
+        final long length = file.length();
+        final List<String> warnings = new ArrayList<String>();
+        final List<RoiShape> shapes = parse(file, warnings);
+        for(String w : warnings)
+            System.err.println(file.getName() + ": " + w);
+        return cache.put(file, modified, length, shapes);
+    }
+
+    // -- Helper methods --
+
+    private static XMLInputFactory createFactory() {
+        final XMLInputFactory f = XMLInputFactory.newInstance();
+        // Don't fetch DTDs or entities; SVG ROI files don't need them
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return f;
+    }
+
+    private void read(XMLStreamReader xml) throws XMLStreamException {
+        while(xml.hasNext()) {
+            final int event = xml.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                final String name = xml.getLocalName();
+                try {
+                    push(xml.getAttributeValue(null, "transform"));
+                    readElement(name, xml);
+                } catch(SVGParseException e) {
+                    warn(e.getMessage());
+                }
+            } else if(event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    private void warn(String message) {
+        if(warnings != null)
+            warnings.add(message);
+    }
+
+    /** Read a shape element, after its transform has been pushed */
+    private void readElement(String name, XMLStreamReader xml) throws SVGParseException {
+        if(name.equals("rect"))
+            readRect(xml);
+        else if(name.equals("circle")) {
+            final double r = length(xml, "r", name, true);
+            readEllipse(length(xml, "cx", name, false), length(xml, "cy", name, false), r, r);
+        } else if(name.equals("ellipse"))
+            readEllipse(length(xml, "cx", name, false), length(xml, "cy", name, false),
+                    length(xml, "rx", name, true), length(xml, "ry", name, true));
+        else if(name.equals("line"))
+            readLine(xml);
+        else if(name.equals("polygon"))
+            readPoints(xml, name, RoiShape.POLYGON);
+        else if(name.equals("polyline"))
+            readPoints(xml, name, RoiShape.POLYLINE);
+        else if(name.equals("path"))
+            readPath(xml.getAttributeValue(null, "d"));
+    }
+
+    private void readLine(XMLStreamReader xml) throws SVGParseException {
+        final double[] c = {
+            length(xml, "x1", "line", false), length(xml, "y1", "line", false),
+            length(xml, "x2", "line", false), length(xml, "y2", "line", false)};
+        transform(c, 0, 4);
+        if(c[0] == c[2] && c[1] == c[3])
+            shapes.add(new RoiShape(RoiShape.POINT, Arrays.copyOf(c, 2)));
+        else
+            shapes.add(new RoiShape(RoiShape.LINE, c));
+    }
+
+    private void readRect(XMLStreamReader xml) throws SVGParseException {
+        final double x = length(xml, "x", "rect", false);
+        final double y = length(xml, "y", "rect", false);
+        final double w = length(xml, "width", "rect", true);
+        final double h = length(xml, "height", "rect", true);
+        final double[] c = {x, y, x + w, y, x + w, y + h, x, y + h};
+        transform(c, 0, 8);
+        if(isAxisAligned() || isQuarterTurn())
+            shapes.add(new RoiShape(RoiShape.RECT, new double[] {
+                Math.min(c[0], c[4]), Math.min(c[1], c[5]),
+                Math.abs(c[4] - c[0]), Math.abs(c[5] - c[1])}));
+        else
+            shapes.add(new RoiShape(RoiShape.POLYGON, c));
+    }
+
+    /**
+     * Add an ellipse given in the current user space. Ellipses that are
+     * not aligned with the axes after transformation are added as paths
+     * of four cubic B&eacute;zier curves.
+     */
+    private void readEllipse(double cx, double cy, double rx, double ry) {
+        final double[] m = current();
+        final double x = m[0] * cx + m[2] * cy + m[4];
+        final double y = m[1] * cx + m[3] * cy + m[5];
+        if(isAxisAligned()) {
+            shapes.add(new RoiShape(RoiShape.ELLIPSE, new double[] {
+                x, y, Math.abs(m[0] * rx), Math.abs(m[3] * ry)}));
+            return;
+        }
+        if(isQuarterTurn()) {
+            shapes.add(new RoiShape(RoiShape.ELLIPSE, new double[] {
+                x, y, Math.abs(m[2] * ry), Math.abs(m[1] * rx)}));
+            return;
+        }
+        if(rx == ry && Math.abs(m[0] - m[3]) <= tolerance() && Math.abs(m[1] + m[2]) <= tolerance()) {
+            final double r = rx * Math.hypot(m[0], m[1]); // Rotated circle
+            shapes.add(new RoiShape(RoiShape.ELLIPSE, new double[] {x, y, r, r}));
+            return;
+        }
+        final double k = 0.5522847498307936; // 4/3 (sqrt(2) - 1)
+        final double kx = k * rx;
+        final double ky = k * ry;
+        final double[] c = {
+            cx + rx, cy,
+            cx + rx, cy + ky, cx + kx, cy + ry, cx, cy + ry,
+            cx - kx, cy + ry, cx - rx, cy + ky, cx - rx, cy,
+            cx - rx, cy - ky, cx - kx, cy - ry, cx, cy - ry,
+            cx + kx, cy - ry, cx + rx, cy - ky, cx + rx, cy};
+        transform(c, 0, c.length);
+        shapes.add(new RoiShape(RoiShape.PATH, c, new byte[] {
+            PathIterator.SEG_MOVETO, PathIterator.SEG_CUBICTO, PathIterator.SEG_CUBICTO,
+            PathIterator.SEG_CUBICTO, PathIterator.SEG_CUBICTO, PathIterator.SEG_CLOSE}));
+    }
+
+    private void readPoints(XMLStreamReader xml, String name, int type) throws SVGParseException {
+        final String points = xml.getAttributeValue(null, "points");
+        if(points == null)
+            return;
+        begin(points);
+        nCoords = 0;
+        while(skipSeparators())
+            addCoord(readLength());
+        if(nCoords % 2 != 0)
+            throw new SVGParseException("Bad list of points in " + name + ": " + points);
+        if(nCoords == 0)
+            return;
+        final double[] c = Arrays.copyOf(pathCoords, nCoords);
+        transform(c, 0, c.length);
+        shapes.add(new RoiShape(type, c));
+    }
+
+    /** Read path data, which is tokenized directly from the attribute value */
+    private void readPath(String d) throws SVGParseException {
+        if(d == null)
+            return;
+        begin(d);
+        nCoords = 0;
+        nSegments = 0;
+        double curX = 0, curY = 0;          // Current point
+        double startX = 0, startY = 0;      // Start of the current subpath
+        double ctrlX = 0, ctrlY = 0;        // Last control point, for shorthand curves
+        char last = ' ';
+        boolean drawn = false;
+        boolean closed = false;
+        char cmd = 0;
+        while(skipSeparators()) {
+            if(isCommand(text.charAt(pos)))
+                cmd = text.charAt(pos++);
+            else if(cmd == 0)
+                throw new SVGParseException("Bad path data: " + d);
+            else if(cmd == 'M')
+                cmd = 'L';  // Extra coordinate pairs after a move are lines
+            else if(cmd == 'm')
+                cmd = 'l';
+            else if(cmd == 'Z' || cmd == 'z')
+                throw new SVGParseException("Bad path data: " + d);
+            final boolean rel = Character.isLowerCase(cmd);
+            final double ox = rel ? curX : 0;
+            final double oy = rel ? curY : 0;
+            final char upper = Character.toUpperCase(cmd);
+            if(upper != 'M' && upper != 'Z' && closed) {
+                // Drawing after a close starts a new subpath at the same point
+                segment(PathIterator.SEG_MOVETO, startX, startY);
+                closed = false;
+            }
+            switch(upper) {
+                case 'M':
+                    curX = ox + number(d);
+                    curY = oy + number(d);
+                    startX = curX;
+                    startY = curY;
+                    if(nSegments > 0 && pathSegments[nSegments - 1] == PathIterator.SEG_MOVETO) {
+                        nCoords -= 2;  // Replace an empty subpath
+                        nSegments--;
+                    }
+                    segment(PathIterator.SEG_MOVETO, curX, curY);
+                    closed = false;
+                    break;
+                case 'L':
+                    curX = ox + number(d);
+                    curY = oy + number(d);
+                    segment(PathIterator.SEG_LINETO, curX, curY);
+                    break;
+                case 'H':
+                    curX = ox + number(d);
+                    segment(PathIterator.SEG_LINETO, curX, curY);
+                    break;
+                case 'V':
+                    curY = oy + number(d);
+                    segment(PathIterator.SEG_LINETO, curX, curY);
+                    break;
+                case 'C':
+                case 'S': {
+                    final double x1, y1;
+                    if(upper == 'C') {
+                        x1 = ox + number(d);
+                        y1 = oy + number(d);
+                    } else if(last == 'C' || last == 'S') {
+                        x1 = 2 * curX - ctrlX;
+                        y1 = 2 * curY - ctrlY;
+                    } else {
+                        x1 = curX;
+                        y1 = curY;
+                    }
+                    ctrlX = ox + number(d);
+                    ctrlY = oy + number(d);
+                    curX = ox + number(d);
+                    curY = oy + number(d);
+                    segment(PathIterator.SEG_CUBICTO, x1, y1);
+                    addCoord(ctrlX);
+                    addCoord(ctrlY);
+                    addCoord(curX);
+                    addCoord(curY);
+                    break;
+                }
+                case 'Q':
+                case 'T':
+                    if(upper == 'Q') {
+                        ctrlX = ox + number(d);
+                        ctrlY = oy + number(d);
+                    } else if(last == 'Q' || last == 'T') {
+                        ctrlX = 2 * curX - ctrlX;
+                        ctrlY = 2 * curY - ctrlY;
+                    } else {
+                        ctrlX = curX;
+                        ctrlY = curY;
+                    }
+                    curX = ox + number(d);
+                    curY = oy + number(d);
+                    segment(PathIterator.SEG_QUADTO, ctrlX, ctrlY);
+                    addCoord(curX);
+                    addCoord(curY);
+                    break;
+                case 'A':
+                    if(!drawn && readArcEllipse(curX, curY, rel, d))
+                        return;
+                    throw new SVGParseException("Unsupported arc in path: " + d);
+                case 'Z':
+                    if(nSegments > 0 && pathSegments[nSegments - 1] != PathIterator.SEG_CLOSE)
+                        segment(PathIterator.SEG_CLOSE, Double.NaN, Double.NaN);
+                    curX = startX;
+                    curY = startY;
+                    closed = true;
+                    break;
+                default:
+                    throw new SVGParseException("Bad path data: " + d);
+            }
+            if(upper != 'M')
+                drawn = true;
+            last = upper;
+        }
+        if(nSegments > 0 && pathSegments[nSegments - 1] == PathIterator.SEG_MOVETO) {
+            nCoords -= 2;  // Drop a trailing empty subpath
+            nSegments--;
+        }
+        if(nSegments == 0)
+            return;
+        final double[] c = Arrays.copyOf(pathCoords, nCoords);
+        transform(c, 0, c.length);
+        shapes.add(new RoiShape(RoiShape.PATH, c, Arrays.copyOf(pathSegments, nSegments)));
+    }
+
+    /**
+     * Read a path consisting of two half-circle arcs, which is how some
+     * editors save ellipses. The tokenizer should be positioned after the
+     * first {@code A} command.
+     * @return {@code true} if an ellipse was added, or {@code false} if the
+     *     arcs do not form an ellipse
+     */
+    private boolean readArcEllipse(double x0, double y0, boolean rel, String d)
+            throws SVGParseException {
+        final double[] a = new double[14];
+        boolean rel2 = rel;
+        for(int i = 0; i < 14; i++) {
+            skipSeparators();
+            if(i == 7 && pos < text.length() && (text.charAt(pos) == 'A' || text.charAt(pos) == 'a')) {
+                rel2 = text.charAt(pos++) == 'a';
+                skipSeparators();
+            }
+            a[i] = (i % 7 == 3 || i % 7 == 4) ? flag(d) : number(d);
+        }
+        final double x1 = rel ? x0 + a[5] : a[5];
+        final double y1 = rel ? y0 + a[6] : a[6];
+        final double x2 = rel2 ? x1 + a[12] : a[12];
+        final double y2 = rel2 ? y1 + a[13] : a[13];
+        if(!skipSeparators() || Character.toUpperCase(text.charAt(pos)) != 'Z')
+            return false;
+        pos++;
+        if(skipSeparators()
+                || a[0] != a[7] || a[1] != a[8] || a[2] != 0 || a[9] != 0
+                || a[4] != a[11] || x2 != x0 || y2 != y0)
+            return false;
+        readEllipse((x0 + x1) / 2, (y0 + y1) / 2, a[0], a[1]);
+        return true;
+    }
+
+    private void segment(int type, double x, double y) {
+        if(nSegments == pathSegments.length)
+            pathSegments = Arrays.copyOf(pathSegments, 2 * nSegments);
+        pathSegments[nSegments++] = (byte) type;
+        if(type != PathIterator.SEG_CLOSE) {
+            addCoord(x);
+            addCoord(y);
+        }
+    }
+
+    private void addCoord(double v) {
+        if(nCoords == pathCoords.length)
+            pathCoords = Arrays.copyOf(pathCoords, 2 * nCoords);
+        pathCoords[nCoords++] = v;
+    }
+
+    // -- Transforms --
+
+    private double[] current() {
+        return Arrays.copyOfRange(stack, 6 * depth, 6 * depth + 6);
+    }
+
+    /** Push the transform of an element, composed with its parent's */
+    private void push(String transform) throws SVGParseException {
+        final int p = 6 * depth;
+        depth++;
+        if(stack.length < 6 * depth + 6)
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        System.arraycopy(stack, p, stack, p + 6, 6);
+        if(transform == null)
+            return;
+        begin(transform);
+        while(skipSeparators()) {
+            final int start = pos;
+            while(pos < text.length() && Character.isLetter(text.charAt(pos)))
+                pos++;
+            final String name = text.substring(start, pos);
+            skipWhitespace();
+            if(pos >= text.length() || text.charAt(pos) != '(')
+                throw new SVGParseException("Bad transform: " + transform);
+            pos++;
+            final double[] v = new double[6];
+            int n = 0;
+            while(skipSeparators() && text.charAt(pos) != ')') {
+                if(n == 6)
+                    throw new SVGParseException("Bad transform: " + transform);
+                v[n++] = number(transform);
+            }
+            if(pos >= text.length())
+                throw new SVGParseException("Bad transform: " + transform);
+            pos++;
+            if(name.equals("matrix") && n == 6)
+                concatenate(v[0], v[1], v[2], v[3], v[4], v[5]);
+            else if(name.equals("translate") && (n == 1 || n == 2))
+                concatenate(1, 0, 0, 1, v[0], v[1]);
+            else if(name.equals("scale") && (n == 1 || n == 2))
+                concatenate(v[0], 0, 0, n == 1 ? v[0] : v[1], 0, 0);
+            else if(name.equals("rotate") && (n == 1 || n == 3)) {
+                final double t = Math.toRadians(v[0]);
+                final double cos = Math.cos(t);
+                final double sin = Math.sin(t);
+                concatenate(1, 0, 0, 1, v[1], v[2]);
+                concatenate(cos, sin, -sin, cos, 0, 0);
+                concatenate(1, 0, 0, 1, -v[1], -v[2]);
+            } else if(name.equals("skewX") && n == 1)
+                concatenate(1, 0, Math.tan(Math.toRadians(v[0])), 1, 0, 0);
+            else if(name.equals("skewY") && n == 1)
+                concatenate(1, Math.tan(Math.toRadians(v[0])), 0, 1, 0, 0);
+            else
+                throw new SVGParseException("Bad transform: " + transform);
+        }
+    }
+
+    /** Multiply the current transform on the right by another */
+    private void concatenate(double a, double b, double c, double d, double e, double f) {
+        final double[] m = stack;
+        final int p = 6 * depth;
+        final double ma = m[p], mb = m[p + 1], mc = m[p + 2], md = m[p + 3];
+        m[p] = ma * a + mc * b;
+        m[p + 1] = mb * a + md * b;
+        m[p + 2] = ma * c + mc * d;
+        m[p + 3] = mb * c + md * d;
+        m[p + 4] += ma * e + mc * f;
+        m[p + 5] += mb * e + md * f;
+    }
+
+    /** Transform interleaved coordinates to document space, in place */
+    private void transform(double[] c, int from, int to) {
+        final int p = 6 * depth;
+        final double a = stack[p], b = stack[p + 1], cc = stack[p + 2],
+                d = stack[p + 3], e = stack[p + 4], f = stack[p + 5];
+        if(a == 1 && b == 0 && cc == 0 && d == 1 && e == 0 && f == 0)
+            return;
+        for(int i = from; i + 1 < to; i += 2) {
+            final double x = c[i];
+            final double y = c[i + 1];
+            c[i] = a * x + cc * y + e;
+            c[i + 1] = b * x + d * y + f;
+        }
+    }
+
+    /** Check if the current transform has no rotation or skew */
+    private boolean isAxisAligned() {
+        final int p = 6 * depth;
+        final double tol = tolerance();
+        return Math.abs(stack[p + 1]) <= tol && Math.abs(stack[p + 2]) <= tol;
+    }
+
+    /** Check if the current transform swaps the axes, as in a 90&deg; rotation */
+    private boolean isQuarterTurn() {
+        final int p = 6 * depth;
+        final double tol = tolerance();
+        return Math.abs(stack[p]) <= tol && Math.abs(stack[p + 3]) <= tol;
+    }
+
+    /** Rounding error allowed when classifying the current transform */
+    private double tolerance() {
+        final int p = 6 * depth;
+        return 1e-12 * Math.max(Math.max(Math.abs(stack[p]), Math.abs(stack[p + 1])),
+                Math.max(Math.abs(stack[p + 2]), Math.abs(stack[p + 3])));
+    }
+
+    // -- Tokenizer --
+
+    private void begin(String s) {
+        text = s;
+        pos = 0;
+    }
+
+    /** Read a length attribute */
+    private double length(XMLStreamReader xml, String attr, String element, boolean required)
+            throws SVGParseException {
+        final String v = xml.getAttributeValue(null, attr);
+        if(v == null || v.trim().isEmpty()) {
+            if(required)
+                throw new SVGParseException("Missing " + attr + " in " + element);
+            return 0;
+        }
+        begin(v);
+        skipSeparators();
+        final double x = readLength();
+        if(skipSeparators())
+            throw new SVGParseException("Bad number format in " + element + ": " + attr + "=" + v);
+        return x;
+    }
+
+    /** Read a number followed by an optional unit */
+    private double readLength() throws SVGParseException {
+        final double x = number(text);
+        if(pos + 1 < text.length() && Character.isLetter(text.charAt(pos))) {
+            final char a = text.charAt(pos);
+            final char b = text.charAt(pos + 1);
+            pos += 2;
+            if(a == 'p' && b == 'x') return x;
+            if(a == 'i' && b == 'n') return x * 90;
+            if(a == 'c' && b == 'm') return x * 35.43307;
+            if(a == 'm' && b == 'm') return x * 3.543307;
+            if(a == 'p' && b == 't') return x * 1.25;
+            if(a == 'p' && b == 'c') return x * 15;
+            throw new SVGParseException("Unknown unit in " + text);
+        }
+        return x;
+    }
+
+    /**
+     * Skip whitespace and at most one comma
+     * @return {@code true} if there is more text to read
+     */
+    private boolean skipSeparators() {
+        skipWhitespace();
+        if(pos < text.length() && text.charAt(pos) == ',') {
+            pos++;
+            skipWhitespace();
+        }
+        return pos < text.length();
+    }
+
+    private void skipWhitespace() {
+        while(pos < text.length() && text.charAt(pos) <= ' ')
+            pos++;
+    }
+
+    private static boolean isCommand(char c) {
+        switch(c) {
+            case 'M': case 'm': case 'L': case 'l': case 'H': case 'h':
+            case 'V': case 'v': case 'C': case 'c': case 'S': case 's':
+            case 'Q': case 'q': case 'T': case 't': case 'A': case 'a':
+            case 'Z': case 'z':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Read an arc flag, which may be written without a separator */
+    private double flag(String context) throws SVGParseException {
+        if(pos < text.length() && (text.charAt(pos) == '0' || text.charAt(pos) == '1'))
+            return text.charAt(pos++) - '0';
+        throw new SVGParseException("Bad path data: " + context);
+    }
+
+    /**
+     * Read a number at the current position. Numbers with up to 15
+     * significant digits are converted directly; longer numbers fall
+     * back to {@link Double#parseDouble(String)}.
+     */
+    private double number(String context) throws SVGParseException {
+        skipSeparators();
+        final int start = pos;
+        final int n = text.length();
+        boolean negative = false;
+        if(pos < n && (text.charAt(pos) == '-' || text.charAt(pos) == '+'))
+            negative = text.charAt(pos++) == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean any = false;
+        char c;
+        while(pos < n && (c = text.charAt(pos)) >= '0' && c <= '9') {
+            if(digits < 18) {
+                mantissa = 10 * mantissa + (c - '0');
+                if(mantissa != 0)
+                    digits++;
+            } else
+                scale++;
+            pos++;
+            any = true;
+        }
+        if(pos < n && text.charAt(pos) == '.') {
+            pos++;
+            while(pos < n && (c = text.charAt(pos)) >= '0' && c <= '9') {
+                if(digits < 18) {
+                    mantissa = 10 * mantissa + (c - '0');
+                    if(mantissa != 0)
+                        digits++;
+                    scale--;
+                }
+                pos++;
+                any = true;
+            }
+        }
+        if(!any)
+            throw new SVGParseException("Bad number format: " + context);
+        if(pos < n && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')
+                && pos + 1 < n && (Character.isDigit(text.charAt(pos + 1))
+                || ((text.charAt(pos + 1) == '-' || text.charAt(pos + 1) == '+')
+                && pos + 2 < n && Character.isDigit(text.charAt(pos + 2))))) {
+            pos++;
+            final boolean negExp = text.charAt(pos) == '-';
+            if(text.charAt(pos) == '-' || text.charAt(pos) == '+')
+                pos++;
+            int exp = 0;
+            while(pos < n && (c = text.charAt(pos)) >= '0' && c <= '9') {
+                exp = Math.min(10 * exp + (c - '0'), 100000);
+                pos++;
+            }
+            scale += negExp ? -exp : exp;
+        }
+        final double v;
+        if(digits <= 15 && scale >= -22 && scale <= 22)
+            v = scale < 0 ? mantissa / POW10[-scale] : mantissa * POW10[scale];
+        else {
+            try {
+                v = Double.parseDouble(text.substring(start, pos));
+            } catch(NumberFormatException e) {
+                throw new SVGParseException("Bad number format: " + context, e);
+            }
+            return v;
+        }
+        return negative ? -v : v;
+    }
+
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for(int i = 1; i < POW10.length; i++)
+            POW10[i] = 10 * POW10[i - 1];
+    }
+
+}
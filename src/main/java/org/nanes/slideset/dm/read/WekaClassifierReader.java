@@ -2,11 +2,9 @@ package org.nanes.slideset.dm.read;
 
 import org.nanes.slideset.dm.FileLinkElement;
 import org.nanes.slideset.dm.MIME;
-import org.nanes.slideset.ex.LinkNotFoundException;
 import org.nanes.slideset.ex.SlideSetException;
 import org.nanes.slideset.io.Util;
 import org.nanes.slideset.pi.WekaClassifierFile;
-import java.io.File;
 
 /**
  *
@@ -23,13 +21,8 @@ public class WekaClassifierReader implements
 
     public WekaClassifierFile read(FileLinkElement elementToRead)
           throws SlideSetException {
-        String path = elementToRead.getUnderlying();
-        String wd = elementToRead.getOwner().getWorkingDirectory();
-        wd = wd == null ? "" : wd;
-        if(!(new File(path)).isAbsolute())
-            path = wd + File.separator + path;
-        if(!(new File(path).exists()))
-           throw new LinkNotFoundException(path + " does not exist!");
+        final String path = elementToRead.getOwner().getPathResolver()
+                .resolveExisting(elementToRead.getUnderlying());
         return new WekaClassifierFile(path);
     }
     
@@ -0,0 +1,103 @@
+package org.nanes.slideset.dm.write;
+
+import org.nanes.slideset.dm.AbstractOverlaysAlias;
+import org.nanes.slideset.dm.ContainerLink;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.dm.read.ImageCache;
+import org.nanes.slideset.ex.RoiLinkException;
+import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.pi.RoiMask;
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.AxisType;
+import net.imagej.axis.Axes;
+import net.imagej.overlay.AbstractOverlay;
+import java.io.File;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.integer.IntType;
+
+/**
+ * Write ImageJ2 overlays as a label image, where each pixel holds the
+ * number of the overlay that contains it, counting from {@code 1}, or
+ * {@code 0} if no overlay contains it. Where overlays overlap, the later
+ * overlay is written. The image extends from the origin far enough to
+ * hold every overlay. If the link names a dataset in an N5 or Zarr
+ * container, the image is written there (see {@link ContainerLink}),
+ * otherwise as an image file with the format set by the extension,
+ * usually TIFF.
+ * <p> Label images can hold many more regions than vector ROI files of
+ * the same size, and are read back without filling any shapes, but
+ * only keep which pixels belong to each region. Empty overlays, and
+ * overlays covered entirely by later ones, are not read back.
+ *
+ * @author Benjamin Nanes
+ * @see org.nanes.slideset.dm.read.LabelImageToAbstractOverlayReader
+ */
+@ElementWriterMetadata(
+        name = "Label image (TIFF, or N5/Zarr link)",
+        elementType = FileLinkElement.class,
+        mimeType = MIME.LABELS,
+        processedType = AbstractOverlaysAlias.class,
+        linkExt = "tif" )
+public class AbstractOverlaysToLabelImageWriter implements
+        ElementWriter<FileLinkElement, AbstractOverlay[]> {
+
+    private DatasetToImageFileWriter dtifw;
+    private DatasetToChunkedContainerWriter dtccw;
+
+    // -- Methods --
+
+    public void write(
+            AbstractOverlay[] data,
+            FileLinkElement elementToWrite)
+            throws SlideSetException {
+        final int n = data == null ? 0 : data.length;
+        final RoiMask[] masks = new RoiMask[n];
+        long w = 1;
+        long h = 1;
+        for(int i = 0; i < n; i++) {
+            if(data[i] == null)
+                continue;
+            masks[i] = RoiMask.of(data[i]);
+            for(int k = 0; k < masks[i].getRunCount(); k++) {
+                w = Math.max(w, masks[i].getRunEnd(k));
+                h = Math.max(h, masks[i].getRunY(k) + 1L);
+            }
+        }
+        if(w * h > Integer.MAX_VALUE)
+            throw new RoiLinkException("The ROIs are too large to write as a label image.");
+        final ArrayImg<IntType, IntArray> img = ArrayImgs.ints(w, h);
+        final int[] labels = img.update(null).getCurrentStorageArray();
+        for(int i = 0; i < n; i++) {
+            if(masks[i] == null)
+                continue;
+            final RoiMask m = masks[i].clip(new long[] {w, h});
+            for(int k = 0; k < m.getRunCount(); k++) {
+                final int row = m.getRunY(k) * (int) w;
+                for(int x = m.getRunStart(k); x < m.getRunEnd(k); x++)
+                    labels[row + x] = i + 1;
+            }
+        }
+        final String path = elementToWrite.getOwner().resolvePath(
+                elementToWrite.getUnderlying());
+        final ImgPlus<IntType> imp = new ImgPlus<IntType>(img,
+                new File(path).getName(), new AxisType[] {Axes.X, Axes.Y});
+        final Dataset ds = elementToWrite.getOwner().getContext()
+                .getService(DatasetService.class).create(imp);
+        if(ContainerLink.isContainerLink(path)) {
+            if(dtccw == null)
+                dtccw = new DatasetToChunkedContainerWriter();
+            dtccw.write(ds, elementToWrite);
+        } else {
+            if(dtifw == null)
+                dtifw = new DatasetToImageFileWriter();
+            dtifw.write(ds, elementToWrite);
+            ImageCache.getInstance().invalidate(new File(path));
+        }
+    }
+
+}
@@ -3,6 +3,7 @@ package org.nanes.slideset.dm.write;
 import org.nanes.slideset.dm.AbstractOverlaysAlias;
 import org.nanes.slideset.dm.FileLinkElement;
 import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.dm.read.RoiCache;
 import org.nanes.slideset.ex.SlideSetException;
 import org.nanes.slideset.ex.UnsupportedOverlayException;
 import java.io.File;
@@ -78,7 +79,11 @@ public class AbstractOverlaysToSVGFileWriter implements
             throws SlideSetException {
         if(data == null)
             data = new AbstractOverlay[0];
-        writeFile(path, data, width, height, imgPath);
+        try {
+            writeFile(path, data, width, height, imgPath);
+        } finally {
+            RoiCache.getInstance().invalidate(new File(path));
+        }
     }
     
     // -- Helper methods --
@@ -0,0 +1,66 @@
+package org.nanes.slideset.dm.write;
+
+import org.nanes.slideset.dm.ContainerLink;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.ex.ImgLinkException;
+import org.nanes.slideset.ex.LinkNotFoundException;
+import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.ChunkedContainer;
+import org.nanes.slideset.io.ChunkedImages;
+import net.imagej.Dataset;
+import net.imagej.axis.CalibratedAxis;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes images as datasets in a chunked N5 or Zarr container, so that
+ * all of the images in a results column share one directory tree instead
+ * of occupying one file each. The link names the container and the
+ * dataset key (see {@link ContainerLink}). Blocks are compressed in
+ * parallel.
+ *
+ * @author Benjamin Nanes
+ */
+@ElementWriterMetadata(
+        name = "Chunked container (N5 or Zarr, extension sets format)",
+        elementType = FileLinkElement.class,
+        mimeType = MIME.CHUNKED,
+        processedType = Dataset.class,
+        linkExt = "n5" )
+public class DatasetToChunkedContainerWriter implements
+        ElementWriter<FileLinkElement, Dataset> {
+
+    public void write(Dataset data, FileLinkElement elementToWrite)
+            throws SlideSetException {
+        final String link = elementToWrite.getOwner().resolvePath(
+                elementToWrite.getUnderlying());
+        final String key = ContainerLink.getKey(link);
+        if(!ContainerLink.isContainerLink(link) || key.isEmpty())
+            throw new LinkNotFoundException(
+                    link + " does not name a dataset in an N5 or Zarr container.");
+        final ChunkedContainer container;
+        try {
+            container = ChunkedContainer.create(new File(ContainerLink.getContainer(link)));
+        } catch(IOException e) {
+            throw new LinkNotFoundException(link + " could not be created.", e);
+        }
+        final int nd = data.numDimensions();
+        final String[] axes = new String[nd];
+        final double[] resolution = new double[nd];
+        final String[] units = new String[nd];
+        for(int d = 0; d < nd; d++) {
+            final CalibratedAxis axis = data.axis(d);
+            axes[d] = axis.type().getLabel();
+            resolution[d] = axis.averageScale(0, 1);
+            units[d] = axis.unit() == null ? "pixel" : axis.unit();
+        }
+        try {
+            ChunkedImages.write(container, key, data, axes, resolution, units,
+                    Runtime.getRuntime().availableProcessors());
+        } catch(IOException e) {
+            throw new ImgLinkException(e);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.nanes.slideset.dm.write;
+
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.dm.RoisAlias;
+import org.nanes.slideset.dm.read.RoiCache;
+import org.nanes.slideset.dm.read.RoiShape;
+import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.ex.UnsupportedOverlayException;
+import org.nanes.slideset.io.RoiPack;
+import ij.gui.Roi;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write ImageJ1-style ROIs as packed ROI set files.
+ *
+ * @author Benjamin Nanes
+ * @see RoiPack
+ */
+@ElementWriterMetadata(
+        name = "ROI set file (packed)",
+        elementType = FileLinkElement.class,
+        mimeType = MIME.ROIPACK,
+        processedType = RoisAlias.class,
+        linkExt = "roipack" )
+public class IJ1ROIsToRoiPackFileWriter implements
+        ElementWriter<FileLinkElement, Roi[]> {
+
+    // -- Methods --
+
+    public void write(
+            Roi[] data,
+            FileLinkElement elementToWrite)
+            throws SlideSetException {
+        String path = elementToWrite.getUnderlying();
+        String wd = elementToWrite.getOwner().getWorkingDirectory();
+        wd = wd == null ? "" : wd;
+        if(!(new File(path)).isAbsolute())
+            path = wd + File.separator + path;
+        write(data, path);
+    }
+
+    public void write(
+            Roi[] data,
+            String path)
+            throws SlideSetException {
+        final List<RoiShape> shapes = new ArrayList<RoiShape>();
+        String errorMessages = "";
+        if(data != null)
+            for(Roi roi : data) {
+                if(roi == null)
+                    continue;
+                try {
+                    shapes.addAll(RoiShape.fromRoi(roi));
+                } catch(UnsupportedOverlayException e) {
+                    errorMessages += "*" + e.getMessage() + "\n";
+                    errorMessages += "The overlay will not be written to the file.\n";
+                }
+            }
+        final File file = new File(path);
+        try {
+            RoiPack.write(file, shapes);
+        } catch(IOException e) {
+            RoiCache.getInstance().invalidate(file);
+            throw new SlideSetException("Problem writing file: ", e);
+        }
+        RoiCache.getInstance().put(file, file.lastModified(), file.length(),
+                shapes); // The file reads back exactly
+        if(!errorMessages.isEmpty())
+            throw new SlideSetException(errorMessages);
+    }
+
+}
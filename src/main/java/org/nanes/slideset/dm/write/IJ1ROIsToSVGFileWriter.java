@@ -3,6 +3,7 @@ package org.nanes.slideset.dm.write;
 import org.nanes.slideset.dm.FileLinkElement;
 import org.nanes.slideset.dm.MIME;
 import org.nanes.slideset.dm.RoisAlias;
+import org.nanes.slideset.dm.read.RoiCache;
 import org.nanes.slideset.ex.SlideSetException;
 import org.nanes.slideset.ex.UnsupportedOverlayException;
 import ij.gui.Line;
@@ -77,7 +78,11 @@ public class IJ1ROIsToSVGFileWriter implements
             throws SlideSetException {
         if(data == null)
             data = new Roi[0];
-        writeFile(path, data, width, height, imgPath);
+        try {
+            writeFile(path, data, width, height, imgPath);
+        } finally {
+            RoiCache.getInstance().invalidate(new File(path));
+        }
     }
     
     // -- Helper methods --
@@ -0,0 +1,388 @@
+package org.nanes.slideset.io;
+
+import org.nanes.slideset.SlideSet;
+import org.nanes.slideset.dm.BooleanElement;
+import org.nanes.slideset.dm.DoubleElement;
+import org.nanes.slideset.dm.IntegerElement;
+import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.FlatBufferBuilder.Structs;
+import org.nanes.slideset.io.FlatBufferBuilder.Table;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@code SlideSet} data as Apache Arrow IPC files (Feather version 2),
+ * which can be memory-mapped by Arrow readers in Python and R.
+ * <p> Integer, Numeric, and Logical columns are written as {@code int32},
+ * {@code float64}, and {@code bool} columns. All other columns, including
+ * file links, are written as dictionary-encoded {@code utf8} columns.
+ * Each table has an {@code _row} key column with its row indices. Tables
+ * with a parent also have a {@code _parent_row} key column, which is null
+ * for rows with no recorded parent row.
+ * <p> When writing a table tree, each table is written to its own file.
+ * The children of {@code name.arrow} are written to {@code name-1.arrow},
+ * {@code name-2.arrow}, etc., and the schema metadata key
+ * {@code slideset.parent} gives the file name of the parent table.
+ *
+ * @author Benjamin Nanes
+ */
+public class ArrowService {
+
+     // -- Constants --
+
+     private static final byte[] MAGIC = {'A', 'R', 'R', 'O', 'W', '1'};
+     /** Metadata version V5 */
+     private static final short VERSION = 4;
+     private static final int MSG_SCHEMA = 1;
+     private static final int MSG_DICTIONARY = 2;
+     private static final int MSG_RECORDBATCH = 3;
+     private static final int TYPE_INT = 2;
+     private static final int TYPE_FLOAT = 3;
+     private static final int TYPE_UTF8 = 5;
+     private static final int TYPE_BOOL = 6;
+
+     /** Maximum number of rows in one record batch */
+     private static final int BATCH_ROWS = 65536;
+
+     /** Column encodings */
+     private enum Kind { INT, DOUBLE, BOOL, DICT }
+
+     // -- Fields --
+
+     private boolean includeTree = true;
+
+     // -- Methods --
+
+     /** Also write the descendants of a table. Default is {@code true}. */
+     public void setIncludeTree(boolean includeTree) {
+          this.includeTree = includeTree;
+     }
+
+     /**
+      * Write a {@code SlideSet}, and optionally its descendants, to Arrow files
+      * @return The files written, starting with {@code file}
+      */
+     public List<File> write(SlideSet data, File file)
+             throws IOException, SlideSetException {
+          if(data == null)
+               throw new IllegalArgumentException("No data to write");
+          final List<File> written = new ArrayList<File>();
+          String base = file.getName();
+          if(base.toLowerCase().endsWith(".arrow") || base.toLowerCase().endsWith(".feather"))
+               base = base.substring(0, base.lastIndexOf('.'));
+          final String ext = file.getName().substring(base.length());
+          writeTree(data, file.getAbsoluteFile().getParentFile(), base, ext, null, written);
+          return written;
+     }
+
+     private void writeTree(SlideSet data, File dir, String base, String ext,
+             String parentFile, List<File> written)
+             throws IOException, SlideSetException {
+          final File f = new File(dir, base + ext);
+          writeTable(data, f, parentFile);
+          written.add(f);
+          if(!includeTree)
+               return;
+          final ArrayList<SlideSet> children = data.getChildren();
+          for(int i = 0; i < children.size(); i++)
+               writeTree(children.get(i), dir, base + "-" + (i + 1), ext, f.getName(), written);
+     }
+
+     //  - Table -
+
+     /** Write one table to an Arrow file */
+     private void writeTable(SlideSet data, File file, String parentFile)
+             throws IOException, SlideSetException {
+          final int nRows = data.getNumRows();
+          final int nCols = data.getNumCols();
+          final boolean hasParent = data.getParent() != null;
+          final Kind[] kinds = new Kind[nCols];
+          final List<List<String>> dicts = new ArrayList<List<String>>();
+          final int[][] indices = new int[nCols][];
+          for(int c = 0; c < nCols; c++) {
+               final Class<?> type = data.getColumnElementType(c);
+               if(IntegerElement.class.equals(type))
+                    kinds[c] = Kind.INT;
+               else if(DoubleElement.class.equals(type))
+                    kinds[c] = Kind.DOUBLE;
+               else if(BooleanElement.class.equals(type))
+                    kinds[c] = Kind.BOOL;
+               else {
+                    kinds[c] = Kind.DICT;
+                    final List<String> dict = new ArrayList<String>();
+                    final Map<String, Integer> ids = new HashMap<String, Integer>();
+                    indices[c] = new int[nRows];
+                    for(int r = 0; r < nRows; r++) {
+                         final String v = data.getItemText(c, r);
+                         Integer id = ids.get(v);
+                         if(id == null) {
+                              id = dict.size();
+                              ids.put(v, id);
+                              dict.add(v);
+                         }
+                         indices[c][r] = id;
+                    }
+                    dicts.add(dict);
+               }
+          }
+
+          // Schema
+          final List<Table> fields = new ArrayList<Table>();
+          fields.add(field("_row", false, TYPE_INT, intType(), null, null));
+          if(hasParent)
+               fields.add(field("_parent_row", true, TYPE_INT, intType(), null, null));
+          int dictId = 0;
+          for(int c = 0; c < nCols; c++) {
+               final List<Table> meta = new ArrayList<Table>();
+               meta.add(keyValue("slideset.elementClass", data.getColumnElementType(c).getName()));
+               if(data.getColumnMimeType(c) != null)
+                    meta.add(keyValue("slideset.mimeType", data.getColumnMimeType(c)));
+               switch(kinds[c]) {
+                    case INT:
+                         fields.add(field(data.getColumnName(c), true, TYPE_INT, intType(), null, meta));
+                         break;
+                    case DOUBLE:
+                         fields.add(field(data.getColumnName(c), true, TYPE_FLOAT,
+                                 new Table().addShort(0, 2), null, meta));
+                         break;
+                    case BOOL:
+                         fields.add(field(data.getColumnName(c), true, TYPE_BOOL, new Table(), null, meta));
+                         break;
+                    default:
+                         final Table enc = new Table().addLong(0, dictId++)
+                                 .addTable(1, intType()).addBool(2, false);
+                         fields.add(field(data.getColumnName(c), true, TYPE_UTF8, new Table(), enc, meta));
+               }
+          }
+          final List<Table> schemaMeta = new ArrayList<Table>();
+          schemaMeta.add(keyValue("slideset.name", data.getName()));
+          if(data.getWorkingDirectory() != null)
+               schemaMeta.add(keyValue("slideset.workingDirectory", data.getWorkingDirectory()));
+          if(parentFile != null)
+               schemaMeta.add(keyValue("slideset.parent", parentFile));
+          for(Map.Entry<String, String> e : data.getCreationParams().entrySet())
+               if(e.getKey() != null && e.getValue() != null)
+                    schemaMeta.add(keyValue("slideset.param." + e.getKey(), e.getValue()));
+          final Table schema = new Table().addShort(0, 0)
+                  .addVector(1, fields).addVector(2, schemaMeta);
+
+          final FileOutputStream fos = new FileOutputStream(file);
+          try {
+               final FileChannel ch = fos.getChannel();
+               ch.write(ByteBuffer.wrap(new byte[]{'A', 'R', 'R', 'O', 'W', '1', 0, 0}));
+               writeMessage(ch, MSG_SCHEMA, schema, new Body());
+
+               // Dictionaries
+               final Structs dictBlocks = new Structs(3);
+               dictId = 0;
+               for(List<String> dict : dicts) {
+                    final Body body = new Body();
+                    final Structs nodes = new Structs(2).add(dict.size(), 0);
+                    body.add(null, 0);
+                    final int[] offsets = new int[dict.size() + 1];
+                    final List<byte[]> bytes = new ArrayList<byte[]>(dict.size());
+                    for(int i = 0; i < dict.size(); i++) {
+                         final byte[] b = dict.get(i).getBytes("UTF-8");
+                         bytes.add(b);
+                         offsets[i + 1] = offsets[i] + b.length;
+                    }
+                    final ByteBuffer ob = body.buffer(4 * offsets.length);
+                    for(int o : offsets)
+                         ob.putInt(o);
+                    final ByteBuffer vb = body.buffer(offsets[dict.size()]);
+                    for(byte[] b : bytes)
+                         vb.put(b);
+                    final Table batch = recordBatch(dict.size(), nodes, body);
+                    final Table msg = new Table().addLong(0, dictId++).addTable(1, batch).addBool(2, false);
+                    dictBlocks.add(writeMessage(ch, MSG_DICTIONARY, msg, body));
+               }
+
+               // Record batches
+               final Structs batchBlocks = new Structs(3);
+               for(int from = 0; from < nRows || (from == 0 && nRows == 0); from += BATCH_ROWS) {
+                    final int n = Math.min(BATCH_ROWS, nRows - from);
+                    final Body body = new Body();
+                    final Structs nodes = new Structs(2);
+                    // _row
+                    nodes.add(n, 0);
+                    body.add(null, 0);
+                    ByteBuffer bb = body.buffer(4 * n);
+                    for(int r = from; r < from + n; r++)
+                         bb.putInt(r);
+                    // _parent_row
+                    if(hasParent) {
+                         final boolean[] valid = new boolean[n];
+                         int nulls = 0;
+                         for(int r = 0; r < n; r++) {
+                              valid[r] = data.getParentRow(from + r) >= 0;
+                              if(!valid[r]) nulls++;
+                         }
+                         nodes.add(n, nulls);
+                         body.add(valid, nulls);
+                         bb = body.buffer(4 * n);
+                         for(int r = from; r < from + n; r++)
+                              bb.putInt(Math.max(0, data.getParentRow(r)));
+                    }
+                    // Data columns
+                    for(int c = 0; c < nCols; c++) {
+                         final boolean[] valid = new boolean[n];
+                         int nulls = 0;
+                         for(int r = 0; r < n; r++) {
+                              valid[r] = kinds[c] == Kind.DICT || data.getUnderlying(c, from + r) != null;
+                              if(!valid[r]) nulls++;
+                         }
+                         nodes.add(n, nulls);
+                         body.add(valid, nulls);
+                         switch(kinds[c]) {
+                              case INT:
+                                   bb = body.buffer(4 * n);
+                                   for(int r = from; r < from + n; r++) {
+                                        final Object v = data.getUnderlying(c, r);
+                                        bb.putInt(v == null ? 0 : (Integer) v);
+                                   }
+                                   break;
+                              case DOUBLE:
+                                   bb = body.buffer(8 * n);
+                                   for(int r = from; r < from + n; r++) {
+                                        final Object v = data.getUnderlying(c, r);
+                                        bb.putDouble(v == null ? 0 : (Double) v);
+                                   }
+                                   break;
+                              case BOOL:
+                                   final boolean[] bits = new boolean[n];
+                                   for(int r = 0; r < n; r++)
+                                        bits[r] = Boolean.TRUE.equals(data.getUnderlying(c, from + r));
+                                   body.add(bits, 1);
+                                   break;
+                              default:
+                                   bb = body.buffer(4 * n);
+                                   for(int r = from; r < from + n; r++)
+                                        bb.putInt(indices[c][r]);
+                         }
+                    }
+                    batchBlocks.add(writeMessage(ch, MSG_RECORDBATCH, recordBatch(n, nodes, body), body));
+                    if(nRows == 0)
+                         break;
+               }
+
+               // End of stream and footer
+               final ByteBuffer eos = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+               eos.putInt(-1).putInt(0).flip();
+               ch.write(eos);
+               final Table footer = new Table().addShort(0, VERSION).addTable(1, schema)
+                       .addStructs(2, dictBlocks).addStructs(3, batchBlocks);
+               final byte[] fb = FlatBufferBuilder.finish(footer);
+               final ByteBuffer tail = ByteBuffer.allocate(fb.length + 4 + MAGIC.length)
+                       .order(ByteOrder.LITTLE_ENDIAN);
+               tail.put(fb).putInt(fb.length).put(MAGIC).flip();
+               ch.write(tail);
+          }
+          finally {
+               fos.close();
+          }
+     }
+
+     //  - IPC messages -
+
+     /**
+      * Write an encapsulated IPC message
+      * @return The file block: offset, metadata length, and body length
+      */
+     private long[] writeMessage(FileChannel ch, int type, Table header, Body body)
+             throws IOException {
+          final long offset = ch.position();
+          final Table msg = new Table().addShort(0, VERSION).addByte(1, type)
+                  .addTable(2, header).addLong(3, body.length());
+          final byte[] fb = FlatBufferBuilder.finish(msg);
+          final ByteBuffer prefix = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+          prefix.putInt(-1).putInt(fb.length).flip();
+          ch.write(prefix);
+          ch.write(ByteBuffer.wrap(fb));
+          body.writeTo(ch);
+          return new long[]{offset, 8 + fb.length, body.length()};
+     }
+
+     private static Table recordBatch(int length, Structs nodes, Body body) {
+          return new Table().addLong(0, length).addStructs(1, nodes)
+                  .addStructs(2, body.descriptors());
+     }
+
+     private static Table field(String name, boolean nullable, int typeType,
+             Table type, Table dictionary, List<Table> metadata) {
+          final Table f = new Table().addString(0, name).addBool(1, nullable)
+                  .addByte(2, typeType).addTable(3, type)
+                  .addVector(5, Collections.<Table>emptyList());
+          if(dictionary != null)
+               f.addTable(4, dictionary);
+          if(metadata != null)
+               f.addVector(6, metadata);
+          return f;
+     }
+
+     private static Table intType() {
+          return new Table().addInt(0, 32).addBool(1, true);
+     }
+
+     private static Table keyValue(String key, String value) {
+          return new Table().addString(0, key).addString(1, value);
+     }
+
+     /** Message body: a sequence of buffers, each padded to 8 bytes */
+     private static final class Body {
+          private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+          private final Structs descriptors = new Structs(2);
+          private long length = 0;
+
+          /** Add a little-endian buffer to be filled by the caller */
+          ByteBuffer buffer(int size) {
+               final ByteBuffer b = ByteBuffer.allocate((size + 7) & ~7).order(ByteOrder.LITTLE_ENDIAN);
+               buffers.add(b);
+               descriptors.add(length, size);
+               length += b.capacity();
+               return b;
+          }
+
+          /**
+           * Add a bit-packed buffer. If {@code count} is zero, the buffer
+           * is a validity bitmap with no nulls and is omitted.
+           */
+          void add(boolean[] bits, int count) {
+               if(bits == null || count == 0) {
+                    descriptors.add(length, 0);
+                    return;
+               }
+               final byte[] packed = new byte[(bits.length + 7) / 8];
+               for(int i = 0; i < bits.length; i++)
+                    if(bits[i])
+                         packed[i >> 3] |= 1 << (i & 7);
+               buffer(packed.length).put(packed);
+          }
+
+          Structs descriptors() {
+               return descriptors;
+          }
+
+          long length() {
+               return length;
+          }
+
+          void writeTo(FileChannel ch) throws IOException {
+               for(ByteBuffer b : buffers) {
+                    b.clear();
+                    while(b.hasRemaining())
+                         ch.write(b);
+               }
+          }
+     }
+
+}
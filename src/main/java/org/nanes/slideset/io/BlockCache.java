@@ -0,0 +1,79 @@
+package org.nanes.slideset.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of decoded block arrays, limited by their
+ * total size in bytes.
+ *
+ * @author Benjamin Nanes
+ */
+final class BlockCache {
+
+     // -- Fields --
+
+     private final LinkedHashMap<String, Object> blocks
+          = new LinkedHashMap<String, Object>(64, 0.75f, true);
+     private long budget;
+     private long size = 0;
+
+     BlockCache(long budget) {
+          this.budget = budget;
+     }
+
+     // -- Methods --
+
+     /** Get a cached block, or {@code null} if it is not in the cache */
+     synchronized Object get(String id) {
+          return blocks.get(id);
+     }
+
+     /** Add a block, evicting the least recently used blocks if over budget */
+     synchronized void put(String id, Object block) {
+          final Object old = blocks.put(id, block);
+          if(old != null)
+               size -= weigh(old);
+          size += weigh(block);
+          trim();
+     }
+
+     /** Remove all blocks with IDs starting with {@code prefix} */
+     synchronized void invalidate(String prefix) {
+          for(Iterator<Map.Entry<String, Object>> it = blocks.entrySet().iterator(); it.hasNext(); ) {
+               final Map.Entry<String, Object> e = it.next();
+               if(e.getKey().startsWith(prefix)) {
+                    size -= weigh(e.getValue());
+                    it.remove();
+               }
+          }
+     }
+
+     synchronized void setBudget(long bytes) {
+          budget = Math.max(0, bytes);
+          trim();
+     }
+
+     synchronized long getBudget() {
+          return budget;
+     }
+
+     // -- Helper methods --
+
+     private void trim() {
+          for(Iterator<Object> it = blocks.values().iterator(); size > budget && it.hasNext(); ) {
+               size -= weigh(it.next());
+               it.remove();
+          }
+     }
+
+     private static long weigh(Object block) {
+          final long n = java.lang.reflect.Array.getLength(block);
+          if(block instanceof byte[]) return n;
+          if(block instanceof short[]) return 2 * n;
+          if(block instanceof int[] || block instanceof float[]) return 4 * n;
+          return 8 * n;
+     }
+
+}
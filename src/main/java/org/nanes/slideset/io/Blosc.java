@@ -0,0 +1,235 @@
+package org.nanes.slideset.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decoder for Blosc (version 1) compressed buffers, as used by Zarr
+ * and N5. The LZ4, BloscLZ, and zlib codecs are supported, along with
+ * byte shuffling. Zstd, Snappy, and bit shuffling are not.
+ *
+ * @author Benjamin Nanes
+ */
+final class Blosc {
+
+     // -- Fields --
+
+     private static final int HEADER = 16;
+     private static final int DOSHUFFLE = 0x01;
+     private static final int MEMCPYED = 0x02;
+     private static final int DOBITSHUFFLE = 0x04;
+     private static final int DONTSPLIT = 0x10;
+     private static final int MAX_SPLITS = 16;
+     private static final int MIN_BUFFERSIZE = 128;
+     private static final int BLOSCLZ_MAX_DISTANCE = 8191;
+     private static final String[] CODECS = {"blosclz", "lz4", "snappy", "zlib", "zstd"};
+
+     private Blosc() { }
+
+     // -- Methods --
+
+     /** Decompress a Blosc buffer starting at {@code offset} */
+     static byte[] decompress(byte[] src, int offset) throws IOException {
+          if(src.length - offset < HEADER)
+               throw new IOException("Blosc buffer is too short");
+          final ByteBuffer h = ByteBuffer.wrap(src, offset, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+          h.position(offset + 2);
+          final int flags = h.get() & 0xff;
+          final int typesize = h.get() & 0xff;
+          final int nbytes = h.getInt();
+          final int blocksize = h.getInt();
+          final int cbytes = h.getInt();
+          if(cbytes > src.length - offset)
+               throw new IOException("Blosc buffer is truncated");
+          final byte[] dest = new byte[nbytes];
+          if((flags & MEMCPYED) != 0) {
+               System.arraycopy(src, offset + HEADER, dest, 0, nbytes);
+               return dest;
+          }
+          if((flags & DOBITSHUFFLE) != 0 && blocksize >= typesize)
+               throw new IOException("Blosc bit shuffling is not supported");
+          final int codec = (flags >> 5) & 0x7;
+          if(codec != 0 && codec != 1 && codec != 3)
+               throw new IOException("Unsupported Blosc codec: "
+                    + (codec < CODECS.length ? CODECS[codec] : String.valueOf(codec)));
+          if(blocksize <= 0)
+               return dest;
+          final boolean shuffle = (flags & DOSHUFFLE) != 0 && typesize > 1;
+          final int nblocks = (nbytes + blocksize - 1) / blocksize;
+          final ByteBuffer b = ByteBuffer.wrap(src).order(ByteOrder.LITTLE_ENDIAN);
+          final byte[] tmp = new byte[blocksize];
+          for(int j = 0; j < nblocks; j++) {
+               final int bsize = Math.min(blocksize, nbytes - j * blocksize);
+               final boolean leftover = bsize < blocksize;
+               final boolean split = (flags & DONTSPLIT) == 0 && !leftover
+                    && typesize <= MAX_SPLITS && blocksize / typesize >= MIN_BUFFERSIZE;
+               final int nsplits = split ? typesize : 1;
+               final int neblock = bsize / nsplits;
+               int p = offset + b.getInt(offset + HEADER + 4 * j);
+               final byte[] out = shuffle ? tmp : dest;
+               final int outOffset = shuffle ? 0 : j * blocksize;
+               for(int s = 0; s < nsplits; s++) {
+                    final int cb = b.getInt(p);
+                    p += 4;
+                    final int at = outOffset + s * neblock;
+                    if(cb == neblock)
+                         System.arraycopy(src, p, out, at, neblock);
+                    else {
+                         final int n;
+                         switch(codec) {
+                              case 0: n = blosclz(src, p, cb, out, at, neblock); break;
+                              case 1: n = lz4(src, p, cb, out, at, neblock); break;
+                              default: n = zlib(src, p, cb, out, at, neblock);
+                         }
+                         if(n != neblock)
+                              throw new IOException("Corrupt Blosc block");
+                    }
+                    p += cb;
+               }
+               if(shuffle)
+                    unshuffle(typesize, bsize, tmp, dest, j * blocksize);
+          }
+          return dest;
+     }
+
+     // -- Helper methods --
+
+     /** Reverse the byte shuffle filter for one block */
+     private static void unshuffle(int typesize, int bsize, byte[] src, byte[] dest, int at) {
+          final int n = bsize / typesize;
+          for(int i = 0; i < n; i++)
+               for(int k = 0; k < typesize; k++)
+                    dest[at + i * typesize + k] = src[k * n + i];
+          final int rem = bsize % typesize;
+          System.arraycopy(src, n * typesize, dest, at + n * typesize, rem);
+     }
+
+     /** Decompress an LZ4 block, returning the number of bytes written */
+     static int lz4(byte[] src, int sp, int len, byte[] dst, int dp, int max)
+             throws IOException {
+          final int end = sp + len;
+          final int start = dp;
+          final int limit = dp + max;
+          try {
+               while(sp < end) {
+                    final int token = src[sp++] & 0xff;
+                    int lit = token >>> 4;
+                    if(lit == 15) {
+                         int x;
+                         do {
+                              x = src[sp++] & 0xff;
+                              lit += x;
+                         } while(x == 255);
+                    }
+                    if(dp + lit > limit)
+                         throw new IOException("Corrupt LZ4 block");
+                    System.arraycopy(src, sp, dst, dp, lit);
+                    sp += lit;
+                    dp += lit;
+                    if(sp >= end)
+                         break; // Last sequence has no match
+                    final int offset = (src[sp] & 0xff) | ((src[sp + 1] & 0xff) << 8);
+                    sp += 2;
+                    int mlen = token & 0xf;
+                    if(mlen == 15) {
+                         int x;
+                         do {
+                              x = src[sp++] & 0xff;
+                              mlen += x;
+                         } while(x == 255);
+                    }
+                    mlen += 4;
+                    copyMatch(dst, dp, offset, mlen, start, limit);
+                    dp += mlen;
+               }
+          } catch(ArrayIndexOutOfBoundsException e) {
+               throw new IOException("Corrupt LZ4 block", e);
+          }
+          return dp - start;
+     }
+
+     /** Decompress a BloscLZ block, returning the number of bytes written */
+     static int blosclz(byte[] src, int sp, int len, byte[] dst, int dp, int max)
+             throws IOException {
+          final int end = sp + len;
+          final int start = dp;
+          final int limit = dp + max;
+          try {
+               int ctrl = src[sp++] & 31;
+               while(true) {
+                    if(ctrl >= 32) {
+                         int mlen = (ctrl >>> 5) - 1;
+                         int ofs = (ctrl & 31) << 8;
+                         if(mlen == 6) {
+                              int code;
+                              do {
+                                   code = src[sp++] & 0xff;
+                                   mlen += code;
+                              } while(code == 255);
+                         }
+                         final int code = src[sp++] & 0xff;
+                         mlen += 3;
+                         int distance = ofs + code + 1;
+                         if(code == 255 && ofs == (31 << 8)) {
+                              ofs = ((src[sp] & 0xff) << 8) | (src[sp + 1] & 0xff);
+                              sp += 2;
+                              distance = ofs + BLOSCLZ_MAX_DISTANCE + 1;
+                         }
+                         copyMatch(dst, dp, distance, mlen, start, limit);
+                         dp += mlen;
+                    }
+                    else {
+                         final int lit = ctrl + 1;
+                         if(dp + lit > limit || sp + lit > end)
+                              throw new IOException("Corrupt BloscLZ block");
+                         System.arraycopy(src, sp, dst, dp, lit);
+                         sp += lit;
+                         dp += lit;
+                    }
+                    if(sp >= end)
+                         break;
+                    ctrl = src[sp++] & 0xff;
+               }
+          } catch(ArrayIndexOutOfBoundsException e) {
+               throw new IOException("Corrupt BloscLZ block", e);
+          }
+          return dp - start;
+     }
+
+     private static int zlib(byte[] src, int sp, int len, byte[] dst, int dp, int max)
+             throws IOException {
+          final Inflater inf = new Inflater();
+          try {
+               inf.setInput(src, sp, len);
+               int n = 0;
+               while(n < max && !inf.finished()) {
+                    final int k = inf.inflate(dst, dp + n, max - n);
+                    if(k == 0 && (inf.needsInput() || inf.needsDictionary()))
+                         break;
+                    n += k;
+               }
+               return n;
+          } catch(DataFormatException e) {
+               throw new IOException("Corrupt zlib block", e);
+          } finally {
+               inf.end();
+          }
+     }
+
+     /** Copy a possibly overlapping back-reference */
+     private static void copyMatch(byte[] dst, int dp, int distance, int len, int start, int limit)
+             throws IOException {
+          final int from = dp - distance;
+          if(from < start || dp + len > limit)
+               throw new IOException("Corrupt compressed block");
+          if(distance >= len)
+               System.arraycopy(dst, from, dst, dp, len);
+          else
+               for(int i = 0; i < len; i++)
+                    dst[dp + i] = dst[from + i];
+     }
+
+}
@@ -0,0 +1,439 @@
+package org.nanes.slideset.io;
+
+import org.nanes.slideset.SlideSet;
+import org.nanes.slideset.dm.BooleanElement;
+import org.nanes.slideset.dm.ContainerLink;
+import org.nanes.slideset.dm.DataElement;
+import org.nanes.slideset.dm.DataTypeIDService;
+import org.nanes.slideset.dm.DoubleElement;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.IntegerElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.dm.StringElement;
+import org.nanes.slideset.ex.SlideSetException;
+
+import net.imagej.ImageJ;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates a {@code SlideSet} from a delimited text (CSV or TSV) file.
+ * The first record is used for column names. Record boundaries are
+ * located in a single quote-aware pass, then records are split into
+ * fields and columns are converted to {@link DataElement}s in parallel.
+ * <p> Column types are inferred from a sample of each column's values,
+ * in order of preference: integer, numeric, logical, file link (if the
+ * sampled values name existing files of a recognized type), and text.
+ * If a value outside of the sample does not fit the inferred type,
+ * the column falls back to the next most general type.
+ *
+ * @author Benjamin Nanes
+ */
+public class CSVImportService {
+
+     // -- Parameters --
+
+     private ImageJ ij;
+     private DataTypeIDService dtid;
+
+     private int nThreads = Runtime.getRuntime().availableProcessors();
+
+     /** Number of values sampled from each column for type inference */
+     private static final int SAMPLE_SIZE = 256;
+     /** Number of values checked when testing for file links */
+     private static final int LINK_SAMPLE_SIZE = 16;
+     /** Minimum number of records parsed by one task */
+     private static final int MIN_CHUNK = 1024;
+
+     /** Column types, from most to least specific */
+     private enum Kind { INTEGER, NUMERIC, LOGICAL, LINK, TEXT }
+
+     // -- Constructor --
+
+     public CSVImportService(ImageJ context, DataTypeIDService dtid) {
+          this.ij = context;
+          this.dtid = dtid;
+     }
+
+     // -- Methods --
+
+     /** Set the number of threads used for parsing */
+     public void setThreads(int n) {
+          nThreads = Math.max(1, n);
+     }
+
+     /**
+      * Read a delimited text file into a new {@code SlideSet}. Files with a
+      * {@code .tsv} or {@code .tab} extension are split on tabs; otherwise
+      * the delimiter is guessed from the first record. The working directory
+      * of the new table is set to the directory containing the file.
+      */
+     public SlideSet read(File file) throws IOException, SlideSetException {
+          if(file == null || !file.canRead()) throw new
+               IllegalArgumentException("Could not read file: " +
+               (file == null ? "<!>" : file.getPath()));
+          if(dtid == null) dtid = new DataTypeIDService(ij);
+          String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+          if(text.startsWith("\uFEFF"))
+               text = text.substring(1);
+          final SlideSet result = new SlideSet(ij, dtid);
+          String name = file.getName();
+          if(name.lastIndexOf('.') > 0)
+               name = name.substring(0, name.lastIndexOf('.'));
+          result.setName(name);
+          result.setWorkingDirectory(file.getAbsoluteFile().getParent());
+          final int[] starts = findRecords(text);
+          if(starts.length < 2)
+               return result;
+          final char delim = guessDelimiter(file.getName(), text, starts[1]);
+          final ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+          try {
+               final String[][] records = parseRecords(text, starts, delim, pool);
+               if(records.length == 0)
+                    return result;
+               int nCols = 0;
+               for(String[] r : records)
+                    nCols = Math.max(nCols, r.length);
+               final String[] header = records[0];
+               final String[][] rows = Arrays.copyOfRange(records, 1, records.length);
+               final List<Future<ArrayList<DataElement<?>>>> cols =
+                    new ArrayList<Future<ArrayList<DataElement<?>>>>(nCols);
+               for(int c = 0; c < nCols; c++) {
+                    final int col = c;
+                    cols.add(pool.submit(new Callable<ArrayList<DataElement<?>>>() {
+                         @Override
+                         public ArrayList<DataElement<?>> call() throws Exception {
+                              return convertColumn(rows, col, result);
+                         }
+                    }));
+               }
+               for(int c = 0; c < nCols; c++) {
+                    final ArrayList<DataElement<?>> data = cols.get(c).get();
+                    final DataElement<?> type = data.isEmpty() ?
+                         new StringElement() : data.get(0);
+                    if(data.isEmpty())
+                         type.setMimeType(null);
+                    String colName = c < header.length ? header[c].trim() : "";
+                    LinkedHashMap<String, String> props = new LinkedHashMap<String, String>();
+                    props.put("name", colName.isEmpty() ? "X" : colName);
+                    props.put("elementClass", type.getClass().getName());
+                    props.put("mimeType", type.getMimeType());
+                    result.addColumn(props, data);
+               }
+          }
+          catch(InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SlideSetException("CSV import interrupted", e);
+          }
+          catch(ExecutionException e) {
+               if(e.getCause() instanceof SlideSetException)
+                    throw (SlideSetException) e.getCause();
+               throw new SlideSetException("Could not read file: " + file.getPath(), e.getCause());
+          }
+          finally {
+               pool.shutdownNow();
+          }
+          return result;
+     }
+
+     //  - Parsing -
+
+     /**
+      * Locate record boundaries, ignoring line breaks within quoted fields.
+      * @return Start index of each record, followed by the end of the text
+      */
+     private static int[] findRecords(String text) {
+          int[] starts = new int[1024];
+          int n = 1;
+          boolean quoted = false;
+          final int len = text.length();
+          for(int i = 0; i < len; i++) {
+               final char ch = text.charAt(i);
+               if(ch == '"')
+                    quoted = !quoted;
+               else if(ch == '\n' && !quoted) {
+                    if(n == starts.length)
+                         starts = Arrays.copyOf(starts, 2 * n);
+                    starts[n++] = i + 1;
+               }
+          }
+          if(starts[n - 1] != len) {
+               if(n == starts.length)
+                    starts = Arrays.copyOf(starts, n + 1);
+               starts[n++] = len;
+          }
+          return Arrays.copyOf(starts, n);
+     }
+
+     /** Choose a field delimiter based on the file extension or the first record */
+     private static char guessDelimiter(String fileName, String text, int firstEnd) {
+          final String lower = fileName.toLowerCase();
+          if(lower.endsWith(".tsv") || lower.endsWith(".tab"))
+               return '\t';
+          if(lower.endsWith(".csv"))
+               return ',';
+          int tabs = 0, commas = 0;
+          for(int i = 0; i < firstEnd; i++) {
+               if(text.charAt(i) == '\t') tabs++;
+               else if(text.charAt(i) == ',') commas++;
+          }
+          return tabs > commas ? '\t' : ',';
+     }
+
+     /** Split records into fields in parallel, dropping blank records */
+     private String[][] parseRecords(final String text, final int[] starts,
+             final char delim, ExecutorService pool)
+             throws InterruptedException, ExecutionException {
+          final int nRecords = starts.length - 1;
+          final int chunk = Math.max(MIN_CHUNK, nRecords / (4 * nThreads) + 1);
+          final List<Future<String[][]>> parts = new ArrayList<Future<String[][]>>();
+          for(int from = 0; from < nRecords; from += chunk) {
+               final int a = from;
+               final int b = Math.min(nRecords, from + chunk);
+               parts.add(pool.submit(new Callable<String[][]>() {
+                    @Override
+                    public String[][] call() {
+                         final String[][] out = new String[b - a][];
+                         for(int r = a; r < b; r++)
+                              out[r - a] = splitRecord(text, starts[r], starts[r + 1], delim);
+                         return out;
+                    }
+               }));
+          }
+          final ArrayList<String[]> records = new ArrayList<String[]>(nRecords);
+          for(Future<String[][]> part : parts)
+               for(String[] r : part.get())
+                    if(r != null)
+                         records.add(r);
+          return records.toArray(new String[records.size()][]);
+     }
+
+     /**
+      * Split one record into fields. Quoted fields may contain delimiters,
+      * line breaks, and doubled quotes.
+      * @return The fields, or {@code null} if the record is blank
+      */
+     private static String[] splitRecord(String text, int start, int end, char delim) {
+          while(end > start && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r'))
+               end--;
+          if(end == start)
+               return null;
+          final ArrayList<String> fields = new ArrayList<String>();
+          final StringBuilder sb = new StringBuilder();
+          int i = start;
+          while(true) {
+               if(i < end && text.charAt(i) == '"') {
+                    sb.setLength(0);
+                    i++;
+                    while(i < end) {
+                         final char ch = text.charAt(i);
+                         if(ch == '"') {
+                              if(i + 1 < end && text.charAt(i + 1) == '"') {
+                                   sb.append('"');
+                                   i += 2;
+                              } else {
+                                   i++;
+                                   break;
+                              }
+                         } else {
+                              sb.append(ch);
+                              i++;
+                         }
+                    }
+                    while(i < end && text.charAt(i) != delim)
+                         sb.append(text.charAt(i++));
+                    fields.add(sb.toString());
+               } else {
+                    int j = i;
+                    while(j < end && text.charAt(j) != delim)
+                         j++;
+                    fields.add(text.substring(i, j));
+                    i = j;
+               }
+               if(i >= end)
+                    break;
+               i++;
+          }
+          return fields.toArray(new String[fields.size()]);
+     }
+
+     //  - Type inference and conversion -
+
+     /** Get a field value, or an empty {@code String} if the record is short */
+     private static String field(String[] row, int col) {
+          return col < row.length ? row[col] : "";
+     }
+
+     /**
+      * Convert one column of text values to {@code DataElement}s, falling
+      * back to a more general type if any value does not fit the inferred type.
+      */
+     private static ArrayList<DataElement<?>> convertColumn(
+             String[][] rows, int col, SlideSet owner) {
+          Kind kind = inferKind(rows, col, owner);
+          final String mime = kind == Kind.LINK ? linkMimeType(rows, col) : null;
+          while(true) {
+               final ArrayList<DataElement<?>> data = new ArrayList<DataElement<?>>(rows.length);
+               try {
+                    for(String[] row : rows) {
+                         final DataElement<?> el = makeElement(kind, field(row, col));
+                         el.setMimeType(mime);
+                         el.setOwner(owner);
+                         data.add(el);
+                    }
+                    return data;
+               } catch(SlideSetException | NumberFormatException e) {
+                    kind = kind == Kind.INTEGER ? Kind.NUMERIC : Kind.TEXT;
+               }
+          }
+     }
+
+     /** Create a {@code DataElement} of the requested kind */
+     private static DataElement<?> makeElement(Kind kind, String value)
+             throws SlideSetException {
+          switch(kind) {
+               case INTEGER:
+                    return new IntegerElement(Integer.valueOf(value.trim()));
+               case NUMERIC:
+                    final String v = value.trim();
+                    if(v.isEmpty())
+                         return new DoubleElement(Double.NaN);
+                    if(!isNumeric(v))
+                         throw new SlideSetException("\"" + value + "\" is not numeric.");
+                    return new DoubleElement(Double.valueOf(v));
+               case LOGICAL:
+                    final BooleanElement b = new BooleanElement();
+                    b.setUnderlyingText(value.trim());
+                    return b;
+               case LINK:
+                    return new FileLinkElement(value.trim());
+               default:
+                    return new StringElement(value);
+          }
+     }
+
+     /** Infer the most specific type which fits a sample of column values */
+     private static Kind inferKind(String[][] rows, int col, SlideSet owner) {
+          final int step = Math.max(1, rows.length / SAMPLE_SIZE);
+          boolean isInt = true, isNum = true, isBool = true, any = false;
+          for(int r = 0; r < rows.length; r += step) {
+               final String v = field(rows[r], col).trim();
+               if(v.isEmpty()) {
+                    isInt = false;
+                    isBool = false;
+                    continue;
+               }
+               any = true;
+               if(isInt && !isInteger(v))
+                    isInt = false;
+               if(isNum && !isNumeric(v))
+                    isNum = false;
+               if(isBool && !isLogical(v))
+                    isBool = false;
+          }
+          if(!any)
+               return Kind.TEXT;
+          if(isInt)
+               return Kind.INTEGER;
+          if(isNum)
+               return Kind.NUMERIC;
+          if(isBool)
+               return Kind.LOGICAL;
+          if(isLinkColumn(rows, col, owner))
+               return Kind.LINK;
+          return Kind.TEXT;
+     }
+
+     /**
+      * Check if a sample of column values all name existing files
+      * of a recognized type, with the same MIME type.
+      */
+     private static boolean isLinkColumn(String[][] rows, int col, SlideSet owner) {
+          final int step = Math.max(1, rows.length / LINK_SAMPLE_SIZE);
+          boolean any = false;
+          for(int r = 0; r < rows.length; r += step) {
+               final String v = field(rows[r], col).trim();
+               if(v.isEmpty())
+                    continue;
+               if(MIME.fromExtension(v) == null)
+                    return false;
+               final String path = ContainerLink.getContainer(
+                    v.replaceFirst("^~", System.getProperty("user.home")));
+               if(!new File(owner.resolvePath(path)).exists())
+                    return false;
+               any = true;
+          }
+          return any && linkMimeType(rows, col) != null;
+     }
+
+     /** Get the MIME type shared by all links in a column, or {@code null} */
+     private static String linkMimeType(String[][] rows, int col) {
+          String mime = null;
+          for(String[] row : rows) {
+               final String v = field(row, col).trim();
+               if(v.isEmpty())
+                    continue;
+               final String m = MIME.fromExtension(v);
+               if(m == null || (mime != null && !mime.equals(m)))
+                    return null;
+               mime = m;
+          }
+          return mime;
+     }
+
+     private static boolean isInteger(String v) {
+          int i = v.charAt(0) == '-' || v.charAt(0) == '+' ? 1 : 0;
+          if(i == v.length() || v.length() - i > 10)
+               return false;
+          for(; i < v.length(); i++)
+               if(v.charAt(i) < '0' || v.charAt(i) > '9')
+                    return false;
+          final long x = Long.parseLong(v);
+          return x >= Integer.MIN_VALUE && x <= Integer.MAX_VALUE;
+     }
+
+     /**
+      * Check for a decimal number. {@link Double#valueOf(String)} alone would
+      * also accept values such as "3d" or "0x1p3", which are likely labels.
+      */
+     private static boolean isNumeric(String v) {
+          if(v.equals("NaN") || v.equals("Infinity") || v.equals("-Infinity"))
+               return true;
+          boolean digit = false;
+          for(int i = 0; i < v.length(); i++) {
+               final char ch = v.charAt(i);
+               if(ch >= '0' && ch <= '9')
+                    digit = true;
+               else if(ch != '.' && ch != '-' && ch != '+' && ch != 'e' && ch != 'E')
+                    return false;
+          }
+          if(!digit)
+               return false;
+          try {
+               Double.parseDouble(v);
+               return true;
+          } catch(NumberFormatException e) {
+               return false;
+          }
+     }
+
+     private static boolean isLogical(String v) {
+          return v.equals("t") || v.equals("T") || v.equals("true")
+               || v.equals("True") || v.equals("TRUE")
+               || v.equals("f") || v.equals("F") || v.equals("false")
+               || v.equals("False") || v.equals("FALSE");
+     }
+
+}
@@ -0,0 +1,780 @@
+package org.nanes.slideset.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes n-dimensional datasets stored as compressed blocks
+ * in an N5 or Zarr (version 2) container directory. Dimensions are
+ * always listed with the fastest-varying axis (usually X) first, and
+ * block data are flat primitive arrays in that order. For Zarr
+ * datasets, which list dimensions slowest first, the order is reversed
+ * when reading and writing metadata.
+ * <p> Blocks compressed with gzip, zlib, or Blosc (see {@link Blosc}) can be
+ * read. New blocks are written with gzip.
+ * <p> Block arrays passed to and returned from this class always have
+ * the size of the part of the block inside the dataset bounds, so
+ * blocks at the upper edges may be smaller than the nominal block size.
+ * <p> Methods of this class may be called concurrently for
+ * different blocks.
+ *
+ * @author Benjamin Nanes
+ */
+public class ChunkedContainer {
+
+     // -- Types --
+
+     /** Container formats */
+     public enum Format { N5, ZARR }
+
+     /** Pixel data types */
+     public enum DataType {
+          UINT8(1, 'u'), INT8(1, 'i'), UINT16(2, 'u'), INT16(2, 'i'),
+          UINT32(4, 'u'), INT32(4, 'i'), UINT64(8, 'u'), INT64(8, 'i'),
+          FLOAT32(4, 'f'), FLOAT64(8, 'f');
+
+          private final int bytes;
+          private final char kind;
+
+          DataType(int bytes, char kind) {
+               this.bytes = bytes;
+               this.kind = kind;
+          }
+
+          /** Bytes per element */
+          public int getBytes() { return bytes; }
+
+          /** Is this a floating point type? */
+          public boolean isFloat() { return kind == 'f'; }
+
+          /** Is this an unsigned integer type? */
+          public boolean isUnsigned() { return kind == 'u'; }
+
+          String n5Name() { return name().toLowerCase(); }
+
+          String zarrName(ByteOrder order) {
+               return (bytes == 1 ? "|" : order == ByteOrder.BIG_ENDIAN ? ">" : "<")
+                    + kind + bytes;
+          }
+     }
+
+     /** Description of one dataset in a container */
+     public static final class DatasetAttributes {
+          private final String key;
+          private final long[] dimensions;
+          private final int[] blockSize;
+          private final DataType dataType;
+          private final String compression;
+          private final ByteOrder order;
+          private final String separator;
+          private final double fillValue;
+          private final String[] axes;
+          private final double[] resolution;
+          private final String[] units;
+
+          DatasetAttributes(String key, long[] dimensions, int[] blockSize, DataType dataType,
+                  String compression, ByteOrder order, String separator, double fillValue,
+                  String[] axes, double[] resolution, String[] units) {
+               this.key = key;
+               this.dimensions = dimensions;
+               this.blockSize = blockSize;
+               this.dataType = dataType;
+               this.compression = compression;
+               this.order = order;
+               this.separator = separator;
+               this.fillValue = fillValue;
+               this.axes = axes;
+               this.resolution = resolution;
+               this.units = units;
+          }
+
+          /** Copy with different axis metadata */
+          DatasetAttributes withAxes(String[] axes, double[] resolution, String[] units) {
+               return new DatasetAttributes(key, dimensions, blockSize, dataType, compression,
+                    order, separator, fillValue, axes, resolution, units);
+          }
+
+          /** Dataset key within the container */
+          public String getKey() { return key; }
+          /** Dataset dimensions, fastest-varying axis first */
+          public long[] getDimensions() { return dimensions.clone(); }
+          /** Nominal block size, fastest-varying axis first */
+          public int[] getBlockSize() { return blockSize.clone(); }
+          public DataType getDataType() { return dataType; }
+          /** Value of pixels in blocks that have not been written */
+          public double getFillValue() { return fillValue; }
+          /** Axis labels, or {@code null} if not recorded */
+          public String[] getAxes() { return axes == null ? null : axes.clone(); }
+          /** Pixel size along each axis, or {@code null} if not recorded */
+          public double[] getResolution() { return resolution == null ? null : resolution.clone(); }
+          /** Pixel size units, or {@code null} if not recorded */
+          public String[] getUnits() { return units == null ? null : units.clone(); }
+          public int numDimensions() { return dimensions.length; }
+
+          /** Number of blocks along each axis */
+          public long[] getGridSize() {
+               final long[] g = new long[dimensions.length];
+               for(int d = 0; d < g.length; d++)
+                    g[d] = (dimensions[d] + blockSize[d] - 1) / blockSize[d];
+               return g;
+          }
+
+          /** Size of the part of a block inside the dataset bounds */
+          public int[] getBlockSize(long[] gridPosition) {
+               final int[] s = new int[dimensions.length];
+               for(int d = 0; d < s.length; d++)
+                    s[d] = (int) Math.min(blockSize[d],
+                         dimensions[d] - gridPosition[d] * blockSize[d]);
+               return s;
+          }
+     }
+
+     // -- Fields --
+
+     private static final String N5_ATTRIBUTES = "attributes.json";
+     private static final String N5_VERSION = "4.0.0";
+     private static final String ZARRAY = ".zarray";
+     private static final String ZATTRS = ".zattrs";
+     private static final String ZGROUP = ".zgroup";
+
+     private final File root;
+     private final Format format;
+
+     private ChunkedContainer(File root, Format format) {
+          this.root = root;
+          this.format = format;
+     }
+
+     // -- Methods --
+
+     /**
+      * Open an existing container. The format is determined from
+      * the metadata files present, or from the extension.
+      */
+     public static ChunkedContainer open(File root) throws IOException {
+          if(!root.isDirectory())
+               throw new IOException(root.getPath() + " does not exist!");
+          if(new File(root, ZGROUP).isFile() || new File(root, ZARRAY).isFile())
+               return new ChunkedContainer(root, Format.ZARR);
+          if(new File(root, N5_ATTRIBUTES).isFile())
+               return new ChunkedContainer(root, Format.N5);
+          return new ChunkedContainer(root, formatFromName(root));
+     }
+
+     /**
+      * Open a container for writing, creating it if it does not exist.
+      * New containers use the format indicated by the extension
+      * ({@code .n5} or {@code .zarr}).
+      */
+     public static ChunkedContainer create(File root) throws IOException {
+          if(root.isDirectory())
+               return open(root);
+          final ChunkedContainer c = new ChunkedContainer(root, formatFromName(root));
+          if(!root.mkdirs() && !root.isDirectory())
+               throw new IOException(root.getPath() + " could not be created.");
+          if(c.format == Format.N5) {
+               final Map<String, Object> m = new LinkedHashMap<String, Object>();
+               m.put("n5", N5_VERSION);
+               c.writeJson(new File(root, N5_ATTRIBUTES), m);
+          }
+          else
+               c.writeZGroup(root);
+          return c;
+     }
+
+     public File getRoot() {
+          return root;
+     }
+
+     public Format getFormat() {
+          return format;
+     }
+
+     /**
+      * Get the directory holding a dataset or group
+      * @throws IOException The key has empty, {@code .}, or {@code ..} parts,
+      *     or names a directory outside of the container
+      */
+     public File getPath(String key) throws IOException {
+          if(key == null || key.isEmpty())
+               return root;
+          for(String part : key.split("[/\\\\]", -1))
+               if(part.isEmpty() || part.equals(".") || part.equals(".."))
+                    throw new IOException("Invalid dataset key: " + key);
+          final File dir = new File(root, key);
+          if(!dir.getCanonicalPath().startsWith(root.getCanonicalPath() + File.separator))
+               throw new IOException("Dataset key " + key + " is outside of " + root.getPath());
+          return dir;
+     }
+
+     /** Does {@code key} name a dataset in this container? */
+     public boolean datasetExists(String key) {
+          try {
+               final File dir = getPath(key);
+               if(format == Format.ZARR)
+                    return new File(dir, ZARRAY).isFile();
+               final Map<String, Object> m = readJsonObject(new File(dir, N5_ATTRIBUTES));
+               return m != null && m.containsKey("dimensions");
+          } catch(IOException e) {
+               return false;
+          }
+     }
+
+     /** Read the attributes of a group or dataset, or {@code null} if there are none */
+     public Map<String, Object> getAttributes(String key) throws IOException {
+          final File dir = getPath(key);
+          return readJsonObject(new File(dir, format == Format.N5 ? N5_ATTRIBUTES : ZATTRS));
+     }
+
+     /** Read the description of a dataset */
+     public DatasetAttributes getDatasetAttributes(String key) throws IOException {
+          final File dir = getPath(key);
+          if(format == Format.N5) {
+               final Map<String, Object> m = readJsonObject(new File(dir, N5_ATTRIBUTES));
+               if(m == null || !m.containsKey("dimensions"))
+                    throw new IOException("No dataset " + key + " in " + root.getPath());
+               final long[] dims = Json.toLongArray(m.get("dimensions"));
+               final DataType type = parseN5Type(String.valueOf(m.get("dataType")));
+               String comp;
+               final Object c = m.get("compression");
+               if(c instanceof Map) {
+                    comp = String.valueOf(((Map<?, ?>) c).get("type"));
+                    if(comp.equals("gzip") && Boolean.TRUE.equals(((Map<?, ?>) c).get("useZlib")))
+                         comp = "zlib";
+               }
+               else if(m.get("compressionType") != null)
+                    comp = String.valueOf(m.get("compressionType"));
+               else
+                    comp = "raw";
+               return new DatasetAttributes(key, dims, toIntArray(m.get("blockSize")), type,
+                    comp, ByteOrder.BIG_ENDIAN, "/", 0,
+                    getStrings(m, "axes"), getDoubles(m, "resolution"), getStrings(m, "units"));
+          }
+          final Map<String, Object> m = readJsonObject(new File(dir, ZARRAY));
+          if(m == null)
+               throw new IOException("No dataset " + key + " in " + root.getPath());
+          if(!Long.valueOf(2).equals(m.get("zarr_format")))
+               throw new IOException("Unsupported Zarr version: " + m.get("zarr_format"));
+          if("F".equals(m.get("order")))
+               throw new IOException("Zarr arrays in Fortran order are not supported.");
+          if(m.get("filters") instanceof List && !((List<?>) m.get("filters")).isEmpty())
+               throw new IOException("Zarr filters are not supported.");
+          final long[] dims = reverse(Json.toLongArray(m.get("shape")));
+          final int[] block = reverse(toIntArray(m.get("chunks")));
+          final String dtype = String.valueOf(m.get("dtype"));
+          final ByteOrder order = dtype.startsWith(">") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+          final DataType type = parseZarrType(dtype);
+          String comp = "raw";
+          final Object c = m.get("compressor");
+          if(c instanceof Map)
+               comp = String.valueOf(((Map<?, ?>) c).get("id"));
+          double fill = 0;
+          if(m.get("fill_value") instanceof Number)
+               fill = ((Number) m.get("fill_value")).doubleValue();
+          else if("NaN".equals(m.get("fill_value")))
+               fill = Double.NaN;
+          final Object sep = m.get("dimension_separator");
+          final Map<String, Object> attrs = readJsonObject(new File(dir, ZATTRS));
+          return new DatasetAttributes(key, dims, block, type, comp, order,
+               sep == null ? "." : String.valueOf(sep), fill,
+               getStrings(attrs, "axes"), getDoubles(attrs, "resolution"), getStrings(attrs, "units"));
+     }
+
+     /**
+      * Find the full-resolution image dataset for a key. If the key names
+      * a dataset, it is used directly. Otherwise, the key may name an
+      * OME-Zarr multiscale image (the first listed scale is used, with
+      * the axes and pixel sizes from the multiscale metadata), a
+      * {@code bioformats2raw} collection (the first series is used), or
+      * a group of scale levels named {@code s0}, {@code s1}, etc., or
+      * {@code 0}, {@code 1}, etc.
+      */
+     public DatasetAttributes findImage(String key) throws IOException {
+          String k = key == null ? "" : key;
+          for(int depth = 0; depth < 4 && !datasetExists(k); depth++) {
+               final Map<String, Object> attrs = getAttributes(k);
+               if(attrs != null && attrs.get("multiscales") instanceof List
+                       && !((List<?>) attrs.get("multiscales")).isEmpty())
+                    return readMultiscale(k, ((List<?>) attrs.get("multiscales")).get(0));
+               if(attrs != null && attrs.containsKey("bioformats2raw.layout"))
+                    k = join(k, "0");
+               else if(datasetExists(join(k, "s0")))
+                    k = join(k, "s0");
+               else if(datasetExists(join(k, "0")))
+                    k = join(k, "0");
+               else
+                    break;
+          }
+          return getDatasetAttributes(k);
+     }
+
+     /**
+      * Create a new dataset, replacing any existing dataset with
+      * the same key. Blocks are compressed with gzip.
+      * @param key Dataset key
+      * @param dimensions Dataset dimensions, fastest-varying axis first
+      * @param blockSize Block size, fastest-varying axis first
+      * @param type Pixel data type
+      * @param axes Axis labels, or {@code null}
+      * @param resolution Pixel size along each axis, or {@code null}
+      * @param units Pixel size units, or {@code null}
+      */
+     public DatasetAttributes createDataset(String key, long[] dimensions, int[] blockSize,
+             DataType type, String[] axes, double[] resolution, String[] units)
+             throws IOException {
+          if(key == null || key.isEmpty())
+               throw new IOException("A dataset key is required.");
+          final File dir = getPath(key);
+          deleteRecursive(dir);
+          if(!dir.mkdirs() && !dir.isDirectory())
+               throw new IOException(dir.getPath() + " could not be created.");
+          final Map<String, Object> extra = new LinkedHashMap<String, Object>();
+          if(axes != null)
+               extra.put("axes", Arrays.asList(axes));
+          if(resolution != null) {
+               final ArrayList<Double> r = new ArrayList<Double>();
+               for(double x : resolution)
+                    r.add(x);
+               extra.put("resolution", r);
+          }
+          if(units != null)
+               extra.put("units", Arrays.asList(units));
+          final ByteOrder order;
+          if(format == Format.N5) {
+               order = ByteOrder.BIG_ENDIAN;
+               final Map<String, Object> m = new LinkedHashMap<String, Object>();
+               m.put("dimensions", toList(dimensions));
+               m.put("blockSize", toList(blockSize));
+               m.put("dataType", type.n5Name());
+               final Map<String, Object> c = new LinkedHashMap<String, Object>();
+               c.put("type", "gzip");
+               c.put("level", -1);
+               c.put("useZlib", false);
+               m.put("compression", c);
+               m.putAll(extra);
+               writeJson(new File(dir, N5_ATTRIBUTES), m);
+          }
+          else {
+               order = ByteOrder.LITTLE_ENDIAN;
+               for(File p = dir.getParentFile(); p != null && !p.equals(root); p = p.getParentFile())
+                    writeZGroup(p);
+               final Map<String, Object> m = new LinkedHashMap<String, Object>();
+               m.put("zarr_format", 2);
+               m.put("shape", toList(reverse(dimensions.clone())));
+               m.put("chunks", toList(reverse(blockSize.clone())));
+               m.put("dtype", type.zarrName(order));
+               final Map<String, Object> c = new LinkedHashMap<String, Object>();
+               c.put("id", "gzip");
+               c.put("level", 6);
+               m.put("compressor", c);
+               m.put("fill_value", 0);
+               m.put("order", "C");
+               m.put("filters", null);
+               m.put("dimension_separator", ".");
+               writeJson(new File(dir, ZARRAY), m);
+               writeJson(new File(dir, ZATTRS), extra);
+          }
+          return new DatasetAttributes(key, dimensions.clone(), blockSize.clone(), type, "gzip",
+               order, ".", 0, axes, resolution, units);
+     }
+
+     /**
+      * Read one block of a dataset.
+      * @param gridPosition Block position, in blocks, fastest-varying axis first
+      * @return A primitive array ({@code byte[]}, {@code short[]}, {@code int[]},
+      *     {@code long[]}, {@code float[]}, or {@code double[]}) with the part
+      *     of the block inside the dataset bounds, or {@code null} if the block
+      *     has not been written
+      */
+     public Object readBlock(String key, DatasetAttributes a, long[] gridPosition)
+             throws IOException {
+          final File f = blockFile(key, a, gridPosition);
+          if(!f.isFile())
+               return null;
+          final byte[] raw = Files.readAllBytes(f.toPath());
+          final int[] size = a.getBlockSize(gridPosition);
+          if(format == Format.N5) {
+               final ByteBuffer h = ByteBuffer.wrap(raw).order(ByteOrder.BIG_ENDIAN);
+               final int mode = h.getShort() & 0xffff;
+               final int nd = h.getShort() & 0xffff;
+               final int[] stored = new int[nd];
+               for(int d = 0; d < nd; d++)
+                    stored[d] = h.getInt();
+               if(mode == 1)
+                    h.getInt(); // Number of elements, same as the product of the size in this case
+               else if(mode != 0)
+                    throw new IOException("Unsupported N5 block mode: " + mode);
+               final byte[] data = decompress(a.compression, raw, h.position());
+               final Object block = decode(a.dataType, data, a.order, numElements(stored));
+               return Arrays.equals(stored, size) ? block : crop(block, stored, size, a);
+          }
+          final byte[] data = decompress(a.compression, raw, 0);
+          final int[] full = a.blockSize;
+          final Object block = decode(a.dataType, data, a.order, numElements(full));
+          return Arrays.equals(full, size) ? block : crop(block, full, size, a);
+     }
+
+     /**
+      * Write one block of a dataset.
+      * @param gridPosition Block position, in blocks, fastest-varying axis first
+      * @param data Primitive array with the part of the block inside the
+      *     dataset bounds, as returned by {@link #readBlock}
+      */
+     public void writeBlock(String key, DatasetAttributes a, long[] gridPosition, Object data)
+             throws IOException {
+          final int[] size = a.getBlockSize(gridPosition);
+          if(java.lang.reflect.Array.getLength(data) != numElements(size))
+               throw new IOException("Wrong block size");
+          final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          if(format == Format.N5) {
+               final ByteBuffer h = ByteBuffer.allocate(4 + 4 * size.length).order(ByteOrder.BIG_ENDIAN);
+               h.putShort((short) 0);
+               h.putShort((short) size.length);
+               for(int s : size)
+                    h.putInt(s);
+               bytes.write(h.array());
+          }
+          else if(!Arrays.equals(size, a.blockSize))
+               data = crop(data, size, a.blockSize, a); // Zarr blocks are always full size
+          final OutputStream out = compressor(a.compression, bytes);
+          out.write(encode(a.dataType, data, a.order));
+          out.close();
+          final File f = blockFile(key, a, gridPosition);
+          final File parent = f.getParentFile();
+          if(!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+               throw new IOException(parent.getPath() + " could not be created.");
+          Files.write(f.toPath(), bytes.toByteArray());
+     }
+
+     /** Allocate a primitive array suitable for block data */
+     public static Object allocate(DataType type, int n) {
+          switch(type) {
+               case UINT8: case INT8: return new byte[n];
+               case UINT16: case INT16: return new short[n];
+               case UINT32: case INT32: return new int[n];
+               case FLOAT32: return new float[n];
+               case FLOAT64: return new double[n];
+               default: return new long[n];
+          }
+     }
+
+     // -- Helper methods --
+
+     /** Read the first scale of an OME-Zarr multiscale image */
+     private DatasetAttributes readMultiscale(String key, Object multiscale) throws IOException {
+          if(!(multiscale instanceof Map) || !(((Map<?, ?>) multiscale).get("datasets") instanceof List))
+               throw new IOException("Bad multiscale metadata in " + getPath(key).getPath());
+          final Map<?, ?> ms = (Map<?, ?>) multiscale;
+          final List<?> datasets = (List<?>) ms.get("datasets");
+          if(datasets.isEmpty() || !(datasets.get(0) instanceof Map))
+               throw new IOException("No scales listed in " + getPath(key).getPath());
+          final Map<?, ?> level = (Map<?, ?>) datasets.get(0);
+          final DatasetAttributes a = getDatasetAttributes(join(key, String.valueOf(level.get("path"))));
+          final int nd = a.numDimensions();
+          String[] axes = a.axes;
+          String[] units = a.units;
+          double[] resolution = a.resolution;
+          if(ms.get("axes") instanceof List && ((List<?>) ms.get("axes")).size() == nd) {
+               // Listed slowest first, as OME-Zarr version 0.3 names or version 0.4 objects
+               final List<?> l = (List<?>) ms.get("axes");
+               axes = new String[nd];
+               units = new String[nd];
+               for(int i = 0; i < nd; i++) {
+                    final Object ax = l.get(nd - 1 - i);
+                    if(ax instanceof Map) {
+                         axes[i] = String.valueOf(((Map<?, ?>) ax).get("name"));
+                         final Object u = ((Map<?, ?>) ax).get("unit");
+                         units[i] = u == null ? null : String.valueOf(u);
+                    }
+                    else
+                         axes[i] = String.valueOf(ax);
+               }
+          }
+          if(level.get("coordinateTransformations") instanceof List)
+               for(Object t : (List<?>) level.get("coordinateTransformations"))
+                    if(t instanceof Map && "scale".equals(((Map<?, ?>) t).get("type"))) {
+                         final Map<String, Object> m = new LinkedHashMap<String, Object>();
+                         m.put("scale", ((Map<?, ?>) t).get("scale"));
+                         final double[] scale = getDoubles(m, "scale");
+                         if(scale != null && scale.length == nd) {
+                              resolution = new double[nd];
+                              for(int i = 0; i < nd; i++)
+                                   resolution[i] = scale[nd - 1 - i];
+                         }
+                    }
+          return a.withAxes(axes, resolution, units);
+     }
+
+     private static String join(String key, String child) {
+          return key.isEmpty() ? child : key + "/" + child;
+     }
+
+     private static Format formatFromName(File root) throws IOException {
+          final String name = root.getName().toLowerCase();
+          if(name.endsWith(".n5"))
+               return Format.N5;
+          if(name.endsWith(".zarr"))
+               return Format.ZARR;
+          throw new IOException("Unknown container format: " + root.getPath());
+     }
+
+     private File blockFile(String key, DatasetAttributes a, long[] gridPosition)
+             throws IOException {
+          final StringBuilder sb = new StringBuilder();
+          if(format == Format.N5)
+               for(int d = 0; d < gridPosition.length; d++) {
+                    if(d > 0) sb.append('/');
+                    sb.append(gridPosition[d]);
+               }
+          else
+               for(int d = gridPosition.length - 1; d >= 0; d--) {
+                    sb.append(gridPosition[d]);
+                    if(d > 0) sb.append(a.separator);
+               }
+          return new File(getPath(key), sb.toString());
+     }
+
+     private static byte[] decompress(String compression, byte[] raw, int offset)
+             throws IOException {
+          if(compression.equals("raw"))
+               return Arrays.copyOfRange(raw, offset, raw.length);
+          if(compression.equals("blosc"))
+               return Blosc.decompress(raw, offset);
+          final InputStream in;
+          final ByteArrayInputStream bin = new ByteArrayInputStream(raw, offset, raw.length - offset);
+          switch(compression) {
+               case "gzip": in = new GZIPInputStream(bin); break;
+               case "zlib": in = new InflaterInputStream(bin); break;
+               default: throw new IOException("Unsupported compression: " + compression);
+          }
+          final ByteArrayOutputStream out = new ByteArrayOutputStream(4 * raw.length);
+          final byte[] buf = new byte[65536];
+          for(int n; (n = in.read(buf)) > 0; )
+               out.write(buf, 0, n);
+          in.close();
+          return out.toByteArray();
+     }
+
+     private static OutputStream compressor(String compression, OutputStream out)
+             throws IOException {
+          switch(compression) {
+               case "raw": return out;
+               case "gzip": return new GZIPOutputStream(out, 65536);
+               case "zlib": return new DeflaterOutputStream(out);
+               default: throw new IOException("Unsupported compression: " + compression);
+          }
+     }
+
+     private static byte[] encode(DataType type, Object data, ByteOrder order) {
+          final int n = java.lang.reflect.Array.getLength(data);
+          final ByteBuffer b = ByteBuffer.allocate(n * type.getBytes()).order(order);
+          if(data instanceof byte[]) b.put((byte[]) data);
+          else if(data instanceof short[]) b.asShortBuffer().put((short[]) data);
+          else if(data instanceof int[]) b.asIntBuffer().put((int[]) data);
+          else if(data instanceof long[]) b.asLongBuffer().put((long[]) data);
+          else if(data instanceof float[]) b.asFloatBuffer().put((float[]) data);
+          else b.asDoubleBuffer().put((double[]) data);
+          return b.array();
+     }
+
+     private static Object decode(DataType type, byte[] data, ByteOrder order, int n)
+             throws IOException {
+          if(data.length < n * type.getBytes())
+               throw new IOException("Block is too short");
+          final ByteBuffer b = ByteBuffer.wrap(data).order(order);
+          final Object a = allocate(type, n);
+          if(a instanceof byte[]) b.get((byte[]) a);
+          else if(a instanceof short[]) b.asShortBuffer().get((short[]) a);
+          else if(a instanceof int[]) b.asIntBuffer().get((int[]) a);
+          else if(a instanceof long[]) b.asLongBuffer().get((long[]) a);
+          else if(a instanceof float[]) b.asFloatBuffer().get((float[]) a);
+          else b.asDoubleBuffer().get((double[]) a);
+          return a;
+     }
+
+     /**
+      * Copy the overlapping region of a block of size {@code from} to a new
+      * block of size {@code to}, padding with the fill value if needed.
+      */
+     private static Object crop(Object src, int[] from, int[] to, DatasetAttributes a) {
+          final int n = numElements(to);
+          final Object dst = allocate(a.dataType, n);
+          if(a.fillValue != 0)
+               fill(dst, a.fillValue);
+          final int nd = to.length;
+          final int line = Math.min(from[0], to[0]);
+          final int[] pos = new int[nd];
+          for(int d = 1; d < nd; d++)
+               if(Math.min(from[d], to[d]) == 0)
+                    return dst;
+          while(true) {
+               int si = 0, di = 0, ss = 1, ds = 1;
+               for(int d = 0; d < nd; d++) {
+                    si += pos[d] * ss;
+                    di += pos[d] * ds;
+                    ss *= from[d];
+                    ds *= to[d];
+               }
+               System.arraycopy(src, si, dst, di, line);
+               int d = 1;
+               for( ; d < nd; d++) {
+                    if(++pos[d] < Math.min(from[d], to[d]))
+                         break;
+                    pos[d] = 0;
+               }
+               if(d >= nd)
+                    return dst;
+          }
+     }
+
+     private static void fill(Object a, double v) {
+          if(a instanceof float[]) Arrays.fill((float[]) a, (float) v);
+          else if(a instanceof double[]) Arrays.fill((double[]) a, v);
+          else if(a instanceof byte[]) Arrays.fill((byte[]) a, (byte) v);
+          else if(a instanceof short[]) Arrays.fill((short[]) a, (short) v);
+          else if(a instanceof int[]) Arrays.fill((int[]) a, (int) v);
+          else Arrays.fill((long[]) a, (long) v);
+     }
+
+     private static int numElements(int[] size) {
+          long n = 1;
+          for(int s : size)
+               n *= s;
+          if(n > Integer.MAX_VALUE)
+               throw new IllegalArgumentException("Block is too large");
+          return (int) n;
+     }
+
+     private static DataType parseN5Type(String name) throws IOException {
+          for(DataType t : DataType.values())
+               if(t.n5Name().equals(name))
+                    return t;
+          throw new IOException("Unsupported data type: " + name);
+     }
+
+     private static DataType parseZarrType(String dtype) throws IOException {
+          if(dtype.length() >= 3) {
+               final char kind = dtype.charAt(1);
+               final String bytes = dtype.substring(2);
+               if(kind == 'b' && bytes.equals("1"))
+                    return DataType.UINT8;
+               for(DataType t : DataType.values())
+                    if(t.kind == kind && String.valueOf(t.bytes).equals(bytes))
+                         return t;
+          }
+          throw new IOException("Unsupported data type: " + dtype);
+     }
+
+     private Map<String, Object> readJsonObject(File f) throws IOException {
+          if(!f.isFile())
+               return null;
+          final Object o = Json.parse(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+          if(!(o instanceof Map))
+               throw new IOException("Unexpected content in " + f.getPath());
+          @SuppressWarnings("unchecked")
+          final Map<String, Object> m = (Map<String, Object>) o;
+          return m;
+     }
+
+     private void writeJson(File f, Map<String, Object> m) throws IOException {
+          Files.write(f.toPath(), Json.write(m).getBytes(StandardCharsets.UTF_8));
+     }
+
+     private void writeZGroup(File dir) throws IOException {
+          final File f = new File(dir, ZGROUP);
+          if(f.isFile())
+               return;
+          final Map<String, Object> m = new LinkedHashMap<String, Object>();
+          m.put("zarr_format", 2);
+          writeJson(f, m);
+     }
+
+     private static void deleteRecursive(File f) throws IOException {
+          if(!f.exists())
+               return;
+          final File[] children = f.listFiles();
+          if(children != null)
+               for(File c : children)
+                    deleteRecursive(c);
+          if(!f.delete())
+               throw new IOException(f.getPath() + " could not be removed.");
+     }
+
+     private static String[] getStrings(Map<String, Object> m, String key) {
+          if(m == null || !(m.get(key) instanceof List))
+               return null;
+          final List<?> l = (List<?>) m.get(key);
+          final String[] s = new String[l.size()];
+          for(int i = 0; i < s.length; i++)
+               s[i] = String.valueOf(l.get(i));
+          return s;
+     }
+
+     private static double[] getDoubles(Map<String, Object> m, String key) {
+          if(m == null || !(m.get(key) instanceof List))
+               return null;
+          final List<?> l = (List<?>) m.get(key);
+          final double[] a = new double[l.size()];
+          for(int i = 0; i < a.length; i++)
+               a[i] = l.get(i) instanceof Number ? ((Number) l.get(i)).doubleValue() : 1;
+          return a;
+     }
+
+     private static int[] toIntArray(Object list) throws IOException {
+          final long[] l = Json.toLongArray(list);
+          final int[] a = new int[l.length];
+          for(int i = 0; i < a.length; i++)
+               a[i] = (int) l[i];
+          return a;
+     }
+
+     private static List<Long> toList(long[] a) {
+          final ArrayList<Long> l = new ArrayList<Long>(a.length);
+          for(long x : a)
+               l.add(x);
+          return l;
+     }
+
+     private static List<Integer> toList(int[] a) {
+          final ArrayList<Integer> l = new ArrayList<Integer>(a.length);
+          for(int x : a)
+               l.add(x);
+          return l;
+     }
+
+     private static long[] reverse(long[] a) {
+          for(int i = 0, j = a.length - 1; i < j; i++, j--) {
+               final long t = a[i];
+               a[i] = a[j];
+               a[j] = t;
+          }
+          return a;
+     }
+
+     private static int[] reverse(int[] a) {
+          for(int i = 0, j = a.length - 1; i < j; i++, j--) {
+               final int t = a[i];
+               a[i] = a[j];
+               a[j] = t;
+          }
+          return a;
+     }
+
+}
@@ -0,0 +1,323 @@
+package org.nanes.slideset.io;
+
+import org.nanes.slideset.io.ChunkedContainer.DataType;
+import org.nanes.slideset.io.ChunkedContainer.DatasetAttributes;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Transfers images between ImgLib2 and {@link ChunkedContainer} datasets.
+ * Images read from a container are loaded lazily, one block at a time,
+ * as pixels are accessed. Decoded blocks are kept in a cache shared by
+ * all open images, which discards the least recently used blocks once
+ * its size limit is reached. Memory use therefore depends on the part
+ * of an image being worked on, rather than on the size of the image.
+ *
+ * @author Benjamin Nanes
+ */
+public class ChunkedImages {
+
+     // -- Parameters --
+
+     /** Default block size along the first two (X and Y) axes */
+     public static final int PLANE_BLOCK_SIZE = 256;
+
+     private static final BlockCache cache = new BlockCache(
+          Math.min(512L << 20, Runtime.getRuntime().maxMemory() / 4));
+
+     protected ChunkedImages() { }
+
+     // -- Methods --
+
+     /**
+      * Get the container data type that can store pixels of type {@code t}.
+      * Types without an exact counterpart are stored as 64-bit integers
+      * or 64-bit floating point numbers.
+      */
+     public static DataType getDataType(RealType<?> t) {
+          if(t instanceof UnsignedByteType || t instanceof BooleanType) return DataType.UINT8;
+          if(t instanceof ByteType) return DataType.INT8;
+          if(t instanceof UnsignedShortType) return DataType.UINT16;
+          if(t instanceof ShortType) return DataType.INT16;
+          if(t instanceof UnsignedIntType) return DataType.UINT32;
+          if(t instanceof IntType) return DataType.INT32;
+          if(t instanceof UnsignedLongType) return DataType.UINT64;
+          if(t instanceof LongType || t instanceof IntegerType) return DataType.INT64;
+          if(t instanceof FloatType) return DataType.FLOAT32;
+          return DataType.FLOAT64;
+     }
+
+     /** Set the size limit, in bytes, of the shared block cache */
+     public static void setCacheSize(long bytes) {
+          cache.setBudget(bytes);
+     }
+
+     /** Get the size limit, in bytes, of the shared block cache */
+     public static long getCacheSize() {
+          return cache.getBudget();
+     }
+
+     /**
+      * Open a dataset as a lazily loaded image. Blocks are read when their
+      * pixels are first accessed, and blocks that have not been written
+      * are filled with the dataset's fill value. Changes to pixel values
+      * are not saved or shared with other images opened from the same
+      * dataset, and may be lost once the block is no longer being accessed.
+      * @param container The container
+      * @param a The dataset, from {@link ChunkedContainer#getDatasetAttributes}
+      *     or {@link ChunkedContainer#findImage}
+      * @return The image. If a block cannot be read when it is accessed, an
+      *     {@link UncheckedIOException} is thrown.
+      */
+     @SuppressWarnings({"unchecked", "rawtypes"})
+     public static Img<? extends RealType<?>> open(
+             final ChunkedContainer container,
+             final DatasetAttributes a) {
+          final CellGrid grid = new CellGrid(a.getDimensions(), a.getBlockSize());
+          final String prefix = cacheId(container, a.getKey());
+          final LazyCellImg.Get<Cell<?>> loader = new LazyCellImg.Get<Cell<?>>() {
+               @Override
+               public Cell<?> get(long index) {
+                    final int nd = grid.numDimensions();
+                    final long[] pos = new long[nd];
+                    grid.getCellGridPositionFlat(index, pos);
+                    final long[] min = new long[nd];
+                    final int[] size = new int[nd];
+                    grid.getCellDimensions(pos, min, size);
+                    final String id = prefix + "#" + index;
+                    Object data = cache.get(id);
+                    if(data == null) {
+                         try {
+                              data = container.readBlock(a.getKey(), a, pos);
+                         } catch(IOException e) {
+                              throw new UncheckedIOException(e);
+                         }
+                         if(data == null)
+                              data = emptyBlock(a, size);
+                         cache.put(id, data);
+                    }
+                    // Each cell gets its own copy, so changes are not seen
+                    // by other images sharing the cached block
+                    return new Cell(size, min, wrap(copy(data)));
+               }
+          };
+          return new LazyCellImg(grid, (NativeType) createType(a.getDataType()), loader);
+     }
+
+     /**
+      * Write an image to a new dataset in a container, replacing any
+      * existing dataset with the same key. Blocks are
+      * {@link #PLANE_BLOCK_SIZE} pixels along the first two axes, and one
+      * pixel along any other axes. Blocks are filled, compressed, and
+      * written in parallel.
+      * @param container The container
+      * @param key Dataset key
+      * @param img The image. Its minimum is treated as the origin.
+      * @param axes Axis labels, or {@code null}
+      * @param resolution Pixel size along each axis, or {@code null}
+      * @param units Pixel size units, or {@code null}
+      * @param nThreads Number of threads to use
+      */
+     public static void write(
+             final ChunkedContainer container,
+             final String key,
+             RandomAccessibleInterval<? extends RealType<?>> img,
+             String[] axes,
+             double[] resolution,
+             String[] units,
+             int nThreads) throws IOException {
+          final RandomAccessibleInterval<? extends RealType<?>> src = Views.zeroMin(img);
+          final int nd = src.numDimensions();
+          final long[] dims = Intervals.dimensionsAsLongArray(src);
+          final int[] blockSize = new int[nd];
+          for(int d = 0; d < nd; d++)
+               blockSize[d] = (int) Math.max(1, Math.min(d < 2 ? PLANE_BLOCK_SIZE : 1, dims[d]));
+          final DataType type = getDataType(src.randomAccess().get());
+          cache.invalidate(cacheId(container, key));
+          final DatasetAttributes a = container.createDataset(
+               key, dims, blockSize, type, axes, resolution, units);
+          final long[] grid = a.getGridSize();
+          long nBlocks = 1;
+          for(long g : grid)
+               nBlocks *= g;
+          if(nBlocks == 0)
+               return;
+          final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, nThreads));
+          try {
+               final List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+               for(long b = 0; b < nBlocks; b++) {
+                    final long[] pos = new long[nd];
+                    long r = b;
+                    for(int d = 0; d < nd; d++) {
+                         pos[d] = r % grid[d];
+                         r /= grid[d];
+                    }
+                    tasks.add(pool.submit(new Callable<Void>() {
+                         @Override
+                         public Void call() throws IOException {
+                              container.writeBlock(key, a, pos, readBlock(src, a, pos));
+                              return null;
+                         }
+                    }));
+               }
+               for(Future<Void> t : tasks)
+                    t.get();
+          } catch(InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new IOException("Writing " + key + " was interrupted", e);
+          } catch(ExecutionException e) {
+               if(e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+               throw new IOException("Could not write " + key, e.getCause());
+          } finally {
+               pool.shutdownNow();
+          }
+     }
+
+     // -- Helper methods --
+
+     private static String cacheId(ChunkedContainer container, String key) {
+          return container.getRoot().getAbsolutePath() + "?" + key;
+     }
+
+     /** Create a pixel type for a container data type */
+     private static RealType<?> createType(DataType type) {
+          switch(type) {
+               case UINT8: return new UnsignedByteType();
+               case INT8: return new ByteType();
+               case UINT16: return new UnsignedShortType();
+               case INT16: return new ShortType();
+               case UINT32: return new UnsignedIntType();
+               case INT32: return new IntType();
+               case UINT64: return new UnsignedLongType();
+               case INT64: return new LongType();
+               case FLOAT32: return new FloatType();
+               default: return new DoubleType();
+          }
+     }
+
+     /** Wrap block data in an ImgLib2 array access */
+     private static Object wrap(Object data) {
+          if(data instanceof byte[]) return new ByteArray((byte[]) data);
+          if(data instanceof short[]) return new ShortArray((short[]) data);
+          if(data instanceof int[]) return new IntArray((int[]) data);
+          if(data instanceof long[]) return new LongArray((long[]) data);
+          if(data instanceof float[]) return new FloatArray((float[]) data);
+          return new DoubleArray((double[]) data);
+     }
+
+     /** Copy block data */
+     private static Object copy(Object data) {
+          if(data instanceof byte[]) return ((byte[]) data).clone();
+          if(data instanceof short[]) return ((short[]) data).clone();
+          if(data instanceof int[]) return ((int[]) data).clone();
+          if(data instanceof long[]) return ((long[]) data).clone();
+          if(data instanceof float[]) return ((float[]) data).clone();
+          return ((double[]) data).clone();
+     }
+
+     private static Object emptyBlock(DatasetAttributes a, int[] size) {
+          int n = 1;
+          for(int s : size)
+               n *= s;
+          final Object data = ChunkedContainer.allocate(a.getDataType(), n);
+          final double v = a.getFillValue();
+          if(v != 0)
+               for(int i = 0; i < n; i++)
+                    java.lang.reflect.Array.set(data, i, convert(data, v));
+          return data;
+     }
+
+     private static Object convert(Object data, double v) {
+          if(data instanceof byte[]) return (byte) v;
+          if(data instanceof short[]) return (short) v;
+          if(data instanceof int[]) return (int) v;
+          if(data instanceof long[]) return (long) v;
+          if(data instanceof float[]) return (float) v;
+          return v;
+     }
+
+     /** Copy one block of pixels into a primitive array, fastest axis first */
+     private static Object readBlock(
+             RandomAccessibleInterval<? extends RealType<?>> src, DatasetAttributes a, long[] gridPosition) {
+          final int nd = gridPosition.length;
+          final int[] size = a.getBlockSize(gridPosition);
+          final int[] nominal = a.getBlockSize();
+          final long[] min = new long[nd];
+          final long[] max = new long[nd];
+          int n = 1;
+          for(int d = 0; d < nd; d++) {
+               min[d] = gridPosition[d] * nominal[d];
+               max[d] = min[d] + size[d] - 1;
+               n *= size[d];
+          }
+          final Cursor<? extends RealType<?>> c = Views.flatIterable(Views.interval(src, min, max)).cursor();
+          final Object data = ChunkedContainer.allocate(a.getDataType(), n);
+          final boolean integer = src.randomAccess().get() instanceof IntegerType;
+          int i = 0;
+          if(data instanceof float[]) {
+               final float[] v = (float[]) data;
+               while(c.hasNext())
+                    v[i++] = c.next().getRealFloat();
+          }
+          else if(data instanceof double[]) {
+               final double[] v = (double[]) data;
+               while(c.hasNext())
+                    v[i++] = c.next().getRealDouble();
+          }
+          else if(integer) {
+               while(c.hasNext())
+                    store(data, i++, ((IntegerType<?>) c.next()).getIntegerLong());
+          }
+          else {
+               while(c.hasNext())
+                    store(data, i++, Math.round(c.next().getRealDouble()));
+          }
+          return data;
+     }
+
+     private static void store(Object data, int i, long x) {
+          if(data instanceof byte[]) ((byte[]) data)[i] = (byte) x;
+          else if(data instanceof short[]) ((short[]) data)[i] = (short) x;
+          else if(data instanceof int[]) ((int[]) data)[i] = (int) x;
+          else ((long[]) data)[i] = x;
+     }
+
+}
@@ -0,0 +1,210 @@
+package org.nanes.slideset.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal FlatBuffers serializer, sufficient for writing Arrow IPC
+ * metadata. Objects are described as a tree of {@link Table}s, strings,
+ * and vectors, then laid out front-to-back so that every reference
+ * points forward, as the format requires.
+ *
+ * @author Benjamin Nanes
+ */
+final class FlatBufferBuilder {
+
+     // -- Object model --
+
+     /** A table with scalar and reference fields, indexed by field id */
+     static final class Table {
+          private final ArrayList<Object> values = new ArrayList<Object>();
+          private final ArrayList<Integer> sizes = new ArrayList<Integer>();
+
+          private Table set(int id, Object value, int size) {
+               while(values.size() <= id) {
+                    values.add(null);
+                    sizes.add(0);
+               }
+               values.set(id, value);
+               sizes.set(id, size);
+               return this;
+          }
+
+          Table addBool(int id, boolean v) { return set(id, (long) (v ? 1 : 0), 1); }
+          Table addByte(int id, int v) { return set(id, (long) v, 1); }
+          Table addShort(int id, int v) { return set(id, (long) v, 2); }
+          Table addInt(int id, int v) { return set(id, (long) v, 4); }
+          Table addLong(int id, long v) { return set(id, v, 8); }
+          Table addString(int id, String v) { return set(id, new Str(v), 4); }
+          Table addTable(int id, Table v) { return set(id, v, 4); }
+          Table addVector(int id, List<?> v) { return set(id, new Vec(v), 4); }
+          Table addStructs(int id, Structs v) { return set(id, v, 4); }
+     }
+
+     /** A vector of inline structs, all fields being 8-byte integers */
+     static final class Structs {
+          private final ArrayList<long[]> items = new ArrayList<long[]>();
+          private final int longsPerItem;
+
+          Structs(int longsPerItem) {
+               this.longsPerItem = longsPerItem;
+          }
+
+          Structs add(long... fields) {
+               if(fields.length != longsPerItem)
+                    throw new IllegalArgumentException("Wrong struct size");
+               items.add(fields);
+               return this;
+          }
+     }
+
+     private static final class Str {
+          final byte[] bytes;
+          Str(String s) { bytes = s.getBytes(StandardCharsets.UTF_8); }
+     }
+
+     private static final class Vec {
+          final List<?> items;
+          Vec(List<?> items) { this.items = items; }
+     }
+
+     // -- Fields --
+
+     private ByteBuffer buf = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+     private final ArrayDeque<Object[]> pending = new ArrayDeque<Object[]>();
+
+     // -- Methods --
+
+     /**
+      * Serialize a root table.
+      * @return The FlatBuffer bytes, padded to a multiple of 8
+      */
+     static byte[] finish(Table root) {
+          return new FlatBufferBuilder().build(root);
+     }
+
+     private byte[] build(Table root) {
+          reserve(4);
+          pending.add(new Object[]{root, 0});
+          while(!pending.isEmpty()) {
+               final Object[] p = pending.poll();
+               final int pos = emit(p[0]);
+               buf.putInt((Integer) p[1], pos - (Integer) p[1]);
+          }
+          align(8);
+          final byte[] out = new byte[buf.position()];
+          buf.flip();
+          buf.get(out);
+          return out;
+     }
+
+     /** Write an object at the end of the buffer and return its position */
+     private int emit(Object o) {
+          if(o instanceof Table)
+               return emitTable((Table) o);
+          if(o instanceof Str) {
+               final byte[] b = ((Str) o).bytes;
+               align(4);
+               final int pos = reserve(4 + b.length + 1);
+               buf.putInt(pos, b.length);
+               for(int i = 0; i < b.length; i++)
+                    buf.put(pos + 4 + i, b[i]);
+               return pos;
+          }
+          if(o instanceof Vec) {
+               final List<?> items = ((Vec) o).items;
+               align(4);
+               final int pos = reserve(4 + 4 * items.size());
+               buf.putInt(pos, items.size());
+               for(int i = 0; i < items.size(); i++) {
+                    Object item = items.get(i);
+                    if(item instanceof String)
+                         item = new Str((String) item);
+                    pending.add(new Object[]{item, pos + 4 + 4 * i});
+               }
+               return pos;
+          }
+          if(o instanceof Structs) {
+               final Structs s = (Structs) o;
+               while((buf.position() + 4) % 8 != 0)
+                    reserve(1);
+               final int pos = reserve(4 + 8 * s.longsPerItem * s.items.size());
+               buf.putInt(pos, s.items.size());
+               int p = pos + 4;
+               for(long[] item : s.items)
+                    for(long v : item) {
+                         buf.putLong(p, v);
+                         p += 8;
+                    }
+               return pos;
+          }
+          throw new IllegalArgumentException("Cannot serialize " + o);
+     }
+
+     private int emitTable(Table t) {
+          final int n = t.values.size();
+          // Lay out fields by decreasing size after the vtable offset
+          final int[] offsets = new int[n];
+          int size = 4;
+          for(int s = 8; s >= 1; s /= 2)
+               for(int i = 0; i < n; i++)
+                    if(t.values.get(i) != null && t.sizes.get(i) == s) {
+                         offsets[i] = size;
+                         size += s;
+                    }
+          // vtable, then the table aligned so 8-byte fields are aligned
+          align(2);
+          final int vt = reserve(4 + 2 * n);
+          buf.putShort(vt, (short) (4 + 2 * n));
+          buf.putShort(vt + 2, (short) size);
+          for(int i = 0; i < n; i++)
+               buf.putShort(vt + 4 + 2 * i, (short) offsets[i]);
+          while((buf.position() + 4) % 8 != 0)
+               reserve(1);
+          final int pos = reserve(size);
+          buf.putInt(pos, pos - vt);
+          for(int i = 0; i < n; i++) {
+               final Object v = t.values.get(i);
+               if(v == null)
+                    continue;
+               final int at = pos + offsets[i];
+               if(v instanceof Long) {
+                    final long x = (Long) v;
+                    switch(t.sizes.get(i)) {
+                         case 1: buf.put(at, (byte) x); break;
+                         case 2: buf.putShort(at, (short) x); break;
+                         case 4: buf.putInt(at, (int) x); break;
+                         default: buf.putLong(at, x);
+                    }
+               }
+               else
+                    pending.add(new Object[]{v, at});
+          }
+          return pos;
+     }
+
+     /** Pad with zeros to a multiple of {@code n} */
+     private void align(int n) {
+          while(buf.position() % n != 0)
+               reserve(1);
+     }
+
+     /** Reserve zeroed space at the end of the buffer, returning its position */
+     private int reserve(int n) {
+          if(buf.remaining() < n) {
+               final ByteBuffer b = ByteBuffer.allocate(
+                    Math.max(2 * buf.capacity(), buf.position() + n)).order(ByteOrder.LITTLE_ENDIAN);
+               buf.flip();
+               b.put(buf);
+               buf = b;
+          }
+          final int pos = buf.position();
+          buf.position(pos + n);
+          return pos;
+     }
+
+}
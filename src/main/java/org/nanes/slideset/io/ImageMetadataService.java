@@ -0,0 +1,112 @@
+package org.nanes.slideset.io;
+
+import org.nanes.slideset.SlideSet;
+import org.nanes.slideset.dm.DoubleElement;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.IntegerElement;
+import org.nanes.slideset.dm.StringElement;
+import org.nanes.slideset.dm.read.ImageFileToImageMetadataReader;
+import org.nanes.slideset.dm.read.ImageMetadata;
+import org.nanes.slideset.ex.SlideSetException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Adds columns describing the images linked in a {@code SlideSet}
+ * column: dimensions, pixel type, size, and calibration. Only image
+ * headers are read, using {@link ImageFileToImageMetadataReader}, and
+ * rows are read in parallel, so even large tables can be checked, or
+ * memory needs estimated, before a long command run.
+ *
+ * @author Benjamin Nanes
+ */
+public class ImageMetadataService {
+
+     // -- Parameters --
+
+     /** Reading headers is mostly waiting on the disk, so use extra threads */
+     private int nThreads = 2 * Runtime.getRuntime().availableProcessors();
+
+     private static final String[] NAMES = {"Width", "Height", "Depth",
+          "Channels", "Frames", "Series", "Pixel Type", "Bytes",
+          "Pixel Width", "Pixel Height", "Pixel Depth", "Unit"};
+     private static final Class<?>[] TYPES = {IntegerElement.class,
+          IntegerElement.class, IntegerElement.class, IntegerElement.class,
+          IntegerElement.class, IntegerElement.class, StringElement.class,
+          DoubleElement.class, DoubleElement.class, DoubleElement.class,
+          DoubleElement.class, StringElement.class};
+
+     // -- Methods --
+
+     /** Set the number of threads used for reading */
+     public void setThreads(int n) {
+          nThreads = Math.max(1, n);
+     }
+
+     /**
+      * Read the metadata of each image linked in a column, and add
+      * the values to new columns at the end of the table. The new
+      * columns are named for the image column, such as "Image Width".
+      * @param data The table
+      * @param column Index of a {@link FileLinkElement} column linking to images
+      * @param errors List to receive messages for the images that could
+      *     not be read, or {@code null}. Columns are left empty for these rows.
+      * @return Index of the first new column
+      */
+     public int addMetadataColumns(final SlideSet data, int column, List<String> errors)
+             throws SlideSetException {
+          if(column < 0 || column >= data.getNumCols()
+                  || !FileLinkElement.class.isAssignableFrom(data.getColumnElementType(column)))
+               throw new IllegalArgumentException("Column must contain file links");
+          final int nRows = data.getNumRows();
+          final ImageFileToImageMetadataReader reader = new ImageFileToImageMetadataReader();
+          final ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+          final List<Future<ImageMetadata>> results = new ArrayList<Future<ImageMetadata>>(nRows);
+          try {
+               for(int r = 0; r < nRows; r++) {
+                    final FileLinkElement e = (FileLinkElement) data.getDataElement(column, r);
+                    results.add(pool.submit(new Callable<ImageMetadata>() {
+                         @Override
+                         public ImageMetadata call() throws Exception {
+                              return reader.read(e);
+                         }
+                    }));
+               }
+               final String prefix = data.getColumnName(column) + " ";
+               final int first = data.getNumCols();
+               for(int k = 0; k < NAMES.length; k++)
+                    data.addColumn(prefix + NAMES[k], TYPES[k].getName(), null);
+               for(int r = 0; r < nRows; r++) {
+                    final ImageMetadata m;
+                    try {
+                         m = results.get(r).get();
+                    } catch(ExecutionException e) {
+                         if(errors != null)
+                              errors.add("Row " + (r + 1) + ": " + e.getCause().getMessage());
+                         continue;
+                    }
+                    final Object[] values = {m.getSizeX(), m.getSizeY(), m.getSizeZ(),
+                         m.getSizeC(), m.getSizeT(), m.getSeriesCount(), m.getPixelType(),
+                         (double) m.getBytes(), m.getPixelWidth(), m.getPixelHeight(),
+                         m.getPixelDepth(), m.getUnit() == null ? "" : m.getUnit()};
+                    for(int k = 0; k < values.length; k++)
+                         data.setUnderlying(first + k, r, values[k]);
+               }
+               return first;
+          }
+          catch(InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SlideSetException("Reading image metadata interrupted", e);
+          }
+          finally {
+               pool.shutdownNow();
+          }
+     }
+
+}
@@ -0,0 +1,266 @@
+package org.nanes.slideset.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader and writer for container metadata files.
+ * Objects are read as {@link LinkedHashMap}s, arrays as
+ * {@link ArrayList}s, integral numbers as {@code Long}s, other numbers
+ * as {@code Double}s, and {@code true}, {@code false}, and {@code null}
+ * as the corresponding Java values.
+ *
+ * @author Benjamin Nanes
+ */
+final class Json {
+
+     // -- Fields --
+
+     private final String s;
+     private int pos;
+
+     private Json(String s) {
+          this.s = s;
+     }
+
+     // -- Methods --
+
+     /** Parse a JSON document */
+     static Object parse(String text) throws IOException {
+          final Json p = new Json(text);
+          final Object value = p.value();
+          p.skipSpace();
+          if(p.pos < p.s.length())
+               throw p.error("Unexpected content");
+          return value;
+     }
+
+     /** Serialize a value built from maps, lists, strings, numbers, and booleans */
+     static String write(Object value) {
+          final StringBuilder sb = new StringBuilder();
+          write(value, sb);
+          return sb.toString();
+     }
+
+     /** Get a numeric array from a parsed JSON list */
+     static long[] toLongArray(Object list) throws IOException {
+          if(!(list instanceof List))
+               throw new IOException("Expected an array: " + list);
+          final List<?> l = (List<?>) list;
+          final long[] a = new long[l.size()];
+          for(int i = 0; i < a.length; i++) {
+               if(!(l.get(i) instanceof Number))
+                    throw new IOException("Expected a number: " + l.get(i));
+               a[i] = ((Number) l.get(i)).longValue();
+          }
+          return a;
+     }
+
+     // -- Helper methods --
+
+     private static void write(Object v, StringBuilder sb) {
+          if(v == null)
+               sb.append("null");
+          else if(v instanceof Map) {
+               sb.append('{');
+               boolean first = true;
+               for(Map.Entry<?, ?> e : ((Map<?, ?>) v).entrySet()) {
+                    if(!first) sb.append(',');
+                    first = false;
+                    writeString(String.valueOf(e.getKey()), sb);
+                    sb.append(':');
+                    write(e.getValue(), sb);
+               }
+               sb.append('}');
+          }
+          else if(v instanceof List) {
+               sb.append('[');
+               boolean first = true;
+               for(Object o : (List<?>) v) {
+                    if(!first) sb.append(',');
+                    first = false;
+                    write(o, sb);
+               }
+               sb.append(']');
+          }
+          else if(v instanceof Double || v instanceof Float) {
+               final double d = ((Number) v).doubleValue();
+               sb.append(Double.isNaN(d) || Double.isInfinite(d) ? "null" : String.valueOf(d));
+          }
+          else if(v instanceof Number || v instanceof Boolean)
+               sb.append(v);
+          else
+               writeString(v.toString(), sb);
+     }
+
+     private static void writeString(String str, StringBuilder sb) {
+          sb.append('"');
+          for(int i = 0; i < str.length(); i++) {
+               final char c = str.charAt(i);
+               switch(c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                         if(c < 0x20)
+                              sb.append(String.format("\\u%04x", (int) c));
+                         else
+                              sb.append(c);
+               }
+          }
+          sb.append('"');
+     }
+
+     private Object value() throws IOException {
+          skipSpace();
+          if(pos >= s.length())
+               throw error("Unexpected end of input");
+          final char c = s.charAt(pos);
+          switch(c) {
+               case '{': return object();
+               case '[': return array();
+               case '"': return string();
+               case 't': return literal("true", Boolean.TRUE);
+               case 'f': return literal("false", Boolean.FALSE);
+               case 'n': return literal("null", null);
+               default: return number();
+          }
+     }
+
+     private Map<String, Object> object() throws IOException {
+          final LinkedHashMap<String, Object> m = new LinkedHashMap<String, Object>();
+          pos++;
+          skipSpace();
+          if(peek() == '}') {
+               pos++;
+               return m;
+          }
+          while(true) {
+               skipSpace();
+               if(peek() != '"')
+                    throw error("Expected a key");
+               final String key = string();
+               skipSpace();
+               expect(':');
+               m.put(key, value());
+               skipSpace();
+               if(peek() == ',') {
+                    pos++;
+                    continue;
+               }
+               expect('}');
+               return m;
+          }
+     }
+
+     private List<Object> array() throws IOException {
+          final ArrayList<Object> l = new ArrayList<Object>();
+          pos++;
+          skipSpace();
+          if(peek() == ']') {
+               pos++;
+               return l;
+          }
+          while(true) {
+               l.add(value());
+               skipSpace();
+               if(peek() == ',') {
+                    pos++;
+                    continue;
+               }
+               expect(']');
+               return l;
+          }
+     }
+
+     private String string() throws IOException {
+          final StringBuilder sb = new StringBuilder();
+          pos++;
+          while(pos < s.length()) {
+               final char c = s.charAt(pos++);
+               if(c == '"')
+                    return sb.toString();
+               if(c != '\\') {
+                    sb.append(c);
+                    continue;
+               }
+               if(pos >= s.length())
+                    break;
+               final char e = s.charAt(pos++);
+               switch(e) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                         if(pos + 4 > s.length())
+                              throw error("Bad escape");
+                         sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                         pos += 4;
+                         break;
+                    default: sb.append(e);
+               }
+          }
+          throw error("Unterminated string");
+     }
+
+     private Object number() throws IOException {
+          final int start = pos;
+          boolean integral = true;
+          while(pos < s.length()) {
+               final char c = s.charAt(pos);
+               if(c == '.' || c == 'e' || c == 'E')
+                    integral = false;
+               else if(!(c == '-' || c == '+' || (c >= '0' && c <= '9')))
+                    break;
+               pos++;
+          }
+          final String n = s.substring(start, pos);
+          try {
+               if(integral)
+                    return Long.parseLong(n);
+               return Double.parseDouble(n);
+          } catch(NumberFormatException e) {
+               // Also covers NaN and Infinity, which are written by some tools
+               for(String special : new String[] {"NaN", "Infinity", "-Infinity"})
+                    if(s.startsWith(special, start)) {
+                         pos = start + special.length();
+                         return Double.parseDouble(special);
+                    }
+               throw error("Bad value");
+          }
+     }
+
+     private Object literal(String word, Object value) throws IOException {
+          if(!s.startsWith(word, pos))
+               throw error("Bad value");
+          pos += word.length();
+          return value;
+     }
+
+     private void expect(char c) throws IOException {
+          if(peek() != c)
+               throw error("Expected '" + c + "'");
+          pos++;
+     }
+
+     private char peek() {
+          return pos < s.length() ? s.charAt(pos) : 0;
+     }
+
+     private void skipSpace() {
+          while(pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+               pos++;
+     }
+
+     private IOException error(String msg) {
+          return new IOException(msg + " at position " + pos + " in JSON metadata");
+     }
+
+}
@@ -0,0 +1,267 @@
+package org.nanes.slideset.io;
+
+import org.nanes.slideset.SlideSet;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.PathResolver.FileStatus;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the files linked in a {@code SlideSet} and all of its child
+ * tables, so missing files can be found before a long command run
+ * rather than partway through it. Every file link column is checked,
+ * each file is checked once no matter how many times it is linked, and
+ * files are checked in parallel through the {@link PathResolver}. The
+ * number of threads is limited, since network file systems slow down
+ * when too many requests are made at once.
+ *
+ * @author Benjamin Nanes
+ */
+public class LinkCheckService {
+
+     // -- Parameters --
+
+     private int nThreads = Math.min(8, 2 * Runtime.getRuntime().availableProcessors());
+
+     /** Files checked by each task */
+     private static final int CHUNK = 512;
+
+     // -- Methods --
+
+     /** Set the number of threads used for checking files */
+     public void setThreads(int n) {
+          nThreads = Math.max(1, n);
+     }
+
+     /**
+      * Check the files linked in a table and its descendants. Empty
+      * links are skipped.
+      * @param root The table
+      * @return The results
+      */
+     public Report check(SlideSet root) throws SlideSetException {
+          final List<SlideSet> tables = new ArrayList<SlideSet>();
+          addTree(root, tables);
+          final HashMap<File, Integer> index = new HashMap<File, Integer>();
+          final List<File> files = new ArrayList<File>();
+          final List<Link> links = new ArrayList<Link>();
+          for(SlideSet data : tables) {
+               final PathResolver pr = data.getPathResolver();
+               for(int c = 0; c < data.getNumCols(); c++) {
+                    if(!FileLinkElement.class.isAssignableFrom(data.getColumnElementType(c)))
+                         continue;
+                    for(int r = 0; r < data.getNumRows(); r++) {
+                         final File f = pr.getFile(
+                              ((FileLinkElement) data.getDataElement(c, r)).getUnderlying());
+                         if(f == null)
+                              continue;
+                         Integer k = index.get(f);
+                         if(k == null) {
+                              k = files.size();
+                              index.put(f, k);
+                              files.add(f);
+                         }
+                         links.add(new Link(data, c, r, k));
+                    }
+               }
+          }
+          final FileStatus[] status = statAll(files);
+          final Report report = new Report(tables.size(), links.size(), files.size());
+          for(FileStatus s : status)
+               report.totalBytes += s.getSize();
+          for(Link l : links) {
+               final FileStatus s = status[l.file];
+               final List<Problem> list;
+               if(!s.exists())
+                    list = report.missing;
+               else if(!s.isReadable())
+                    list = report.unreadable;
+               else if(!s.isDirectory() && s.getSize() == 0)
+                    list = report.empty;
+               else
+                    continue;
+               list.add(new Problem(l.table.getName(), l.table.getColumnName(l.column),
+                    l.row, files.get(l.file).getPath()));
+          }
+          return report;
+     }
+
+     // -- Helper methods --
+
+     private static void addTree(SlideSet data, List<SlideSet> tables) {
+          tables.add(data);
+          for(SlideSet child : data.getChildren())
+               addTree(child, tables);
+     }
+
+     /** Check files in parallel, in chunks to limit the overhead for each task */
+     private FileStatus[] statAll(final List<File> files) throws SlideSetException {
+          final FileStatus[] status = new FileStatus[files.size()];
+          final int nChunks = (files.size() + CHUNK - 1) / CHUNK;
+          if(nChunks == 0)
+               return status;
+          final ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, nChunks));
+          final List<Future<?>> results = new ArrayList<Future<?>>(nChunks);
+          try {
+               for(int k = 0; k < nChunks; k++) {
+                    final int from = k * CHUNK;
+                    final int to = Math.min(files.size(), from + CHUNK);
+                    results.add(pool.submit(new Callable<Void>() {
+                         @Override
+                         public Void call() {
+                              for(int i = from; i < to; i++)
+                                   status[i] = PathResolver.stat(files.get(i));
+                              return null;
+                         }
+                    }));
+               }
+               for(Future<?> f : results)
+                    f.get();
+               return status;
+          }
+          catch(InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SlideSetException("Checking links interrupted", e);
+          }
+          catch(ExecutionException e) {
+               throw new SlideSetException("Error checking links", e.getCause());
+          }
+          finally {
+               pool.shutdownNow();
+          }
+     }
+
+     // -- Helper classes --
+
+     private static final class Link {
+          final SlideSet table;
+          final int column;
+          final int row;
+          final int file;
+
+          Link(SlideSet table, int column, int row, int file) {
+               this.table = table;
+               this.column = column;
+               this.row = row;
+               this.file = file;
+          }
+     }
+
+     /** A link to a file that is missing, unreadable, or empty */
+     public static final class Problem {
+
+          private final String table;
+          private final String column;
+          private final int row;
+          private final String path;
+
+          Problem(String table, String column, int row, String path) {
+               this.table = table;
+               this.column = column;
+               this.row = row;
+               this.path = path;
+          }
+
+          /** Get the name of the table with the link */
+          public String getTable() {
+               return table;
+          }
+
+          /** Get the name of the column with the link */
+          public String getColumn() {
+               return column;
+          }
+
+          /** Get the index of the row with the link */
+          public int getRow() {
+               return row;
+          }
+
+          /** Get the resolved path of the linked file */
+          public String getPath() {
+               return path;
+          }
+
+          @Override
+          public String toString() {
+               return table + ", " + column + ", row " + (row + 1) + ": " + path;
+          }
+     }
+
+     /** Results of a link check */
+     public static final class Report {
+
+          private final int nTables;
+          private final int nLinks;
+          private final int nFiles;
+          private long totalBytes = 0;
+          private final List<Problem> missing = new ArrayList<Problem>();
+          private final List<Problem> unreadable = new ArrayList<Problem>();
+          private final List<Problem> empty = new ArrayList<Problem>();
+
+          Report(int nTables, int nLinks, int nFiles) {
+               this.nTables = nTables;
+               this.nLinks = nLinks;
+               this.nFiles = nFiles;
+          }
+
+          /** Get the number of tables checked */
+          public int getTableCount() {
+               return nTables;
+          }
+
+          /** Get the number of non-empty links checked */
+          public int getLinkCount() {
+               return nLinks;
+          }
+
+          /** Get the number of different files linked */
+          public int getFileCount() {
+               return nFiles;
+          }
+
+          /** Get the total size, in bytes, of the linked files, counting each file once */
+          public long getTotalBytes() {
+               return totalBytes;
+          }
+
+          /** Get the links to files that do not exist */
+          public List<Problem> getMissing() {
+               return Collections.unmodifiableList(missing);
+          }
+
+          /** Get the links to files that cannot be read */
+          public List<Problem> getUnreadable() {
+               return Collections.unmodifiableList(unreadable);
+          }
+
+          /** Get the links to files with no data */
+          public List<Problem> getEmpty() {
+               return Collections.unmodifiableList(empty);
+          }
+
+          /** Check if all of the linked files exist, can be read, and are not empty */
+          public boolean isOk() {
+               return missing.isEmpty() && unreadable.isEmpty() && empty.isEmpty();
+          }
+
+          @Override
+          public String toString() {
+               return String.format(
+                    "%d links to %d files in %d tables, %.1f MB; %d missing, %d unreadable, %d empty",
+                    nLinks, nFiles, nTables, totalBytes / 1048576.0,
+                    missing.size(), unreadable.size(), empty.size());
+          }
+     }
+
+}
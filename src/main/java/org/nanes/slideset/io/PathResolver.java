@@ -0,0 +1,316 @@
+package org.nanes.slideset.io;
+
+import org.nanes.slideset.dm.ContainerLink;
+import org.nanes.slideset.ex.LinkNotFoundException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves file links against a working directory and caches the results,
+ * along with the status of the linked files. Each {@code SlideSet} gets the
+ * resolver for its working directory with
+ * {@link org.nanes.slideset.SlideSet#getPathResolver()}, so tables sharing a
+ * directory share a cache.
+ * <p> Link resolution follows the rules the readers have always used: a
+ * leading {@code ~} is replaced with the user's home directory, and relative
+ * links are appended to the working directory. For N5 and Zarr container
+ * links, the status is that of the container.
+ * <p> File status is cached process-wide. Each directory holding a linked file
+ * is watched with a {@link WatchService}, and statuses are dropped when
+ * the directory reports a change. Only files that exist are cached, so a
+ * missing file that later appears is found. Files in directories that cannot
+ * be watched, such as on some network file systems, are not cached.
+ *
+ * @author Benjamin Nanes
+ */
+public final class PathResolver {
+
+     // -- Fields --
+
+     private static final ConcurrentHashMap<String, PathResolver> resolvers
+          = new ConcurrentHashMap<String, PathResolver>();
+     private static final ConcurrentHashMap<Path, FileStatus> statuses
+          = new ConcurrentHashMap<Path, FileStatus>();
+     /** Watched directories, mapped to their keys or to {@code UNWATCHABLE} */
+     private static final ConcurrentHashMap<Path, Object> watched
+          = new ConcurrentHashMap<Path, Object>();
+     private static final Object UNWATCHABLE = new Object();
+     /** Count of batches of change events, to catch changes during a lookup */
+     private static final AtomicLong changes = new AtomicLong();
+     private static final int MAX_ENTRIES = 1 << 20;
+     private static WatchService watcher;
+     private static boolean watcherFailed = false;
+
+     private final String wd;
+     private final ConcurrentHashMap<String, String> paths
+          = new ConcurrentHashMap<String, String>();
+
+     private PathResolver(String wd) {
+          this.wd = wd;
+     }
+
+     // -- Methods --
+
+     /**
+      * Get the resolver for a working directory
+      * @param workingDirectory The directory, or {@code null}
+      */
+     public static PathResolver forDirectory(String workingDirectory) {
+          final String key = workingDirectory == null ? "" : workingDirectory;
+          PathResolver r = resolvers.get(key);
+          if(r == null) {
+               final PathResolver n = new PathResolver(key);
+               r = resolvers.putIfAbsent(key, n);
+               if(r == null)
+                    r = n;
+          }
+          return r;
+     }
+
+     /** Get the working directory links are resolved against */
+     public String getWorkingDirectory() {
+          return wd;
+     }
+
+     /**
+      * Resolve a link
+      * @return The absolute path, or {@code null} if {@code link} is {@code null}
+      */
+     public String resolve(String link) {
+          if(link == null)
+               return null;
+          String p = paths.get(link);
+          if(p == null) {
+               p = link;
+               if(p.startsWith("~"))
+                    p = System.getProperty("user.home") + p.substring(1); // need to expand home dir relative paths
+               if(!(new File(p)).isAbsolute())
+                    p = wd + File.separator + p;
+               if(paths.size() > MAX_ENTRIES)
+                    paths.clear();
+               paths.put(link, p);
+          }
+          return p;
+     }
+
+     /** Resolve a link to a {@code File}, or {@code null} for a {@code null} or empty link */
+     public File getFile(String link) {
+          if(link == null || link.trim().isEmpty())
+               return null;
+          final String p = resolve(link);
+          return new File(ContainerLink.isContainerLink(p) ? ContainerLink.getContainer(p) : p);
+     }
+
+     /**
+      * Resolve a link to a file that must exist
+      * @return The absolute path
+      * @throws LinkNotFoundException If the link is empty or the file does not exist
+      */
+     public String resolveExisting(String link) throws LinkNotFoundException {
+          final File f = getFile(link);
+          if(f == null || !stat(f).exists())
+               throw new LinkNotFoundException((f == null ? link : f.getPath()) + " does not exist!");
+          return resolve(link);
+     }
+
+     /** Get the status of a linked file */
+     public FileStatus stat(String link) {
+          final File f = getFile(link);
+          return f == null ? FileStatus.MISSING : stat(f);
+     }
+
+     /** Check if a linked file exists */
+     public boolean exists(String link) {
+          return stat(link).exists();
+     }
+
+     /** Get the status of a file, from the cache if possible */
+     public static FileStatus stat(File file) {
+          final Path p = file.getAbsoluteFile().toPath().normalize();
+          final FileStatus cached = statuses.get(p);
+          if(cached != null)
+               return cached;
+          final Path dir = p.getParent();
+          final long before = changes.get();
+          final boolean watching = dir != null && watch(dir);
+          final FileStatus s = FileStatus.of(p);
+          if(watching && s.exists()) {
+               if(statuses.size() > MAX_ENTRIES)
+                    statuses.clear();
+               statuses.put(p, s);
+               if(changes.get() != before)
+                    statuses.remove(p, s); // May have changed while checking
+          }
+          return s;
+     }
+
+     /** Drop the cached status of a file, after it has been written */
+     public static void invalidate(File file) {
+          statuses.remove(file.getAbsoluteFile().toPath().normalize());
+     }
+
+     /** Drop all cached paths and statuses */
+     public static void clear() {
+          statuses.clear();
+          for(PathResolver r : resolvers.values())
+               r.paths.clear();
+     }
+
+     /** Get the number of file statuses in the cache */
+     public static int getCachedCount() {
+          return statuses.size();
+     }
+
+     // -- Helper methods --
+
+     /**
+      * Start watching a directory, if it is not watched already
+      * @return {@code true} if the directory is watched
+      */
+     private static boolean watch(Path dir) {
+          final Object w = watched.get(dir);
+          if(w != null)
+               return w != UNWATCHABLE;
+          final WatchService ws = getWatcher();
+          Object key = UNWATCHABLE;
+          if(ws != null) {
+               try {
+                    key = dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                         StandardWatchEventKinds.ENTRY_DELETE,
+                         StandardWatchEventKinds.ENTRY_MODIFY);
+               } catch(IOException e) {
+                    // Missing directory, watch limit, or unsupported file system
+               } catch(UnsupportedOperationException e) {
+                    // Not supported for this file system
+               }
+          }
+          if(key == UNWATCHABLE && !dir.toFile().isDirectory())
+               return false; // Try again if the directory is created
+          watched.put(dir, key);
+          return key != UNWATCHABLE;
+     }
+
+     private static synchronized WatchService getWatcher() {
+          if(watcher != null || watcherFailed)
+               return watcher;
+          try {
+               watcher = FileSystems.getDefault().newWatchService();
+          } catch(IOException e) {
+               watcherFailed = true;
+               return null;
+          }
+          final Thread t = new Thread(new Runnable() {
+               @Override
+               public void run() {
+                    processEvents(watcher);
+               }
+          }, "Slide Set path watcher");
+          t.setDaemon(true);
+          t.start();
+          return watcher;
+     }
+
+     private static void processEvents(WatchService ws) {
+          while(true) {
+               final WatchKey key;
+               try {
+                    key = ws.take();
+               } catch(InterruptedException e) {
+                    return;
+               } catch(ClosedWatchServiceException e) {
+                    return;
+               }
+               final Path dir = (Path) key.watchable();
+               changes.incrementAndGet();
+               for(WatchEvent<?> e : key.pollEvents()) {
+                    if(e.kind() == StandardWatchEventKinds.OVERFLOW)
+                         invalidateDirectory(dir);
+                    else
+                         statuses.remove(dir.resolve((Path) e.context()));
+               }
+               if(!key.reset()) {
+                    // Directory is gone
+                    watched.remove(dir);
+                    invalidateDirectory(dir);
+               }
+          }
+     }
+
+     private static void invalidateDirectory(Path dir) {
+          for(Iterator<Path> it = statuses.keySet().iterator(); it.hasNext(); )
+               if(dir.equals(it.next().getParent()))
+                    it.remove();
+     }
+
+     // -- Helper classes --
+
+     /** Status of a file at the time it was checked */
+     public static final class FileStatus {
+
+          static final FileStatus MISSING = new FileStatus(false, false, false, 0, 0);
+
+          private final boolean exists;
+          private final boolean directory;
+          private final boolean readable;
+          private final long size;
+          private final long modified;
+
+          private FileStatus(boolean exists, boolean directory, boolean readable,
+                  long size, long modified) {
+               this.exists = exists;
+               this.directory = directory;
+               this.readable = readable;
+               this.size = size;
+               this.modified = modified;
+          }
+
+          /** Check a file, with one attribute read and one access check */
+          static FileStatus of(Path p) {
+               final BasicFileAttributes a;
+               try {
+                    a = Files.readAttributes(p, BasicFileAttributes.class);
+               } catch(IOException e) {
+                    return MISSING;
+               }
+               final boolean dir = a.isDirectory();
+               return new FileStatus(true, dir, Files.isReadable(p),
+                    dir ? 0 : a.size(), a.lastModifiedTime().toMillis());
+          }
+
+          public boolean exists() {
+               return exists;
+          }
+
+          public boolean isDirectory() {
+               return directory;
+          }
+
+          public boolean isReadable() {
+               return readable;
+          }
+
+          /** Size in bytes, or 0 for directories and missing files */
+          public long getSize() {
+               return size;
+          }
+
+          /** Modification time, in milliseconds since the epoch */
+          public long getLastModified() {
+               return modified;
+          }
+     }
+
+}
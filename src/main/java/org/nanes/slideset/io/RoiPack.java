@@ -0,0 +1,300 @@
+package org.nanes.slideset.io;
+
+import org.nanes.slideset.dm.read.RoiShape;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary ROI set format ({@code .roipack}). Shapes are stored as
+ * {@link RoiShape}s in flat arrays: a type code per shape, an offset
+ * index into a single coordinate array and a single path segment array,
+ * then the arrays themselves. Files are read with bulk channel reads,
+ * and the index allows reading any one shape without reading the rest.
+ * <p> Layout, little-endian:
+ * <pre>
+ * int    magic "SROI"
+ * short  version (1)
+ * short  flags; bit 0 set if coordinates are stored as float
+ * int    number of shapes, n
+ * int    reserved
+ * long   number of coordinates, c
+ * long   number of path segments, s
+ * byte[n]   shape types, padded to a multiple of 8 bytes
+ * long[n+1] coordinate offsets
+ * long[n+1] segment offsets
+ * float[c] or double[c]  coordinates
+ * byte[s]   path segment types
+ * </pre>
+ * Coordinates are written as floats when every value can be represented
+ * exactly as a float, which is the case for ROIs drawn on pixel grids.
+ *
+ * @author Benjamin Nanes
+ */
+public final class RoiPack implements Closeable {
+
+     // -- Fields --
+
+     /** "SROI" read as a little-endian {@code int} */
+     private static final int MAGIC = 0x494F5253;
+     private static final short VERSION = 1;
+     private static final int FLOAT = 1;
+     private static final int HEADER = 32;
+
+     private final FileChannel channel;
+     private final int n;
+     private final byte[] types;
+     private final long[] coordOffsets;
+     private final long[] segOffsets;
+     private final boolean floats;
+     private final long coordStart;
+     private final long segStart;
+
+     private RoiPack(FileChannel channel) throws IOException {
+          this.channel = channel;
+          final ByteBuffer h = read(0, HEADER);
+          if(h.getInt() != MAGIC)
+               throw new IOException("Not a packed ROI set file");
+          final short version = h.getShort();
+          if(version != VERSION)
+               throw new IOException("Unsupported packed ROI set version: " + version);
+          floats = (h.getShort() & FLOAT) != 0;
+          n = h.getInt();
+          h.getInt();
+          final long nCoords = h.getLong();
+          final long nSegs = h.getLong();
+          // Check the counts against the file size before allocating anything
+          final long fileSize = channel.size();
+          if(n < 0 || nCoords < 0 || nSegs < 0
+                  || nCoords > Integer.MAX_VALUE || nSegs > Integer.MAX_VALUE)
+               throw new IOException("Corrupt packed ROI set file");
+          final long typesLength = pad(n);
+          coordStart = HEADER + typesLength + 16L * (n + 1L);
+          segStart = coordStart + nCoords * (floats ? 4 : 8);
+          if(segStart + nSegs > fileSize)
+               throw new IOException("Corrupt or truncated packed ROI set file");
+          final ByteBuffer index = read(HEADER, coordStart - HEADER);
+          types = new byte[n];
+          index.get(types);
+          index.position((int) typesLength);
+          coordOffsets = new long[n + 1];
+          segOffsets = new long[n + 1];
+          index.asLongBuffer().get(coordOffsets);
+          index.position((int) typesLength + 8 * (n + 1));
+          index.asLongBuffer().get(segOffsets);
+          boolean ok = coordOffsets[0] == 0 && segOffsets[0] == 0
+                  && coordOffsets[n] == nCoords && segOffsets[n] == nSegs;
+          for(int k = 0; ok && k < n; k++)
+               ok = coordOffsets[k + 1] >= coordOffsets[k] && segOffsets[k + 1] >= segOffsets[k];
+          if(!ok)
+               throw new IOException("Corrupt packed ROI set file");
+     }
+
+     // -- Methods --
+
+     /** Open a packed ROI set file. Close it when done. */
+     public static RoiPack open(File file) throws IOException {
+          final FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+          boolean ok = false;
+          try {
+               final RoiPack p = new RoiPack(ch);
+               ok = true;
+               return p;
+          } finally {
+               if(!ok)
+                    ch.close();
+          }
+     }
+
+     /** Read all of the shapes in a packed ROI set file */
+     public static List<RoiShape> readAll(File file) throws IOException {
+          final RoiPack p = open(file);
+          try {
+               return p.getAll();
+          } finally {
+               p.close();
+          }
+     }
+
+     /** Get the number of shapes in the file */
+     public int size() {
+          return n;
+     }
+
+     /** Get the type of shape {@code k}, without reading its coordinates */
+     public int getType(int k) {
+          return types[k];
+     }
+
+     /** Read shape {@code k} */
+     public RoiShape get(int k) throws IOException {
+          if(k < 0 || k >= n)
+               throw new IndexOutOfBoundsException("Shape " + k + " of " + n);
+          final double[] c = readCoords(coordOffsets[k], coordOffsets[k + 1]);
+          byte[] s = null;
+          if(types[k] == RoiShape.PATH) {
+               s = new byte[(int) (segOffsets[k + 1] - segOffsets[k])];
+               read(segStart + segOffsets[k], s.length).get(s);
+          }
+          return makeShape(k, c, s);
+     }
+
+     /** Read all of the shapes */
+     public List<RoiShape> getAll() throws IOException {
+          final double[] c = readCoords(0, coordOffsets[n]);
+          final byte[] s = new byte[(int) segOffsets[n]];
+          read(segStart, s.length).get(s);
+          final List<RoiShape> shapes = new ArrayList<RoiShape>(n);
+          for(int k = 0; k < n; k++) {
+               final double[] ck = new double[(int) (coordOffsets[k + 1] - coordOffsets[k])];
+               System.arraycopy(c, (int) coordOffsets[k], ck, 0, ck.length);
+               byte[] sk = null;
+               if(types[k] == RoiShape.PATH) {
+                    sk = new byte[(int) (segOffsets[k + 1] - segOffsets[k])];
+                    System.arraycopy(s, (int) segOffsets[k], sk, 0, sk.length);
+               }
+               shapes.add(makeShape(k, ck, sk));
+          }
+          return shapes;
+     }
+
+     @Override
+     public void close() throws IOException {
+          channel.close();
+     }
+
+     /**
+      * Write a packed ROI set file, replacing any existing file
+      * @param file The file
+      * @param shapes The shapes to write
+      */
+     public static void write(File file, List<RoiShape> shapes) throws IOException {
+          final int n = shapes.size();
+          long nCoords = 0;
+          long nSegs = 0;
+          boolean floats = true;
+          for(RoiShape s : shapes) {
+               nCoords += s.getCoordCount();
+               nSegs += s.getSegmentCount();
+               for(int i = 0; floats && i < s.getCoordCount(); i++) {
+                    final double v = s.getCoord(i);
+                    floats = (double) (float) v == v || Double.isNaN(v);
+               }
+          }
+          final int typesLength = (int) pad(n);
+          final long size = HEADER + typesLength + 16L * (n + 1L)
+                  + nCoords * (floats ? 4 : 8) + nSegs;
+          if(size > Integer.MAX_VALUE)
+               throw new IOException("Too many shapes for a packed ROI set file");
+          final ByteBuffer b = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+          b.putInt(MAGIC).putShort(VERSION).putShort((short) (floats ? FLOAT : 0))
+                  .putInt(n).putInt(0).putLong(nCoords).putLong(nSegs);
+          for(RoiShape s : shapes)
+               b.put((byte) s.getType());
+          b.position(HEADER + typesLength);
+          long c = 0;
+          for(RoiShape s : shapes) {
+               b.putLong(c);
+               c += s.getCoordCount();
+          }
+          b.putLong(c);
+          long g = 0;
+          for(RoiShape s : shapes) {
+               b.putLong(g);
+               g += s.getSegmentCount();
+          }
+          b.putLong(g);
+          for(RoiShape s : shapes)
+               for(int i = 0; i < s.getCoordCount(); i++) {
+                    if(floats)
+                         b.putFloat((float) s.getCoord(i));
+                    else
+                         b.putDouble(s.getCoord(i));
+               }
+          for(RoiShape s : shapes)
+               for(int i = 0; i < s.getSegmentCount(); i++)
+                    b.put(s.getSegment(i));
+          b.flip();
+          final File parent = file.getAbsoluteFile().getParentFile();
+          if(parent != null && !parent.exists())
+               parent.mkdirs();
+          // Write to a temporary file and move it into place, so a failed
+          // write leaves any existing file as it was
+          final Path target = file.getAbsoluteFile().toPath();
+          final Path temp = target.resolveSibling(file.getName() + ".tmp");
+          boolean ok = false;
+          try {
+               final FileChannel ch = FileChannel.open(temp, StandardOpenOption.CREATE,
+                       StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+               try {
+                    while(b.hasRemaining())
+                         ch.write(b);
+                    ch.force(true);
+               } finally {
+                    ch.close();
+               }
+               try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+               } catch(AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+               }
+               ok = true;
+          } finally {
+               if(!ok)
+                    Files.deleteIfExists(temp);
+          }
+     }
+
+     // -- Helper methods --
+
+     private static long pad(int n) {
+          return (n + 7L) & ~7L;
+     }
+
+     private RoiShape makeShape(int k, double[] c, byte[] s) throws IOException {
+          try {
+               return new RoiShape(types[k], c, s);
+          } catch(IllegalArgumentException e) {
+               throw new IOException("Corrupt shape " + k + " in packed ROI set file", e);
+          }
+     }
+
+     /** Read coordinates {@code from} (inclusive) to {@code to} (exclusive) */
+     private double[] readCoords(long from, long to) throws IOException {
+          final double[] c = new double[(int) (to - from)];
+          if(floats) {
+               final ByteBuffer b = read(coordStart + 4 * from, 4L * c.length);
+               for(int i = 0; i < c.length; i++)
+                    c[i] = b.getFloat();
+          } else
+               read(coordStart + 8 * from, 8L * c.length).asDoubleBuffer().get(c);
+          return c;
+     }
+
+     private ByteBuffer read(long position, long length) throws IOException {
+          if(length > Integer.MAX_VALUE)
+               throw new IOException("Packed ROI set file is too large");
+          if(position < 0 || length < 0 || position + length > channel.size())
+               throw new EOFException("Packed ROI set file is truncated");
+          final ByteBuffer b = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+          while(b.hasRemaining())
+               if(channel.read(b, position + b.position()) < 0)
+                    throw new EOFException("Packed ROI set file is truncated");
+          b.flip();
+          return b;
+     }
+
+}
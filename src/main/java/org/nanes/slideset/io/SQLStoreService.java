@@ -0,0 +1,583 @@
+package org.nanes.slideset.io;
+
+import org.nanes.slideset.SlideSet;
+import org.nanes.slideset.dm.BooleanElement;
+import org.nanes.slideset.dm.CommandTemplate;
+import org.nanes.slideset.dm.DataElement;
+import org.nanes.slideset.dm.DataTypeIDService;
+import org.nanes.slideset.dm.DoubleElement;
+import org.nanes.slideset.dm.IntegerElement;
+import org.nanes.slideset.dm.StringElement;
+import org.nanes.slideset.ex.SlideSetException;
+
+import net.imagej.ImageJ;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Stores {@code SlideSet} trees in an embedded H2 database file
+ * ({@code .mv.db}), as an alternative to the XML format, and runs
+ * SQL queries against stored data without loading the tree.
+ * <p> Each table is stored as a database table with an {@code _row}
+ * primary key. Tables with a parent also have an indexed
+ * {@code _parent_row} column referencing the parent table's {@code _row}.
+ * Integer, Numeric, and Logical columns are stored as {@code INTEGER},
+ * {@code DOUBLE PRECISION}, and {@code BOOLEAN}; all other columns are
+ * stored as text. Table and column names are kept where possible; the
+ * {@code SS_TABLES} and {@code SS_COLUMNS} catalog tables map
+ * Slide Set names to SQL names.
+ *
+ * @author Benjamin Nanes
+ */
+public class SQLStoreService {
+
+     // -- Parameters --
+
+     /** File name extension of database files */
+     public static final String EXTENSION = ".mv.db";
+
+     private static final int BATCH = 1000;
+
+     private ImageJ ij;
+     private DataTypeIDService dtid;
+
+     // -- Constructor --
+
+     public SQLStoreService(ImageJ context, DataTypeIDService dtid) {
+          this.ij = context;
+          this.dtid = dtid;
+     }
+
+     // -- Methods and helper methods --
+
+     /** Check if a file name has the database extension */
+     public static boolean isDatabaseFile(File file) {
+          return file != null && file.getName().toLowerCase().endsWith(EXTENSION);
+     }
+
+     //  - Write -
+
+     /**
+      * Write a {@code SlideSet} tree to a database file, replacing
+      * any existing contents. The whole tree is written, starting
+      * from the root of {@code data}.
+      */
+     public void write(SlideSet data, File file) throws SQLException, SlideSetException {
+          if(data == null)
+               throw new IllegalArgumentException("No data to write");
+          while(data.getParent() != null)
+               data = data.getParent();
+          // Write to a new database file and move it into place once it is
+          // committed, as H2 commits schema changes as soon as they are made
+          final File target = databaseFile(file);
+          final File temp = new File(target.getParentFile(), target.getName().substring(
+                  0, target.getName().length() - EXTENSION.length()) + ".tmp" + EXTENSION);
+          boolean ok = false;
+          try {
+               Files.deleteIfExists(temp.toPath());
+               try (Connection con = connect(temp, false)) {
+                    con.setAutoCommit(false);
+                    try (Statement st = con.createStatement()) {
+                         st.execute("CREATE TABLE SS_TABLES(ID INT PRIMARY KEY, "
+                                 + "PARENT_ID INT REFERENCES SS_TABLES(ID), POSITION INT, "
+                                 + "NAME VARCHAR, SQL_NAME VARCHAR UNIQUE, LOCKED BOOLEAN, "
+                                 + "COMMAND_TEMPLATE VARCHAR)");
+                         st.execute("CREATE TABLE SS_COLUMNS(TABLE_ID INT REFERENCES SS_TABLES(ID), "
+                                 + "COL_INDEX INT, NAME VARCHAR, SQL_NAME VARCHAR, "
+                                 + "ELEMENT_CLASS VARCHAR, MIME_TYPE VARCHAR, "
+                                 + "PRIMARY KEY(TABLE_ID, COL_INDEX))");
+                         st.execute("CREATE TABLE SS_COLUMN_PROPS(TABLE_ID INT, COL_INDEX INT, "
+                                 + "PROP_INDEX INT, PROPERTY VARCHAR, PROP_VALUE VARCHAR, "
+                                 + "PRIMARY KEY(TABLE_ID, COL_INDEX, PROP_INDEX), "
+                                 + "FOREIGN KEY(TABLE_ID, COL_INDEX) REFERENCES SS_COLUMNS(TABLE_ID, COL_INDEX))");
+                         st.execute("CREATE TABLE SS_PARAMS(TABLE_ID INT REFERENCES SS_TABLES(ID), "
+                                 + "POSITION INT, NAME VARCHAR, PARAM_VALUE VARCHAR, "
+                                 + "PRIMARY KEY(TABLE_ID, POSITION))");
+                    }
+                    final Set<String> usedNames = new HashSet<String>();
+                    for(String n : new String[]{"ss_tables", "ss_columns", "ss_column_props", "ss_params"})
+                         usedNames.add(n);
+                    writeTable(con, data, null, 0, new int[]{0}, usedNames);
+                    con.commit();
+               }
+               try {
+                    Files.move(temp.toPath(), target.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+               } catch(AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+               }
+               ok = true;
+          } catch(IOException e) {
+               throw new SlideSetException("Could not replace " + target.getPath(), e);
+          } finally {
+               if(!ok)
+                    temp.delete();
+          }
+     }
+
+     /** Nestable utility function to write one SlideSet */
+     private void writeTable(Connection con, SlideSet data, Integer parentId,
+             int position, int[] nextId, Set<String> usedNames)
+             throws SQLException, SlideSetException {
+          final int id = nextId[0]++;
+          final String sqlName = uniqueName(data.getName(), usedNames);
+          try (PreparedStatement ps = con.prepareStatement(
+                  "INSERT INTO SS_TABLES VALUES(?, ?, ?, ?, ?, ?, ?)")) {
+               ps.setInt(1, id);
+               if(parentId == null)
+                    ps.setNull(2, Types.INTEGER);
+               else
+                    ps.setInt(2, parentId);
+               ps.setInt(3, position);
+               ps.setString(4, data.getName());
+               ps.setString(5, sqlName);
+               ps.setBoolean(6, data.isLocked());
+               ps.setString(7, commandTemplateXML(data.getCommandTemplate()));
+               ps.executeUpdate();
+          }
+          try (PreparedStatement ps = con.prepareStatement(
+                  "INSERT INTO SS_PARAMS VALUES(?, ?, ?, ?)")) {
+               int i = 0;
+               for(Map.Entry<String, String> e : data.getCreationParams().entrySet()) {
+                    ps.setInt(1, id);
+                    ps.setInt(2, i++);
+                    ps.setString(3, e.getKey());
+                    ps.setString(4, e.getValue());
+                    ps.addBatch();
+               }
+               ps.executeBatch();
+          }
+
+          // Columns and catalog
+          final int nCols = data.getNumCols();
+          final String[] colNames = new String[nCols];
+          final Set<String> usedCols = new HashSet<String>();
+          usedCols.add("_row");
+          usedCols.add("_parent_row");
+          final StringBuilder ddl = new StringBuilder("CREATE TABLE ")
+                  .append(quote(sqlName)).append("(\"_row\" INT PRIMARY KEY");
+          if(parentId != null)
+               ddl.append(", \"_parent_row\" INT");
+          try (PreparedStatement pc = con.prepareStatement(
+                       "INSERT INTO SS_COLUMNS VALUES(?, ?, ?, ?, ?, ?)");
+               PreparedStatement pp = con.prepareStatement(
+                       "INSERT INTO SS_COLUMN_PROPS VALUES(?, ?, ?, ?, ?)")) {
+               for(int c = 0; c < nCols; c++) {
+                    colNames[c] = uniqueName(data.getColumnName(c), usedCols);
+                    final String elementClass = data.getColumnElementType(c).getName();
+                    ddl.append(", ").append(quote(colNames[c])).append(' ')
+                            .append(sqlType(data.getColumnElementType(c)));
+                    pc.setInt(1, id);
+                    pc.setInt(2, c);
+                    pc.setString(3, data.getColumnName(c));
+                    pc.setString(4, colNames[c]);
+                    pc.setString(5, elementClass);
+                    pc.setString(6, data.getColumnMimeType(c));
+                    pc.addBatch();
+                    int p = 0;
+                    for(Map.Entry<String, String> e : data.getColumnProperties(c).entrySet()) {
+                         pp.setInt(1, id);
+                         pp.setInt(2, c);
+                         pp.setInt(3, p++);
+                         pp.setString(4, e.getKey());
+                         pp.setString(5, e.getKey().equals("elementClass") ? elementClass : e.getValue());
+                         pp.addBatch();
+                    }
+               }
+               pc.executeBatch();
+               pp.executeBatch();
+          }
+          if(parentId != null) {
+               final String parentName;
+               try (PreparedStatement ps = con.prepareStatement(
+                       "SELECT SQL_NAME FROM SS_TABLES WHERE ID = ?")) {
+                    ps.setInt(1, parentId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                         rs.next();
+                         parentName = rs.getString(1);
+                    }
+               }
+               ddl.append(", FOREIGN KEY(\"_parent_row\") REFERENCES ")
+                       .append(quote(parentName)).append("(\"_row\")");
+          }
+          ddl.append(")");
+          try (Statement st = con.createStatement()) {
+               st.execute(ddl.toString());
+               if(parentId != null)
+                    st.execute("CREATE INDEX " + quote(sqlName + "_parent_row")
+                            + " ON " + quote(sqlName) + "(\"_parent_row\")");
+          }
+
+          // Data
+          final StringBuilder ins = new StringBuilder("INSERT INTO ")
+                  .append(quote(sqlName)).append(" VALUES(?");
+          if(parentId != null)
+               ins.append(", ?");
+          for(int c = 0; c < nCols; c++)
+               ins.append(", ?");
+          ins.append(")");
+          final int offset = parentId == null ? 2 : 3;
+          try (PreparedStatement ps = con.prepareStatement(ins.toString())) {
+               for(int r = 0; r < data.getNumRows(); r++) {
+                    ps.setInt(1, r);
+                    if(parentId != null) {
+                         final int pr = data.getParentRow(r);
+                         if(pr < 0 || pr >= data.getParent().getNumRows())
+                              ps.setNull(2, Types.INTEGER);
+                         else
+                              ps.setInt(2, pr);
+                    }
+                    for(int c = 0; c < nCols; c++) {
+                         final DataElement<?> el = data.getDataElement(c, r);
+                         if(el instanceof IntegerElement || el instanceof DoubleElement
+                                 || el instanceof BooleanElement)
+                              ps.setObject(c + offset, el.getUnderlying());
+                         else
+                              ps.setString(c + offset, el.getUnderlyingText());
+                    }
+                    ps.addBatch();
+                    if((r + 1) % BATCH == 0)
+                         ps.executeBatch();
+               }
+               ps.executeBatch();
+          }
+
+          final ArrayList<SlideSet> children = data.getChildren();
+          for(int i = 0; i < children.size(); i++)
+               writeTable(con, children.get(i), id, i, nextId, usedNames);
+     }
+
+     //  - Read -
+
+     /**
+      * Read a {@code SlideSet} tree from a database file
+      * @return The root table
+      */
+     public SlideSet read(File file) throws SQLException, SlideSetException {
+          if(file == null || !file.canRead()) throw new
+               IllegalArgumentException("Could not read file: " +
+               (file == null ? "<!>" : file.getPath()));
+          if(dtid == null) dtid = new DataTypeIDService(ij);
+          final Map<Integer, SlideSet> tables = new HashMap<Integer, SlideSet>();
+          SlideSet root = null;
+          try (Connection con = connect(file, true);
+               Statement st = con.createStatement();
+               ResultSet rs = st.executeQuery("SELECT ID, PARENT_ID, NAME, SQL_NAME, "
+                       + "LOCKED, COMMAND_TEMPLATE FROM SS_TABLES ORDER BY ID")) {
+               while(rs.next()) {
+                    final int id = rs.getInt(1);
+                    final int parentId = rs.getInt(2);
+                    final boolean hasParent = !rs.wasNull();
+                    final SlideSet table = new SlideSet(ij, dtid);
+                    table.setName(rs.getString(3));
+                    readParams(con, id, table);
+                    readData(con, id, rs.getString(4), hasParent, table);
+                    table.setCommandTemplate(commandTemplate(rs.getString(6)));
+                    if(rs.getBoolean(5))
+                         table.setLock(true);
+                    if(hasParent) {
+                         final SlideSet parent = tables.get(parentId);
+                         if(parent == null)
+                              throw new SlideSetException("Database format error - "
+                                      + "Parent table not found: " + parentId);
+                         table.setParent(parent);
+                         parent.addChild(table);
+                    }
+                    else if(root == null)
+                         root = table;
+                    tables.put(id, table);
+               }
+          }
+          if(root == null)
+               throw new SlideSetException("No tables in database: " + file.getPath());
+          Util.setPathForTree(root, file.getAbsoluteFile().getParent());
+          return root;
+     }
+
+     private void readParams(Connection con, int id, SlideSet table) throws SQLException {
+          try (PreparedStatement ps = con.prepareStatement(
+                  "SELECT NAME, PARAM_VALUE FROM SS_PARAMS WHERE TABLE_ID = ? ORDER BY POSITION")) {
+               ps.setInt(1, id);
+               try (ResultSet rs = ps.executeQuery()) {
+                    while(rs.next())
+                         table.getCreationParams().put(rs.getString(1), rs.getString(2));
+               }
+          }
+     }
+
+     private void readData(Connection con, int id, String sqlName,
+             boolean hasParent, SlideSet table) throws SQLException, SlideSetException {
+          final List<LinkedHashMap<String, String>> props =
+                  new ArrayList<LinkedHashMap<String, String>>();
+          final List<String> colNames = new ArrayList<String>();
+          try (PreparedStatement ps = con.prepareStatement(
+                  "SELECT COL_INDEX, SQL_NAME FROM SS_COLUMNS WHERE TABLE_ID = ? ORDER BY COL_INDEX")) {
+               ps.setInt(1, id);
+               try (ResultSet rs = ps.executeQuery()) {
+                    while(rs.next()) {
+                         colNames.add(rs.getString(2));
+                         props.add(new LinkedHashMap<String, String>());
+                    }
+               }
+          }
+          try (PreparedStatement ps = con.prepareStatement("SELECT COL_INDEX, PROPERTY, PROP_VALUE "
+                  + "FROM SS_COLUMN_PROPS WHERE TABLE_ID = ? ORDER BY COL_INDEX, PROP_INDEX")) {
+               ps.setInt(1, id);
+               try (ResultSet rs = ps.executeQuery()) {
+                    while(rs.next())
+                         props.get(rs.getInt(1)).put(rs.getString(2), rs.getString(3));
+               }
+          }
+          final int nCols = colNames.size();
+          final List<Class<? extends DataElement>> classes = new ArrayList<Class<? extends DataElement>>();
+          final List<ArrayList<DataElement<?>>> data = new ArrayList<ArrayList<DataElement<?>>>();
+          for(int c = 0; c < nCols; c++) {
+               try {
+                    classes.add(Class.forName(props.get(c).get("elementClass"))
+                            .asSubclass(DataElement.class));
+               } catch(ClassNotFoundException | ClassCastException | NullPointerException e) {
+                    throw new SlideSetException("Invalid element class for column "
+                            + colNames.get(c) + " of table " + sqlName, e);
+               }
+               data.add(new ArrayList<DataElement<?>>());
+          }
+          final StringBuilder sel = new StringBuilder("SELECT \"_row\"");
+          if(hasParent)
+               sel.append(", \"_parent_row\"");
+          for(String n : colNames)
+               sel.append(", ").append(quote(n));
+          sel.append(" FROM ").append(quote(sqlName)).append(" ORDER BY \"_row\"");
+          final int offset = hasParent ? 3 : 2;
+          int row = 0;
+          try (Statement st = con.createStatement();
+               ResultSet rs = st.executeQuery(sel.toString())) {
+               while(rs.next()) {
+                    if(hasParent) {
+                         final int pr = rs.getInt(2);
+                         if(!rs.wasNull())
+                              table.setParentRow(row, pr);
+                    }
+                    for(int c = 0; c < nCols; c++) {
+                         final DataElement el;
+                         try {
+                              el = classes.get(c).newInstance();
+                         } catch(InstantiationException | IllegalAccessException e) {
+                              throw new SlideSetException(e);
+                         }
+                         el.setMimeType(props.get(c).get("mimeType"));
+                         el.setOwner(table);
+                         final int i = c + offset;
+                         if(el instanceof IntegerElement) {
+                              final int v = rs.getInt(i);
+                              if(!rs.wasNull()) el.setUnderlying(v);
+                         } else if(el instanceof DoubleElement) {
+                              final double v = rs.getDouble(i);
+                              el.setUnderlying(rs.wasNull() ? Double.NaN : v);
+                         } else if(el instanceof BooleanElement) {
+                              final boolean v = rs.getBoolean(i);
+                              if(!rs.wasNull()) el.setUnderlying(v);
+                         } else {
+                              final String v = rs.getString(i);
+                              if(v != null) el.setUnderlyingText(v);
+                         }
+                         data.get(c).add(el);
+                    }
+                    row++;
+               }
+          }
+          for(int c = 0; c < nCols; c++)
+               table.addColumn(props.get(c), data.get(c));
+     }
+
+     //  - Query -
+
+     /**
+      * Run a SQL query against a database file, without loading the
+      * stored tables. The database is opened read-only.
+      * @return The query result as a new, unattached {@code SlideSet}
+      */
+     public SlideSet query(File file, String sql) throws SQLException, SlideSetException {
+          if(file == null || !file.canRead()) throw new
+               IllegalArgumentException("Could not read file: " +
+               (file == null ? "<!>" : file.getPath()));
+          if(dtid == null) dtid = new DataTypeIDService(ij);
+          final SlideSet result = new SlideSet(ij, dtid);
+          result.setName("Query");
+          result.getCreationParams().put("Query", sql);
+          result.setWorkingDirectory(file.getAbsoluteFile().getParent());
+          try (Connection con = connect(file, true);
+               Statement st = con.createStatement();
+               ResultSet rs = st.executeQuery(sql)) {
+               final ResultSetMetaData md = rs.getMetaData();
+               final int nCols = md.getColumnCount();
+               final List<List<Object>> values = new ArrayList<List<Object>>();
+               for(int c = 0; c < nCols; c++)
+                    values.add(new ArrayList<Object>());
+               while(rs.next())
+                    for(int c = 0; c < nCols; c++)
+                         values.get(c).add(rs.getObject(c + 1));
+               for(int c = 0; c < nCols; c++) {
+                    final LinkedHashMap<String, String> props = new LinkedHashMap<String, String>();
+                    props.put("name", md.getColumnLabel(c + 1));
+                    final ArrayList<DataElement<?>> col =
+                            resultColumn(md.getColumnType(c + 1), values.get(c), result, props);
+                    result.addColumn(props, col);
+               }
+          }
+          return result;
+     }
+
+     /**
+      * Convert a column of query results to {@code DataElement}s, and set
+      * the column element class in {@code props}. Integers with {@code NULL}s become
+      * Numeric columns, with {@code NULL}s as {@code NaN}.
+      */
+     private static ArrayList<DataElement<?>> resultColumn(
+             int sqlType, List<Object> values, SlideSet owner,
+             LinkedHashMap<String, String> props) {
+          final boolean nulls = values.contains(null);
+          final ArrayList<DataElement<?>> col = new ArrayList<DataElement<?>>(values.size());
+          Class<? extends DataElement> type;
+          switch(sqlType) {
+               case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+                    type = nulls ? DoubleElement.class : IntegerElement.class;
+                    break;
+               case Types.BIGINT:
+                    type = nulls ? DoubleElement.class : IntegerElement.class;
+                    for(Object v : values)
+                         if(v != null && ((Number) v).longValue() != ((Number) v).intValue())
+                              type = DoubleElement.class;
+                    break;
+               case Types.DOUBLE: case Types.FLOAT: case Types.REAL:
+               case Types.DECIMAL: case Types.NUMERIC:
+                    type = DoubleElement.class;
+                    break;
+               case Types.BOOLEAN: case Types.BIT:
+                    type = nulls ? StringElement.class : BooleanElement.class;
+                    break;
+               default:
+                    type = StringElement.class;
+          }
+          for(Object v : values) {
+               final DataElement<?> el;
+               if(type == IntegerElement.class)
+                    el = new IntegerElement(((Number) v).intValue());
+               else if(type == DoubleElement.class)
+                    el = new DoubleElement(v == null ? Double.NaN : ((Number) v).doubleValue());
+               else if(type == BooleanElement.class)
+                    el = new BooleanElement((Boolean) v);
+               else
+                    el = new StringElement(v == null ? "" : v.toString());
+               el.setMimeType(null);
+               el.setOwner(owner);
+               col.add(el);
+          }
+          props.put("elementClass", type.getName());
+          return col;
+     }
+
+     //  - Utility -
+
+     /** Get the file H2 uses for a database, with the database extension */
+     private static File databaseFile(File file) {
+          final File f = file.getAbsoluteFile();
+          return isDatabaseFile(f) ? f : new File(f.getPath() + EXTENSION);
+     }
+
+     /** Open a connection to a database file */
+     private static Connection connect(File file, boolean readOnly) throws SQLException {
+          String path = file.getAbsolutePath();
+          if(path.toLowerCase().endsWith(EXTENSION))
+               path = path.substring(0, path.length() - EXTENSION.length());
+          String url = "jdbc:h2:file:" + path;
+          if(readOnly)
+               url += ";IFEXISTS=TRUE;ACCESS_MODE_DATA=r";
+          // Use the driver directly; DriverManager may not see plugin class loaders.
+          final Connection con = new org.h2.Driver().connect(url, new Properties());
+          if(con == null)
+               throw new SQLException("Could not open database: " + file.getPath());
+          return con;
+     }
+
+     /** Get the SQL column type for a {@code DataElement} class */
+     private static String sqlType(Class<?> elementClass) {
+          if(IntegerElement.class.equals(elementClass))
+               return "INTEGER";
+          if(DoubleElement.class.equals(elementClass))
+               return "DOUBLE PRECISION";
+          if(BooleanElement.class.equals(elementClass))
+               return "BOOLEAN";
+          return "VARCHAR";
+     }
+
+     /** Quote a SQL identifier */
+     private static String quote(String name) {
+          return "\"" + name.replace("\"", "\"\"") + "\"";
+     }
+
+     /** Make a name unique (case-insensitively) among {@code used}, and add it */
+     private static String uniqueName(String name, Set<String> used) {
+          if(name == null || name.trim().isEmpty())
+               name = "X";
+          String n = name;
+          for(int i = 2; used.contains(n.toLowerCase()); i++)
+               n = name + "_" + i;
+          used.add(n.toLowerCase());
+          return n;
+     }
+
+     private static String commandTemplateXML(CommandTemplate ct) throws SlideSetException {
+          if(ct == null)
+               return null;
+          try {
+               final StringWriter sw = new StringWriter();
+               final XMLStreamWriter xsw = XMLOutputFactory.newFactory().createXMLStreamWriter(sw);
+               ct.writeXML(xsw, "");
+               xsw.flush();
+               xsw.close();
+               return sw.toString();
+          } catch(XMLStreamException e) {
+               throw new SlideSetException("Could not store command template", e);
+          }
+     }
+
+     private static CommandTemplate commandTemplate(String xml) throws SlideSetException {
+          if(xml == null || xml.isEmpty())
+               return null;
+          try {
+               final XMLStreamReader xsr = XMLInputFactory.newFactory()
+                       .createXMLStreamReader(new StringReader(xml));
+               while(xsr.hasNext() && xsr.next() != XMLStreamReader.START_ELEMENT) { }
+               return new CommandTemplate(xsr);
+          } catch(XMLStreamException e) {
+               throw new SlideSetException("Could not read command template", e);
+          }
+     }
+
+}
@@ -93,6 +93,12 @@ public class XMLService {
           xsw.writeAttribute("name", data.getName());
           if(data.isLocked())
               xsw.writeAttribute("locked", "true");
+          if(data.hasParentRows()) {
+              StringBuilder pr = new StringBuilder();
+              for(int r=0; r<data.getNumRows(); r++)
+                  pr.append(r == 0 ? "" : " ").append(data.getParentRow(r));
+              xsw.writeAttribute("parentRows", pr.toString());
+          }
           if(data.getCommandTemplate() != null)
               data.getCommandTemplate().writeXML(xsw, ind(level+1));
           for(Map.Entry<String, String> e : data.getCreationParams().entrySet()) {
@@ -170,6 +176,17 @@ public class XMLService {
           result.setName(xsr.getAttributeValue(null, "name"));
           if(xsr.getAttributeValue(null, "locked") != null)
               result.setLock(true);
+          final String pr = xsr.getAttributeValue(null, "parentRows");
+          if(pr != null && !pr.trim().isEmpty()) {
+              final String[] rows = pr.trim().split("\\s+");
+              try {
+                  for(int r=0; r<rows.length; r++)
+                      result.setParentRow(r, Integer.parseInt(rows[r]));
+              } catch(NumberFormatException e) {
+                  throw new IllegalArgumentException(
+                       "XML format error - Invalid parent row: " + e.getMessage());
+              }
+          }
           xsr.next();
           int colI = -1;
           int rowI = 0;
@@ -0,0 +1,484 @@
+package org.nanes.slideset.pi;
+
+import java.util.Arrays;
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+
+/**
+ * Automatic threshold selection from image histograms. The histogram of
+ * each channel is built once, in parallel, and any number of methods can
+ * then be applied to it without reading the pixels again.
+ * <p> Integer images with at most {@link #MAX_BINS} possible values have
+ * one bin for each value. Other images are scanned first for their
+ * lowest and highest values, and that range is split into
+ * {@link #MAX_BINS} bins. Methods that compare every pair of levels
+ * (Huang and multi-level Otsu) use the histogram reduced to
+ * {@link #COARSE_BINS} levels, as ImageJ does for 16-bit images.
+ *
+ * @author Benjamin Nanes
+ */
+public final class AutoThreshold {
+
+    // -- Fields --
+
+    /** Largest number of histogram bins */
+    public static final int MAX_BINS = 65536;
+
+    /** Number of levels for methods that compare every pair of levels */
+    public static final int COARSE_BINS = 256;
+
+    private AutoThreshold() { }
+
+    // -- Methods --
+
+    /**
+     * Build the histogram of each channel of an image
+     * @param nThreads Number of threads to use
+     * @throws InterruptedException Building the histograms was interrupted
+     */
+    public static Histogram[] histograms(Dataset ds, int nThreads) throws InterruptedException {
+        final int cAxis = ds.dimensionIndex(Axes.CHANNEL);
+        final int yAxis = ds.dimensionIndex(Axes.Y);
+        final int nc = cAxis < 0 ? 1 : (int) ds.dimension(cAxis);
+        final RealType<?> type = ds.getImgPlus().firstElement();
+        final boolean integer = ds.isInteger();
+        final Histogram[] h = new Histogram[nc];
+        final double span = type.getMaxValue() - type.getMinValue() + 1;
+        if(integer && span <= MAX_BINS) {
+            for(int c = 0; c < nc; c++)
+                h[c] = new Histogram(new long[(int) span], type.getMinValue(), 1, true);
+        } else {
+            final double[][] range = new double[nc][];
+            for(int c = 0; c < nc; c++)
+                range[c] = new double[] {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            scan(ds, cAxis, yAxis, nThreads, new Scan() {
+                @Override
+                public void run(int c, Cursor<? extends RealType<?>> cur) {
+                    double lo = Double.POSITIVE_INFINITY;
+                    double hi = Double.NEGATIVE_INFINITY;
+                    while(cur.hasNext()) {
+                        final double v = cur.next().getRealDouble();
+                        if(v < lo)
+                            lo = v;
+                        if(v > hi && v != Double.POSITIVE_INFINITY)
+                            hi = v;
+                    }
+                    if(lo == Double.NEGATIVE_INFINITY)
+                        lo = -Double.MAX_VALUE;
+                    synchronized(range[c]) {
+                        range[c][0] = Math.min(range[c][0], lo);
+                        range[c][1] = Math.max(range[c][1], hi);
+                    }
+                }
+            });
+            for(int c = 0; c < nc; c++) {
+                final double lo = range[c][0];
+                final double hi = range[c][1];
+                if(lo > hi)
+                    h[c] = new Histogram(new long[1], 0, 1, integer);
+                else if(integer && hi - lo + 1 <= MAX_BINS)
+                    h[c] = new Histogram(new long[(int) (hi - lo + 1)], lo, 1, true);
+                else
+                    h[c] = new Histogram(new long[MAX_BINS], lo,
+                            hi > lo ? (hi - lo) / MAX_BINS : 1, false);
+            }
+        }
+        scan(ds, cAxis, yAxis, nThreads, new Scan() {
+            @Override
+            public void run(int c, Cursor<? extends RealType<?>> cur) {
+                final Histogram hc = h[c];
+                final long[] counts = new long[hc.counts.length];
+                final int last = counts.length - 1;
+                final double origin = hc.origin;
+                final double scale = 1 / hc.width;
+                while(cur.hasNext()) {
+                    final double v = cur.next().getRealDouble();
+                    if(Double.isNaN(v))
+                        continue;
+                    final double b = (v - origin) * scale;
+                    counts[b <= 0 ? 0 : b >= last ? last : (int) b]++;
+                }
+                synchronized(hc) {
+                    for(int i = 0; i <= last; i++)
+                        hc.counts[i] += counts[i];
+                }
+            }
+        });
+        return h;
+    }
+
+    /**
+     * Make a map of the pixels in one channel that are above a threshold,
+     * {@code 255} above and {@code 0} at or below
+     */
+    public static PlanarImg<UnsignedByteType, ?> map(Dataset ds, int channel, double threshold) {
+        final int cAxis = ds.dimensionIndex(Axes.CHANNEL);
+        final RandomAccessibleInterval<? extends RealType<?>> src = cAxis < 0
+                ? ds.getImgPlus() : Views.hyperSlice(ds.getImgPlus(), cAxis, channel);
+        final long[] dims = new long[src.numDimensions()];
+        src.dimensions(dims);
+        final PlanarImg<UnsignedByteType, ?> map
+                = new PlanarImgFactory<UnsignedByteType>().create(dims, new UnsignedByteType(0));
+        final Cursor<? extends RealType<?>> in = Views.flatIterable(src).cursor();
+        final Cursor<UnsignedByteType> out = Views.flatIterable(map).cursor();
+        while(in.hasNext())
+            out.next().set(in.next().getRealDouble() > threshold ? 255 : 0);
+        return map;
+    }
+
+    // -- Helper methods --
+
+    /** Visit every pixel of each channel, split into strips of rows */
+    private static void scan(Dataset ds, final int cAxis, final int yAxis,
+            int nThreads, final Scan task) throws InterruptedException {
+        final int nd = ds.numDimensions();
+        final long[] dims = new long[nd];
+        ds.dimensions(dims);
+        final RandomAccessibleInterval<? extends RealType<?>> img = ds.getImgPlus();
+        final int nc = cAxis < 0 ? 1 : (int) dims[cAxis];
+        final long rows = yAxis < 0 ? 1 : dims[yAxis];
+        final int nStrips = Strips.count(rows, nThreads);
+        Strips.run(nc * nStrips, nThreads, new Strips.Task() {
+            @Override
+            public void run(int i) {
+                final int c = i / nStrips;
+                final int s = i % nStrips;
+                final long[] min = new long[nd];
+                final long[] max = new long[nd];
+                for(int d = 0; d < nd; d++)
+                    max[d] = dims[d] - 1;
+                if(cAxis >= 0)
+                    min[cAxis] = max[cAxis] = c;
+                if(yAxis >= 0) {
+                    min[yAxis] = Strips.start(rows, s, nStrips);
+                    max[yAxis] = Strips.start(rows, s + 1, nStrips) - 1;
+                }
+                task.run(c, Views.flatIterable(Views.interval(img, min, max)).cursor());
+            }
+        });
+    }
+
+    // -- Helper classes --
+
+    private interface Scan {
+        void run(int channel, Cursor<? extends RealType<?>> cursor);
+    }
+
+    /**
+     * Histogram of one channel. Bin {@code i} starts at
+     * {@code origin + i * width}. Methods find the last bin of the lower
+     * class, and report the threshold as the highest value in that bin:
+     * pixels above the threshold are in the upper class.
+     */
+    public static final class Histogram {
+
+        private final long[] counts;
+        private final double origin;
+        private final double width;
+        private final boolean integer;
+
+        Histogram(long[] counts, double origin, double width, boolean integer) {
+            this.counts = counts;
+            this.origin = origin;
+            this.width = width;
+            this.integer = integer;
+        }
+
+        /** Get the number of bins */
+        public int getBinCount() {
+            return counts.length;
+        }
+
+        /** Get the number of pixels in bin {@code i} */
+        public long getCount(int i) {
+            return counts[i];
+        }
+
+        /**
+         * Get the threshold that puts bin {@code i} and those below it in
+         * the lower class. Fractional bins are interpolated.
+         */
+        public double toValue(double i) {
+            return integer ? origin + (i + 1) * width - 1 : origin + (i + 1) * width;
+        }
+
+        /**
+         * Reduce the histogram to at most {@code n} bins by
+         * merging neighboring bins
+         */
+        public Histogram coarsen(int n) {
+            if(counts.length <= n)
+                return this;
+            final int f = (counts.length + n - 1) / n;
+            final long[] c = new long[(counts.length + f - 1) / f];
+            for(int i = 0; i < counts.length; i++)
+                c[i / f] += counts[i];
+            return new Histogram(c, origin, width * f, integer);
+        }
+
+        /**
+         * Otsu's method: maximize the variance between the two classes.
+         * Where several thresholds are equally good, their midpoint is used.
+         * <p> Nobuyuki Otsu (1979). "A threshold selection method from
+         * gray-level histograms". IEEE Trans. Sys., Man., Cyber.
+         * 9 (1): 62–66.
+         */
+        public double otsu() {
+            double pixels = 0;
+            double total = 0;
+            for(int i = 0; i < counts.length; i++) {
+                pixels += counts[i];
+                total += (double) i * counts[i];
+            }
+            double sumB = 0;
+            double wB = 0;
+            double t1 = 0;
+            double t2 = 0;
+            double btwnMax = 0;
+            for(int i = 0; i < counts.length; i++) {
+                wB += counts[i];
+                if(wB == 0)
+                    continue;
+                final double wF = pixels - wB;
+                if(wF == 0)
+                    break;
+                sumB += (double) i * counts[i];
+                final double mB = sumB / wB;
+                final double mF = (total - sumB) / wF;
+                final double btwn = wB * wF * (mB - mF) * (mB - mF);
+                if(btwn >= btwnMax) {
+                    t1 = i;
+                    if(btwn > btwnMax)
+                        t2 = i;
+                    btwnMax = btwn;
+                }
+            }
+            return toValue((t1 + t2) / 2);
+        }
+
+        /**
+         * Multi-level Otsu: split the histogram into {@code classes}
+         * classes that maximize the variance between classes, by dynamic
+         * programming over the reduced histogram.
+         * <p> Ping-Sung Liao, Tse-Sheng Chen, and Pau-Choo Chung (2001).
+         * "A fast algorithm for multilevel thresholding". J. Inf. Sci.
+         * Eng. 17 (5): 713–727.
+         * @return The {@code classes - 1} thresholds, in increasing order
+         */
+        public double[] otsu(int classes) {
+            final Histogram h = coarsen(COARSE_BINS);
+            final int n = h.counts.length;
+            final int k = Math.max(2, Math.min(classes, n));
+            // Prefix sums of counts and of level times count
+            final double[] P = new double[n + 1];
+            final double[] S = new double[n + 1];
+            for(int i = 0; i < n; i++) {
+                P[i + 1] = P[i] + h.counts[i];
+                S[i + 1] = S[i] + (double) i * h.counts[i];
+            }
+            // best[j][i]: best score for bins 0..i-1 in j+1 classes
+            final double[][] best = new double[k][n + 1];
+            final int[][] split = new int[k][n + 1];
+            for(int i = 1; i <= n; i++)
+                best[0][i] = score(P, S, 0, i);
+            for(int j = 1; j < k; j++) {
+                for(int i = j + 1; i <= n; i++) {
+                    double b = Double.NEGATIVE_INFINITY;
+                    int at = j;
+                    for(int m = j; m < i; m++) {
+                        final double v = best[j - 1][m] + score(P, S, m, i);
+                        if(v > b) {
+                            b = v;
+                            at = m;
+                        }
+                    }
+                    best[j][i] = b;
+                    split[j][i] = at;
+                }
+            }
+            final double[] t = new double[classes < 2 ? 1 : classes - 1];
+            Arrays.fill(t, h.toValue(n - 1));
+            int end = n;
+            for(int j = k - 1; j > 0; j--) {
+                end = split[j][end];
+                t[j - 1] = h.toValue(end - 1);
+            }
+            return t;
+        }
+
+        /**
+         * Li's minimum cross entropy method, by the iterative
+         * procedure used in ImageJ.
+         * <p> C.H. Li and P.K.S. Tam (1998). "An iterative algorithm for
+         * minimum cross entropy thresholding". Pattern Recognition Letters
+         * 18 (8): 771–776.
+         */
+        public double li() {
+            final int n = counts.length;
+            final double[] P = new double[n + 1];
+            final double[] S = new double[n + 1];
+            for(int i = 0; i < n; i++) {
+                P[i + 1] = P[i] + counts[i];
+                S[i + 1] = S[i] + (double) i * counts[i];
+            }
+            if(P[n] == 0)
+                return toValue(0);
+            double newThresh = S[n] / P[n];
+            double oldThresh;
+            int threshold;
+            int iterations = 0;
+            do {
+                oldThresh = newThresh;
+                threshold = Math.max(0, Math.min(n - 1, (int) (oldThresh + 0.5)));
+                final double nBack = P[threshold + 1];
+                final double nObj = P[n] - nBack;
+                final double meanBack = nBack == 0 ? 0 : S[threshold + 1] / nBack;
+                final double meanObj = nObj == 0 ? 0 : (S[n] - S[threshold + 1]) / nObj;
+                final double temp = (meanBack - meanObj) / (Math.log(meanBack) - Math.log(meanObj));
+                if(Double.isNaN(temp))
+                    break;
+                newThresh = temp < -2.220446049250313E-16 ? (int) (temp - 0.5) : (int) (temp + 0.5);
+            } while(Math.abs(newThresh - oldThresh) > 0.5 && ++iterations < 1000);
+            return toValue(threshold);
+        }
+
+        /**
+         * Triangle method: the threshold is the level farthest from the
+         * line joining the histogram peak to the far end of its longer
+         * tail, as implemented in ImageJ.
+         * <p> G.W. Zack, W.E. Rogers, and S.A. Latt (1977). "Automatic
+         * measurement of sister chromatid exchange frequency". J.
+         * Histochem. Cytochem. 25 (7): 741–753.
+         */
+        public double triangle() {
+            final int n = counts.length;
+            int min = 0;
+            int min2 = 0;
+            int max = 0;
+            long dmax = 0;
+            for(int i = 0; i < n; i++) {
+                if(counts[i] > 0) {
+                    min = i;
+                    break;
+                }
+            }
+            if(min > 0)
+                min--;
+            for(int i = n - 1; i > 0; i--) {
+                if(counts[i] > 0) {
+                    min2 = i;
+                    break;
+                }
+            }
+            if(min2 < n - 1)
+                min2++;
+            for(int i = 0; i < n; i++) {
+                if(counts[i] > dmax) {
+                    max = i;
+                    dmax = counts[i];
+                }
+            }
+            // Work on the side of the peak with the longer tail
+            final boolean inverted = max - min < min2 - max;
+            if(inverted) {
+                min = n - 1 - min2;
+                max = n - 1 - max;
+            }
+            if(min == max)
+                return toValue(inverted ? n - 1 - min : min);
+            double nx = dmax;
+            double ny = min - max;
+            double d = Math.sqrt(nx * nx + ny * ny);
+            nx /= d;
+            ny /= d;
+            d = nx * min + ny * count(min, inverted);
+            int split = min;
+            double splitDistance = 0;
+            for(int i = min + 1; i <= max; i++) {
+                final double dist = nx * i + ny * count(i, inverted) - d;
+                if(dist > splitDistance) {
+                    split = i;
+                    splitDistance = dist;
+                }
+            }
+            split--;
+            return toValue(inverted ? n - 1 - split : split);
+        }
+
+        /**
+         * Huang's fuzzy thresholding method: minimize the fuzzy entropy
+         * of each level's membership in its class, as implemented in
+         * ImageJ, over the reduced histogram.
+         * <p> L.-K. Huang and M.-J.J. Wang (1995). "Image thresholding by
+         * minimizing the measure of fuzziness". Pattern Recognition 28
+         * (1): 41–51.
+         */
+        public double huang() {
+            final Histogram h = coarsen(COARSE_BINS);
+            final long[] data = h.counts;
+            final int n = data.length;
+            int first = 0;
+            int last = n - 1;
+            while(first < n - 1 && data[first] == 0)
+                first++;
+            while(last > first && data[last] == 0)
+                last--;
+            final double term = 1.0 / (last - first);
+            // Mean level of each class for each threshold
+            final double[] mu0 = new double[n];
+            final double[] mu1 = new double[n];
+            double sum = 0;
+            double num = 0;
+            for(int i = first; i < n; i++) {
+                sum += (double) i * data[i];
+                num += data[i];
+                mu0[i] = sum / num;
+            }
+            sum = num = 0;
+            for(int i = last; i > 0; i--) {
+                sum += (double) i * data[i];
+                num += data[i];
+                mu1[i - 1] = sum / num;
+            }
+            int threshold = 0;
+            double minEntropy = Double.MAX_VALUE;
+            for(int t = 0; t < n; t++) {
+                double entropy = 0;
+                for(int i = first; i <= last; i++) {
+                    final double mu = 1 / (1 + term * Math.abs(i - (i <= t ? mu0[t] : mu1[t])));
+                    if(mu >= 1e-06 && mu <= 0.999999)
+                        entropy += data[i] * (-mu * Math.log(mu) - (1 - mu) * Math.log(1 - mu));
+                }
+                if(entropy < minEntropy) {
+                    minEntropy = entropy;
+                    threshold = t;
+                }
+            }
+            return h.toValue(threshold);
+        }
+
+        // -- Helper methods --
+
+        private long count(int i, boolean inverted) {
+            return counts[inverted ? counts.length - 1 - i : i];
+        }
+
+        /** Squared sum over count for bins {@code [a, b)}, the class's share of the between-class variance */
+        private static double score(double[] P, double[] S, int a, int b) {
+            final double w = P[b] - P[a];
+            if(w == 0)
+                return 0;
+            final double s = S[b] - S[a];
+            return s * s / w;
+        }
+
+    }
+
+}
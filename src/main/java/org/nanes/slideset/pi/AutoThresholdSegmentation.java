@@ -0,0 +1,128 @@
+package org.nanes.slideset.pi;
+
+import java.util.ArrayList;
+import net.imagej.Dataset;
+import net.imagej.DefaultDataset;
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Segment an image using several automatic threshold methods,
+ * all computed from one histogram of each channel.
+ *
+ * @author Benjamin Nanes
+ */
+@HelpPath(path = "plugins/autothreshold.html")
+@Plugin(
+        type = SlideSetPlugin.class,
+        name = "Auto Threshold",
+        label ="Auto Threshold", visible = false,
+        menuPath = "Plugins > Slide Set > Commands > Segmentation > Auto Threshold")
+public class AutoThresholdSegmentation
+        extends SlideSetPlugin implements MultipleResults {
+
+    // -- Parameters --
+
+    @Parameter(label="ImageJ", type=ItemIO.INPUT)
+    private ImageJ ij;
+
+    @Parameter(label="Images", type=ItemIO.INPUT)
+    private Dataset ds;
+
+    @Parameter(label="Methods", type=ItemIO.INPUT)
+    private String ms;
+
+    @Parameter(label="Multi-level Otsu classes", type=ItemIO.INPUT)
+    private int classes;
+
+    @Parameter(label="Channel", type=ItemIO.OUTPUT)
+    private int[] channels;
+
+    @Parameter(label="Method", type=ItemIO.OUTPUT)
+    private String[] methods;
+
+    @Parameter(label="Threshold", type=ItemIO.OUTPUT)
+    private double[] thresholds;
+
+    @Parameter(label="Threshold Map", type=ItemIO.OUTPUT)
+    private Dataset[] maps;
+
+    // -- Other fields --
+
+    private static final String[] NAMES = {"Otsu", "MultiOtsu", "Li", "Triangle", "Huang"};
+
+    // -- Methods --
+
+    public void run() {
+        final int cAxis = ds.dimensionIndex(Axes.CHANNEL);
+        final int xAxis = ds.dimensionIndex(Axes.X);
+        final int yAxis = ds.dimensionIndex(Axes.Y);
+        final boolean flat = cAxis < 0 && xAxis >= 0 && yAxis >= 0;
+        if(!flat && cAxis < 0)
+            throw new IllegalArgumentException("Unable to find channel axis.");
+        //Parse method string
+        final ArrayList<String> mList = new ArrayList<String>();
+        for(String m : ms.trim().split("\\s+")) {
+            if(m.isEmpty())
+                continue;
+            String name = null;
+            for(String n : NAMES) {
+                if(n.equalsIgnoreCase(m))
+                    name = n;
+            }
+            if(name == null)
+                throw new IllegalArgumentException("Unknown threshold method: " + m);
+            mList.add(name);
+        }
+        if(mList.isEmpty())
+            mList.add(NAMES[0]);
+        //
+        final AutoThreshold.Histogram[] hist;
+        try {
+            hist = AutoThreshold.histograms(ds, Runtime.getRuntime().availableProcessors());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Segmentation of " + ds.getName() + " was interrupted.");
+        }
+        final ArrayList<Integer> cArray = new ArrayList<Integer>();
+        final ArrayList<String> mArray = new ArrayList<String>();
+        final ArrayList<Double> tArray = new ArrayList<Double>();
+        for(int c = 0; c < hist.length; c++) {
+            for(String m : mList) {
+                final double[] t;
+                if(m.equals("Otsu"))
+                    t = new double[] {hist[c].otsu()};
+                else if(m.equals("MultiOtsu"))
+                    t = hist[c].otsu(classes);
+                else if(m.equals("Li"))
+                    t = new double[] {hist[c].li()};
+                else if(m.equals("Triangle"))
+                    t = new double[] {hist[c].triangle()};
+                else
+                    t = new double[] {hist[c].huang()};
+                for(double v : t) {
+                    cArray.add(c);
+                    mArray.add(m);
+                    tArray.add(v);
+                }
+            }
+        }
+        final int n = tArray.size();
+        channels = new int[n];
+        methods = new String[n];
+        thresholds = new double[n];
+        maps = new Dataset[n];
+        for(int i = 0; i < n; i++) {
+            channels[i] = cArray.get(i);
+            methods[i] = mArray.get(i);
+            thresholds[i] = tArray.get(i);
+            maps[i] = new DefaultDataset(ij.context(),
+                    new ImgPlus(AutoThreshold.map(ds, channels[i], thresholds[i]), "Map"));
+        }
+    }
+
+}
@@ -4,7 +4,6 @@ import net.imagej.overlay.AbstractOverlay;
 import net.imagej.overlay.LineOverlay;
 import net.imagej.overlay.PointOverlay;
 import java.util.Arrays;
-import net.imglib2.iterator.IntervalIterator;
 import net.imglib2.roi.RegionOfInterest;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
@@ -103,34 +102,13 @@ public class BinRegions extends SlideSetPlugin implements MultipleResults {
                     }
                 }
             } else { // Assume that the ROI has area
-                double[] minD = new double[ao.numDimensions()];
-                long[] min = new long[ao.numDimensions()];
-                double[] maxD = new double[ao.numDimensions()];
-                long[] max = new long[ao.numDimensions()];
-                double[] pos = new double[ao.numDimensions()];
-                ao.realMin(minD);
-                ao.realMax(maxD);
-                for(int q = 0; q < minD.length; q++) {
-                    min[q] = Math.round(Math.floor(minD[q]));
-                    max[q] = Math.round(Math.ceil(maxD[q]));
-                }
-                IntervalIterator ii = new IntervalIterator(min, max);
+                final RoiMask rm = RoiMask.of(ao);
+                if(rm.isEmpty())
+                    continue;
                 for(int j = 0; j < bins.length; j++) {
-                    RegionOfInterest bin = bins[j].getRegionOfInterest();
-                    if(bin.numDimensions() != ii.numDimensions())
+                    if(bins[j].getRegionOfInterest().numDimensions() != ao.numDimensions())
                         continue; // ROI and bin dimensions must match
-                    ii.reset();
-                    boolean empty = true;
-                    boolean in = true;
-                    while(in && ii.hasNext()) {
-                        ii.fwd();
-                        ii.localize(pos);
-                        if(!ao.getRegionOfInterest().contains(pos))
-                            continue;
-                        empty = false;
-                        in = bin.contains(pos);
-                    }
-                    if(in && !empty) {
+                    if(RoiMask.of(bins[j]).containsAll(rm)) {
                         binIDs[i] = j;
                         break;
                     }
@@ -0,0 +1,213 @@
+package org.nanes.slideset.pi;
+
+import java.util.Arrays;
+import net.imagej.overlay.AbstractOverlay;
+import org.nanes.slideset.ex.SlideSetException;
+
+/**
+ * Band of points near the border of a region of interest, as a
+ * {@link RoiMask}. A point is in the band if
+ * {@link RoiUtils#isNearBorder(double[], AbstractOverlay, double)}
+ * would accept it.
+ * <p> Rather than measuring the distance from every point in the bounding
+ * box to every segment of the border, each segment is widened into a
+ * capsule, the area within the border width of the segment, and the
+ * capsule's extent on each row is found directly. Points on the edge of
+ * a capsule, within rounding error, are checked against the segment with
+ * {@link RoiUtils#distanceFromSegment(double[], double[], double[])}, so
+ * the band has the same points as the point-by-point test. The cost is
+ * proportional to the number of points in the band, rather than to the
+ * number of points in the bounding box times the number of segments.
+ *
+ * @author Benjamin Nanes
+ */
+public final class BorderBand {
+
+    // -- Fields --
+
+    /** Distance from the edge of a capsule within which points are checked */
+    private static final double TOL = 1e-6;
+
+    private BorderBand() { }
+
+    // -- Methods --
+
+    /**
+     * Get the points near the border of an overlay
+     * @param overlay The overlay
+     * @param radius Distance considered to be near the border
+     * @throws SlideSetException The overlay type is not supported
+     */
+    public static RoiMask of(AbstractOverlay overlay, double radius) throws SlideSetException {
+        final boolean[] closed = new boolean[1];
+        final double[][] vertices = RoiUtils.getBorderVertices(overlay, closed);
+        return of(vertices, radius, closed[0]);
+    }
+
+    /**
+     * Get the points near a border defined by a set of vertices
+     * @param vertices Ordered set of vertices defining the border,
+     *     {@code [index][(x,y)]}
+     * @param radius Distance considered to be near the border
+     * @param closed Is the segment connecting the last and first
+     *     vertices part of the border?
+     */
+    public static RoiMask of(double[][] vertices, double radius, boolean closed) {
+        if(vertices == null || radius < 0)
+            throw new IllegalArgumentException("Requires vertices and a border width of at least 0");
+        final int lim = closed ? vertices.length : vertices.length - 1;
+        double yMin = Double.POSITIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        double xMin = Double.POSITIVE_INFINITY;
+        for(double[] v : vertices) {
+            if(v == null)
+                continue;
+            yMin = Math.min(yMin, v[1]);
+            yMax = Math.max(yMax, v[1]);
+            xMin = Math.min(xMin, v[0]);
+        }
+        if(lim <= 0 || yMin > yMax)
+            return RoiMask.ofRuns(new int[0], 0);
+        final double rOut = radius + TOL;
+        final double rIn = radius - TOL;
+        final int y0 = (int) Math.floor(yMin - rOut);
+        final long xBase = (long) Math.floor(xMin - rOut) - 1;
+        final int h = (int) Math.ceil(yMax + rOut) - y0 + 1;
+        final long[][] rows = new long[h][];
+        final int[] counts = new int[h];
+        final double[] P = new double[2];
+        final double[] outer = new double[2];
+        final double[] inner = new double[2];
+        for(int i = 0; i < lim; i++) {
+            final int j = i + 1 < vertices.length ? i + 1 : 0;
+            final double[] A = vertices[i];
+            final double[] B = vertices[j];
+            if(A == null || B == null)
+                continue;
+            final int ya = (int) Math.ceil(Math.min(A[1], B[1]) - rOut);
+            final int yb = (int) Math.floor(Math.max(A[1], B[1]) + rOut);
+            for(int y = ya; y <= yb; y++) {
+                if(!capsuleRow(A, B, rOut, y, outer))
+                    continue;
+                final int xa = (int) Math.ceil(outer[0]);
+                final int xb = (int) Math.floor(outer[1]);
+                int ia = Integer.MAX_VALUE;
+                int ib = Integer.MIN_VALUE;
+                if(rIn >= 0 && capsuleRow(A, B, rIn, y, inner)) {
+                    ia = (int) Math.ceil(inner[0]);
+                    ib = (int) Math.floor(inner[1]);
+                }
+                P[1] = y;
+                final int row = y - y0;
+                int x = xa;
+                for(; x <= xb && x < ia; x++) {
+                    P[0] = x;
+                    if(isNearSegment(P, A, B, radius))
+                        counts[row] = add(rows, counts[row], row, x, x + 1, xBase);
+                }
+                if(x <= ib) {
+                    counts[row] = add(rows, counts[row], row, x, ib + 1, xBase);
+                    x = ib + 1;
+                }
+                for(; x <= xb; x++) {
+                    P[0] = x;
+                    if(isNearSegment(P, A, B, radius))
+                        counts[row] = add(rows, counts[row], row, x, x + 1, xBase);
+                }
+            }
+        }
+        int total = 0;
+        for(int row = 0; row < h; row++)
+            total += counts[row];
+        final int[] runs = new int[3 * total];
+        int n = 0;
+        for(int row = 0; row < h; row++) {
+            if(counts[row] == 0)
+                continue;
+            Arrays.sort(rows[row], 0, counts[row]);
+            for(int k = 0; k < counts[row]; k++) {
+                runs[3 * n] = y0 + row;
+                runs[3 * n + 1] = (int) ((rows[row][k] >>> 32) + xBase);
+                runs[3 * n + 2] = (int) ((rows[row][k] & 0xffffffffL) + xBase);
+                n++;
+            }
+        }
+        return RoiMask.ofRuns(runs, n);
+    }
+
+    // -- Helper methods --
+
+    /**
+     * Find the extent of a capsule, the points within distance {@code r}
+     * of segment {@code A-B}, on row {@code y}
+     * @param iv Set to the lowest and highest {@code x} in the capsule
+     * @return {@code false} if the capsule does not reach the row
+     */
+    private static boolean capsuleRow(double[] A, double[] B, double r, int y, double[] iv) {
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        // Ends
+        for(double[] E : new double[][] {A, B}) {
+            final double dy = y - E[1];
+            if(Math.abs(dy) <= r) {
+                final double s = Math.sqrt(Math.max(0, r * r - dy * dy));
+                lo = Math.min(lo, E[0] - s);
+                hi = Math.max(hi, E[0] + s);
+            }
+        }
+        // Sides, where the point is abreast of the segment
+        final double dx = B[0] - A[0];
+        final double dy = B[1] - A[1];
+        final double len = Math.sqrt(dx * dx + dy * dy);
+        if(len > 0) {
+            final double qy = y - A[1];
+            double a = Double.NEGATIVE_INFINITY;
+            double b = Double.POSITIVE_INFINITY;
+            boolean reaches = true;
+            // Distance from the line: |qx * dy - qy * dx| <= r * len
+            if(dy != 0) {
+                final double u = (qy * dx - r * len) / dy;
+                final double v = (qy * dx + r * len) / dy;
+                a = Math.min(u, v);
+                b = Math.max(u, v);
+            } else
+                reaches = Math.abs(qy * dx) <= r * len;
+            // Projection onto the segment: 0 <= qx * dx + qy * dy <= len^2
+            if(dx != 0) {
+                final double u = -qy * dy / dx;
+                final double v = (len * len - qy * dy) / dx;
+                a = Math.max(a, Math.min(u, v));
+                b = Math.min(b, Math.max(u, v));
+            } else
+                reaches &= qy * dy >= 0 && qy * dy <= len * len;
+            if(reaches && a <= b) {
+                lo = Math.min(lo, A[0] + a);
+                hi = Math.max(hi, A[0] + b);
+            }
+        }
+        iv[0] = lo;
+        iv[1] = hi;
+        return lo <= hi;
+    }
+
+    /** The test used by {@link RoiUtils#isNearBorder(double[], double[][], double, boolean)} for one segment */
+    private static boolean isNearSegment(double[] P, double[] A, double[] B, double radius) {
+        if((P[0] < A[0] - radius && P[0] < B[0] - radius) ||
+           (P[0] > A[0] + radius && P[0] > B[0] + radius) ||
+           (P[1] < A[1] - radius && P[1] < B[1] - radius) ||
+           (P[1] > A[1] + radius && P[1] > B[1] + radius))
+            return false;
+        return RoiUtils.distanceFromSegment(P, A, B) <= radius;
+    }
+
+    /** Add a run to a row, packed as start and end relative to {@code xBase} */
+    private static int add(long[][] rows, int count, int row, int x0, int x1, long xBase) {
+        if(rows[row] == null)
+            rows[row] = new long[4];
+        else if(count == rows[row].length)
+            rows[row] = Arrays.copyOf(rows[row], 2 * count);
+        rows[row][count] = ((x0 - xBase) << 32) | (x1 - xBase);
+        return count + 1;
+    }
+
+}
@@ -4,13 +4,8 @@ import org.nanes.slideset.ex.SlideSetException;
 import org.nanes.slideset.ui.SlideSetLog;
 import net.imagej.Dataset;
 import net.imagej.overlay.AbstractOverlay;
-import java.math.BigInteger;
 import java.util.ArrayList;
-import net.imglib2.RandomAccess;
-import net.imglib2.iterator.IntervalIterator;
 import net.imagej.axis.Axes;
-import net.imglib2.roi.RegionOfInterest;
-import net.imglib2.type.numeric.RealType;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -21,6 +16,7 @@ import org.scijava.plugin.Plugin;
  * 
  * @author Benjamin Nanes
  */
+@RoiBounded(marginInput = "w")
 @HelpPath(path = "plugins/borders.html")
 @Plugin(type=SlideSetPlugin.class,
     label="Border Statistics", visible = false,
@@ -95,16 +91,18 @@ public class BorderStats extends SlideSetPlugin implements MultipleResults {
                 throw new IllegalArgumentException(ds.getName() + " has zero channels");
             }
         }
-        IntervalIterator ii;
-        final double[] posD = new double[dims.length];
-        final double[] pos2D = new double[2];
-        final long[] min = new long[dims.length];
-        final long[] max = new long[dims.length];
-        RandomAccess<? extends RealType<?>> ra = ds.randomAccess();
-        RegionOfInterest bin;
-        BigInteger r;
-        BigInteger g = BigInteger.valueOf(0);
-        BigInteger b = BigInteger.valueOf(0);
+        final int nc = singlet ? 1 : (int) dims[cAxis];
+        final RoiMask[] masks = new RoiMask[roi.length];
+        for (int i = 0; i < roi.length; i++) {
+            try {
+                masks[i] = BorderBand.of(roi[i], w).clip(dims);
+            } catch(SlideSetException e) {
+                log.println("Warning: ROI number " + String.valueOf(i) + " is not compatible");
+                log.println("   with this command and will be skipped.");
+            }
+        }
+        final RegionMeasurements m = new RegionMeasurements(roi.length, nc, 0, true);
+        m.measure(ds, masks, RegionMeasurements.thresholdFilter(new double[] {rT, gT, bT}, inv, true));
         int s;
         ArrayList<Double> rArray = new ArrayList<Double>();
         ArrayList<Double> gArray = new ArrayList<Double>();
@@ -112,71 +110,13 @@ public class BorderStats extends SlideSetPlugin implements MultipleResults {
         ArrayList<Integer> sArray = new ArrayList<Integer>();
         ArrayList<Double> lArray = new ArrayList<Double>();
         for (int i = 0; i < roi.length; i++) {
-            bin = roi[i].getRegionOfInterest();
-            for (int c = 0; c < bin.numDimensions(); c++) {
-                min[c] = Math.round(Math.floor(bin.realMin(c) - w));
-                if(min[c] < 0 || min[c] > dims[c])
-                    min[c] = 0;
-                max[c] = Math.round(Math.ceil(bin.realMax(c) + w));
-                if(max[c] < 0 || max[c] > dims[c])
-                    max[c] = dims[c];
-            }
-            if (!singlet) {
-                min[cAxis] = 0;
-                max[cAxis] = 0;
-            }
-            s = 0;
-            r = BigInteger.valueOf(0);
-            if (!singlet && dims[cAxis] > 1) {
-                g = BigInteger.valueOf(0);
-            }
-            if (!singlet && dims[cAxis] > 2) {
-                b = BigInteger.valueOf(0);
-            }
-            ii = new IntervalIterator(min, max);
-            try {
-                while (ii.hasNext()) {
-                    ii.fwd();
-                    ii.localize(posD);
-                    pos2D[0] = posD[xAxis];
-                    pos2D[1] = posD[yAxis];
-                    if(!RoiUtils.isNearBorder(pos2D, roi[i], w) || !inBounds(posD, dims))
-                        continue;
-                    ra.setPosition(ii);
-                    ++s;
-                    if (inv) {
-                        r = r.subtract(BigInteger.valueOf(Math.round(Math.min(ra.get().getRealDouble() - rT, 0))));
-                    } else {
-                        r = r.add(BigInteger.valueOf(Math.round(Math.max(ra.get().getRealDouble() - rT, 0))));
-                    }
-                    if (singlet || dims[cAxis] < 2) {
-                        continue;
-                    }
-                    ra.setPosition(1, cAxis);
-                    if (inv) {
-                        g = g.subtract(BigInteger.valueOf(Math.round(Math.min(ra.get().getRealDouble() - gT, 0))));
-                    } else {
-                        g = g.add(BigInteger.valueOf(Math.round(Math.max(ra.get().getRealDouble() - gT, 0))));
-                    }
-                    if (dims[cAxis] < 3) {
-                        continue;
-                    }
-                    ra.setPosition(2, cAxis);
-                    if (inv) {
-                        b = b.subtract(BigInteger.valueOf(Math.round(Math.min(ra.get().getRealDouble() - bT, 0))));
-                    } else {
-                        b = b.add(BigInteger.valueOf(Math.round(Math.max(ra.get().getRealDouble() - bT, 0))));
-                    }
-                }
-            } catch(SlideSetException e) {
-                log.println("Warning: ROI number " + String.valueOf(i) + " is not compatible");
-                log.println("   with this command and will be skipped.");
+            if (masks[i] == null)
                 continue;
-            }
+            s = (int) masks[i].getArea();
             sArray.add(s);
-            rArray.add(r.doubleValue() / s);
-            gArray.add(g.doubleValue() / s);
-            bArray.add(b.doubleValue() / s);
+            rArray.add(m.getSum(i, 0) / s);
+            gArray.add((nc > 1 ? m.getSum(i, 1) : 0) / s);
+            bArray.add((nc > 2 ? m.getSum(i, 2) : 0) / s);
             double l;
             try {
                 l = ROILengths.getRoiLenth(roi[i]);
@@ -201,14 +141,4 @@ public class BorderStats extends SlideSetPlugin implements MultipleResults {
         }
     }
     
-    /**
-     * Check if a point is within the image dimensions
-     */
-    private boolean inBounds(double[] pos, long[] dims) {
-        for(int i = 0; i < pos.length; i++)
-            if(pos[i] >= dims[i] || pos[i] < 0)
-                return false;
-        return true;
-    }
-    
 }
@@ -2,16 +2,11 @@ package org.nanes.slideset.pi;
 
 import org.nanes.slideset.ex.SlideSetException;
 import org.nanes.slideset.ui.SlideSetLog;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import net.imagej.Dataset;
 import net.imagej.axis.Axes;
 import net.imagej.overlay.AbstractOverlay;
-import net.imglib2.RandomAccess;
-import net.imglib2.iterator.IntervalIterator;
-import net.imglib2.roi.RegionOfInterest;
-import net.imglib2.type.numeric.RealType;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -22,6 +17,7 @@ import org.scijava.plugin.Plugin;
  * 
  * @author Benjamin Nanes
  */
+@RoiBounded(marginInput = "w")
 @HelpPath(path = "plugins/borders.html#nchan")
 @Plugin(type=SlideSetPlugin.class,
     label="Border Stats (multi-chan)", visible = false,
@@ -84,12 +80,6 @@ public class BorderStatsNChan extends SlideSetPlugin implements MultipleResults
             }
         }
         final int nChan = singlet ? 1 : (int)dims[cAxis];
-        IntervalIterator ii;
-        final double[] posD = new double[dims.length];
-        final double[] pos2D = new double[2];
-        final long[] min = new long[dims.length];
-        final long[] max = new long[dims.length];
-        RandomAccess<? extends RealType<?>> ra = ds.randomAccess();
         ArrayList<Double> vArray = new ArrayList<Double>();
         ArrayList<Double> sArray = new ArrayList<Double>();
         ArrayList<Double> lArray = new ArrayList<Double>();
@@ -109,52 +99,23 @@ public class BorderStatsNChan extends SlideSetPlugin implements MultipleResults
                 j++;
             }
         }
-        RegionOfInterest bin;
-        BigInteger[] v = new BigInteger[nChan];
-        double s;
-        //
+        final RoiMask[] masks = new RoiMask[roi.length];
         for (int i = 0; i < roi.length; i++) {
-            bin = roi[i].getRegionOfInterest();
-            for (int c = 0; c < bin.numDimensions(); c++) {
-                min[c] = Math.round(Math.floor(bin.realMin(c) - w));
-                if(min[c] < 0 || min[c] > dims[c])
-                    min[c] = 0;
-                max[c] = Math.round(Math.ceil(bin.realMax(c) + w));
-                if(max[c] < 0 || max[c] > dims[c])
-                    max[c] = dims[c];
-            }
-            if (!singlet) {
-                min[cAxis] = 0;
-                max[cAxis] = 0;
-            }
-            s = 0;
-            Arrays.fill(v, BigInteger.valueOf(0));
-            ii = new IntervalIterator(min, max);
             try {
-                while (ii.hasNext()) {
-                    ii.fwd();
-                    ii.localize(posD);
-                    pos2D[0] = posD[xAxis];
-                    pos2D[1] = posD[yAxis];
-                    if(!RoiUtils.isNearBorder(pos2D, roi[i], w) || !inBounds(posD, dims))
-                        continue;
-                    ra.setPosition(ii);
-                    ++s;
-                    for(int j=0; j<nChan; j++) {
-                        if(!singlet)
-                            ra.setPosition(j, cAxis);
-                        if (inv) {
-                            v[j] = v[j].subtract(BigInteger.valueOf(Math.round(Math.min(ra.get().getRealDouble() - nts[j], 0))));
-                        } else {
-                            v[j] = v[j].add(BigInteger.valueOf(Math.round(Math.max(ra.get().getRealDouble() - nts[j], 0))));
-                        }
-                    }
-                }
+                masks[i] = BorderBand.of(roi[i], w).clip(dims);
             } catch(SlideSetException e) {
                 log.println("Warning: ROI number " + String.valueOf(i) + " is not compatible");
                 log.println("   with this command and will be skipped.");
-                continue;
             }
+        }
+        final RegionMeasurements m = new RegionMeasurements(roi.length, nChan, 0, true);
+        m.measure(ds, masks, RegionMeasurements.thresholdFilter(nts, inv, true));
+        double s;
+        //
+        for (int i = 0; i < roi.length; i++) {
+            if (masks[i] == null)
+                continue;
+            s = masks[i].getArea();
             double l;
             try {
                 l = ROILengths.getRoiLenth(roi[i]);
@@ -164,7 +125,7 @@ public class BorderStatsNChan extends SlideSetPlugin implements MultipleResults
             }
             for(int j=0; j<nChan; j++) {
                 sArray.add(s);
-                vArray.add(v[j].doubleValue() / s);
+                vArray.add(m.getSum(i, j) / s);
                 lArray.add(l);
                 cArray.add(j);
             }
@@ -182,14 +143,4 @@ public class BorderStatsNChan extends SlideSetPlugin implements MultipleResults
         }
     }
     
-    /**
-     * Check if a point is within the image dimensions
-     */
-    private boolean inBounds(double[] pos, long[] dims) {
-        for(int i = 0; i < pos.length; i++)
-            if(pos[i] >= dims[i] || pos[i] < 0)
-                return false;
-        return true;
-    }
-    
 }
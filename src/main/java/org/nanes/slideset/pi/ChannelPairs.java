@@ -0,0 +1,133 @@
+package org.nanes.slideset.pi;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.overlay.AbstractOverlay;
+import net.imglib2.RandomAccess;
+import net.imglib2.iterator.IntervalIterator;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Pixel values on two channels of an image within a set of ROIs,
+ * shared by the correlation commands.
+ *
+ * @author Benjamin Nanes
+ */
+final class ChannelPairs {
+
+    // -- Fields --
+
+    private final Dataset ds;
+    private final int c1;
+    private final int c2;
+    private final int cAxis;
+    private final RoiLabels labels;
+    /** Image dimensions, with 1 for the X, Y and channel axes */
+    private final long[] planeDims;
+
+    /**
+     * @param c1 First channel, 0-based
+     * @param c2 Second channel, 0-based
+     * @throws IllegalArgumentException The image does not have the channels
+     */
+    ChannelPairs(Dataset ds, AbstractOverlay[] roi, int c1, int c2) {
+        this.ds = ds;
+        this.c1 = c1;
+        this.c2 = c2;
+        final long[] dims = new long[ds.numDimensions()];
+        ds.dimensions(dims);
+        cAxis = ds.dimensionIndex(Axes.CHANNEL);
+        if(cAxis < 0)
+            throw new IllegalArgumentException("Could not get channel axis index for " + ds.getName());
+        final long nc = dims[cAxis];
+        if(nc <= Math.max(c1, c2))
+            throw new IllegalArgumentException(ds.getName()
+                    + " does not have enough channels. It has "
+                    + String.valueOf(nc) + ", but "
+                    + String.valueOf(Math.max(c1, c2))
+                    + " are required based on your input.");
+        labels = RoiLabels.of(roi, dims);
+        dims[0] = 1;
+        dims[1] = 1;
+        dims[cAxis] = 1;
+        planeDims = dims;
+    }
+
+    // -- Methods --
+
+    /** Visit each pixel in the ROIs once, in every plane */
+    void scan(PixelVisitor v) {
+        final IntervalIterator planes = new IntervalIterator(planeDims);
+        final long[] pos = new long[planeDims.length];
+        final RandomAccess<? extends RealType<?>> ra = ds.randomAccess();
+        while(planes.hasNext()) {
+            planes.fwd();
+            planes.localize(pos);
+            for(int k = 0; k < labels.getSegmentCount(); k++) {
+                final int[] in = labels.getLabels(k);
+                pos[0] = labels.getSegmentStart(k);
+                pos[1] = labels.getSegmentY(k);
+                ra.setPosition(pos);
+                for(int x = labels.getSegmentStart(k); x < labels.getSegmentEnd(k); x++) {
+                    ra.setPosition(c1, cAxis);
+                    final float p1 = ra.get().getRealFloat();
+                    ra.setPosition(c2, cAxis);
+                    final float p2 = ra.get().getRealFloat();
+                    v.visit(in, p1, p2);
+                    ra.fwd(0);
+                }
+            }
+        }
+    }
+
+    // -- Helper classes --
+
+    interface PixelVisitor {
+        /**
+         * @param rois ROIs containing the pixel
+         * @param p1 Value on the first channel
+         * @param p2 Value on the second channel
+         */
+        void visit(int[] rois, float p1, float p2);
+    }
+
+    /**
+     * Running means and co-moments of two channels for each ROI,
+     * updated one pixel at a time (Welford's method)
+     */
+    static final class CoMoments {
+
+        private final long[] count;
+        private final double[] meanA, meanB, mA, mB, cAB;
+
+        CoMoments(int n) {
+            count = new long[n];
+            meanA = new double[n];
+            meanB = new double[n];
+            mA = new double[n];
+            mB = new double[n];
+            cAB = new double[n];
+        }
+
+        void add(int i, double a, double b) {
+            count[i]++;
+            final double da = a - meanA[i];
+            final double db = b - meanB[i];
+            meanA[i] += da / count[i];
+            meanB[i] += db / count[i];
+            mA[i] += da * (a - meanA[i]);
+            mB[i] += db * (b - meanB[i]);
+            cAB[i] += da * (b - meanB[i]);
+        }
+
+        long count(int i) {
+            return count[i];
+        }
+
+        /** Pearson's correlation coefficient */
+        double r(int i) {
+            return cAB[i] / Math.sqrt(mA[i] * mB[i]);
+        }
+    }
+
+}
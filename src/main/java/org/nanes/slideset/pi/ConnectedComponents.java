@@ -0,0 +1,304 @@
+package org.nanes.slideset.pi;
+
+import java.util.Arrays;
+
+/**
+ * 4-connected components of a binary image, found by two-pass
+ * union-find labeling. The image is split into strips of rows, each
+ * labeled by its own thread, and components that cross the edges of
+ * the strips are merged afterwards. Components are numbered from
+ * {@code 1} in the order their first pixels are found scanning down
+ * columns from left to right.
+ * <p> The outer border of a component can be traced along pixel
+ * edges with {@link #trace(int)}, in time proportional to the
+ * length of the border.
+ *
+ * @author Benjamin Nanes
+ */
+public final class ConnectedComponents {
+
+    // -- Fields --
+
+    private final int width;
+    private final int height;
+
+    /** Component label of each pixel, in row order, {@code 0} for background */
+    private final int[] labels;
+
+    private final int count;
+    private final int[] area;
+    private final int[] startX;
+    private final int[] startY;
+
+    private ConnectedComponents(int[] labels, int width, int height,
+            int[] area, int[] startX, int[] startY) {
+        this.labels = labels;
+        this.width = width;
+        this.height = height;
+        this.area = area;
+        this.startX = startX;
+        this.startY = startY;
+        count = area.length;
+    }
+
+    // -- Methods --
+
+    /**
+     * Label the 4-connected components of a binary image
+     * @param pixels Pixels of the image in row order, non-zero for
+     *     foreground. The array is overwritten with the labels.
+     * @param width Width of the image
+     * @param height Height of the image
+     * @param nThreads Number of threads to use
+     * @throws InterruptedException Labeling was interrupted
+     */
+    public static ConnectedComponents of(
+            final int[] pixels, final int width, final int height, int nThreads)
+            throws InterruptedException {
+        if(pixels == null || width < 0 || height < 0 || (long) width * height != pixels.length)
+            throw new IllegalArgumentException("Image size does not match the number of pixels");
+        final int nStrips = Strips.count(height, nThreads);
+        final int[] rows = new int[nStrips + 1];
+        for(int s = 0; s <= nStrips; s++)
+            rows[s] = (int) Strips.start(height, s, nStrips);
+        // First pass: provisional labels within each strip
+        final Labeler[] strips = new Labeler[nStrips];
+        Strips.run(nStrips, nThreads, new Strips.Task() {
+            @Override
+            public void run(int s) {
+                strips[s] = new Labeler(0);
+                firstPass(pixels, width, rows[s], rows[s + 1], strips[s]);
+            }
+        });
+        // Merge the strips
+        final int[] offsets = new int[nStrips];
+        int total = 0;
+        for(int s = 0; s < nStrips; s++) {
+            offsets[s] = total;
+            total += strips[s].count;
+        }
+        final Labeler u = new Labeler(total);
+        for(int s = 0; s < nStrips; s++) {
+            final Labeler t = strips[s];
+            for(int l = 1; l <= t.count; l++) {
+                final int g = offsets[s] + l;
+                u.parent[g] = offsets[s] + t.parent[l];
+                u.area[g] = t.area[l];
+                u.x0[g] = t.x0[l];
+                u.y0[g] = t.y0[l];
+            }
+        }
+        for(int s = 1; s < nStrips; s++) {
+            final int above = (rows[s] - 1) * width;
+            final int below = rows[s] * width;
+            for(int x = 0; x < width; x++) {
+                if(pixels[above + x] != 0 && pixels[below + x] != 0)
+                    u.union(pixels[above + x] + offsets[s - 1], pixels[below + x] + offsets[s]);
+            }
+        }
+        // Gather each component at its root, then number the components
+        // by their first pixel in column order
+        int n = 0;
+        for(int l = 1; l <= total; l++) {
+            final int r = u.find(l);
+            if(r == l) {
+                n++;
+                continue;
+            }
+            u.area[r] += u.area[l];
+            if(u.x0[l] < u.x0[r] || (u.x0[l] == u.x0[r] && u.y0[l] < u.y0[r])) {
+                u.x0[r] = u.x0[l];
+                u.y0[r] = u.y0[l];
+            }
+        }
+        final long[] order = new long[n];
+        n = 0;
+        for(int l = 1; l <= total; l++) {
+            if(u.parent[l] == l)
+                order[n++] = ((long) u.x0[l] * height + u.y0[l]) << 31 | l;
+        }
+        Arrays.sort(order);
+        final int[] area = new int[n];
+        final int[] startX = new int[n];
+        final int[] startY = new int[n];
+        final int[] resolved = new int[total + 1];
+        for(int i = 0; i < n; i++) {
+            final int r = (int) (order[i] & Integer.MAX_VALUE);
+            resolved[r] = i + 1;
+            area[i] = u.area[r];
+            startX[i] = u.x0[r];
+            startY[i] = u.y0[r];
+        }
+        for(int l = 1; l <= total; l++)
+            resolved[l] = resolved[u.find(l)];
+        // Second pass: final labels
+        Strips.run(nStrips, nThreads, new Strips.Task() {
+            @Override
+            public void run(int s) {
+                final int off = offsets[s];
+                for(int i = rows[s] * width; i < rows[s + 1] * width; i++) {
+                    if(pixels[i] != 0)
+                        pixels[i] = resolved[pixels[i] + off];
+                }
+            }
+        });
+        return new ConnectedComponents(pixels, width, height, area, startX, startY);
+    }
+
+    /** Get the number of components */
+    public int getCount() {
+        return count;
+    }
+
+    /** Get the number of pixels in a component */
+    public int getArea(int label) {
+        return area[label - 1];
+    }
+
+    /** Get the component label of a pixel, {@code 0} for background or outside the image */
+    public int getLabel(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height)
+            return 0;
+        return labels[y * width + x];
+    }
+
+    /**
+     * Trace the outer border of a component along the edges of its
+     * pixels. Corners where the component only touches itself
+     * diagonally are passed without crossing, keeping the component's
+     * pixels 4-connected, so the border may touch itself there. Holes
+     * in the component are not traced.
+     * @return Corners of the border as pixel edge coordinates,
+     *     {@code [x0, y0, x1, y1, ...]}
+     */
+    public int[] trace(int label) {
+        final int x0 = startX[label - 1];
+        final int y0 = startY[label - 1];
+        int[] v = new int[16];
+        int n = 0;
+        // Walk with the component on the right, starting east along the
+        // top edge of the first pixel, which must be on the outer border
+        int x = x0;
+        int y = y0;
+        int d = 0;
+        do {
+            x += DX[d];
+            y += DY[d];
+            final int nd;
+            if(!isAhead(label, x, y, d, true))
+                nd = (d + 1) & 3;
+            else if(isAhead(label, x, y, d, false))
+                nd = (d + 3) & 3;
+            else
+                nd = d;
+            if(nd != d) {
+                if(n + 2 > v.length)
+                    v = Arrays.copyOf(v, 2 * v.length);
+                v[n++] = x;
+                v[n++] = y;
+                d = nd;
+            }
+        } while(x != x0 || y != y0);
+        return Arrays.copyOf(v, n);
+    }
+
+    // -- Helper methods --
+
+    /** Steps east, south, west, and north */
+    private static final int[] DX = {1, 0, -1, 0};
+    private static final int[] DY = {0, 1, 0, -1};
+
+    /**
+     * Is the pixel ahead of corner {@code (x,y)}, on the right or
+     * left when moving in direction {@code d}, in a component?
+     */
+    private boolean isAhead(int label, int x, int y, int d, boolean right) {
+        // Pixels at a corner: (x-1,y-1) (x,y-1) (x-1,y) (x,y)
+        final int side = right ? d + 1 : d + 3;
+        final int px = x + ((DX[d] + DX[side & 3]) >> 1);
+        final int py = y + ((DY[d] + DY[side & 3]) >> 1);
+        return getLabel(px, py) == label;
+    }
+
+    /** Label rows {@code [y0, y1)}, looking only at pixels in those rows */
+    private static void firstPass(int[] pixels, int width, int y0, int y1, Labeler u) {
+        for(int y = y0; y < y1; y++) {
+            int i = y * width;
+            for(int x = 0; x < width; x++, i++) {
+                if(pixels[i] == 0)
+                    continue;
+                final int up = y > y0 ? pixels[i - width] : 0;
+                final int left = x > 0 ? pixels[i - 1] : 0;
+                final int l;
+                if(up == 0 && left == 0)
+                    l = u.add(x, y);
+                else if(up == 0)
+                    l = left;
+                else {
+                    l = up;
+                    if(left != 0 && left != up)
+                        u.union(up, left);
+                }
+                pixels[i] = l;
+                u.area[l]++;
+            }
+        }
+    }
+
+    // -- Helper classes --
+
+    /**
+     * Union-find over labels {@code 1..count}, with the smallest label as
+     * the root, and the area and first pixel in column order of each label
+     */
+    private static final class Labeler {
+
+        private int[] parent;
+        private int[] area;
+        private int[] x0;
+        private int[] y0;
+        private int count;
+
+        Labeler(int count) {
+            final int size = Math.max(64, count + 1);
+            parent = new int[size];
+            area = new int[size];
+            x0 = new int[size];
+            y0 = new int[size];
+            this.count = count;
+        }
+
+        /** Add a label starting at pixel {@code (x,y)} */
+        int add(int x, int y) {
+            if(++count == parent.length) {
+                parent = Arrays.copyOf(parent, 2 * count);
+                area = Arrays.copyOf(area, 2 * count);
+                x0 = Arrays.copyOf(x0, 2 * count);
+                y0 = Arrays.copyOf(y0, 2 * count);
+            }
+            parent[count] = count;
+            x0[count] = x;
+            y0[count] = y;
+            return count;
+        }
+
+        int find(int l) {
+            while(parent[l] != l) {
+                parent[l] = parent[parent[l]];
+                l = parent[l];
+            }
+            return l;
+        }
+
+        void union(int a, int b) {
+            a = find(a);
+            b = find(b);
+            if(a < b)
+                parent[b] = a;
+            else if(b < a)
+                parent[a] = b;
+        }
+
+    }
+
+}
@@ -6,10 +6,8 @@ import net.imagej.overlay.AbstractOverlay;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.planar.PlanarImg;
 import net.imglib2.img.planar.PlanarImgFactory;
-import net.imglib2.iterator.IntervalIterator;
 import net.imagej.axis.Axes;
 import net.imagej.ImgPlus;
-import net.imglib2.roi.RegionOfInterest;
 import net.imglib2.type.numeric.integer.ByteType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import org.scijava.Context;
@@ -57,41 +55,21 @@ public class CreateMask extends SlideSetPlugin {
             dim[cAxis] = 1;
         PlanarImg<UnsignedByteType, ?> maskImg
                 = new PlanarImgFactory<UnsignedByteType>().create(dim, new UnsignedByteType(nil));
-        IntervalIterator ii;
         RandomAccess<UnsignedByteType> ra = maskImg.randomAccess();
-        double[] pos = new double[dim.length];
-        long[] min = new long[dim.length];
-        long[] max = new long[dim.length];
-        RegionOfInterest roi;
+        final long[] pos = new long[dim.length];
         for(AbstractOverlay ao : regions) {
-            roi = ao.getRegionOfInterest();
-            for(int i = 0; i < dim.length; i++) {
-                if(i == cAxis) {
-                    min[i] = 0;
-                    max[i] = 0;
-                    continue;
+            final RoiMask rm = RoiMask.of(ao).clip(dim);
+            for(int k = 0; k < rm.getRunCount(); k++) {
+                pos[0] = rm.getRunStart(k);
+                pos[1] = rm.getRunY(k);
+                ra.setPosition(pos);
+                for(int x = rm.getRunStart(k); x < rm.getRunEnd(k); x++) {
+                    ra.get().setInteger(255);
+                    ra.fwd(0);
                 }
-                min[i] = Math.round(Math.floor(roi.realMin(i)));
-                max[i] = Math.round(Math.ceil(roi.realMax(i)));
-            }
-            ii = new IntervalIterator(min, max);
-            while(ii.hasNext()) {
-                ii.fwd();
-                ii.localize(pos);
-                if(!roi.contains(pos) || !inBounds(pos, dim))
-                    continue;
-                ra.setPosition(ii);
-                ra.get().setInteger(255);
             }
         }
         mask = new DefaultDataset(context, new ImgPlus(maskImg, "mask"));
     }
-    
-    private boolean inBounds(double[] pos, long[] dims) {
-        for(int i = 0; i < pos.length; i++)
-            if(pos[i] >= dims[i])
-                return false;
-        return true;
-    }
-    
+
 }
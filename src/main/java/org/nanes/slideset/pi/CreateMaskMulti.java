@@ -8,8 +8,6 @@ import net.imagej.overlay.AbstractOverlay;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.planar.PlanarImg;
 import net.imglib2.img.planar.PlanarImgFactory;
-import net.imglib2.iterator.IntervalIterator;
-import net.imglib2.roi.RegionOfInterest;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import org.scijava.Context;
 import org.scijava.ItemIO;
@@ -63,43 +61,22 @@ public class CreateMaskMulti extends SlideSetPlugin {
             dim[cAxis] = 1;
         PlanarImg<UnsignedByteType, ?> maskImg
                 = new PlanarImgFactory<UnsignedByteType>().create(dim, new UnsignedByteType(nil));
-        IntervalIterator ii;
         RandomAccess<UnsignedByteType> ra = maskImg.randomAccess();
-        double[] pos = new double[dim.length];
-        long[] min = new long[dim.length];
-        long[] max = new long[dim.length];
-        RegionOfInterest roi;
+        final long[] pos = new long[dim.length];
         int nRegions = regions.length;
         for(int iRegion = 0; iRegion < nRegions; iRegion++) {
-            AbstractOverlay ao = regions[iRegion];
-            roi = ao.getRegionOfInterest();
-            for(int i = 0; i < dim.length; i++) {
-                if(i == cAxis) {
-                    min[i] = 0;
-                    max[i] = 0;
-                    continue;
+            final RoiMask rm = RoiMask.of(regions[iRegion]).clip(dim);
+            for(int k = 0; k < rm.getRunCount(); k++) {
+                pos[0] = rm.getRunStart(k);
+                pos[1] = rm.getRunY(k);
+                ra.setPosition(pos);
+                for(int x = rm.getRunStart(k); x < rm.getRunEnd(k); x++) {
+                    ra.get().setInteger(iRegion+1);
+                    ra.fwd(0);
                 }
-                min[i] = Math.round(Math.floor(roi.realMin(i)));
-                max[i] = Math.round(Math.ceil(roi.realMax(i)));
-            }
-            ii = new IntervalIterator(min, max);
-            while(ii.hasNext()) {
-                ii.fwd();
-                ii.localize(pos);
-                if(!roi.contains(pos) || !inBounds(pos, dim))
-                    continue;
-                ra.setPosition(ii);
-                ra.get().setInteger(iRegion+1);
             }
         }
         mask = new DefaultDataset(context, new ImgPlus(maskImg, "mask"));
     }
-    
-    private boolean inBounds(double[] pos, long[] dims) {
-        for(int i = 0; i < pos.length; i++)
-            if(pos[i] >= dims[i])
-                return false;
-        return true;
-    }
-    
+
 }
@@ -2,8 +2,6 @@ package org.nanes.slideset.pi;
 
 import net.imagej.overlay.AbstractOverlay;
 import java.util.ArrayList;
-import net.imglib2.iterator.IntervalIterator;
-import net.imglib2.roi.RegionOfInterest;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -43,38 +41,13 @@ public class FilterRegions extends SlideSetPlugin {
             return;
         }
         keep = new ArrayList<AbstractOverlay>();
+        final ArrayList<RoiMask> masks = new ArrayList<RoiMask>(mask.length);
+        for(AbstractOverlay m : mask)
+            masks.add(RoiMask.of(m));
+        final RoiMask included = RoiMask.union(masks);
         for(AbstractOverlay ao : regions) {
-            RegionOfInterest roi = ao.getRegionOfInterest();
-            int nDims = roi.numDimensions();
-            double[] minD = new double[nDims];
-            long[] min = new long[nDims];
-            double[] maxD = new double[nDims];
-            long[] max = new long[nDims];
-            double[] pos = new double[nDims];
-            roi.realMin(minD);
-            roi.realMax(maxD);
-            for(int i = 0; i < nDims; i++) {
-                min[i] = Math.round(Math.floor(minD[i]));
-                max[i] = Math.round(Math.ceil(maxD[i]));
-            }
-            IntervalIterator ii = new IntervalIterator(min, max);
-            boolean included = false;
-            while(ii.hasNext()) {
-                ii.fwd();
-                ii.localize(pos);
-                if(!roi.contains(pos))
-                    continue;
-                included = false;
-                for(AbstractOverlay m : mask ) {
-                    if(m.getRegionOfInterest().contains(pos)) {
-                        included = true;
-                        break;
-                    }
-                }
-                if(!included)
-                    break;
-            }
-            if(included)
+            final RoiMask rm = RoiMask.of(ao);
+            if(!rm.isEmpty() && included.containsAll(rm))
                 keep.add(ao);
         }
         filtered = keep.toArray(new AbstractOverlay[0]);
@@ -0,0 +1,213 @@
+package org.nanes.slideset.pi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Regions of interest stored as a label image, where each pixel holds
+ * the number of the region it belongs to, or {@code 0} for background.
+ * The {@link RoiMask} of every region is found in one pass over the
+ * image. The outline of a region, as loops along the edges of its
+ * pixels, is traced only when it is first requested, in time
+ * proportional to the region's area.
+ * <p> Pixel {@code (x,y)} covers the square from {@code (x,y)} to
+ * {@code (x+1,y+1)}. A path through the outline loops, filled with the
+ * non-zero winding rule, contains the point {@code (x,y)} by the Java 2D
+ * rules for points on a border exactly when the pixel is in the region,
+ * so the outline and the mask describe the same points.
+ *
+ * @author Benjamin Nanes
+ */
+public final class LabelImage {
+
+    // -- Fields --
+
+    private final int[] labels;
+    private final int width;
+    private final int height;
+
+    /** Label of each region, in increasing order */
+    private final int[] values;
+    private final RoiMask[] masks;
+    private final List<int[]>[] outlines;
+
+    /** Pixels whose top edge has been traced */
+    private final BitSet traced;
+
+    @SuppressWarnings("unchecked")
+    private LabelImage(int[] labels, int width, int height, int[] values, RoiMask[] masks) {
+        this.labels = labels;
+        this.width = width;
+        this.height = height;
+        this.values = values;
+        this.masks = masks;
+        outlines = new List[values.length];
+        traced = new BitSet(labels.length);
+    }
+
+    // -- Methods --
+
+    /**
+     * Find the regions in a label image
+     * @param labels Label of each pixel in row order, {@code 0} for
+     *     background. The array is kept, and should not be changed.
+     * @param width Width of the image
+     * @param height Height of the image
+     */
+    public static LabelImage of(int[] labels, int width, int height) {
+        if(labels == null || width < 0 || height < 0 || (long) width * height != labels.length)
+            throw new IllegalArgumentException("Image size does not match the number of pixels");
+        // Runs of pixels with the same label, as (y, start x, end x, label)
+        int[] runs = new int[64];
+        int nRuns = 0;
+        for(int y = 0; y < height; y++) {
+            int i = y * width;
+            int x = 0;
+            while(x < width) {
+                final int l = labels[i];
+                final int x0 = x;
+                do {
+                    x++;
+                    i++;
+                } while(x < width && labels[i] == l);
+                if(l == 0)
+                    continue;
+                if(4 * nRuns + 4 > runs.length)
+                    runs = Arrays.copyOf(runs, 2 * runs.length);
+                runs[4 * nRuns] = y;
+                runs[4 * nRuns + 1] = x0;
+                runs[4 * nRuns + 2] = x;
+                runs[4 * nRuns + 3] = l;
+                nRuns++;
+            }
+        }
+        // Distinct labels, and the runs of each
+        final int[] sorted = new int[nRuns];
+        for(int k = 0; k < nRuns; k++)
+            sorted[k] = runs[4 * k + 3];
+        Arrays.sort(sorted);
+        int n = 0;
+        for(int k = 0; k < nRuns; k++) {
+            if(n == 0 || sorted[k] != sorted[n - 1])
+                sorted[n++] = sorted[k];
+        }
+        final int[] values = Arrays.copyOf(sorted, n);
+        final int[] index = new int[nRuns];
+        final int[] starts = new int[n + 1];
+        for(int k = 0; k < nRuns; k++) {
+            index[k] = Arrays.binarySearch(values, runs[4 * k + 3]);
+            starts[index[k] + 1]++;
+        }
+        for(int j = 0; j < n; j++)
+            starts[j + 1] += starts[j];
+        final int[] grouped = new int[3 * nRuns];
+        final int[] next = Arrays.copyOf(starts, n);
+        for(int k = 0; k < nRuns; k++) {
+            final int g = next[index[k]]++;
+            grouped[3 * g] = runs[4 * k];
+            grouped[3 * g + 1] = runs[4 * k + 1];
+            grouped[3 * g + 2] = runs[4 * k + 2];
+        }
+        final RoiMask[] masks = new RoiMask[n];
+        for(int j = 0; j < n; j++) {
+            masks[j] = RoiMask.ofRuns(
+                    Arrays.copyOfRange(grouped, 3 * starts[j], 3 * starts[j + 1]),
+                    starts[j + 1] - starts[j]);
+        }
+        return new LabelImage(labels, width, height, values, masks);
+    }
+
+    /** Get the number of regions */
+    public int getCount() {
+        return values.length;
+    }
+
+    /** Get the label of region {@code k} */
+    public int getLabel(int k) {
+        return values[k];
+    }
+
+    /** Get the mask of region {@code k} */
+    public RoiMask getMask(int k) {
+        return masks[k];
+    }
+
+    /**
+     * Get the outline of region {@code k}: one loop for the outer border
+     * of each connected part, and one for each hole. Each loop keeps the
+     * region on its right, so holes wind the opposite way from outer
+     * borders. Where the region touches itself only diagonally, the
+     * loops pass the corner without crossing.
+     * @return Loops of corners along the pixel edges, each as
+     *     {@code [x0, y0, x1, y1, ...]}
+     */
+    public synchronized List<int[]> getOutline(int k) {
+        if(outlines[k] != null)
+            return outlines[k];
+        final List<int[]> loops = new ArrayList<int[]>();
+        final RoiMask m = masks[k];
+        final int l = values[k];
+        for(int r = 0; r < m.getRunCount(); r++) {
+            final int y = m.getRunY(r);
+            for(int x = m.getRunStart(r); x < m.getRunEnd(r); x++) {
+                if(get(x, y - 1) != l && !traced.get(y * width + x))
+                    loops.add(trace(l, x, y));
+            }
+        }
+        outlines[k] = loops;
+        return loops;
+    }
+
+    // -- Helper methods --
+
+    /** Steps east, south, west, and north */
+    private static final int[] DX = {1, 0, -1, 0};
+    private static final int[] DY = {0, 1, 0, -1};
+
+    private int get(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height)
+            return 0;
+        return labels[y * width + x];
+    }
+
+    /**
+     * Trace a loop with label {@code l} on the right, starting east
+     * along the top edge of pixel {@code (x0,y0)}
+     */
+    private int[] trace(int l, int x0, int y0) {
+        int[] v = new int[16];
+        int n = 0;
+        int x = x0;
+        int y = y0;
+        int d = 0;
+        do {
+            if(d == 0)
+                traced.set(y * width + x);
+            x += DX[d];
+            y += DY[d];
+            // Pixels ahead of the corner, on the right and left
+            final int rx = x + ((DX[d] + DX[(d + 1) & 3]) >> 1);
+            final int ry = y + ((DY[d] + DY[(d + 1) & 3]) >> 1);
+            final int lx = x + ((DX[d] + DX[(d + 3) & 3]) >> 1);
+            final int ly = y + ((DY[d] + DY[(d + 3) & 3]) >> 1);
+            final int nd;
+            if(get(rx, ry) != l)
+                nd = (d + 1) & 3;
+            else if(get(lx, ly) == l)
+                nd = (d + 3) & 3;
+            else
+                nd = d;
+            if(nd != d) {
+                if(n + 2 > v.length)
+                    v = Arrays.copyOf(v, 2 * v.length);
+                v[n++] = x;
+                v[n++] = y;
+                d = nd;
+            }
+        } while(x != x0 || y != y0 || d != 0);
+        return Arrays.copyOf(v, n);
+    }
+
+}
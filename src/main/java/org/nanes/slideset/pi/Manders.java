@@ -6,7 +6,6 @@ import java.util.Arrays;
 import net.imglib2.RandomAccess;
 import net.imglib2.iterator.IntervalIterator;
 import net.imagej.axis.Axes;
-import net.imglib2.roi.RegionOfInterest;
 import net.imglib2.type.numeric.RealType;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
@@ -24,6 +23,7 @@ import org.scijava.plugin.Plugin;
  * 
  * @author Benjamin Nanes
  */
+@RoiBounded
 @HelpPath(path = "plugins/manders.html")
 @Plugin(type=SlideSetPlugin.class,
         label="Manders' Coloc. Coefficients", visible = false,
@@ -80,14 +80,12 @@ public final class Manders extends SlideSetPlugin implements MultipleResults {
                        + String.valueOf(nc) + ", but " 
                        + String.valueOf(Math.max(c1, c2)) 
                        + " are required based on your input.");
-          final RegionOfInterest[] roi2 = new RegionOfInterest[n];
-          for(int i=0; i<n; i++)
-               if(roi[i] != null)
-                    roi2[i] = roi[i].getRegionOfInterest();
+          final RoiLabels labels = RoiLabels.of(roi, dims);
+          dims[0] = 1;
+          dims[1] = 1;
           dims[cAxis] = 1;
-          final IntervalIterator ii = new IntervalIterator(dims);
-          final long[] pos = new long[ii.numDimensions()];
-          final double[] posD = new double[ii.numDimensions()];
+          final IntervalIterator planes = new IntervalIterator(dims);
+          final long[] pos = new long[dims.length];
           final RandomAccess<? extends RealType<?>> ra = ds.randomAccess();
           final float[] col1 = new float[n];
           final float[] tot1 = new float[n];
@@ -97,26 +95,30 @@ public final class Manders extends SlideSetPlugin implements MultipleResults {
           Arrays.fill(tot1, 0);
           Arrays.fill(col2, 0);
           Arrays.fill(tot2, 0);
-          while(ii.hasNext()) {
-               ii.fwd();
-               ii.localize(pos);
-               for(int i=0; i<n; i++) {
-                    for(int j=0; j<pos.length; j++)
-                         posD[j] = pos[j];
-                    if(roi2[i] != null && roi2[i].contains(posD)) {
-                         ra.setPosition(pos);
+          while(planes.hasNext()) {
+               planes.fwd();
+               planes.localize(pos);
+               for(int k = 0; k < labels.getSegmentCount(); k++) {
+                    final int[] in = labels.getLabels(k);
+                    pos[0] = labels.getSegmentStart(k);
+                    pos[1] = labels.getSegmentY(k);
+                    ra.setPosition(pos);
+                    for(int x = labels.getSegmentStart(k); x < labels.getSegmentEnd(k); x++) {
                          ra.setPosition(c1, cAxis);
                          final float p1 = ra.get().getRealFloat();
                          ra.setPosition(c2, cAxis);
                          final float p2 = ra.get().getRealFloat();
-                         if(p1 > t1 && p2 > t2) {
-                              col1[i] += w ? Math.max(p1 - t1, 0) : 1;
-                              col2[i] += w ? Math.max(p2 - t2, 0) : 1;
+                         for(int i : in) {
+                              if(p1 > t1 && p2 > t2) {
+                                   col1[i] += w ? Math.max(p1 - t1, 0) : 1;
+                                   col2[i] += w ? Math.max(p2 - t2, 0) : 1;
+                              }
+                              if(p1 > t1)
+                                   tot1[i] += w ? Math.max(p1 - t1, 0) : 1;
+                              if(p2 > t2)
+                                   tot2[i] += w ? Math.max(p2 - t2, 0) : 1;
                          }
-                         if(p1 > t1)
-                              tot1[i] += w ? Math.max(p1 - t1, 0) : 1;
-                         if(p2 > t2)
-                              tot2[i] += w ? Math.max(p2 - t2, 0) : 1;
+                         ra.fwd(0);
                     }
                }
           }
@@ -2,7 +2,6 @@ package org.nanes.slideset.pi;
 
 import java.util.Arrays;
 import net.imagej.overlay.AbstractOverlay;
-import net.imglib2.iterator.IntervalIterator;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -83,20 +82,13 @@ public class ROIOverlap extends SlideSetPlugin implements MultipleResults {
             roib[i].realMax(maxDB);
             for(int q = 0; q < minDA.length; q++) {
                 min[q] = Math.round(Math.floor(Math.min(minDA[q], minDB[q])));
-                max[q] = Math.round(Math.ceil(Math.max(maxDA[q], minDB[q])));
-            }
-            IntervalIterator ii = new IntervalIterator(min, max);
-            ii.reset();
-            double[] pos = new double[ii.numDimensions()];
-            while(ii.hasNext()) {
-                ii.fwd();
-                ii.localize(pos);
-                boolean ina = roia[i].getRegionOfInterest().contains(pos);
-                boolean inb = roib[i].getRegionOfInterest().contains(pos);
-                if(ina && inb) overlap[i]++;
-                else if(ina) aoutb[i]++;
-                else if(inb) bouta[i]++;
+                max[q] = Math.round(Math.ceil(Math.max(maxDA[q], maxDB[q])));
             }
+            final RoiMask a = RoiMask.of(roia[i]).clip(min, max);
+            final RoiMask b = RoiMask.of(roib[i]).clip(min, max);
+            overlap[i] = a.intersectionArea(b);
+            aoutb[i] = a.getArea() - overlap[i];
+            bouta[i] = b.getArea() - overlap[i];
         }
     }
 }
@@ -0,0 +1,312 @@
+package org.nanes.slideset.pi;
+
+import java.util.Arrays;
+import net.imagej.overlay.AbstractOverlay;
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Count overlapping pixels between every region in one set of ROIs and
+ * every region in another.
+ * <p> <b>Inputs</b>
+ * <ul>
+ * <li> {@code roia} - ROI set A
+ * <li> {@code roib} - ROI set B
+ * </ul>
+ * <b>Results</b>
+ * <ul>
+ * <li> {@code ia}, {@code ib} - Index of the regions in A and B
+ * <li> {@code overlap} - Number of pixels in both regions
+ * <li> {@code iou} - Overlap divided by the number of pixels in either region
+ * <li> {@code ainb} - Fraction of the region in A within the region in B
+ * <li> {@code bina} - Fraction of the region in B within the region in A
+ * </ul>
+ * <b>Notes</b>
+ * <p> Only pairs that overlap are listed. The bounding boxes of the
+ * regions in B are placed on a uniform grid, so each region in A is
+ * compared only with regions in B whose boxes share a grid cell.
+ *
+ * @author Benjamin Nanes
+ */
+@HelpPath(path = "plugins/regionoverlap.html#matrix")
+@Plugin( type=SlideSetPlugin.class,
+     name="Region Overlap Matrix",
+     label="Region Overlap Matrix", visible = false,
+     menuPath="Plugins > Slide Set > Commands > Segmentation > Region Overlap Matrix")
+public class ROIOverlapMatrix extends SlideSetPlugin implements MultipleResults {
+
+    // -- Parameters --
+
+    @Parameter(label = "Region A", type = ItemIO.INPUT)
+    private AbstractOverlay[] roia;
+
+    @Parameter(label = "Region B", type = ItemIO.INPUT)
+    private AbstractOverlay[] roib;
+
+    @Parameter(label = "Region A Index", type = ItemIO.OUTPUT)
+    private int[] ia;
+
+    @Parameter(label = "Region B Index", type = ItemIO.OUTPUT)
+    private int[] ib;
+
+    @Parameter(label = "Overlap", type = ItemIO.OUTPUT)
+    private double[] overlap;
+
+    @Parameter(label = "Intersection over Union", type = ItemIO.OUTPUT)
+    private double[] iou;
+
+    @Parameter(label = "Fraction of A in B", type = ItemIO.OUTPUT)
+    private double[] ainb;
+
+    @Parameter(label = "Fraction of B in A", type = ItemIO.OUTPUT)
+    private double[] bina;
+
+    // -- Other fields --
+
+    /** Regions in B spanning more grid cells than this on a side are checked against every region in A */
+    private static final int MAX_SPAN = 8;
+
+    // -- Run method --
+
+    public void run() {
+        int n = 0;
+        int[] pi = new int[16];
+        int[] pj = new int[16];
+        long[] po = new long[16];
+        RoiMask[] a = new RoiMask[0];
+        RoiMask[] b = new RoiMask[0];
+        if(roia != null && roib != null && roia.length > 0 && roib.length > 0) {
+            a = masks(roia);
+            b = masks(roib);
+            final int[][] boxA = bounds(a);
+            final int[][] boxB = bounds(b);
+            // Grid cells about the size of a typical region in B
+            double size = 0;
+            int nb = 0;
+            for(int[] box : boxB) {
+                if(box == null)
+                    continue;
+                size += Math.max(box[2] - box[0], box[3] - box[1]) + 1;
+                nb++;
+            }
+            final int cell = nb == 0 ? 1 : (int) Math.max(1, Math.ceil(size / nb));
+            final Grid grid = new Grid(boxB, cell);
+            // Compare each region in A with regions in B sharing a cell
+            final int[] seen = new int[b.length];
+            Arrays.fill(seen, -1);
+            final int[] found = new int[b.length];
+            for(int i = 0; i < a.length; i++) {
+                final int[] box = boxA[i];
+                if(box == null)
+                    continue;
+                int nf = 0;
+                for(int k = 0; k < grid.nLarge; k++) {
+                    final int j = grid.large[k];
+                    seen[j] = i;
+                    found[nf++] = j;
+                }
+                for(int cy = Math.floorDiv(box[1], cell); cy <= Math.floorDiv(box[3], cell); cy++) {
+                    for(int cx = Math.floorDiv(box[0], cell); cx <= Math.floorDiv(box[2], cell); cx++) {
+                        final int c = grid.find(cx, cy);
+                        if(c < 0)
+                            continue;
+                        for(int k = grid.starts[c]; k < grid.starts[c + 1]; k++) {
+                            final int j = grid.ids[k];
+                            if(seen[j] == i)
+                                continue;
+                            seen[j] = i;
+                            found[nf++] = j;
+                        }
+                    }
+                }
+                Arrays.sort(found, 0, nf);
+                for(int k = 0; k < nf; k++) {
+                    final int j = found[k];
+                    final int[] other = boxB[j];
+                    if(other[0] > box[2] || other[2] < box[0] || other[1] > box[3] || other[3] < box[1])
+                        continue;
+                    final long o = a[i].intersectionArea(b[j]);
+                    if(o == 0)
+                        continue;
+                    if(n == pi.length) {
+                        pi = Arrays.copyOf(pi, 2 * n);
+                        pj = Arrays.copyOf(pj, 2 * n);
+                        po = Arrays.copyOf(po, 2 * n);
+                    }
+                    pi[n] = i;
+                    pj[n] = j;
+                    po[n] = o;
+                    n++;
+                }
+            }
+        }
+        ia = Arrays.copyOf(pi, n);
+        ib = Arrays.copyOf(pj, n);
+        overlap = new double[n];
+        iou = new double[n];
+        ainb = new double[n];
+        bina = new double[n];
+        for(int k = 0; k < n; k++) {
+            final double o = po[k];
+            final double sa = a[ia[k]].getArea();
+            final double sb = b[ib[k]].getArea();
+            overlap[k] = o;
+            iou[k] = o / (sa + sb - o);
+            ainb[k] = o / sa;
+            bina[k] = o / sb;
+        }
+    }
+
+    // -- Helper methods --
+
+    /** Get the mask of each ROI, or {@code null} for ROIs without area */
+    private static RoiMask[] masks(AbstractOverlay[] rois) {
+        final RoiMask[] m = new RoiMask[rois.length];
+        for(int i = 0; i < rois.length; i++) {
+            if(rois[i] == null)
+                continue;
+            final RoiMask r = RoiMask.of(rois[i]);
+            if(!r.isEmpty())
+                m[i] = r;
+        }
+        return m;
+    }
+
+    /** Get the bounding box of each mask, as {@code [x0, y0, x1, y1]} with the ends included */
+    private static int[][] bounds(RoiMask[] masks) {
+        final int[][] b = new int[masks.length][];
+        for(int i = 0; i < masks.length; i++) {
+            final RoiMask m = masks[i];
+            if(m == null)
+                continue;
+            int x0 = Integer.MAX_VALUE;
+            int x1 = Integer.MIN_VALUE;
+            for(int k = 0; k < m.getRunCount(); k++) {
+                x0 = Math.min(x0, m.getRunStart(k));
+                x1 = Math.max(x1, m.getRunEnd(k) - 1);
+            }
+            b[i] = new int[] {x0, m.getRunY(0), x1, m.getRunY(m.getRunCount() - 1)};
+        }
+        return b;
+    }
+
+    // -- Helper classes --
+
+    /**
+     * Uniform grid over bounding boxes, with the boxes in each occupied
+     * cell listed together. Occupied cells are found in an
+     * open-addressing hash table keyed by cell position.
+     */
+    private static final class Grid {
+
+        /** Cell position of each slot in the table, for slots that are in use */
+        private final long[] keys;
+        private final boolean[] used;
+        /** Cell number of each slot in use */
+        private final int[] cells;
+        private final int mask;
+
+        /** Boxes in cell {@code c} are {@code ids[starts[c]]} to {@code ids[starts[c + 1] - 1]} */
+        final int[] starts;
+        final int[] ids;
+
+        /** Boxes spanning too many cells to place on the grid */
+        final int[] large;
+        final int nLarge;
+
+        Grid(int[][] boxes, int cell) {
+            // Count the cells each box covers
+            final int[] large = new int[boxes.length];
+            int nLarge = 0;
+            long entries = 0;
+            for(int j = 0; j < boxes.length; j++) {
+                final int[] box = boxes[j];
+                if(box == null)
+                    continue;
+                final long w = Math.floorDiv(box[2], cell) - Math.floorDiv(box[0], cell) + 1;
+                final long h = Math.floorDiv(box[3], cell) - Math.floorDiv(box[1], cell) + 1;
+                if(w > MAX_SPAN || h > MAX_SPAN)
+                    large[nLarge++] = j;
+                else
+                    entries += w * h;
+            }
+            this.large = large;
+            this.nLarge = nLarge;
+            int size = 16;
+            while(size < 2 * entries)
+                size *= 2;
+            keys = new long[size];
+            used = new boolean[size];
+            cells = new int[size];
+            mask = size - 1;
+            // Number the occupied cells and count the boxes in each
+            int[] counts = new int[16];
+            int nCells = 0;
+            for(int j = 0; j < boxes.length; j++) {
+                if(!onGrid(boxes[j], cell))
+                    continue;
+                final int[] box = boxes[j];
+                for(int cy = Math.floorDiv(box[1], cell); cy <= Math.floorDiv(box[3], cell); cy++) {
+                    for(int cx = Math.floorDiv(box[0], cell); cx <= Math.floorDiv(box[2], cell); cx++) {
+                        final long key = key(cx, cy);
+                        int slot = slot(key);
+                        while(used[slot] && keys[slot] != key)
+                            slot = (slot + 1) & mask;
+                        if(!used[slot]) {
+                            used[slot] = true;
+                            keys[slot] = key;
+                            cells[slot] = nCells++;
+                            if(nCells == counts.length)
+                                counts = Arrays.copyOf(counts, 2 * nCells);
+                        }
+                        counts[cells[slot]]++;
+                    }
+                }
+            }
+            starts = new int[nCells + 1];
+            for(int c = 0; c < nCells; c++)
+                starts[c + 1] = starts[c] + counts[c];
+            ids = new int[starts[nCells]];
+            final int[] next = Arrays.copyOf(starts, nCells);
+            for(int j = 0; j < boxes.length; j++) {
+                if(!onGrid(boxes[j], cell))
+                    continue;
+                final int[] box = boxes[j];
+                for(int cy = Math.floorDiv(box[1], cell); cy <= Math.floorDiv(box[3], cell); cy++) {
+                    for(int cx = Math.floorDiv(box[0], cell); cx <= Math.floorDiv(box[2], cell); cx++)
+                        ids[next[find(cx, cy)]++] = j;
+                }
+            }
+        }
+
+        /** Get the number of a cell, or {@code -1} if no boxes are in it */
+        int find(int cx, int cy) {
+            final long key = key(cx, cy);
+            int slot = slot(key);
+            while(used[slot]) {
+                if(keys[slot] == key)
+                    return cells[slot];
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static boolean onGrid(int[] box, int cell) {
+            return box != null
+                    && Math.floorDiv(box[2], cell) - Math.floorDiv(box[0], cell) < MAX_SPAN
+                    && Math.floorDiv(box[3], cell) - Math.floorDiv(box[1], cell) < MAX_SPAN;
+        }
+
+        private int slot(long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
+        }
+
+        private static long key(int cx, int cy) {
+            return ((long) cx << 32) | (cy & 0xffffffffL);
+        }
+
+    }
+
+}
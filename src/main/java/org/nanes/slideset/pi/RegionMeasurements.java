@@ -0,0 +1,268 @@
+package org.nanes.slideset.pi;
+
+import java.util.Arrays;
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Statistics of pixel values within a set of regions, for each image
+ * channel. Values are added one at a time into primitive arrays, which
+ * hold the count, sum, minimum, maximum, and running mean and variance
+ * (Welford's method) for each region and channel.
+ * <p> Percentiles come from a histogram for each region and channel.
+ * The histogram starts with narrow bins (one unit wide for integer
+ * images) and widens them as needed to hold the range of values, so
+ * percentiles of integer values are exact if the values span no more
+ * levels than there are bins, and otherwise are interpolated within a bin.
+ * <p> {@link #measure(Dataset, RoiMask[], ValueFilter)} reads each pixel
+ * in a set of {@link RoiMask}s once and adds its value on every channel.
+ *
+ * @author Benjamin Nanes
+ */
+public final class RegionMeasurements {
+
+    // -- Fields --
+
+    private final int nChannels;
+    private final int bins;
+    private final boolean integer;
+    private final long[] count;
+    private final double[] sum;
+    private final double[] mean;
+    private final double[] m2;
+    private final double[] min;
+    private final double[] max;
+    /** Histograms, created when a region and channel gets its first value */
+    private final int[][] hist;
+    private final double[] histOrigin;
+    private final double[] histWidth;
+
+    /**
+     * @param nRegions Number of regions
+     * @param nChannels Number of channels
+     * @param bins Number of histogram bins for percentiles, or 0 to skip them
+     * @param integer Whether the values are integers
+     */
+    public RegionMeasurements(int nRegions, int nChannels, int bins, boolean integer) {
+        this.nChannels = nChannels;
+        this.bins = bins;
+        this.integer = integer;
+        final int n = nRegions * nChannels;
+        count = new long[n];
+        sum = new double[n];
+        mean = new double[n];
+        m2 = new double[n];
+        min = new double[n];
+        max = new double[n];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        hist = bins > 0 ? new int[n][] : null;
+        histOrigin = bins > 0 ? new double[n] : null;
+        histWidth = bins > 0 ? new double[n] : null;
+    }
+
+    // -- Methods --
+
+    /**
+     * Read the pixels in each region, adding their values on every channel.
+     * The masks should already be clipped to the image.
+     * @param ds The image
+     * @param masks Mask of each region, or {@code null} to skip a region
+     * @param filter Filter for pixel values, or {@code null} to add all values as they are
+     */
+    public void measure(Dataset ds, RoiMask[] masks, ValueFilter filter) {
+        final int cAxis = ds.dimensionIndex(Axes.CHANNEL);
+        final long[] pos = new long[ds.numDimensions()];
+        final RandomAccess<? extends RealType<?>> ra = ds.randomAccess();
+        for(int i = 0; i < masks.length; i++) {
+            final RoiMask mask = masks[i];
+            if(mask == null)
+                continue;
+            for(int k = 0; k < mask.getRunCount(); k++) {
+                final int x0 = mask.getRunStart(k);
+                final int x1 = mask.getRunEnd(k);
+                pos[0] = x0;
+                pos[1] = mask.getRunY(k);
+                for(int c = 0; c < nChannels; c++) {
+                    if(cAxis >= 0)
+                        pos[cAxis] = c;
+                    ra.setPosition(pos);
+                    for(int x = x0; x < x1; x++) {
+                        final double v = ra.get().getRealDouble();
+                        if(filter == null)
+                            add(i, c, v);
+                        else if(filter.include(c, v))
+                            add(i, c, filter.value(c, v));
+                        ra.fwd(0);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Add a value to a region and channel */
+    public void add(int region, int channel, double v) {
+        final int k = region * nChannels + channel;
+        final long n = ++count[k];
+        sum[k] += v;
+        final double d = v - mean[k];
+        mean[k] += d / n;
+        m2[k] += d * (v - mean[k]);
+        if(v < min[k])
+            min[k] = v;
+        if(v > max[k])
+            max[k] = v;
+        if(bins > 0 && !Double.isNaN(v) && !Double.isInfinite(v))
+            addToHistogram(k, v);
+    }
+
+    /** Get the number of values added */
+    public long getCount(int region, int channel) {
+        return count[region * nChannels + channel];
+    }
+
+    /** Get the sum of the values */
+    public double getSum(int region, int channel) {
+        return sum[region * nChannels + channel];
+    }
+
+    /** Get the mean of the values, or {@code NaN} if there are none */
+    public double getMean(int region, int channel) {
+        final int k = region * nChannels + channel;
+        return count[k] == 0 ? Double.NaN : sum[k] / count[k];
+    }
+
+    /** Get the smallest value, or {@code NaN} if there are none */
+    public double getMin(int region, int channel) {
+        final int k = region * nChannels + channel;
+        return count[k] == 0 ? Double.NaN : min[k];
+    }
+
+    /** Get the largest value, or {@code NaN} if there are none */
+    public double getMax(int region, int channel) {
+        final int k = region * nChannels + channel;
+        return count[k] == 0 ? Double.NaN : max[k];
+    }
+
+    /** Get the sample variance, 0 for one value, or {@code NaN} if there are none */
+    public double getVariance(int region, int channel) {
+        final int k = region * nChannels + channel;
+        if(count[k] == 0)
+            return Double.NaN;
+        return count[k] == 1 ? 0 : m2[k] / (count[k] - 1);
+    }
+
+    /**
+     * Get a percentile of the values, by the nearest-rank method
+     * @param p The percentile, from 0 to 100
+     * @return The value, or {@code NaN} if there are no values or
+     *     percentiles were not kept
+     */
+    public double getPercentile(int region, int channel, double p) {
+        final int k = region * nChannels + channel;
+        if(bins == 0 || hist[k] == null)
+            return Double.NaN;
+        final int[] h = hist[k];
+        long total = 0;
+        for(int j = 0; j < bins; j++)
+            total += h[j];
+        final long r = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, p)) / 100 * total));
+        long below = 0;
+        for(int j = 0; j < bins; j++) {
+            if(below + h[j] >= r) {
+                final double lo = histOrigin[k] + j * histWidth[k];
+                if(integer && histWidth[k] == 1)
+                    return lo;
+                final double v = lo + histWidth[k] * (r - below - 0.5) / h[j];
+                return Math.max(min[k], Math.min(max[k], v));
+            }
+            below += h[j];
+        }
+        return max[k];
+    }
+
+    /**
+     * Get a filter that subtracts a threshold from each value on
+     * each channel, counting values past the threshold as 0
+     * @param t Threshold for each channel
+     * @param inv If {@code true}, measure values below the threshold instead of above it
+     * @param round If {@code true}, round each value to the nearest integer
+     */
+    public static ValueFilter thresholdFilter(final double[] t, final boolean inv, final boolean round) {
+        return new ValueFilter() {
+            @Override
+            public boolean include(int channel, double value) {
+                return true;
+            }
+            @Override
+            public double value(int channel, double value) {
+                final double d = inv ? Math.min(value - t[channel], 0) : Math.max(value - t[channel], 0);
+                final double r = round ? Math.round(d) : d;
+                return inv ? -r : r;
+            }
+        };
+    }
+
+    // -- Helper methods --
+
+    private void addToHistogram(int k, double v) {
+        if(hist[k] == null) {
+            hist[k] = new int[bins];
+            histWidth[k] = integer ? 1 : Math.ulp(v);
+            histOrigin[k] = Math.floor(v / histWidth[k]) * histWidth[k];
+        }
+        if(v < histOrigin[k] || v >= histOrigin[k] + bins * histWidth[k])
+            regrid(k, v);
+        final int j = (int) ((v - histOrigin[k]) / histWidth[k]);
+        hist[k][Math.min(bins - 1, j)]++;
+    }
+
+    /**
+     * Move a histogram to cover its bins and a new value, with the same
+     * bin width if possible, or else with the bin width doubled as
+     * many times as needed. Extra room is split between both ends.
+     */
+    private void regrid(int k, double v) {
+        final int[] h = hist[k];
+        final double o = histOrigin[k];
+        final double w = histWidth[k];
+        double lo = v;
+        double hi = v;
+        for(int j = 0; j < bins; j++) {
+            if(h[j] != 0) {
+                lo = Math.min(lo, o + j * w);
+                hi = Math.max(hi, o + j * w);
+            }
+        }
+        double w2 = w / 2;
+        double o2;
+        do {
+            w2 *= 2;
+            final double pad = (bins * w2 - (hi - lo)) / 2;
+            o2 = Math.floor((lo - Math.max(0, pad)) / w2) * w2;
+        } while(lo < o2 || hi >= o2 + bins * w2);
+        final int[] h2 = new int[bins];
+        for(int j = 0; j < bins; j++)
+            if(h[j] != 0)
+                h2[(int) ((o + j * w - o2) / w2)] += h[j];
+        hist[k] = h2;
+        histOrigin[k] = o2;
+        histWidth[k] = w2;
+    }
+
+    // -- Helper classes --
+
+    /** Filter applied to pixel values before they are measured */
+    public interface ValueFilter {
+
+        /** Check if a value on a channel should be measured */
+        boolean include(int channel, double value);
+
+        /** Get the value to measure for a pixel value on a channel */
+        double value(int channel, double value);
+
+    }
+
+}
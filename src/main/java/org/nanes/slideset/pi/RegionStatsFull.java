@@ -0,0 +1,125 @@
+package org.nanes.slideset.pi;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.overlay.AbstractOverlay;
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Measure pixel value statistics for every channel
+ * within regions of interest, reading each pixel once.
+ *
+ * @author Benjamin Nanes
+ */
+@RoiBounded
+@HelpPath(path = "plugins/regions.html#full")
+@Plugin(type=SlideSetPlugin.class,
+        label="Region Stats (full)", visible = false,
+        menuPath = "Plugins > Slide Set > Commands > Regions > Region Stats (full)")
+public class RegionStatsFull extends SlideSetPlugin implements MultipleResults {
+
+    @Parameter(label = "Image", type = ItemIO.INPUT)
+    private Dataset ds;
+
+    @Parameter(label = "Region of Interest", type = ItemIO.INPUT)
+    private AbstractOverlay[] roi;
+
+    @Parameter(label = "Lower Percentile", type = ItemIO.INPUT)
+    private double pLow;
+
+    @Parameter(label = "Upper Percentile", type = ItemIO.INPUT)
+    private double pHigh;
+
+    @Parameter(label = "Channel", type = ItemIO.OUTPUT)
+    private int chans[];
+
+    @Parameter(label = "Area", type = ItemIO.OUTPUT)
+    private double size[];
+
+    @Parameter(label = "Sum", type = ItemIO.OUTPUT)
+    private double sums[];
+
+    @Parameter(label = "Mean", type = ItemIO.OUTPUT)
+    private double means[];
+
+    @Parameter(label = "Min", type = ItemIO.OUTPUT)
+    private double mins[];
+
+    @Parameter(label = "Max", type = ItemIO.OUTPUT)
+    private double maxs[];
+
+    @Parameter(label = "Variance", type = ItemIO.OUTPUT)
+    private double vars[];
+
+    @Parameter(label = "Integrated Density", type = ItemIO.OUTPUT)
+    private double intDen[];
+
+    @Parameter(label = "Median", type = ItemIO.OUTPUT)
+    private double medians[];
+
+    @Parameter(label = "Lower Percentile Value", type = ItemIO.OUTPUT)
+    private double lows[];
+
+    @Parameter(label = "Upper Percentile Value", type = ItemIO.OUTPUT)
+    private double highs[];
+
+    /** Histogram bins for percentiles */
+    private static final int BINS = 1024;
+
+    @Override
+    public void run() {
+        final int n = roi == null || ds == null ? 0 : roi.length;
+        final long[] dims = new long[ds == null ? 0 : ds.numDimensions()];
+        int nc = 1;
+        if(n > 0) {
+            ds.dimensions(dims);
+            final int cAxis = ds.dimensionIndex(Axes.CHANNEL);
+            if(dims.length > 2) {
+                if(cAxis < 0)
+                    throw new IllegalArgumentException("Could not get channel axis index for " + ds.getName());
+                nc = (int) dims[cAxis];
+                if(nc == 0)
+                    throw new IllegalArgumentException(ds.getName() + " has zero channels");
+            }
+        }
+        final int nRes = n * nc;
+        chans = new int[nRes];
+        size = new double[nRes];
+        sums = new double[nRes];
+        means = new double[nRes];
+        mins = new double[nRes];
+        maxs = new double[nRes];
+        vars = new double[nRes];
+        intDen = new double[nRes];
+        medians = new double[nRes];
+        lows = new double[nRes];
+        highs = new double[nRes];
+        if(n == 0)
+            return;
+        final RoiMask[] masks = new RoiMask[n];
+        for(int i = 0; i < n; i++)
+            masks[i] = RoiMask.of(roi[i]).clip(dims);
+        final RegionMeasurements m = new RegionMeasurements(n, nc, BINS, ds.isInteger());
+        m.measure(ds, masks, null);
+        final double pixelArea = ds.axis(0).averageScale(0, 1) * ds.axis(1).averageScale(0, 1);
+        for(int i = 0; i < n; i++) {
+            for(int c = 0; c < nc; c++) {
+                final int r = i * nc + c;
+                chans[r] = c;
+                size[r] = m.getCount(i, c);
+                sums[r] = m.getSum(i, c);
+                means[r] = m.getMean(i, c);
+                mins[r] = m.getMin(i, c);
+                maxs[r] = m.getMax(i, c);
+                vars[r] = m.getVariance(i, c);
+                intDen[r] = sums[r] * pixelArea;
+                medians[r] = m.getPercentile(i, c, 50);
+                lows[r] = m.getPercentile(i, c, pLow);
+                highs[r] = m.getPercentile(i, c, pHigh);
+            }
+        }
+    }
+
+}
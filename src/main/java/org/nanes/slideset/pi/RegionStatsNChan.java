@@ -4,10 +4,6 @@ import java.util.Arrays;
 import net.imagej.Dataset;
 import net.imagej.axis.Axes;
 import net.imagej.overlay.AbstractOverlay;
-import net.imglib2.RandomAccess;
-import net.imglib2.iterator.IntervalIterator;
-import net.imglib2.roi.RegionOfInterest;
-import net.imglib2.type.numeric.RealType;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -16,6 +12,7 @@ import org.scijava.plugin.Plugin;
  *
  * @author Benjamin Nanes
  */
+@RoiBounded
 @HelpPath(path = "plugins/regions.html#nchan")
 @Plugin(type=SlideSetPlugin.class,
         label="Region Stats (multi-chan)", visible = false,
@@ -98,62 +95,21 @@ public class RegionStatsNChan extends SlideSetPlugin implements MultipleResults
         Arrays.fill(means, 0);
         Arrays.fill(chans, 0);
         Arrays.fill(size, 0);
-        IntervalIterator ii;
-        final double[] posD = new double[dims.length];
-        final long[] min = new long[dims.length];
-        final long[] max = new long[dims.length];
-        RandomAccess<? extends RealType<?>> ra = ds.randomAccess();
-        RegionOfInterest bin;
+        final RoiMask[] masks = new RoiMask[n];
+        for (int i = 0; i < n; i++)
+            masks[i] = RoiMask.of(roi[i]).clip(dims);
+        final RegionMeasurements m = new RegionMeasurements(n, (int)nc, 0, ds.isInteger());
+        m.measure(ds, masks, RegionMeasurements.thresholdFilter(nts, inv, false));
         int count = 0;
         for (int i = 0; i < n; i++) {
-            bin = roi[i].getRegionOfInterest();
-            for (int c = 0; c < bin.numDimensions(); c++) {
-                min[c] = Math.round(Math.floor(bin.realMin(c)));
-                if (min[c] < 0 || min[c] > dims[c]) {
-                    min[c] = 0;
-                }
-                max[c] = Math.round(Math.ceil(bin.realMax(c)));
-                if (max[c] < 0 || max[c] > dims[c]) {
-                    max[c] = dims[c];
-                }
-            }
-            if (!singlet) {
-                min[cAxis] = 0;
-                max[cAxis] = 0;
-            }
-            ii = new IntervalIterator(min, max);
-            while (ii.hasNext()) {
-                ii.fwd();
-                ii.localize(posD);
-                if (!bin.contains(posD) || !inBounds(posD, dims)) {
-                    continue;
-                }
-                ra.setPosition(ii);
-                for(int j=0; j<nc; j++) {
-                    if(nc > 1)
-                        ra.setPosition(j, cAxis);
-                    if(inv)
-                        means[count+j] -= Math.min(ra.get().getRealDouble() - nts[j], 0);
-                    else
-                        means[count+j] += Math.max(ra.get().getRealDouble() - nts[j], 0);
-                    size[count+j]++;
+            for(int j=0; j<nc; j++) {
+                if(!masks[i].isEmpty())
                     chans[count+j] = j;
-                }
+                size[count+j] = masks[i].getArea();
+                means[count+j] = m.getSum(i, j) / size[count+j];
             }
             count += nc;
         }
-        for(int i=0; i<means.length; i++) {
-            means[i] = means[i] / size[i];
-        }
-    }
-
-    private boolean inBounds(double[] pos, long[] dims) {
-        for (int i = 0; i < pos.length; i++) {
-            if (pos[i] >= dims[i]) {
-                return false;
-            }
-        }
-        return true;
     }
 
 }
@@ -4,10 +4,6 @@ import java.util.Arrays;
 import net.imagej.Dataset;
 import net.imagej.axis.Axes;
 import net.imagej.overlay.AbstractOverlay;
-import net.imglib2.RandomAccess;
-import net.imglib2.iterator.IntervalIterator;
-import net.imglib2.roi.RegionOfInterest;
-import net.imglib2.type.numeric.RealType;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -114,73 +110,33 @@ public class RegionStatsNChanExclusion extends SlideSetPlugin implements Multipl
         Arrays.fill(means, 0);
         Arrays.fill(chans, 0);
         Arrays.fill(size, 0);
-        IntervalIterator ii;
-        final double[] posD = new double[dims.length];
-        final long[] min = new long[dims.length];
-        final long[] max = new long[dims.length];
-        RandomAccess<? extends RealType<?>> ra = ds.randomAccess();
-        RegionOfInterest bin;
-        int count = 0;
-        for (int i = 0; i < n; i++) {
-            bin = roi[i].getRegionOfInterest();
-            for (int c = 0; c < bin.numDimensions(); c++) {
-                min[c] = Math.round(Math.floor(bin.realMin(c)));
-                if (min[c] < 0 || min[c] > dims[c]) {
-                    min[c] = 0;
-                }
-                max[c] = Math.round(Math.ceil(bin.realMax(c)));
-                if (max[c] < 0 || max[c] > dims[c]) {
-                    max[c] = dims[c];
-                }
+        final RoiMask[] masks = new RoiMask[n];
+        for (int i = 0; i < n; i++)
+            masks[i] = RoiMask.of(roi[i]).clip(dims);
+        final RegionMeasurements m = new RegionMeasurements(n, (int)nc, 0, ds.isInteger());
+        m.measure(ds, masks, new RegionMeasurements.ValueFilter() {
+            @Override
+            public boolean include(int channel, double value) {
+                return inv ? value <= nts[channel] : value >= nts[channel];
             }
-            if (!singlet) {
-                min[cAxis] = 0;
-                max[cAxis] = 0;
+            @Override
+            public double value(int channel, double value) {
+                return value;
             }
-            ii = new IntervalIterator(min, max);
-            double theValue;
-            while (ii.hasNext()) {
-                ii.fwd();
-                ii.localize(posD);
-                if (!bin.contains(posD) || !inBounds(posD, dims)) {
-                    continue;
-                }
-                ra.setPosition(ii);
-                for(int j=0; j<nc; j++) {
-                    if(nc > 1)
-                        ra.setPosition(j, cAxis);
-                    theValue = ra.get().getRealDouble();
-                    if(inv) {
-                        if(theValue <= nts[j]) {
-                            means[count+j] += theValue;
-                            size[count+j]++;
-                        }
-                    } else {
-                        if(theValue >= nts[j]) {
-                            means[count+j] += theValue;
-                            size[count+j]++;
-                        }
-                    }
+        });
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            for(int j=0; j<nc; j++) {
+                if(!masks[i].isEmpty())
                     chans[count+j] = j;
-                }
+                size[count+j] = m.getCount(i, j);
+                if(size[count+j] == 0)
+                    means[count+j] = -1;
+                else
+                    means[count+j] = m.getSum(i, j) / size[count+j];
             }
             count += nc;
         }
-        for(int i=0; i<means.length; i++) {
-            if(size[i] == 0)
-                means[i] = -1;
-            else
-                means[i] = means[i] / size[i];
-        }
     }
 
-    private boolean inBounds(double[] pos, long[] dims) {
-        for (int i = 0; i < pos.length; i++) {
-            if (pos[i] >= dims[i]) {
-                return false;
-            }
-        }
-        return true;
-    }
-    
 }
@@ -0,0 +1,30 @@
+package org.nanes.slideset.pi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotate a {@link SlideSetPlugin} with this annotation type
+ * if it only uses the image pixels near its region of interest
+ * inputs. For each row, {@link SlideSetPluginLoader} passes the
+ * bounding box of the row's ROIs to any image reader implementing
+ * {@link org.nanes.slideset.dm.read.RegionBoundedReader}, so that
+ * the rest of the image need not be read.
+ * 
+ * @author Benjamin Nanes
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RoiBounded {
+    /** Pixels to add on each side of the ROI bounding box */
+    int margin() default 1;
+    /**
+     * Name of a numeric input whose value is added to the margin,
+     * or an empty string for none
+     */
+    String marginInput() default "";
+}
@@ -0,0 +1,178 @@
+package org.nanes.slideset.pi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.imagej.overlay.AbstractOverlay;
+
+/**
+ * Map of the points in an image covered by a set of regions of interest,
+ * in the first two (X and Y) dimensions. The image is divided into
+ * segments, rows of adjacent points covered by the same ROIs, so a
+ * command can read each point once and add it to every ROI that contains
+ * it, rather than scanning the image once for each ROI. Points covered
+ * by more than one ROI are labeled with all of them. Points outside all
+ * of the ROIs are not in any segment.
+ * <p> The ROIs are rasterized with {@link RoiMask}.
+ *
+ * @author Benjamin Nanes
+ */
+public final class RoiLabels {
+
+    // -- Fields --
+
+    /** Segments as {@code (y, start x, end x, label set)}, with the end excluded, sorted by y then x */
+    private final int[] segs;
+    private final int nSegs;
+    /** Sets of ROI indices, with set {@code i} holding only ROI {@code i} */
+    private final int[][] sets;
+
+    private RoiLabels(int[] segs, int nSegs, int[][] sets) {
+        this.segs = segs;
+        this.nSegs = nSegs;
+        this.sets = sets;
+    }
+
+    // -- Methods --
+
+    /**
+     * Map the points covered by a set of ROIs
+     * @param rois The ROIs, which may include {@code null}s
+     * @param dims Dimensions of the image, of which only X and Y are used
+     */
+    public static RoiLabels of(AbstractOverlay[] rois, long[] dims) {
+        final int n = rois.length;
+        final int h = (int) Math.max(0, dims[1]);
+        final RoiMask[] masks = new RoiMask[n];
+        final int[] rowStart = new int[h + 1];
+        int total = 0;
+        for(int i = 0; i < n; i++) {
+            if(rois[i] == null)
+                continue;
+            masks[i] = RoiMask.of(rois[i]).clip(dims);
+            for(int k = 0; k < masks[i].getRunCount(); k++)
+                rowStart[masks[i].getRunY(k)]++;
+            total += masks[i].getRunCount();
+        }
+        for(int y = 0, sum = 0; y <= h; y++) {
+            final int c = rowStart[y];
+            rowStart[y] = sum;
+            sum += c;
+        }
+
+        // Sort the starts and ends of the runs into rows, as
+        // (x, end or start, ROI), with ends before starts at the same x
+        final long[] events = new long[2 * total];
+        final int[] next = new int[h];
+        for(int y = 0; y < h; y++)
+            next[y] = 2 * rowStart[y];
+        for(int i = 0; i < n; i++) {
+            if(masks[i] == null)
+                continue;
+            for(int k = 0; k < masks[i].getRunCount(); k++) {
+                final int y = masks[i].getRunY(k);
+                events[next[y]++] = event(masks[i].getRunStart(k), true, i);
+                events[next[y]++] = event(masks[i].getRunEnd(k), false, i);
+            }
+        }
+
+        final List<int[]> sets = new ArrayList<int[]>(n);
+        for(int i = 0; i < n; i++)
+            sets.add(new int[] {i});
+        final Map<List<Integer>, Integer> setIndex = new HashMap<List<Integer>, Integer>();
+        final List<Integer> active = new ArrayList<Integer>();
+        int[] segs = new int[4 * Math.max(16, total)];
+        int nSegs = 0;
+        for(int y = 0; y < h; y++) {
+            final int from = 2 * rowStart[y];
+            final int to = 2 * rowStart[y + 1];
+            if(from == to)
+                continue;
+            Arrays.sort(events, from, to);
+            active.clear();
+            int x = 0;
+            for(int e = from; e < to; e++) {
+                final int ex = (int) (events[e] >> 32);
+                if(ex > x && !active.isEmpty()) {
+                    final int set = setOf(active, sets, setIndex);
+                    if(nSegs > 0 && segs[4 * nSegs - 4] == y
+                            && segs[4 * nSegs - 2] == x && segs[4 * nSegs - 1] == set) {
+                        segs[4 * nSegs - 2] = ex; // Extend the last segment
+                    } else {
+                        if(4 * nSegs + 4 > segs.length)
+                            segs = Arrays.copyOf(segs, 2 * segs.length);
+                        segs[4 * nSegs] = y;
+                        segs[4 * nSegs + 1] = x;
+                        segs[4 * nSegs + 2] = ex;
+                        segs[4 * nSegs + 3] = set;
+                        nSegs++;
+                    }
+                }
+                x = ex;
+                final Integer roi = (int) (events[e] & 0x7fffffff);
+                if((events[e] & 0x80000000L) != 0)
+                    active.add(roi);
+                else
+                    active.remove(roi);
+            }
+        }
+        return new RoiLabels(segs, nSegs, sets.toArray(new int[sets.size()][]));
+    }
+
+    /** Get the number of segments */
+    public int getSegmentCount() {
+        return nSegs;
+    }
+
+    /** Get the row (Y position) of segment {@code k} */
+    public int getSegmentY(int k) {
+        return segs[4 * k];
+    }
+
+    /** Get the first X position in segment {@code k} */
+    public int getSegmentStart(int k) {
+        return segs[4 * k + 1];
+    }
+
+    /** Get the X position after the last one in segment {@code k} */
+    public int getSegmentEnd(int k) {
+        return segs[4 * k + 2];
+    }
+
+    /**
+     * Get the indices of the ROIs covering segment {@code k}, in
+     * increasing order. The array is shared and should not be changed.
+     */
+    public int[] getLabels(int k) {
+        return sets[segs[4 * k + 3]];
+    }
+
+    // -- Helper methods --
+
+    private static long event(int x, boolean start, int roi) {
+        return ((long) x << 32) | (start ? 0x80000000L : 0) | roi;
+    }
+
+    /** Get the index of a set of ROIs, adding it if it is new */
+    private static int setOf(List<Integer> active, List<int[]> sets,
+            Map<List<Integer>, Integer> setIndex) {
+        if(active.size() == 1)
+            return active.get(0);
+        final List<Integer> key = new ArrayList<Integer>(active);
+        Collections.sort(key);
+        Integer s = setIndex.get(key);
+        if(s == null) {
+            final int[] set = new int[key.size()];
+            for(int j = 0; j < set.length; j++)
+                set[j] = key.get(j);
+            s = sets.size();
+            sets.add(set);
+            setIndex.put(key, s);
+        }
+        return s;
+    }
+
+}
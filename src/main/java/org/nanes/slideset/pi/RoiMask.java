@@ -0,0 +1,718 @@
+package org.nanes.slideset.pi;
+
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import net.imagej.overlay.AbstractOverlay;
+import net.imagej.overlay.EllipseOverlay;
+import net.imagej.overlay.GeneralPathOverlay;
+import net.imagej.overlay.PolygonOverlay;
+import net.imagej.overlay.RectangleOverlay;
+import net.imglib2.RealLocalizable;
+import net.imglib2.roi.PolygonRegionOfInterest;
+import net.imglib2.roi.RegionOfInterest;
+
+/**
+ * Run-length encoded mask of the integer points inside a region of
+ * interest, in the first two (X and Y) dimensions. Commands scan the
+ * runs, rows of adjacent points, instead of testing every point in the
+ * bounding box with {@link RegionOfInterest#contains(double[])}.
+ * <p> Polygons, rectangles, and paths are filled one row at a time from
+ * the crossings of their edges, and ellipses from their width at each
+ * row. Points that lie on the border, where rounding or the ROI's own
+ * rule for border points could matter, are still checked with
+ * {@code contains}, so the mask has exactly the points that
+ * {@code contains} would accept. Other types of ROIs are checked point
+ * by point. ROIs with more than two dimensions are checked at 0 in the
+ * other dimensions.
+ * <p> Masks are cached for each overlay, and rebuilt if the
+ * overlay's shape changes.
+ *
+ * @author Benjamin Nanes
+ */
+public final class RoiMask {
+
+    // -- Fields --
+
+    private static final Map<AbstractOverlay, Object[]> cache
+            = new WeakHashMap<AbstractOverlay, Object[]>();
+
+    /** Tolerance for flattening curves */
+    private static final double FLATNESS = 0.05;
+
+    private static final RoiMask EMPTY = new RoiMask(new int[0], 0);
+
+    /** Runs as {@code (y, start x, end x)}, with the end excluded, sorted by y then x */
+    private final int[] runs;
+    private final int nRuns;
+    private final long area;
+
+    private RoiMask(int[] runs, int nRuns) {
+        this.runs = runs;
+        this.nRuns = nRuns;
+        long a = 0;
+        for(int k = 0; k < nRuns; k++)
+            a += runs[3 * k + 2] - runs[3 * k + 1];
+        area = a;
+    }
+
+    // -- Methods --
+
+    /**
+     * Get the mask of an overlay, from the cache if the overlay has
+     * not changed since it was last used
+     */
+    public static RoiMask of(AbstractOverlay overlay) {
+        final double[] key = shapeKey(overlay);
+        synchronized(cache) {
+            final Object[] c = cache.get(overlay);
+            if(c != null && key != null && Arrays.equals(key, (double[]) c[0]))
+                return (RoiMask) c[1];
+        }
+        final RoiMask m = build(overlay);
+        if(key != null) {
+            synchronized(cache) {
+                cache.put(overlay, new Object[] {key, m});
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Cache a mask that is already known for an overlay, such as one read
+     * from a label image, so that it is not built again. The mask must
+     * have exactly the points that the overlay contains.
+     */
+    public static void put(AbstractOverlay overlay, RoiMask mask) {
+        final double[] key = shapeKey(overlay);
+        if(key == null)
+            return;
+        synchronized(cache) {
+            cache.put(overlay, new Object[] {key, mask});
+        }
+    }
+
+    /** Get the number of runs */
+    public int getRunCount() {
+        return nRuns;
+    }
+
+    /** Get the row (Y position) of run {@code k} */
+    public int getRunY(int k) {
+        return runs[3 * k];
+    }
+
+    /** Get the first X position in run {@code k} */
+    public int getRunStart(int k) {
+        return runs[3 * k + 1];
+    }
+
+    /** Get the X position after the last one in run {@code k} */
+    public int getRunEnd(int k) {
+        return runs[3 * k + 2];
+    }
+
+    /** Get the number of points in the mask */
+    public long getArea() {
+        return area;
+    }
+
+    /** Check if the mask has no points */
+    public boolean isEmpty() {
+        return nRuns == 0;
+    }
+
+    /**
+     * Get the part of the mask within a box
+     * @param min Lowest {@code (x, y)} included
+     * @param max Highest {@code (x, y)} included
+     */
+    public RoiMask clip(long[] min, long[] max) {
+        final int[] r = new int[3 * nRuns];
+        int n = 0;
+        boolean changed = false;
+        for(int k = 0; k < nRuns; k++) {
+            final int y = runs[3 * k];
+            if(y < min[1] || y > max[1]) {
+                changed = true;
+                continue;
+            }
+            final long x0 = Math.max(runs[3 * k + 1], min[0]);
+            final long x1 = Math.min(runs[3 * k + 2], max[0] + 1);
+            changed |= x0 != runs[3 * k + 1] || x1 != runs[3 * k + 2];
+            if(x0 >= x1)
+                continue;
+            r[3 * n] = y;
+            r[3 * n + 1] = (int) x0;
+            r[3 * n + 2] = (int) x1;
+            n++;
+        }
+        return changed ? new RoiMask(r, n) : this;
+    }
+
+    /** Get the part of the mask within an image of size {@code dims} */
+    public RoiMask clip(long[] dims) {
+        return clip(new long[] {0, 0}, new long[] {dims[0] - 1, dims[1] - 1});
+    }
+
+    /** Count the points in both this mask and another */
+    public long intersectionArea(RoiMask other) {
+        long a = 0;
+        int j = 0;
+        for(int k = 0; k < nRuns; k++) {
+            final int y = runs[3 * k];
+            final int x0 = runs[3 * k + 1];
+            final int x1 = runs[3 * k + 2];
+            while(j < other.nRuns && (other.runs[3 * j] < y
+                    || (other.runs[3 * j] == y && other.runs[3 * j + 2] <= x0)))
+                j++;
+            for(int i = j; i < other.nRuns && other.runs[3 * i] == y
+                    && other.runs[3 * i + 1] < x1; i++)
+                a += Math.min(x1, other.runs[3 * i + 2]) - Math.max(x0, other.runs[3 * i + 1]);
+        }
+        return a;
+    }
+
+    /** Check if every point in another mask is also in this mask */
+    public boolean containsAll(RoiMask other) {
+        return other.intersectionArea(this) == other.area;
+    }
+
+    /** Get the mask of points in any of a list of masks */
+    public static RoiMask union(List<RoiMask> masks) {
+        if(masks.isEmpty())
+            return EMPTY;
+        if(masks.size() == 1)
+            return masks.get(0);
+        final int mid = masks.size() / 2;
+        return union(union(masks.subList(0, mid)), union(masks.subList(mid, masks.size())));
+    }
+
+    /**
+     * Make a mask from runs, as {@code (y, start x, end x)} with the end
+     * excluded, sorted by y then start x. Runs that overlap or touch
+     * are joined.
+     */
+    static RoiMask ofRuns(int[] runs, int nRuns) {
+        final RunList out = new RunList();
+        for(int k = 0; k < nRuns; k++)
+            out.append(runs[3 * k], runs[3 * k + 1], runs[3 * k + 2]);
+        return out.toMask();
+    }
+
+    // -- Helper methods --
+
+    /** Merge two masks, joining runs that overlap or touch */
+    private static RoiMask union(RoiMask a, RoiMask b) {
+        final RunList out = new RunList();
+        int i = 0, j = 0;
+        while(i < a.nRuns || j < b.nRuns) {
+            final boolean takeA = j >= b.nRuns || (i < a.nRuns
+                    && (a.runs[3 * i] < b.runs[3 * j] || (a.runs[3 * i] == b.runs[3 * j]
+                    && a.runs[3 * i + 1] <= b.runs[3 * j + 1])));
+            final int[] r = takeA ? a.runs : b.runs;
+            final int k = takeA ? i++ : j++;
+            out.append(r[3 * k], r[3 * k + 1], r[3 * k + 2]);
+        }
+        return out.toMask();
+    }
+
+    /** Values that determine the shape of an overlay, or {@code null} if unknown */
+    private static double[] shapeKey(AbstractOverlay overlay) {
+        if(overlay instanceof RectangleOverlay) {
+            final RectangleOverlay r = (RectangleOverlay) overlay;
+            return new double[] {0, r.getOrigin(0), r.getOrigin(1), r.getExtent(0), r.getExtent(1)};
+        }
+        if(overlay instanceof EllipseOverlay) {
+            final EllipseOverlay e = (EllipseOverlay) overlay;
+            return new double[] {1, e.getOrigin(0), e.getOrigin(1), e.getRadius(0), e.getRadius(1)};
+        }
+        if(overlay instanceof PolygonOverlay) {
+            final PolygonRegionOfInterest p = ((PolygonOverlay) overlay).getRegionOfInterest();
+            final int n = p.getVertexCount();
+            final double[] key = new double[2 * n + 1];
+            key[0] = 2;
+            for(int i = 0; i < n; i++) {
+                final RealLocalizable v = p.getVertex(i);
+                key[2 * i + 1] = v.getDoublePosition(0);
+                key[2 * i + 2] = v.getDoublePosition(1);
+            }
+            return key;
+        }
+        if(overlay instanceof GeneralPathOverlay) {
+            final GeneralPath gp = ((GeneralPathOverlay) overlay).getRegionOfInterest().getGeneralPath();
+            final DoubleList key = new DoubleList();
+            key.add(3);
+            key.add(gp.getWindingRule());
+            final double[] c = new double[6];
+            for(PathIterator pi = gp.getPathIterator(null); !pi.isDone(); pi.next()) {
+                final int type = pi.currentSegment(c);
+                key.add(type);
+                for(int i = 0; i < coordCount(type); i++)
+                    key.add(c[i]);
+            }
+            return key.toArray();
+        }
+        return null;
+    }
+
+    private static int coordCount(int segType) {
+        switch(segType) {
+            case PathIterator.SEG_MOVETO: case PathIterator.SEG_LINETO: return 2;
+            case PathIterator.SEG_QUADTO: return 4;
+            case PathIterator.SEG_CUBICTO: return 6;
+            default: return 0;
+        }
+    }
+
+    private static RoiMask build(AbstractOverlay overlay) {
+        final RegionOfInterest roi = overlay.getRegionOfInterest();
+        if(roi.numDimensions() == 2) {
+            if(overlay instanceof EllipseOverlay) {
+                final EllipseOverlay e = (EllipseOverlay) overlay;
+                return fillEllipse(roi, e.getOrigin(0), e.getOrigin(1), e.getRadius(0), e.getRadius(1));
+            }
+            final Edges edges = new Edges();
+            if(overlay instanceof RectangleOverlay) {
+                final RectangleOverlay r = (RectangleOverlay) overlay;
+                final double x0 = r.getOrigin(0), y0 = r.getOrigin(1);
+                final double x1 = x0 + r.getExtent(0), y1 = y0 + r.getExtent(1);
+                edges.add(x0, y0, x1, y0);
+                edges.add(x1, y0, x1, y1);
+                edges.add(x1, y1, x0, y1);
+                edges.add(x0, y1, x0, y0);
+                return fill(roi, edges, 0, true);
+            }
+            if(overlay instanceof PolygonOverlay) {
+                final PolygonRegionOfInterest p = ((PolygonOverlay) overlay).getRegionOfInterest();
+                final int n = p.getVertexCount();
+                for(int i = 0; i < n; i++) {
+                    final RealLocalizable a = p.getVertex(i);
+                    final RealLocalizable b = p.getVertex((i + 1) % n);
+                    edges.add(a.getDoublePosition(0), a.getDoublePosition(1),
+                            b.getDoublePosition(0), b.getDoublePosition(1));
+                }
+                return fill(roi, edges, 0, true);
+            }
+            if(overlay instanceof GeneralPathOverlay) {
+                final GeneralPath gp = ((GeneralPathOverlay) overlay).getRegionOfInterest().getGeneralPath();
+                boolean curved = false;
+                final double[] c = new double[6];
+                for(PathIterator pi = gp.getPathIterator(null); !pi.isDone() && !curved; pi.next()) {
+                    final int type = pi.currentSegment(c);
+                    curved = type == PathIterator.SEG_QUADTO || type == PathIterator.SEG_CUBICTO;
+                }
+                double sx = 0, sy = 0, px = 0, py = 0;
+                boolean open = false;
+                for(PathIterator pi = gp.getPathIterator(null, FLATNESS); !pi.isDone(); pi.next()) {
+                    switch(pi.currentSegment(c)) {
+                        case PathIterator.SEG_MOVETO:
+                            if(open)
+                                edges.add(px, py, sx, sy);
+                            sx = px = c[0];
+                            sy = py = c[1];
+                            open = true;
+                            break;
+                        case PathIterator.SEG_LINETO:
+                            edges.add(px, py, c[0], c[1]);
+                            px = c[0];
+                            py = c[1];
+                            break;
+                        case PathIterator.SEG_CLOSE:
+                            edges.add(px, py, sx, sy);
+                            px = sx;
+                            py = sy;
+                            break;
+                        default:
+                    }
+                }
+                if(open)
+                    edges.add(px, py, sx, sy);
+                return fill(roi, edges, curved ? 2 * FLATNESS : 0,
+                        gp.getWindingRule() == PathIterator.WIND_EVEN_ODD);
+            }
+        }
+        return scan(roi);
+    }
+
+    /** Check every point in the bounding box */
+    private static RoiMask scan(RegionOfInterest roi) {
+        final RunList out = new RunList();
+        final double[] pos = new double[roi.numDimensions()];
+        final long x0 = (long) Math.floor(roi.realMin(0));
+        final long x1 = (long) Math.ceil(roi.realMax(0));
+        final long y0 = (long) Math.floor(roi.realMin(1));
+        final long y1 = (long) Math.ceil(roi.realMax(1));
+        for(long y = y0; y <= y1; y++) {
+            pos[1] = y;
+            long start = 0;
+            boolean in = false;
+            for(long x = x0; x <= x1 + 1; x++) {
+                pos[0] = x;
+                final boolean c = x <= x1 && roi.contains(pos);
+                if(c && !in)
+                    start = x;
+                else if(!c && in)
+                    out.add((int) y, (int) start, (int) x);
+                in = c;
+            }
+        }
+        return out.toMask();
+    }
+
+    /**
+     * Fill the area inside a set of edges
+     * @param tol Distance from the edges within which points must be
+     *     checked with {@code contains}
+     * @param evenOdd Use the even-odd fill rule, rather than non-zero winding
+     */
+    private static RoiMask fill(RegionOfInterest roi, Edges e, double tol, boolean evenOdd) {
+        final RunList out = new RunList();
+        final int n = e.n;
+        if(n == 0)
+            return out.toMask();
+        // Sort edges by their lowest y, and sweep down the rows with the active edges
+        final Integer[] order = new Integer[n];
+        double yMin = Double.POSITIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY, scale = 1;
+        for(int i = 0; i < n; i++) {
+            order[i] = i;
+            yMin = Math.min(yMin, e.yLo(i));
+            yMax = Math.max(yMax, e.yHi(i));
+            scale = Math.max(scale, Math.max(Math.abs(e.x0[i]), Math.abs(e.x1[i])));
+            scale = Math.max(scale, Math.max(Math.abs(e.y0[i]), Math.abs(e.y1[i])));
+        }
+        final double band = tol + 1e-9 * scale;
+        Arrays.sort(order, (a, b) -> Double.compare(e.yLo(a), e.yLo(b)));
+        final int[] active = new int[n];
+        int nActive = 0;
+        int next = 0;
+        final double[] xs = new double[n];
+        final int[] dirs = new int[n];
+        final DoubleList border = new DoubleList();
+        final RunList row = new RunList();
+        final double[] pos = new double[2];
+        final long first = (long) Math.ceil(yMin - band);
+        final long last = (long) Math.floor(yMax + band);
+        for(long yl = first; yl <= last; yl++) {
+            final double y = yl;
+            while(next < n && e.yLo(order[next]) - band <= y)
+                active[nActive++] = order[next++];
+            int nx = 0;
+            border.clear();
+            for(int k = 0; k < nActive; k++) {
+                final int i = active[k];
+                if(e.yHi(i) + band < y) {
+                    active[k--] = active[--nActive];
+                    continue;
+                }
+                final double ex0 = e.x0[i], ey0 = e.y0[i], ex1 = e.x1[i], ey1 = e.y1[i];
+                if(ey0 != ey1 && e.yLo(i) <= y && y < e.yHi(i)) {
+                    xs[nx] = ex0 + (y - ey0) * (ex1 - ex0) / (ey1 - ey0);
+                    dirs[nx++] = ey1 > ey0 ? 1 : -1;
+                }
+                // Part of the edge within the band around the row
+                double bx0, bx1;
+                if(ey0 == ey1) {
+                    bx0 = Math.min(ex0, ex1);
+                    bx1 = Math.max(ex0, ex1);
+                } else {
+                    final double t0 = clamp((y - band - ey0) / (ey1 - ey0));
+                    final double t1 = clamp((y + band - ey0) / (ey1 - ey0));
+                    final double xa = ex0 + t0 * (ex1 - ex0);
+                    final double xb = ex0 + t1 * (ex1 - ex0);
+                    bx0 = Math.min(xa, xb);
+                    bx1 = Math.max(xa, xb);
+                }
+                border.add(bx0 - band);
+                border.add(bx1 + band);
+            }
+            // Inside from the crossings
+            row.clear();
+            sortCrossings(xs, dirs, nx);
+            int wind = 0;
+            for(int k = 0; k < nx; k++) {
+                final boolean wasIn = evenOdd ? (wind & 1) != 0 : wind != 0;
+                wind += evenOdd ? 1 : dirs[k];
+                final boolean isIn = evenOdd ? (wind & 1) != 0 : wind != 0;
+                if(!wasIn && isIn)
+                    row.add((int) yl, (int) Math.ceil(xs[k]), 0);
+                else if(wasIn && !isIn)
+                    row.setLastEnd((int) Math.ceil(xs[k]));
+            }
+            // Check the points near the border
+            pos[1] = y;
+            final int[] checks = borderPoints(border);
+            int nIn = 0;
+            for(int k = 0; k < checks.length; k++) {
+                pos[0] = checks[k];
+                if(roi.contains(pos))
+                    checks[nIn++] = checks[k];
+            }
+            row.override((int) yl, checks, nIn, borderIntervals(border));
+            out.addAll(row);
+        }
+        return out.toMask();
+    }
+
+    /** Fill an axis-aligned ellipse, checking the points at the ends of each row */
+    private static RoiMask fillEllipse(RegionOfInterest roi,
+            double cx, double cy, double rx, double ry) {
+        final RunList out = new RunList();
+        final double[] pos = new double[2];
+        final long first = (long) Math.floor(cy - Math.abs(ry)) - 1;
+        final long last = (long) Math.ceil(cy + Math.abs(ry)) + 1;
+        for(long yl = first; yl <= last; yl++) {
+            final double dy = (yl - cy) / ry;
+            final double t = 1 - dy * dy;
+            if(!(t > -1e-6))
+                continue;
+            final double w = Math.abs(rx) * Math.sqrt(Math.max(t, 0));
+            long a = (long) Math.ceil(cx - w);
+            long b = (long) Math.floor(cx + w);
+            pos[1] = yl;
+            // The row is a single interval; adjust the ends
+            pos[0] = a - 1;
+            while(roi.contains(pos)) {
+                a--;
+                pos[0] = a - 1;
+            }
+            pos[0] = a;
+            while(a <= b && !roi.contains(pos)) {
+                a++;
+                pos[0] = a;
+            }
+            pos[0] = b + 1;
+            while(roi.contains(pos)) {
+                b++;
+                pos[0] = b + 1;
+            }
+            pos[0] = b;
+            while(b >= a && !roi.contains(pos)) {
+                b--;
+                pos[0] = b;
+            }
+            if(a <= b)
+                out.add((int) yl, (int) a, (int) (b + 1));
+        }
+        return out.toMask();
+    }
+
+    private static double clamp(double t) {
+        return t < 0 ? 0 : t > 1 ? 1 : t;
+    }
+
+    /** Insertion sort; rows cross few edges */
+    private static void sortCrossings(double[] xs, int[] dirs, int n) {
+        for(int i = 1; i < n; i++) {
+            final double x = xs[i];
+            final int d = dirs[i];
+            int j = i - 1;
+            while(j >= 0 && xs[j] > x) {
+                xs[j + 1] = xs[j];
+                dirs[j + 1] = dirs[j];
+                j--;
+            }
+            xs[j + 1] = x;
+            dirs[j + 1] = d;
+        }
+    }
+
+    /** Merge the border bands into sorted, disjoint integer intervals {@code [a, b]} */
+    private static int[] borderIntervals(DoubleList border) {
+        final int n = border.size() / 2;
+        final long[] iv = new long[n];
+        int m = 0;
+        for(int k = 0; k < n; k++) {
+            final long a = (long) Math.ceil(border.get(2 * k));
+            final long b = (long) Math.floor(border.get(2 * k + 1));
+            if(a <= b)
+                iv[m++] = (a << 32) | (b - a);
+        }
+        Arrays.sort(iv, 0, m);
+        final int[] out = new int[2 * m];
+        int o = 0;
+        for(int k = 0; k < m; k++) {
+            final int a = (int) (iv[k] >> 32);
+            final int b = a + (int) (iv[k] & 0xFFFFFFFFL);
+            if(o > 0 && a <= out[o - 1] + 1)
+                out[o - 1] = Math.max(out[o - 1], b);
+            else {
+                out[o++] = a;
+                out[o++] = b;
+            }
+        }
+        return Arrays.copyOf(out, o);
+    }
+
+    /** List the integer points in the border bands */
+    private static int[] borderPoints(DoubleList border) {
+        final int[] iv = borderIntervals(border);
+        int n = 0;
+        for(int k = 0; k < iv.length; k += 2)
+            n += iv[k + 1] - iv[k] + 1;
+        final int[] pts = new int[n];
+        int p = 0;
+        for(int k = 0; k < iv.length; k += 2)
+            for(int x = iv[k]; x <= iv[k + 1]; x++)
+                pts[p++] = x;
+        return pts;
+    }
+
+    // -- Helper classes --
+
+    private static final class Edges {
+        double[] x0 = new double[16], y0 = new double[16], x1 = new double[16], y1 = new double[16];
+        int n = 0;
+
+        void add(double ax, double ay, double bx, double by) {
+            if(ax == bx && ay == by)
+                return;
+            if(n == x0.length) {
+                x0 = Arrays.copyOf(x0, 2 * n);
+                y0 = Arrays.copyOf(y0, 2 * n);
+                x1 = Arrays.copyOf(x1, 2 * n);
+                y1 = Arrays.copyOf(y1, 2 * n);
+            }
+            x0[n] = ax;
+            y0[n] = ay;
+            x1[n] = bx;
+            y1[n] = by;
+            n++;
+        }
+
+        double yLo(int i) {
+            return Math.min(y0[i], y1[i]);
+        }
+
+        double yHi(int i) {
+            return Math.max(y0[i], y1[i]);
+        }
+    }
+
+    private static final class DoubleList {
+        double[] v = new double[16];
+        int n = 0;
+
+        void add(double x) {
+            if(n == v.length)
+                v = Arrays.copyOf(v, 2 * n);
+            v[n++] = x;
+        }
+
+        double get(int i) {
+            return v[i];
+        }
+
+        int size() {
+            return n;
+        }
+
+        void clear() {
+            n = 0;
+        }
+
+        double[] toArray() {
+            return Arrays.copyOf(v, n);
+        }
+    }
+
+    /** Growable list of runs */
+    private static final class RunList {
+        int[] r = new int[48];
+        int n = 0;
+
+        void add(int y, int x0, int x1) {
+            if(3 * n == r.length)
+                r = Arrays.copyOf(r, 2 * r.length);
+            r[3 * n] = y;
+            r[3 * n + 1] = x0;
+            r[3 * n + 2] = x1;
+            n++;
+        }
+
+        void setLastEnd(int x1) {
+            r[3 * n - 1] = x1;
+        }
+
+        void clear() {
+            n = 0;
+        }
+
+        void addAll(RunList o) {
+            for(int k = 0; k < o.n; k++)
+                add(o.r[3 * k], o.r[3 * k + 1], o.r[3 * k + 2]);
+        }
+
+        /**
+         * Replace the points of one row that are in the border intervals
+         * {@code iv} with the points that were found inside, {@code in}
+         */
+        void override(int y, int[] in, int nIn, int[] iv) {
+            if(iv.length == 0) {
+                dropEmpty();
+                return;
+            }
+            final int[] old = Arrays.copyOf(r, 3 * n);
+            final int nOld = n;
+            n = 0;
+            int j = 0; // Border interval
+            int p = 0; // Inside points
+            for(int k = 0; k <= nOld; k++) {
+                final int a = k < nOld ? old[3 * k + 1] : Integer.MAX_VALUE;
+                final int b = k < nOld ? old[3 * k + 2] : Integer.MAX_VALUE;
+                if(a >= b && k < nOld)
+                    continue;
+                // Inside points before this run
+                while(p < nIn && in[p] < a)
+                    append(y, in[p], in[p++] + 1);
+                if(k == nOld)
+                    break;
+                // Split the run around the border intervals
+                int x = a;
+                while(x < b) {
+                    while(j < iv.length && iv[j + 1] < x)
+                        j += 2;
+                    if(j >= iv.length || iv[j] >= b) {
+                        append(y, x, b);
+                        break;
+                    }
+                    if(iv[j] > x)
+                        append(y, x, iv[j]);
+                    final int end = Math.min(b, iv[j + 1] + 1);
+                    while(p < nIn && in[p] < end)
+                        append(y, in[p], in[p++] + 1);
+                    x = end;
+                }
+            }
+        }
+
+        /** Add a run, joining it to the last one if they touch */
+        private void append(int y, int x0, int x1) {
+            if(n > 0 && r[3 * n - 3] == y && r[3 * n - 1] >= x0) {
+                r[3 * n - 1] = Math.max(r[3 * n - 1], x1);
+                return;
+            }
+            add(y, x0, x1);
+        }
+
+        private void dropEmpty() {
+            int m = 0;
+            for(int k = 0; k < n; k++)
+                if(r[3 * k + 1] < r[3 * k + 2]) {
+                    r[3 * m] = r[3 * k];
+                    r[3 * m + 1] = r[3 * k + 1];
+                    r[3 * m + 2] = r[3 * k + 2];
+                    m++;
+                }
+            n = m;
+        }
+
+        RoiMask toMask() {
+            return n == 0 ? EMPTY : new RoiMask(Arrays.copyOf(r, 3 * n), n);
+        }
+    }
+
+}
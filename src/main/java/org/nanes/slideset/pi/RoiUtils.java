@@ -46,6 +46,50 @@ public class RoiUtils {
           final double[] P, 
           final PolygonOverlay overlay,
           final double radius) {
+        return isNearBorder(P, getBorderVertices(overlay), radius, true);
+    }
+    
+    /** Handler for {@code LineOverlay}s */
+    public static boolean isNearBorder(
+          final double[] P, 
+          final LineOverlay overlay,
+          final double radius) {
+        return isNearBorder(P, getBorderVertices(overlay), radius, false);
+    }
+    
+    /** Handler for {@code GeneralPathOverlay}s */
+    public static boolean isNearBorder(
+          final double[] P,
+          final GeneralPathOverlay overlay,
+          final double radius) {
+        final boolean[] closed = new boolean[1];
+        return isNearBorder(P, getBorderVertices(overlay, closed), radius, closed[0]);
+    }
+    
+    /**
+     * Get the vertices of the border of an overlay, as used by
+     * {@link #isNearBorder(double[], AbstractOverlay, double)}.
+     * @param overlay The overlay
+     * @param closed Set to indicate whether the border is closed
+     * @return Ordered set of vertices defining the border, {@code [index][(x,y)]}
+     * @throws SlideSetException The overlay type is not supported
+     */
+    public static double[][] getBorderVertices(
+          final AbstractOverlay overlay,
+          final boolean[] closed) throws SlideSetException {
+        closed[0] = false;
+        if(overlay instanceof LineOverlay)
+            return getBorderVertices((LineOverlay) overlay);
+        closed[0] = true;
+        if(overlay instanceof PolygonOverlay)
+            return getBorderVertices((PolygonOverlay) overlay);
+        if(overlay instanceof GeneralPathOverlay)
+            return getBorderVertices((GeneralPathOverlay) overlay, closed);
+        throw new SlideSetException(overlay.getClass().getSimpleName() + " is not supported.");
+    }
+    
+    /** Get the vertices of a polygon, {@code [index][(x,y)]} */
+    public static double[][] getBorderVertices(final PolygonOverlay overlay) {
         final int x = overlay.dimensionIndex(Axes.X);
         final int y = overlay.dimensionIndex(Axes.Y);
         if(x < 0 || y < 0)
@@ -59,14 +103,11 @@ public class RoiUtils {
             vertices[i][0] = vertex[x];
             vertices[i][1] = vertex[y];
         }
-        return isNearBorder(P, vertices, radius, true);
+        return vertices;
     }
     
-    /** Handler for {@code LineOverlay}s */
-    public static boolean isNearBorder(
-          final double[] P, 
-          final LineOverlay overlay,
-          final double radius) {
+    /** Get the end points of a line, {@code [index][(x,y)]} */
+    public static double[][] getBorderVertices(final LineOverlay overlay) {
         final int x = overlay.dimensionIndex(Axes.X);
         final int y = overlay.dimensionIndex(Axes.Y);
         if(x < 0 || y < 0)
@@ -77,15 +118,18 @@ public class RoiUtils {
         V[0][1] = roi.getPoint1(y);
         V[1][0] = roi.getPoint2(x);
         V[1][1] = roi.getPoint2(y);
-        return isNearBorder(P, V, radius, false);
+        return V;
     }
     
-    /** Handler for {@code GeneralPathOverlay}s */
-    public static boolean isNearBorder(
-          final double[] P,
+    /**
+     * Get the vertices of a path, flattened to line segments,
+     * {@code [index][(x,y)]}
+     * @param closed Set to indicate whether the path is closed
+     */
+    public static double[][] getBorderVertices(
           final GeneralPathOverlay overlay,
-          final double radius) {
-        boolean closed = false;
+          final boolean[] closed) {
+        closed[0] = false;
         final int x = overlay.dimensionIndex(Axes.X);
         final int y = overlay.dimensionIndex(Axes.Y);
         if(x < 0 || y < 0)
@@ -98,10 +142,10 @@ public class RoiUtils {
             if(pi.currentSegment(p) != PathIterator.SEG_CLOSE)
                 pl.add(new double[] {p[0], p[1]});
             else
-                closed = true;
+                closed[0] = true;
             pi.next();
         }
-        return isNearBorder(P, pl.toArray(new double[1][2]), radius, closed);
+        return pl.toArray(new double[1][2]);
     }
     
     /**
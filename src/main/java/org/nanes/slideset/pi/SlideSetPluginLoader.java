@@ -6,6 +6,10 @@ import org.nanes.slideset.dm.ColumnBoundWriter;
 import org.nanes.slideset.dm.CommandTemplate;
 import org.nanes.slideset.dm.DataTypeIDService;
 import org.nanes.slideset.dm.read.ElementReader;
+import org.nanes.slideset.dm.read.ImageCache;
+import org.nanes.slideset.dm.read.ReaderPool;
+import org.nanes.slideset.dm.read.RoiCache;
+import org.nanes.slideset.dm.read.RegionBoundedReader;
 import org.nanes.slideset.dm.write.ElementWriter;
 import org.nanes.slideset.dm.FileLink;
 import org.nanes.slideset.ex.NoPluginInputSourceException;
@@ -14,6 +18,8 @@ import org.nanes.slideset.ex.SlideSetException;
 import org.nanes.slideset.ui.HelpLoader;
 
 import net.imagej.ImageJ;
+import net.imagej.overlay.AbstractOverlay;
+import net.imglib2.roi.RegionOfInterest;
 import org.scijava.command.Command;
 import org.scijava.command.CommandService;
 import org.scijava.command.CommandInfo;
@@ -105,7 +111,10 @@ import org.scijava.plugin.Plugin;
  * read using the selected {@code ColumnBoundReader}s, and the
  * plugin's {@code run()} method is invoked. Once the method returns, the
  * plugin output parameters are recorded by the selected 
- * {@code ColumnBoundWriter}s. Each plugin run occurs in sequence 
+ * {@code ColumnBoundWriter}s. For commands annotated with
+ * {@link RoiBounded}, image inputs are read after the region of
+ * interest inputs, and readers which support it read only the
+ * bounding box of the row's ROIs. Each plugin run occurs in sequence 
  * using one instance of the plugin class on a single thread, 
  * though multithreading may be implemented in future versions. 
  * An important consequence of this is that plugin output parameter 
@@ -257,22 +266,40 @@ public class SlideSetPluginLoader {
           addColumnsForParentFields(parentFields, data, resultsTable);
           setupFileLinkColumns(resultsTable, linkDir, linkPre, linkExt);
           
+          // Readers limited to the ROI bounds are run after the ROIs are read
+          final RoiBounded rb = plugin.getPluginClass().getAnnotation(RoiBounded.class);
+          final boolean[] bounded = new boolean[readInputs.size()];
+          for(int j=0; j<bounded.length; j++)
+               bounded[j] = rb != null
+                       && readers.get(j).getReader() instanceof RegionBoundedReader;
+          
           // Loop through the plugin
           log.println("Setup complete. Beginning processing.");
           for(int i=0; i<data.getNumRows(); i++) {
                log.println("Processing row " + String.valueOf(i+1) + "...");
-               for(int j=0; j<readInputs.size(); j++) {
-                    try {
-                         module.setInput(
-                               readInputs.get(j).getName(),
-                               readers.get(j).read(i));
-                    } catch(SlideSetException e) { 
-                         log.println("~~~~~~~~~~~~");
-                         log.println("Fatal error:");
-                         log.println(e.getMessage());
-                         log.println("~~~~~~~~~~~~");
-                         ij.log().debug(e);
-                         return null; 
+               long[][] region = null;
+               for(int pass = 0; pass < 2; pass++) {
+                    if(pass == 1 && rb != null)
+                         region = getRoiBounds(module, readInputs, rb);
+                    for(int j=0; j<readInputs.size(); j++) {
+                         if(bounded[j] != (pass == 1))
+                              continue;
+                         try {
+                              if(bounded[j])
+                                   ((RegionBoundedReader) readers.get(j).getReader())
+                                           .setRegion(region == null ? null : region[0],
+                                           region == null ? null : region[1]);
+                              module.setInput(
+                                    readInputs.get(j).getName(),
+                                    readers.get(j).read(i));
+                         } catch(SlideSetException e) { 
+                              log.println("~~~~~~~~~~~~");
+                              log.println("Fatal error:");
+                              log.println(e.getMessage());
+                              log.println("~~~~~~~~~~~~");
+                              ij.log().debug(e);
+                              return null; 
+                         }
                     }
                }
                module.run();
@@ -295,6 +322,9 @@ public class SlideSetPluginLoader {
           }
           log.println("Command excecution complete!");
           log.println("(Run time: " + String.valueOf(runTime/1000) + "s)");
+          log.println("(" + ImageCache.getInstance() + ")");
+          log.println("(" + ReaderPool.getInstance() + ")");
+          log.println("(" + RoiCache.getInstance() + ")");
           data.setLock(true);
           resultsTable.setLock(true);
           return resultsTable;
@@ -373,6 +403,59 @@ public class SlideSetPluginLoader {
          }
      }
      
+     /**
+      * Get the X-Y bounding box of the ROI inputs, expanded by the
+      * margin requested by a {@link RoiBounded} command
+      * @return The minimum and maximum coordinates, or {@code null}
+      *     if there are no ROI inputs or the bounds are unknown
+      */
+     private long[][] getRoiBounds(Module module, 
+             List<ModuleItem<?>> inputs, RoiBounded rb) {
+         double margin = rb.margin();
+         if(!rb.marginInput().isEmpty()) {
+             final Object m = module.getInput(rb.marginInput());
+             if(m instanceof Number)
+                 margin += Math.max(0, ((Number) m).doubleValue());
+         }
+         final double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+         final double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+         boolean found = false;
+         for(ModuleItem<?> item : inputs) {
+             final Object value = module.getInput(item.getName());
+             final AbstractOverlay[] rois;
+             if(value instanceof AbstractOverlay[])
+                 rois = (AbstractOverlay[]) value;
+             else if(value instanceof AbstractOverlay)
+                 rois = new AbstractOverlay[] {(AbstractOverlay) value};
+             else
+                 continue;
+             found = true;
+             for(AbstractOverlay o : rois) {
+                 if(o == null)
+                     continue;
+                 final RegionOfInterest r = o.getRegionOfInterest();
+                 if(r == null || r.numDimensions() < 2)
+                     return null;
+                 for(int d = 0; d < 2; d++) {
+                     min[d] = Math.min(min[d], r.realMin(d));
+                     max[d] = Math.max(max[d], r.realMax(d));
+                 }
+             }
+         }
+         if(!found)
+             return null;
+         final long[][] bounds = new long[2][2];
+         for(int d = 0; d < 2; d++) {
+             if(min[d] > max[d]) // No ROIs in this row
+                 continue;
+             if(Double.isInfinite(min[d]) || Double.isInfinite(max[d]))
+                 return null;
+             bounds[0][d] = (long) Math.floor(min[d] - margin);
+             bounds[1][d] = (long) Math.ceil(max[d] + margin);
+         }
+         return bounds;
+     }
+     
      /** Get a list of inputs that have not been filled */
      private ArrayList<ModuleItem<?>> getUnfilledInputs(
              Module module,
@@ -655,6 +738,7 @@ public class SlideSetPluginLoader {
         int numres = reduce ? getNumResults(oMap) : 1;
         for(int i = 0; i < numres; i++) {
             int r = resultsTable.addRow();
+            resultsTable.setParentRow(r, parentRow);
             int offset = outputs.size();
             for(int c = 0; c < offset; c++) {
                 ColumnBoundWriter w = writers.get(c);
@@ -0,0 +1,162 @@
+package org.nanes.slideset.pi;
+
+import net.imagej.Dataset;
+import net.imagej.overlay.AbstractOverlay;
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Spearman's rank correlation between two channels within each ROI.
+ * Values are ranked by their histogram bins within each ROI, and values
+ * in the same bin are given the average of their ranks.
+ *
+ * @author Benjamin Nanes
+ * @see Correlation
+ */
+@RoiBounded
+@HelpPath(path = "plugins/correlation.html#spearman")
+@Plugin(type=SlideSetPlugin.class,
+        label="Spearman's Rank Correlation", visible = false,
+        menuPath="Plugins > Slide Set > Commands > Spearman's Rank Correlation")
+public class SpearmanCorrelation extends SlideSetPlugin implements MultipleResults {
+
+    // -- Parameters --
+
+    @Parameter(label="Image", type=ItemIO.INPUT)
+    private Dataset ds;
+
+    @Parameter(label="Region of Interest", type=ItemIO.INPUT)
+    private AbstractOverlay[] roi;
+
+    @Parameter(label="Channel 1 (1-based index)", type=ItemIO.INPUT)
+    private int c1;
+
+    @Parameter(label="Channel 2 (1-based index)", type=ItemIO.INPUT)
+    private int c2;
+
+    @Parameter(label="Rho", type=ItemIO.OUTPUT)
+    private float rho[];
+
+    // -- Other fields --
+
+    /** Histogram bins per channel for ranking values */
+    private static final int BINS = 1024;
+
+    // -- Run method --
+
+    @Override
+    public void run() {
+        rho = new float[0];
+        if(roi == null || ds == null)
+            return;
+        final int n = roi.length;
+        if(n == 0)
+            return;
+        final ChannelPairs pairs = new ChannelPairs(ds, roi, c1 - 1, c2 - 1);
+        final long[] count = new long[n];
+        final float[] range = {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+            Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        pairs.scan(new ChannelPairs.PixelVisitor() {
+            @Override
+            public void visit(int[] in, float p1, float p2) {
+                for(int i : in)
+                    count[i]++;
+                range[0] = Math.min(range[0], p1);
+                range[1] = Math.max(range[1], p1);
+                range[2] = Math.min(range[2], p2);
+                range[3] = Math.max(range[3], p2);
+            }
+        });
+        rho = new float[n];
+        if(range[0] > range[1])
+            return;
+        final Bins b1 = new Bins(range[0], range[1], ds.isInteger());
+        final Bins b2 = new Bins(range[2], range[3], ds.isInteger());
+        final int[][] h1 = new int[n][];
+        final int[][] h2 = new int[n][];
+        for(int i=0; i<n; i++) {
+            if(count[i] > 0) {
+                h1[i] = new int[b1.count];
+                h2[i] = new int[b2.count];
+            }
+        }
+        pairs.scan(new ChannelPairs.PixelVisitor() {
+            @Override
+            public void visit(int[] in, float p1, float p2) {
+                final int k1 = b1.of(p1);
+                final int k2 = b2.of(p2);
+                for(int i : in) {
+                    h1[i][k1]++;
+                    h2[i][k2]++;
+                }
+            }
+        });
+        final double[][] rank1 = new double[n][];
+        final double[][] rank2 = new double[n][];
+        for(int i=0; i<n; i++) {
+            if(h1[i] == null)
+                continue;
+            rank1[i] = midRanks(h1[i]);
+            rank2[i] = midRanks(h2[i]);
+            h1[i] = null;
+            h2[i] = null;
+        }
+        final ChannelPairs.CoMoments ranks = new ChannelPairs.CoMoments(n);
+        pairs.scan(new ChannelPairs.PixelVisitor() {
+            @Override
+            public void visit(int[] in, float p1, float p2) {
+                final int k1 = b1.of(p1);
+                final int k2 = b2.of(p2);
+                for(int i : in)
+                    ranks.add(i, rank1[i][k1], rank2[i][k2]);
+            }
+        });
+        for(int i=0; i<n; i++)
+            if(ranks.count(i) > 0)
+                rho[i] = (float) ranks.r(i);
+    }
+
+    // -- Helper methods --
+
+    /** Average rank of the values in each bin of a histogram */
+    private static double[] midRanks(int[] hist) {
+        final double[] ranks = new double[hist.length];
+        long below = 0;
+        for(int k=0; k<hist.length; k++) {
+            ranks[k] = below + (hist[k] + 1) / 2.0;
+            below += hist[k];
+        }
+        return ranks;
+    }
+
+    // -- Helper classes --
+
+    /**
+     * Histogram bins spanning the values on a channel. Integer values are
+     * binned exactly if there are no more than {@code BINS} levels.
+     */
+    private static final class Bins {
+
+        final int count;
+        private final double min;
+        private final double width;
+
+        Bins(float min, float max, boolean integer) {
+            this.min = min;
+            final double span = max - min;
+            if(integer) {
+                width = Math.max(1, Math.ceil((span + 1) / BINS));
+                count = (int) Math.min(BINS, Math.floor(span / width) + 1);
+            } else {
+                width = span > 0 ? span / BINS : 1;
+                count = span > 0 ? BINS : 1;
+            }
+        }
+
+        int of(float v) {
+            return Math.min(count - 1, (int) ((v - min) / width));
+        }
+    }
+
+}
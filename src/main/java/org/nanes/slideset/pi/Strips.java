@@ -0,0 +1,80 @@
+package org.nanes.slideset.pi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run a task over strips of image rows on a pool of threads.
+ *
+ * @author Benjamin Nanes
+ */
+final class Strips {
+
+    // -- Fields --
+
+    /** Fewest rows given to each thread */
+    static final int MIN_STRIP = 64;
+
+    private Strips() { }
+
+    // -- Methods --
+
+    /** Get the number of strips to split {@code rows} rows into */
+    static int count(long rows, int nThreads) {
+        return (int) Math.max(1, Math.min(Math.max(1, nThreads), rows / MIN_STRIP));
+    }
+
+    /** Get the first row of strip {@code s} of {@code nStrips} */
+    static long start(long rows, int s, int nStrips) {
+        return rows * s / nStrips;
+    }
+
+    /**
+     * Run a task for each of {@code nTasks} strips. Exceptions thrown by
+     * the task are thrown again here.
+     * @throws InterruptedException Waiting for the tasks was interrupted
+     */
+    static void run(int nTasks, int nThreads, final Task task) throws InterruptedException {
+        if(nTasks == 1 || nThreads <= 1) {
+            for(int i = 0; i < nTasks; i++)
+                task.run(i);
+            return;
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, nTasks));
+        try {
+            final List<Future<Void>> tasks = new ArrayList<Future<Void>>(nTasks);
+            for(int i = 0; i < nTasks; i++) {
+                final int strip = i;
+                tasks.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        task.run(strip);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<Void> t : tasks)
+                t.get();
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if(e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // -- Helper classes --
+
+    interface Task {
+        void run(int i);
+    }
+
+}
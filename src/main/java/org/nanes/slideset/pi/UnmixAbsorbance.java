@@ -1,20 +1,21 @@
 package org.nanes.slideset.pi;
 
 import Jama.Matrix;
+import java.util.Arrays;
 import org.nanes.slideset.ex.SlideSetException;
 import org.nanes.slideset.ui.SlideSetLog;
 import net.imagej.Dataset;
 import net.imagej.DefaultDataset;
-import net.imglib2.RandomAccess;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.planar.PlanarImg;
 import net.imglib2.img.planar.PlanarImgFactory;
-import net.imglib2.img.planar.PlanarRandomAccess;
-import net.imglib2.iterator.IntervalIterator;
 import net.imagej.axis.Axes;
 import net.imagej.ImgPlus;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
 import org.scijava.Context;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
@@ -102,101 +103,119 @@ public class UnmixAbsorbance extends SlideSetPlugin implements MultipleResults {
           final Dataset input, 
           final double[] absOne, final double[] absTwo)
           throws SlideSetException {
-        int max = new Double(input.getType().getMaxValue()).intValue();
-        double logMax = Math.log(max);
+        final int max = new Double(input.getType().getMaxValue()).intValue();
+        final double logMax = Math.log(max);
 
+        // The least-squares solution for every pixel is the pseudo-inverse
+        // of the pigment matrix times the pixel's absorbance vector
         final Matrix P = new Matrix(concat(absOne, absTwo), 3);
+        final double[][] p = P.getArray();
+        final double[][] pinv;
+        try {
+            pinv = P.solve(Matrix.identity(3, 3)).getArray();
+        } catch(RuntimeException e) {
+            throw new SlideSetException("Pigment colors must not be identical");
+        }
         
-        final int nDims = ds.numDimensions();
-        final int cDim = ds.dimensionIndex(Axes.CHANNEL);
+        final int nDims = input.numDimensions();
+        final int cDim = input.dimensionIndex(Axes.CHANNEL);
+        final int yDim = input.dimensionIndex(Axes.Y);
         final long[] dims = new long[nDims];
-        ds.dimensions(dims);
+        input.dimensions(dims);
         if(cDim < 0 || dims[cDim] < 3)
             throw new SlideSetException("RGB image required");
         dims[cDim] = 1;
         
-        final IntervalIterator ii = new IntervalIterator(dims);
-        final RandomAccess<? extends RealType<?>> ra = ds.randomAccess();
-        final PlanarImgFactory<DoubleType> pifd =
-                new PlanarImgFactory<DoubleType>();
-        final PlanarImg<DoubleType, ?> p1d =
-                pifd.create(dims, new DoubleType(0));
-        final PlanarRandomAccess<DoubleType> p1ra = p1d.randomAccess();
-        final double[] p1lim = new double[] {0, 0}; // Min, Max
-        final PlanarImg<DoubleType, ?> p2d =
-                pifd.create(dims, new DoubleType(0));
-        final PlanarRandomAccess<DoubleType> p2ra = p2d.randomAccess();
-        final double[] p2lim = new double[] {0, 0};
-        final PlanarImg<DoubleType, ?> rd =
-                pifd.create(dims, new DoubleType(0));
-        final PlanarRandomAccess<DoubleType> rra = rd.randomAccess();
-        final double[] rlim = new double[] {0, 0};
-        boolean first = true;
-        
-        while(ii.hasNext()) { // Do unmixing
-            ii.fwd();
-            ra.setPosition(ii);
-            p1ra.setPosition(ii);
-            p2ra.setPosition(ii);
-            rra.setPosition(ii);
-            final double[] I = new double[3];
-            for(int i = 0; i < 3; i++) {
-                ra.setPosition(i, cDim);
-                I[i] = ra.get().getRealDouble();
-            }
-            final double[] a = new double[3];
-            for(int i = 0; i < 3; i++)
-                a[i] = -1 * Math.log(I[i] / max);
-            final Matrix A = new Matrix(a, 3); // Total absorbance
-            final Matrix x = P.solve(A); // Solution
-            final double residual = P.times(x).minus(A).normF();
-            final double p1 = x.get(0,0); // Absorbance apportioned to each pigment
-            final double p2 = x.get(1,0);
-            p1ra.get().set(p1);
-            if(first || p1 < p1lim[0])
-                p1lim[0] = p1;
-            if(first || p1 > p1lim[1])
-                p1lim[1] = p1;
-            p2ra.get().set(p2);
-            if(first || p2 < p2lim[0])
-                p2lim[0] = p2;
-            if(first || p2 > p2lim[1])
-                p2lim[1] = p2;
-            rra.get().set(residual);
-            if(first || residual < rlim[0])
-                rlim[0] = residual;
-            if(first || residual > rlim[1])
-                rlim[1] = residual;
-            first = false;
-        }
-        ii.reset();
+        // Absorbance of each possible value for integer images
+        final double[] lut;
+        if(input.isInteger() && input.getType().getMinValue() >= 0 && max <= 65535) {
+            lut = new double[max + 1];
+            for(int v = 0; v <= max; v++)
+                lut[v] = -1 * Math.log((double) v / max);
+        } else
+            lut = null;
         
+        final RandomAccessibleInterval<? extends RealType<?>> img = input.getImgPlus();
         final PlanarImgFactory<UnsignedShortType> pifnorm =
                 new PlanarImgFactory<UnsignedShortType>();
         final PlanarImg<UnsignedShortType, ?> p1n =
                 pifnorm.create(dims, new UnsignedShortType(0));
-        PlanarRandomAccess<UnsignedShortType> p1nra = p1n.randomAccess();
         final PlanarImg<UnsignedShortType, ?> p2n =
                 pifnorm.create(dims, new UnsignedShortType(0));
-        PlanarRandomAccess<UnsignedShortType> p2nra = p2n.randomAccess();
         final PlanarImg<UnsignedShortType, ?> rn =
                 pifnorm.create(dims, new UnsignedShortType(0));
-        PlanarRandomAccess<UnsignedShortType> rnra = rn.randomAccess();
+        final PlanarImg<DoubleType, ?> rd =
+                new PlanarImgFactory<DoubleType>().create(dims, new DoubleType(0));
+        final double[] rlim = new double[] {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}; // Min, Max
         
-        while(ii.hasNext()) { // Normalize output images
-            ii.fwd();
-            p1ra.setPosition(ii);
-            p1nra.setPosition(ii);
-            p2ra.setPosition(ii);
-            p2nra.setPosition(ii);
-            rra.setPosition(ii);
-            rnra.setPosition(ii);
-            p1nra.get().setInteger(Math.round(
-                  Math.max(p1ra.get().getRealDouble(), 0) / logMax * 65535));
-            p2nra.get().setInteger(Math.round(
-                  Math.max(p2ra.get().getRealDouble(), 0) / logMax * 65535));
-            rnra.get().setInteger(Math.round(
-                 ((rra.get().getRealDouble() - rlim[0]) / (rlim[1] - rlim[0])) * 65535));
+        final int nThreads = Runtime.getRuntime().availableProcessors();
+        final long rows = yDim < 0 ? 1 : dims[yDim];
+        final int nStrips = Strips.count(rows, nThreads);
+        final long[][] mins = new long[nStrips][nDims];
+        final long[][] lims = new long[nStrips][nDims];
+        for(int s = 0; s < nStrips; s++) {
+            for(int d = 0; d < nDims; d++)
+                lims[s][d] = dims[d] - 1;
+            if(yDim >= 0) {
+                mins[s][yDim] = Strips.start(rows, s, nStrips);
+                lims[s][yDim] = Strips.start(rows, s + 1, nStrips) - 1;
+            }
+        }
+        try {
+            Strips.run(nStrips, nThreads, new Strips.Task() {
+                @Override
+                public void run(int s) { // Do unmixing, and normalize absorbances
+                    final long[] min = mins[s];
+                    final long[] lim = lims[s];
+                    final Cursor<? extends RealType<?>> red = channel(img, min, lim, cDim, 0);
+                    final Cursor<? extends RealType<?>> green = channel(img, min, lim, cDim, 1);
+                    final Cursor<? extends RealType<?>> blue = channel(img, min, lim, cDim, 2);
+                    final Cursor<UnsignedShortType> p1c = Views.flatIterable(Views.interval(p1n, min, lim)).cursor();
+                    final Cursor<UnsignedShortType> p2c = Views.flatIterable(Views.interval(p2n, min, lim)).cursor();
+                    final Cursor<DoubleType> rc = Views.flatIterable(Views.interval(rd, min, lim)).cursor();
+                    double rMin = Double.POSITIVE_INFINITY;
+                    double rMax = Double.NEGATIVE_INFINITY;
+                    while(red.hasNext()) {
+                        final double a0 = absorbance(red.next().getRealDouble(), lut, max);
+                        final double a1 = absorbance(green.next().getRealDouble(), lut, max);
+                        final double a2 = absorbance(blue.next().getRealDouble(), lut, max);
+                        // Absorbance apportioned to each pigment
+                        final double x0 = pinv[0][0] * a0 + pinv[0][1] * a1 + pinv[0][2] * a2;
+                        final double x1 = pinv[1][0] * a0 + pinv[1][1] * a1 + pinv[1][2] * a2;
+                        final double r0 = p[0][0] * x0 + p[0][1] * x1 - a0;
+                        final double r1 = p[1][0] * x0 + p[1][1] * x1 - a1;
+                        final double r2 = p[2][0] * x0 + p[2][1] * x1 - a2;
+                        final double residual = Math.sqrt(r0 * r0 + r1 * r1 + r2 * r2);
+                        p1c.next().setInteger(Math.round(Math.max(x0, 0) / logMax * 65535));
+                        p2c.next().setInteger(Math.round(Math.max(x1, 0) / logMax * 65535));
+                        rc.next().set(residual);
+                        if(residual < rMin)
+                            rMin = residual;
+                        if(residual > rMax)
+                            rMax = residual;
+                    }
+                    synchronized(rlim) {
+                        rlim[0] = Math.min(rlim[0], rMin);
+                        rlim[1] = Math.max(rlim[1], rMax);
+                    }
+                }
+            });
+            Strips.run(nStrips, nThreads, new Strips.Task() {
+                @Override
+                public void run(int s) { // Normalize residual
+                    final long[] min = mins[s];
+                    final long[] lim = lims[s];
+                    final Cursor<DoubleType> rc = Views.flatIterable(Views.interval(rd, min, lim)).cursor();
+                    final Cursor<UnsignedShortType> rnc = Views.flatIterable(Views.interval(rn, min, lim)).cursor();
+                    final double lo = rlim[0];
+                    final double range = rlim[1] - rlim[0];
+                    while(rc.hasNext())
+                        rnc.next().setInteger(Math.round(((rc.next().get() - lo) / range) * 65535));
+                }
+            });
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Unmixing of " + input.getName() + " was interrupted.");
         }
         
         final DefaultDataset pigment1 =
@@ -230,6 +249,21 @@ public class UnmixAbsorbance extends SlideSetPlugin implements MultipleResults {
         return val;
     }
     
+    /** Absorbance of a pixel value, from the table if there is one */
+    private static double absorbance(double value, double[] lut, int max) {
+        return lut != null ? lut[(int) value] : -1 * Math.log(value / max);
+    }
+    
+    /** Cursor over one channel of a strip of an image */
+    private static Cursor<? extends RealType<?>> channel(
+            RandomAccessibleInterval<? extends RealType<?>> img,
+            long[] min, long[] max, int cDim, int c) {
+        final long[] cMin = Arrays.copyOf(min, min.length);
+        final long[] cMax = Arrays.copyOf(max, max.length);
+        cMin[cDim] = cMax[cDim] = c;
+        return Views.flatIterable(Views.interval(img, cMin, cMax)).cursor();
+    }
+    
     /** Concatenate two vectors */
     private double[] concat(double[] a, double[] b) {
         double[] c = new double[a.length + b.length];
@@ -3,12 +3,22 @@ package org.nanes.slideset.script;
 import ij.IJ;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import net.imagej.ImageJ;
 import org.nanes.slideset.SlideSet;
 import org.nanes.slideset.dm.DataTypeIDService;
+import org.nanes.slideset.dm.read.ImageCache;
+import org.nanes.slideset.dm.read.ReaderPool;
+import org.nanes.slideset.dm.read.RoiCache;
 import org.nanes.slideset.ex.OperationCanceledException;
 import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.ArrowService;
+import org.nanes.slideset.io.CSVImportService;
 import org.nanes.slideset.io.CSVService;
+import org.nanes.slideset.io.ImageMetadataService;
+import org.nanes.slideset.io.LinkCheckService;
+import org.nanes.slideset.io.SQLStoreService;
 import org.nanes.slideset.io.XMLService;
 import org.nanes.slideset.pi.PluginInputPicker;
 import org.nanes.slideset.pi.PluginOutputPicker;
@@ -42,6 +52,9 @@ public class SlideSetScript implements LogListener {
     private DataTypeIDService dtids;
     private XMLService xmls;
     private CSVService csvs;
+    private CSVImportService csvi;
+    private ArrowService arrs;
+    private SQLStoreService sqls;
     private SlideSetLog sslg;
     private HttpHelpLoader hhl;
     private SlideSetPluginLoader sspl;
@@ -69,6 +82,9 @@ public class SlideSetScript implements LogListener {
         dtids = new DataTypeIDService(ij);
         xmls = new XMLService(ij, dtids);
         csvs = new CSVService();
+        csvi = new CSVImportService(ij, dtids);
+        arrs = new ArrowService();
+        sqls = new SQLStoreService(ij, dtids);
         this.logTo = logTo;
         sslg = new SlideSetLog();
         sslg.registerListener(this);
@@ -114,6 +130,33 @@ public class SlideSetScript implements LogListener {
         return xmls;
     }
     
+    /**
+     * Get the shared {@link ImageCache} of decoded images, for
+     * adjusting its memory budget and checking hit and miss counts.
+     * @return 
+     */
+    public ImageCache getImageCache() {
+        return ImageCache.getInstance();
+    }
+    
+    /**
+     * Get the shared {@link RoiCache} of parsed ROI set files, for
+     * adjusting its memory budget and checking hit and miss counts.
+     * @return 
+     */
+    public RoiCache getRoiCache() {
+        return RoiCache.getInstance();
+    }
+    
+    /**
+     * Get the shared {@link ReaderPool} of open Bio-Formats readers, for
+     * setting its size and the directory used to save reader state.
+     * @return 
+     */
+    public ReaderPool getReaderPool() {
+        return ReaderPool.getInstance();
+    }
+    
     /**
      * Get the {@link SlideSetPluginLoader} for preparing and running Slide Set commands.
      * @return 
@@ -123,14 +166,15 @@ public class SlideSetScript implements LogListener {
     }
     
     /**
-     * Load a Slide Set data file
+     * Load a Slide Set data file. Files ending in {@code .mv.db} are
+     * read as Slide Set databases; others are read as XML.
      * @param file
      * @return 
      */
     public SlideSet loadSlideSet(File file) {
         SlideSet table;
         try {
-            table = xmls.read(file);
+            table = SQLStoreService.isDatabaseFile(file) ? sqls.read(file) : xmls.read(file);
         } catch(Exception e) {
             throw new IllegalArgumentException(e);
         }
@@ -147,13 +191,17 @@ public class SlideSetScript implements LogListener {
     }
     
     /**
-     * Save a Slide Set data file
+     * Save a Slide Set data file. Files ending in {@code .mv.db} are
+     * written as Slide Set databases; others are written as XML.
      * @param table Slide Set data table, possibly with children
      * @param file 
      */
     public void saveSlideSet(SlideSet table, File file) {
         try {
-            xmls.write(table, file);
+            if(SQLStoreService.isDatabaseFile(file))
+                sqls.write(table, file);
+            else
+                xmls.write(table, file);
         } catch(Exception e) {
             throw new IllegalArgumentException(e);
         }
@@ -212,6 +260,141 @@ public class SlideSetScript implements LogListener {
         saveCSV(table, new File(fileName));
     }
     
+    /**
+     * Run a SQL query against a Slide Set database file without loading
+     * the stored tables. Tables are named as in Slide Set (use double quotes),
+     * and have {@code _row} and {@code _parent_row} key columns for joining
+     * results to their parent tables. The {@code SS_TABLES} table lists
+     * the stored tables. Ex:
+     * {@code SELECT p."Group", AVG(r."M1") FROM "Result of Manders" r
+     * JOIN "Data" p ON r."_parent_row" = p."_row" GROUP BY p."Group"}
+     * @param file Database file ({@code .mv.db})
+     * @param sql Query
+     * @return The query results as a new table
+     */
+    public SlideSet querySQL(File file, String sql) {
+        try {
+            return sqls.query(file, sql);
+        } catch(Exception e) {
+            sslg.println("[SlideSetScript] Query failed: " + e.getMessage());
+            throw new IllegalArgumentException(e);
+        }
+    }
+    
+    /**
+     * Run a SQL query against a Slide Set database file
+     * @param fileName Database file ({@code .mv.db})
+     * @param sql Query
+     * @return The query results as a new table
+     */
+    public SlideSet querySQL(String fileName, String sql) {
+        return querySQL(new File(fileName), sql);
+    }
+    
+    /**
+     * Export a Slide Set data table and its descendants as Arrow IPC
+     * (Feather v2) files. Child tables are written next to {@code file}
+     * with numbered suffixes.
+     * @param table
+     * @param file
+     * @return The files written
+     */
+    public List<File> saveArrow(SlideSet table, File file) {
+        try {
+            return arrs.write(table, file);
+        } catch (IOException|SlideSetException e) {
+            sslg.println("[SlideSetScript] Failed to write Arrow file.");
+            throw new IllegalArgumentException(e);
+        }
+    }
+    
+    /**
+     * Export a Slide Set data table and its descendants as Arrow IPC
+     * (Feather v2) files
+     * @param table
+     * @param fileName
+     * @return The files written
+     */
+    public List<File> saveArrow(SlideSet table, String fileName) {
+        return saveArrow(table, new File(fileName));
+    }
+    
+    /**
+     * Import a CSV or TSV file as a new Slide Set data table. Column
+     * types are inferred from the values, and columns of paths to
+     * existing files are imported as file links.
+     * @param file
+     * @return 
+     */
+    public SlideSet importCSV(File file) {
+        SlideSet table;
+        try {
+            table = csvi.read(file);
+        } catch(Exception e) {
+            sslg.println("[SlideSetScript] Failed to import CSV file.");
+            throw new IllegalArgumentException(e);
+        }
+        return table;
+    }
+    
+    /**
+     * Import a CSV or TSV file as a new Slide Set data table
+     * @param fileName
+     * @return 
+     */
+    public SlideSet importCSV(String fileName) {
+        return importCSV(new File(fileName));
+    }
+    
+    /**
+     * Add columns with the dimensions, pixel type, size, and calibration
+     * of the images linked in a column. Only image headers are read.
+     * Images that cannot be read are noted in the log.
+     * @param table
+     * @param colName Name of a column of image file links
+     * @return Index of the first new column
+     */
+    public int addImageMetadata(SlideSet table, String colName) {
+        final ArrayList<String> errors = new ArrayList<String>();
+        final int first;
+        try {
+            first = new ImageMetadataService().addMetadataColumns(
+                    table, table.getColumnIndex(colName), errors);
+        } catch(Exception e) {
+            sslg.println("[SlideSetScript] Failed to read image metadata.");
+            throw new IllegalArgumentException(e);
+        }
+        for(String s : errors)
+            sslg.println("[SlideSetScript] " + s);
+        return first;
+    }
+    
+    /**
+     * Check that the files linked in a table and its descendants exist,
+     * can be read, and are not empty. Run this before a long batch, so
+     * missing files are found before the commands start. The summary
+     * and each problem are noted in the log.
+     * @param table
+     * @return The results of the check
+     */
+    public LinkCheckService.Report checkLinks(SlideSet table) {
+        final LinkCheckService.Report report;
+        try {
+            report = new LinkCheckService().check(table);
+        } catch(Exception e) {
+            sslg.println("[SlideSetScript] Failed to check links.");
+            throw new IllegalArgumentException(e);
+        }
+        sslg.println("[SlideSetScript] " + report);
+        for(LinkCheckService.Problem p : report.getMissing())
+            sslg.println("[SlideSetScript] Missing: " + p);
+        for(LinkCheckService.Problem p : report.getUnreadable())
+            sslg.println("[SlideSetScript] Unreadable: " + p);
+        for(LinkCheckService.Problem p : report.getEmpty())
+            sslg.println("[SlideSetScript] Empty: " + p);
+        return report;
+    }
+    
     /**
      * Get the contents of a Slide Set table column
      * @param table
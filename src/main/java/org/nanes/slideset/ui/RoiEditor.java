@@ -403,6 +403,10 @@ public class RoiEditor extends JFrame
                if(dlex == null || dlex.isEmpty()) {
                    if(slideSet.getColumnMimeType(i).equals(MIME.SVG))
                        slideSet.setDefaultLinkExtension(i, "svg");
+                   else if(slideSet.getColumnMimeType(i).equals(MIME.ROIPACK))
+                       slideSet.setDefaultLinkExtension(i, "roipack");
+                   else if(slideSet.getColumnMimeType(i).equals(MIME.LABELS))
+                       slideSet.setDefaultLinkExtension(i, "tif");
                    else
                        slideSet.setDefaultLinkExtension(i, "roiset");
                }
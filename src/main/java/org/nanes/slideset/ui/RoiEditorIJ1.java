@@ -405,9 +405,14 @@ public class RoiEditorIJ1
         dtid.getColumnReadWritePairs(
                 Roi[].class, slideSet, reads, writes);
         for(int u=0; u<reads.size(); u++) {
+            final int i = reads.get(u).getColumnNum();
+            // Label images only keep pixels, so they are edited as
+            // overlays in the ImageJ 2 editor, not as ImageJ 1 Rois
+            if (MIME.LABELS.equals(slideSet.getColumnMimeType(i))) {
+                continue;
+            }
             roiReaders.add(reads.get(u));
             roiWriters.add(writes.get(u));
-            final int i = reads.get(u).getColumnNum();
             roiSetNames.add(slideSet.getColumnName(i));
             final String defp = slideSet.getColumnDefaultPath(i);
             if (defp == null || defp.isEmpty()) {
@@ -422,6 +427,8 @@ public class RoiEditorIJ1
             if (dlex == null || dlex.isEmpty()) {
                 if (slideSet.getColumnMimeType(i).equals(MIME.SVG)) {
                     slideSet.setDefaultLinkExtension(i, "svg");
+                } else if (slideSet.getColumnMimeType(i).equals(MIME.ROIPACK)) {
+                    slideSet.setDefaultLinkExtension(i, "roipack");
                 } else {
                     slideSet.setDefaultLinkExtension(i, "roiset");
                 }
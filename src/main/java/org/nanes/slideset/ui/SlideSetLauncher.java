@@ -7,7 +7,11 @@ import org.nanes.slideset.ex.ColumnTypeException;
 import org.nanes.slideset.ex.NoPluginInputSourceException;
 import org.nanes.slideset.ex.OperationCanceledException;
 import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.ArrowService;
+import org.nanes.slideset.io.LinkCheckService;
+import org.nanes.slideset.io.CSVImportService;
 import org.nanes.slideset.io.CSVService;
+import org.nanes.slideset.io.SQLStoreService;
 import org.nanes.slideset.io.CommandSkeletonService;
 import org.nanes.slideset.io.XMLService;
 import org.nanes.slideset.pi.SlideSetPluginLoader;
@@ -29,6 +33,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
+import java.sql.SQLException;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -83,6 +88,10 @@ public class SlideSetLauncher extends JFrame
      private final DataTypeIDService dtid;
      private final XMLService xmls;
      private final CSVService csvs;
+     private final CSVImportService csvi;
+     private final ArrowService arrs = new ArrowService();
+     private final LinkCheckService lcs = new LinkCheckService();
+     private final SQLStoreService sqls;
      private final SlideSetPluginLoader sspl;
      private final SlideSetLog log;
      private final HttpHelpLoader helpLoader;
@@ -126,6 +135,8 @@ public class SlideSetLauncher extends JFrame
           this.dtid = dtid;
           this.xmls = xmls;
           this.csvs = csvs;
+          this.csvi = new CSVImportService(context, dtid);
+          this.sqls = new SQLStoreService(context, dtid);
           this.sspl = new SlideSetPluginLoader(context, dtid, log, helpLoader);
           this.log = log;
           this.log.registerListener(this);
@@ -249,6 +260,10 @@ public class SlideSetLauncher extends JFrame
           open.setActionCommand("open");
           open.addActionListener(this);
           file.add(open);
+          final JMenuItem impCsv = new JMenuItem("Import CSV...");
+          impCsv.setActionCommand("import csv");
+          impCsv.addActionListener(this);
+          file.add(impCsv);
           
           final JMenuItem tabV = new JMenuItem("View Table");
           tabV.setActionCommand("view table");
@@ -262,6 +277,10 @@ public class SlideSetLauncher extends JFrame
           rois.setActionCommand("view rois");
           rois.addActionListener(this);
           table.add(rois);
+          final JMenuItem chk = new JMenuItem("Check Links");
+          chk.setActionCommand("check links");
+          chk.addActionListener(this);
+          table.add(chk);
           table.addSeparator();
           table.add(buildSlideSetPluginsMenu()).setText("Run Slide Set Command");
           final JMenuItem oCom = new JMenuItem("Run Other Command (experimental)");
@@ -288,6 +307,10 @@ public class SlideSetLauncher extends JFrame
           csv.setActionCommand("save csv");
           csv.addActionListener(this);
           table.add(csv);
+          final JMenuItem arrow = new JMenuItem("Export Data As Arrow...");
+          arrow.setActionCommand("save arrow");
+          arrow.addActionListener(this);
+          table.add(arrow);
           table.addSeparator();
           final JMenuItem ulk = new JMenuItem("Unlock");
           ulk.setActionCommand("unlock table");
@@ -441,12 +464,18 @@ public class SlideSetLauncher extends JFrame
           roc.addActionListener(this);
           run.add(roc);
           run.setText("Run Command");
+          final JMenuItem cl = new JMenuItem("Check Links");
+          cl.setActionCommand("check links");
+          cl.addActionListener(this);
           final JMenuItem tp = new JMenuItem("Properties");
           tp.setActionCommand("table props");
           tp.addActionListener(this);
           final JMenuItem csv = new JMenuItem("Export as CSV");
           csv.setActionCommand("save csv");
           csv.addActionListener(this);
+          final JMenuItem arrow = new JMenuItem("Export as Arrow");
+          arrow.setActionCommand("save arrow");
+          arrow.addActionListener(this);
           final JMenuItem dt = new JMenuItem("Delete Table");
           dt.setActionCommand("delete table");
           dt.addActionListener(this);
@@ -466,11 +495,13 @@ public class SlideSetLauncher extends JFrame
           final JPopupMenu menuP = new JPopupMenu();
           menuP.add(vt);
           menuP.add(vr);
+          menuP.add(cl);
           menuP.addSeparator();
           menuP.add(run);
           menuP.addSeparator();
           menuP.add(cskelm);
           menuP.add(csv);
+          menuP.add(arrow);
           menuP.addSeparator();
           menuP.add(ulk);
           menuP.add(rt);
@@ -507,6 +538,8 @@ public class SlideSetLauncher extends JFrame
                          { try{saveXML(true);} catch(Exception e){} return; }
                     if(ac.equals("new"))
                          { newFile(); return; }
+                    if(ac.equals("import csv"))
+                         { importCSV(); return; }
                     if(ac.equals("view table"))
                          { viewTable(); return; }
                     if(ac.equals("view rois"))
@@ -525,6 +558,8 @@ public class SlideSetLauncher extends JFrame
                          { resetLog(); return; }
                     if(ac.equals("save csv"))
                          { saveCSV(); return; }
+                    if(ac.equals("save arrow"))
+                         { saveArrow(); return; }
                     if(ac.equals("help doc"))
                          { getHelp(null); return; }
                     if(ac.equals("delete table"))
@@ -535,6 +570,8 @@ public class SlideSetLauncher extends JFrame
                          { refreshTree(); return; }
                     if(ac.equals("table props"))
                          { viewTableProperties(); return; }
+                    if(ac.equals("check links"))
+                         { checkLinks(); return; }
                     if(ac.equals("about"))
                          { getHelp("about"); return; }
                     if(ac.equals("unlock table"))
@@ -667,6 +704,7 @@ public class SlideSetLauncher extends JFrame
           final String wd = data == null ? null : data.getWorkingDirectory();
           final JFileChooser fc = new JFileChooser(wd == null ? null : new File(wd));
           fc.setDialogType(JFileChooser.OPEN_DIALOG);
+          fc.addChoosableFileFilter(new FileNameExtensionFilter("Slide Set database (.mv.db)", "db"));
           fc.setFileFilter(new FileNameExtensionFilter("Slide Set data file (.xml)", "xml"));
           
           FutureTask<Integer> ftOpen = new FutureTask(new Callable<Integer>() {
@@ -698,7 +736,7 @@ public class SlideSetLauncher extends JFrame
           }
           catch(OperationCanceledException e) { return; }
           SlideSet root;
-          try { root = xmls.read(f); }
+          try { root = SQLStoreService.isDatabaseFile(f) ? sqls.read(f) : xmls.read(f); }
           catch(Throwable t) {
                JOptionPane.showMessageDialog(
                        this, "Unable to open file.", "Slide Set",
@@ -717,6 +755,66 @@ public class SlideSetLauncher extends JFrame
           openPath = f.getAbsolutePath();
      }
      
+     /**
+      * Create a new data set from a CSV or TSV file selected
+      * using a dialog - do not run on event thread
+      */
+     private void importCSV() {
+          final SlideSetLauncher ssl = this;
+          final SlideSet data = getTreeRoot();
+          final String wd = data == null ? null : data.getWorkingDirectory();
+          final JFileChooser fc = new JFileChooser(wd == null ? null : new File(wd));
+          fc.setDialogType(JFileChooser.OPEN_DIALOG);
+          fc.setDialogTitle("Import table data");
+          fc.setFileFilter(new FileNameExtensionFilter(
+               "Delimited text (.csv, .tsv, .txt)", "csv", "tsv", "tab", "txt"));
+          
+          FutureTask<Integer> ftOpen = new FutureTask(new Callable<Integer>() {
+              public Integer call() { return fc.showOpenDialog(ssl); }
+          });
+          try {
+            SwingUtilities.invokeAndWait(ftOpen);
+            if(ftOpen.get() != JFileChooser.APPROVE_OPTION)
+               return;
+          } catch (InterruptedException ex) { 
+            log.println("\nError: File selection interrupted.");
+            log.println("# " + ex.getMessage());
+            return;
+          } catch (InvocationTargetException|ExecutionException ex) {
+            log.println("\nError: File selection error.");
+            log.println("# " + ex.getCause().getMessage());
+            return;
+          }
+          
+          final File f = fc.getSelectedFile();
+          if(f == null || !f.canRead())
+               return;
+          try{
+               closeChildWindows();
+               checkChanged();
+          }
+          catch(OperationCanceledException e) { return; }
+          SlideSet root;
+          try { root = csvi.read(f); }
+          catch(Throwable t) {
+               JOptionPane.showMessageDialog(
+                       this, "Unable to import file.", "Slide Set",
+                       JOptionPane.ERROR_MESSAGE);
+               log.println("\nError: Unable to import file.");
+               log.println("# " + f.getPath());
+               log.println("# " + t.getMessage());
+               ij.log().debug(t);
+               return;
+          }
+          log.println("\nImported table \"" + root.getName() + "\" from file: ");
+          log.println(f.getPath());
+          log.println("# " + root.getNumRows() + " rows, " + root.getNumCols() + " columns");
+          populateTree(null, root);
+          expandAllTreeNodes();
+          changed = true;
+          openPath = null;
+     }
+     
      /**
       * Iteratively populate the tree pane
       * 
@@ -782,12 +880,18 @@ public class SlideSetLauncher extends JFrame
                     final String wd = data.getWorkingDirectory();
                     fc.setCurrentDirectory(wd == null ? null : new File(wd));
                     fc.setDialogType(JFileChooser.SAVE_DIALOG);
+                    final FileNameExtensionFilter dbFilter = new FileNameExtensionFilter(
+                        "Slide Set database (.mv.db)", "db");
+                    fc.addChoosableFileFilter(dbFilter);
                     fc.setFileFilter(new FileNameExtensionFilter(
                         "Slide Set data file (.xml)", "xml"));
                     fc.setSelectedFile(new File("Data" + ".xml"));
                     if(fc.showSaveDialog(ssl) != JFileChooser.APPROVE_OPTION)
                         throw new OperationCanceledException("Canceled by user");
                     f = fc.getSelectedFile();
+                    if(fc.getFileFilter() == dbFilter && !SQLStoreService.isDatabaseFile(f))
+                        f = new File(f.getPath().replaceFirst("\\.xml$", "")
+                                + SQLStoreService.EXTENSION);
                 }
                 else f = new File(openPath);
                 if(f.exists() && JOptionPane.showConfirmDialog(ssl,
@@ -806,17 +910,22 @@ public class SlideSetLauncher extends JFrame
                 SwingUtilities.invokeAndWait(ftSave);
                 f = ftSave.get();
             }
-            xmls.write(data, f);
+            if(SQLStoreService.isDatabaseFile(f))
+                sqls.write(data, f);
+            else
+                xmls.write(data, f);
             data.setWorkingDirectory(f.getParent());
             changed = false;
             openPath = f.getAbsolutePath();
             log.println("\nFile saved:");
             log.println("# " + f.getPath());
+        } catch (OperationCanceledException ex) {
+            throw ex;
         } catch (InvocationTargetException|ExecutionException ex) {
             log.println("\nFile not saved:");
             log.println("# " + ex.getCause().getMessage());
             throw new OperationCanceledException();
-        } catch (InterruptedException|IOException|XMLStreamException ex) {
+        } catch (InterruptedException|IOException|XMLStreamException|SQLException|SlideSetException ex) {
             log.println("\nFatal error: Unable to save file.");
             log.println("# " + ex.getMessage());
             throw new OperationCanceledException();
@@ -825,6 +934,69 @@ public class SlideSetLauncher extends JFrame
         }
      }
      
+     /**
+      * Export the selected table and its descendants as Arrow
+      * (Feather v2) files - do not run on event thread
+      */
+     private void saveArrow() {
+          final SlideSetLauncher ssl = this;
+          final List<SlideSet> selected = getSelectedSlideSets();
+          if(selected.isEmpty() || selected.size() > 1) {
+               JOptionPane.showMessageDialog(this,
+                    "Must select one table", "Slide Set", JOptionPane.ERROR_MESSAGE);
+               return;
+          }
+          final SlideSet data = selected.get(0);
+          final JFileChooser fc = new JFileChooser(data.getWorkingDirectory());
+          fc.setDialogType(JFileChooser.SAVE_DIALOG);
+          fc.setDialogTitle("Save table data as...");
+          fc.setFileFilter(new FileNameExtensionFilter("Arrow IPC / Feather (.arrow)", "arrow", "feather"));
+          fc.setSelectedFile(new File(data.getName() + ".arrow"));
+          
+          Callable<File> cSave = new Callable<File>() {
+              public File call() throws OperationCanceledException {
+                  final int r = fc.showDialog(ssl, "Save");
+                  if (r != JFileChooser.APPROVE_OPTION)
+                      throw new OperationCanceledException();
+                  return fc.getSelectedFile();
+              }
+          };
+          
+          try {
+              final FutureTask<File> ftSave = new FutureTask(cSave);
+              SwingUtilities.invokeAndWait(ftSave);
+              final File arrowFile = ftSave.get();
+              if(arrowFile == null)
+                  throw new OperationCanceledException();
+              if( arrowFile.exists() 
+                    && JOptionPane.showConfirmDialog(this, 
+                    "File exists. OK to overwrite?", 
+                    "Slide Set", JOptionPane.OK_CANCEL_OPTION)
+                    != JOptionPane.OK_OPTION )
+                  throw new OperationCanceledException();
+              final List<File> written = arrs.write(data, arrowFile);
+              log.println("\nArrow files saved:");
+              log.println("# " + data.getName());
+              for(File f : written)
+                  log.println("# " + f.getPath());
+          } catch(IOException|SlideSetException ex) {
+              SwingUtilities.invokeLater(new Runnable() {
+                  public void run() {
+                      JOptionPane.showMessageDialog(ssl, 
+                        "Error writing file: " + ex.getMessage(), "Slide Set", 
+                        JOptionPane.ERROR_MESSAGE); }
+              });
+              log.println("\nFatal Error: Unable to save file");
+              log.println("# " + ex.getMessage());
+          } catch(OperationCanceledException|InvocationTargetException|ExecutionException ex) {
+              log.println("\nArrow files not saved:");
+              log.println("# Canceled by user");
+          } catch(Exception ex) {
+              log.println("\nError: File not saved");
+              log.println("# " + ex.getMessage());
+          }
+     }
+     
      /** Export table data as a CSV file */
      private void saveCSV() {
          final SlideSetLauncher ssl = this; 
@@ -1131,6 +1303,41 @@ public class SlideSetLauncher extends JFrame
           new SlideSetPropertiesViewer(this, data).setVisible(true);
      }
      
+     /**
+      * Check the files linked in the selected table and its
+      * descendants - do not run on event thread
+      */
+     private void checkLinks() {
+          final List<SlideSet> selected = getSelectedSlideSets();
+          if(selected.isEmpty() || selected.size() > 1) {
+               JOptionPane.showMessageDialog(this,
+                    "Must select one table", "Slide Set", JOptionPane.ERROR_MESSAGE);
+               return;
+          }
+          final LinkCheckService.Report report;
+          try {
+               report = lcs.check(selected.get(0));
+          } catch(SlideSetException e) {
+               log.println("\nError: Unable to check links");
+               log.println("# " + e.getMessage());
+               return;
+          }
+          log.println("\nLink check: " + selected.get(0).getName());
+          log.println("# " + report);
+          int n = 0;
+          final int max = 200;
+          for(LinkCheckService.Problem p : report.getMissing())
+               if(n++ < max) log.println("# Missing: " + p);
+          for(LinkCheckService.Problem p : report.getUnreadable())
+               if(n++ < max) log.println("# Unreadable: " + p);
+          for(LinkCheckService.Problem p : report.getEmpty())
+               if(n++ < max) log.println("# Empty: " + p);
+          if(n > max)
+               log.println("# ... and " + (n - max) + " more");
+          JOptionPane.showMessageDialog(this, report.toString(), "Slide Set",
+               report.isOk() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+     }
+     
      /** Launch the {@code RoiEditor} */
      private void viewRois(final int ijVersion) {
           List<SlideSet> selected = getSelectedSlideSets();
@@ -4,14 +4,17 @@ import org.nanes.slideset.SlideSet;
 import org.nanes.slideset.dm.DataElement;
 import org.nanes.slideset.dm.DataTypeIDService;
 import org.nanes.slideset.dm.FileLink;
+import org.nanes.slideset.dm.FileLinkElement;
 import org.nanes.slideset.dm.MIME;
 import org.nanes.slideset.ex.SlideSetException;
+import org.nanes.slideset.io.ImageMetadataService;
 import org.nanes.slideset.io.Util;
 
 import net.imagej.ImageJ;
 
 import java.awt.Dimension;
 import java.awt.Component;
+import java.awt.Cursor;
 import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.datatransfer.DataFlavor;
@@ -239,6 +242,9 @@ public class SlideSetViewer extends JFrame
           final JMenuItem dCol = new JMenuItem("Delete");
           dCol.setActionCommand("-col/head");
           dCol.addActionListener(this);
+          final JMenuItem meta = new JMenuItem("Add Image Metadata");
+          meta.setActionCommand("meta/head");
+          meta.addActionListener(this);
           
           final JMenuItem aRow = new JMenuItem("Add Row");
           aRow.setActionCommand("+row");
@@ -249,6 +255,7 @@ public class SlideSetViewer extends JFrame
           menuColP.add(rName);
           menuColP.add(conv);
           menuColP.add(dCol);
+          menuColP.add(meta);
           menuColP.addSeparator();
           menuColP.add(aRow);
           menuColP.add(aCol);
@@ -259,6 +266,7 @@ public class SlideSetViewer extends JFrame
               rName.setEnabled(false);
               conv.setEnabled(false);
               dCol.setEnabled(false);
+              meta.setEnabled(false);
               aRow.setEnabled(false);
               aCol.setEnabled(false);
           }
@@ -283,6 +291,9 @@ public class SlideSetViewer extends JFrame
           rName.addActionListener(this);
           JMenu conv = buildElementTypeMenuTree("conv|sel");
           conv.setText("Convert");
+          JMenuItem meta = new JMenuItem("Add Image Metadata");
+          meta.setActionCommand("meta/sel");
+          meta.addActionListener(this);
           
           JMenuItem dRow = new JMenuItem("Delete Selected");
           dRow.setActionCommand("-row");
@@ -305,6 +316,7 @@ public class SlideSetViewer extends JFrame
           c.addSeparator();
           c.add(rName);
           c.add(conv);
+          c.add(meta);
           t.add(tRename);
           t.add(tProps);
           menuBar.add(r);
@@ -319,6 +331,7 @@ public class SlideSetViewer extends JFrame
               dCol.setEnabled(false);
               rName.setEnabled(false);
               conv.setEnabled(false);
+              meta.setEnabled(false);
               tRename.setEnabled(false);
           }
      }
@@ -628,6 +641,27 @@ public class SlideSetViewer extends JFrame
                     new TableModelEvent(table.getModel(), TableModelEvent.HEADER_ROW));
           }
           
+          // Add columns with the metadata of linked images
+          else if(ac.startsWith("meta/")) {
+               final String[] pac = ac.split("/");
+               final int[] cols;
+               if(pac[1].equals("sel"))
+                    cols = table.getSelectedColumns();
+               else if(pac[1].equals("head"))
+                    cols = getColumnFromHeaderEvent(e);
+               else
+                    return;
+               if(cols == null || cols.length != 1 || cols[0] < 0
+                       || !FileLinkElement.class.isAssignableFrom(
+                       data.getColumnElementType(cols[0]))) {
+                    JOptionPane.showMessageDialog(
+                         this, "Select one column of image file links",
+                         "Slide Set", JOptionPane.INFORMATION_MESSAGE);
+                    return;
+               }
+               addImageMetadata(cols[0]);
+          }
+          
           // Rename this table
           else if(ac.equals("table/rename"))
               renameTable();
@@ -671,6 +705,27 @@ public class SlideSetViewer extends JFrame
          }
      }
      
+     /** Add columns with the metadata of the images linked in a column */
+     private void addImageMetadata(int col) {
+         final List<String> errors = new ArrayList<String>();
+         setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+         try {
+             new ImageMetadataService().addMetadataColumns(data, col, errors);
+         } catch(SlideSetException ex) {
+             handleError(ex);
+         } finally {
+             setCursor(Cursor.getDefaultCursor());
+             table.tableChanged(
+                  new TableModelEvent(table.getModel(), TableModelEvent.ALL_COLUMNS));
+         }
+         for(String s : errors)
+             log.println(s);
+         if(!errors.isEmpty())
+             JOptionPane.showMessageDialog(this,
+                     String.valueOf(errors.size()) + " image(s) could not be read. See log for details.",
+                     "Slide Set", JOptionPane.WARNING_MESSAGE);
+     }
+     
      /** View this table's properties */
      private void viewTableProperties() {
          SlideSetPropertiesViewer sspv
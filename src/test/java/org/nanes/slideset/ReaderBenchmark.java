@@ -0,0 +1,101 @@
+package org.nanes.slideset;
+
+import org.nanes.slideset.dm.DataTypeIDService;
+import org.nanes.slideset.dm.FileLinkElement;
+import org.nanes.slideset.dm.MIME;
+import org.nanes.slideset.dm.read.ImageCache;
+import org.nanes.slideset.dm.read.ImageFileToDatasetReader;
+import org.nanes.slideset.dm.read.ImageFileToImagePlusReader;
+import java.io.File;
+import java.util.Arrays;
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imglib2.util.Intervals;
+import net.imglib2.type.numeric.RealType;
+import org.scijava.convert.ConvertService;
+
+/**
+ * Compares the time needed to read image files as {@code Dataset}s using
+ * the direct Bio-Formats path of {@link ImageFileToDatasetReader} and the
+ * older two-step path, which builds an {@code ImagePlus} and then converts
+ * it. Each image is read several times with each method, and every pixel
+ * of the result is visited so that lazy wrappers are counted.
+ * <p> Usage: {@code ReaderBenchmark [-n repeats] image.tif ...}
+ * <p> This is kept with the test sources, so it is not packaged in the
+ * plugin jar. Run it with the test classpath.
+ * @author Benjamin Nanes
+ */
+public class ReaderBenchmark {
+
+     /**
+      * @param args the command line arguments
+      */
+     public static void main(String[] args) throws Exception {
+          int repeats = 5;
+          int first = 0;
+          if(args.length > 1 && args[0].equals("-n")) {
+               repeats = Integer.parseInt(args[1]);
+               first = 2;
+          }
+          if(args.length <= first) {
+               System.out.println("Usage: ReaderBenchmark [-n repeats] image.tif ...");
+               return;
+          }
+          final ImageJ ij = new ImageJ();
+          final SlideSet table = new SlideSet(ij, new DataTypeIDService(ij));
+          table.addColumn("Image", FileLinkElement.class, MIME.IMAGE);
+          for(int i = first; i < args.length; i++) {
+               table.addRow();
+               table.setUnderlying(0, table.getNumRows() - 1,
+                       new File(args[i]).getAbsolutePath());
+          }
+          ImageCache.getInstance().setBudget(0); // Measure decoding, not the cache
+          final ConvertService cs = ij.get(ConvertService.class);
+          final ImageFileToImagePlusReader iftipr = new ImageFileToImagePlusReader();
+          final ImageFileToDatasetReader iftdr = new ImageFileToDatasetReader();
+          System.out.println("file\tdimensions\tchannels\ttwo-step ms\tdirect ms");
+          for(int r = 0; r < table.getNumRows(); r++) {
+               final FileLinkElement e = (FileLinkElement) table.getDataElement(0, r);
+               final long[] twoStep = new long[repeats];
+               final long[] direct = new long[repeats];
+               Dataset a = null;
+               Dataset b = null;
+               for(int k = 0; k < repeats; k++) {
+                    long t = System.nanoTime();
+                    a = cs.convert(iftipr.read(e), Dataset.class);
+                    touch(a);
+                    twoStep[k] = System.nanoTime() - t;
+                    t = System.nanoTime();
+                    b = iftdr.read(e);
+                    touch(b);
+                    direct[k] = System.nanoTime() - t;
+               }
+               System.out.println(new File(e.getUnderlying()).getName()
+                       + "\t" + Arrays.toString(Intervals.dimensionsAsLongArray(b))
+                       + "\t" + channels(a) + "/" + channels(b)
+                       + "\t" + median(twoStep) / 1000000
+                       + "\t" + median(direct) / 1000000);
+          }
+          ij.context().dispose();
+     }
+
+     private static double touch(Dataset d) {
+          double sum = 0;
+          for(RealType<?> t : d)
+               sum += t.getRealDouble();
+          return sum;
+     }
+
+     private static long channels(Dataset d) {
+          final int c = d.dimensionIndex(Axes.CHANNEL);
+          return c < 0 ? 1 : d.dimension(c);
+     }
+
+     private static long median(long[] x) {
+          final long[] s = x.clone();
+          Arrays.sort(s);
+          return s[s.length / 2];
+     }
+
+}
@@ -0,0 +1,41 @@
+package org.nanes.slideset.io;
+
+import org.nanes.slideset.io.ChunkedContainer.DatasetAttributes;
+
+import java.io.File;
+import java.io.IOException;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ChunkedImages}.
+ *
+ * @author Benjamin Nanes
+ */
+public class ChunkedImagesTest {
+
+     @Rule
+     public TemporaryFolder folder = new TemporaryFolder();
+
+     /** Pixels changed in one opened image are not seen by the next */
+     @Test
+     public void testOpenedImagesDoNotShareBlocks() throws IOException {
+          final ChunkedContainer c = ChunkedContainer.create(new File(folder.getRoot(), "test.n5"));
+          ChunkedImages.write(c, "img", ArrayImgs.unsignedBytes(8, 8), null, null, null, 1);
+          final DatasetAttributes a = c.getDatasetAttributes("img");
+          final RandomAccess<? extends RealType<?>> first = ChunkedImages.open(c, a).randomAccess();
+          first.setPosition(new long[] {3, 4});
+          first.get().setReal(7);
+          assertEquals(7, first.get().getRealDouble(), 0);
+          final RandomAccess<? extends RealType<?>> second = ChunkedImages.open(c, a).randomAccess();
+          second.setPosition(new long[] {3, 4});
+          assertEquals(0, second.get().getRealDouble(), 0);
+     }
+
+}